@@ -558,6 +558,26 @@ INSERT INTO `oms_order` VALUES (74, 11, NULL, '202305110100000006', '2023-05-11
 INSERT INTO `oms_order` VALUES (75, 11, NULL, '202305110100000007', '2023-05-11 15:35:24', 'member', 2099.00, 2099.00, 0.00, 0.00, 0.00, 0.00, 0.00, 2, 1, 3, 0, '顺丰快递', '123131311', 15, 0, 0, '无优惠', NULL, NULL, NULL, NULL, NULL, '小李', '18961511111', '518000', '广东省', '深圳市', '福田区', '东晓街道', NULL, 1, 0, NULL, '2023-05-11 15:35:26', '2023-05-11 15:36:11', '2023-05-11 15:36:34', NULL, NULL);
 INSERT INTO `oms_order` VALUES (76, 11, 28, '202305110100000008', '2023-05-11 15:37:16', 'member', 8998.00, 8698.00, 0.00, 200.00, 0.00, 100.00, 0.00, 2, 1, 3, 0, '顺丰快递', '1231313', 15, 0, 0, '无优惠;满减优惠：满2000.00元，减200.00元', NULL, NULL, NULL, NULL, NULL, '小李', '18961511111', '518000', '广东省', '深圳市', '福田区', '东晓街道', NULL, 1, 0, NULL, '2023-05-11 15:37:18', '2023-05-11 15:37:33', '2023-05-11 15:37:48', NULL, NULL);
 
+-- ----------------------------
+-- Table structure for oms_order_cancel_outbox
+-- ----------------------------
+DROP TABLE IF EXISTS `oms_order_cancel_outbox`;
+CREATE TABLE `oms_order_cancel_outbox`  (
+  `id` bigint(20) NOT NULL AUTO_INCREMENT,
+  `order_id` bigint(20) NOT NULL COMMENT '待取消的订单id',
+  `delay_times` bigint(20) NOT NULL COMMENT '消息延迟时间（毫秒）',
+  `status` int(1) NOT NULL DEFAULT 0 COMMENT '投递状态：0->待投递；1->已投递；2->投递中；3->投递失败（达到最大失败次数，排查后改回0重新投递）',
+  `retry_count` int(11) NOT NULL DEFAULT 0 COMMENT '投递失败次数',
+  `next_retry_time` datetime NULL DEFAULT NULL COMMENT '投递失败后的下次投递时间',
+  `claim_token` varchar(32) NULL DEFAULT NULL COMMENT '领取该消息的投递批次标识',
+  `claim_time` datetime NULL DEFAULT NULL COMMENT '领取时间',
+  `create_time` datetime NULL DEFAULT NULL,
+  `send_time` datetime NULL DEFAULT NULL,
+  PRIMARY KEY (`id`) USING BTREE,
+  INDEX `idx_status_id`(`status`, `id`) USING BTREE,
+  INDEX `idx_claim_token`(`claim_token`) USING BTREE
+) ENGINE = InnoDB CHARACTER SET = utf8 COLLATE = utf8_general_ci COMMENT = '取消订单延迟消息发件箱' ROW_FORMAT = DYNAMIC;
+
 -- ----------------------------
 -- Table structure for oms_order_item
 -- ----------------------------
@@ -847,6 +867,18 @@ CREATE TABLE `oms_order_setting`  (
 -- ----------------------------
 INSERT INTO `oms_order_setting` VALUES (1, 60, 120, 15, 7, 7);
 
+-- ----------------------------
+-- Table structure for oms_order_sn_segment
+-- ----------------------------
+DROP TABLE IF EXISTS `oms_order_sn_segment`;
+CREATE TABLE `oms_order_sn_segment`  (
+  `biz_type` varchar(16) NOT NULL DEFAULT 'order' COMMENT '序号类型：order->订单编号；coupon->优惠码',
+  `biz_date` varchar(8) NOT NULL COMMENT '订单编号日期部分，格式为yyyyMMdd',
+  `max_id` bigint(20) NOT NULL COMMENT '已分配的最大序号',
+  `update_time` datetime NULL DEFAULT NULL,
+  PRIMARY KEY (`biz_type`, `biz_date`) USING BTREE
+) ENGINE = InnoDB CHARACTER SET = utf8 COLLATE = utf8_general_ci COMMENT = '订单编号号段表，Redis不可用时使用' ROW_FORMAT = DYNAMIC;
+
 -- ----------------------------
 -- Table structure for pms_album
 -- ----------------------------
@@ -1505,6 +1537,23 @@ INSERT INTO `pms_product_category_attribute_relation` VALUES (7, 28, 24);
 INSERT INTO `pms_product_category_attribute_relation` VALUES (9, 25, 24);
 INSERT INTO `pms_product_category_attribute_relation` VALUES (10, 25, 25);
 
+-- ----------------------------
+-- Table structure for pms_product_change_log
+-- ----------------------------
+DROP TABLE IF EXISTS `pms_product_change_log`;
+CREATE TABLE `pms_product_change_log`  (
+  `id` bigint(20) NOT NULL AUTO_INCREMENT,
+  `product_id` bigint(20) NOT NULL COMMENT '变更的商品id',
+  `change_type` int(1) NOT NULL DEFAULT 0 COMMENT '变更类型：0->基本信息；1->全部信息（含属性、上下架及删除）',
+  `status` int(1) NOT NULL DEFAULT 0 COMMENT '同步状态：0->待同步；1->已同步；2->同步失败（达到最大失败次数，排查后改回0重新同步）',
+  `retry_count` int(11) NOT NULL DEFAULT 0 COMMENT '同步失败次数',
+  `create_time` datetime NULL DEFAULT NULL,
+  `sync_time` datetime NULL DEFAULT NULL,
+  PRIMARY KEY (`id`) USING BTREE,
+  INDEX `idx_status_id`(`status`, `id`) USING BTREE,
+  INDEX `idx_sync_time`(`sync_time`) USING BTREE
+) ENGINE = InnoDB CHARACTER SET = utf8 COLLATE = utf8_general_ci COMMENT = '商品变更记录，用于同步搜索索引' ROW_FORMAT = DYNAMIC;
+
 -- ----------------------------
 -- Table structure for pms_product_full_reduction
 -- ----------------------------
@@ -1925,6 +1974,26 @@ CREATE TABLE `sms_flash_promotion_log`  (
 -- Records of sms_flash_promotion_log
 -- ----------------------------
 
+-- ----------------------------
+-- Table structure for sms_flash_promotion_order
+-- ----------------------------
+DROP TABLE IF EXISTS `sms_flash_promotion_order`;
+CREATE TABLE `sms_flash_promotion_order`  (
+  `id` bigint(20) NOT NULL AUTO_INCREMENT,
+  `order_id` bigint(20) NOT NULL COMMENT '订单id',
+  `order_sn` varchar(64) CHARACTER SET utf8 COLLATE utf8_general_ci NOT NULL COMMENT '订单编号',
+  `member_id` bigint(20) NOT NULL COMMENT '会员id',
+  `flash_promotion_session_id` bigint(20) NOT NULL COMMENT '秒杀场次id',
+  `relation_id` bigint(20) NOT NULL COMMENT '秒杀商品关系id',
+  `quantity` int(11) NOT NULL COMMENT '购买数量',
+  `promotion_date` date NOT NULL COMMENT '场次日期',
+  `status` int(1) NOT NULL DEFAULT 0 COMMENT '状态：0->已下单；1->已退还秒杀库存',
+  `create_time` datetime NULL DEFAULT NULL,
+  PRIMARY KEY (`id`) USING BTREE,
+  UNIQUE INDEX `uk_order_sn`(`order_sn`) USING BTREE,
+  UNIQUE INDEX `uk_order_id`(`order_id`) USING BTREE
+) ENGINE = InnoDB CHARACTER SET = utf8 COLLATE = utf8_general_ci COMMENT = '秒杀订单记录' ROW_FORMAT = DYNAMIC;
+
 -- ----------------------------
 -- Table structure for sms_flash_promotion_product_relation
 -- ----------------------------
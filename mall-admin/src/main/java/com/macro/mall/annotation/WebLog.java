@@ -14,4 +14,9 @@ public @interface WebLog {
      * 操作描述
      */
     String description() default "";
+    
+    /**
+     * 参数采集方式：none、summary、json，为空时使用web.log.capture.mode配置
+     */
+    String capture() default "";
 }
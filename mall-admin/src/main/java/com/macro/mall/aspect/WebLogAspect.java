@@ -1,50 +1,82 @@
 package com.macro.mall.aspect;
 
 import cn.hutool.core.util.StrUtil;
-import cn.hutool.core.util.URLUtil;
-import cn.hutool.json.JSONUtil;
 import com.macro.mall.annotation.WebLog;
+import com.macro.mall.aspect.capture.WebLogMethodMeta;
+import com.macro.mall.aspect.capture.WebLogParamCapture;
 import com.macro.mall.common.util.RequestUtil;
 import com.macro.mall.model.SysWebLog;
 import com.macro.mall.service.SysWebLogService;
-import io.jsonwebtoken.Claims;
-import io.jsonwebtoken.Jwts;
-import org.aspectj.lang.JoinPoint;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.aspectj.lang.ProceedingJoinPoint;
-import org.aspectj.lang.Signature;
 import org.aspectj.lang.annotation.*;
 import org.aspectj.lang.reflect.MethodSignature;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.DefaultParameterNameDiscoverer;
+import org.springframework.core.ParameterNameDiscoverer;
+import org.springframework.security.authentication.AnonymousAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Component;
+import org.springframework.util.ReflectionUtils;
+import org.springframework.validation.BindingResult;
 import org.springframework.web.context.request.RequestContextHolder;
 import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.multipart.MultipartFile;
 
+import javax.annotation.PostConstruct;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServletRequest;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.lang.reflect.Method;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 /**
  * 统一日志处理切面
+ * 方法的描述、参数名称、采集策略等元数据只解析一次并缓存，
+ * 请求线程中只采集参数引用，参数的渲染在日志写入前进行；用户名从已认证的SecurityContext中获取
  */
 @Aspect
 @Component
 public class WebLogAspect {
     private static final Logger LOGGER = LoggerFactory.getLogger(WebLogAspect.class);
+    private static final String ANONYMOUS = "anonymous";
+    private static final Class<?>[] UNLOGGABLE_TYPES = {ServletRequest.class, ServletResponse.class,
+            MultipartFile.class, MultipartFile[].class, BindingResult.class, InputStream.class, OutputStream.class};
+    private final ParameterNameDiscoverer parameterNameDiscoverer = new DefaultParameterNameDiscoverer();
+    private final Map<Method, WebLogMethodMeta> metaCache = new ConcurrentHashMap<>();
+    private final Map<String, WebLogParamCapture> captureMap = new HashMap<>();
     
     @Autowired
     private SysWebLogService sysWebLogService;
     
-    @Value("${jwt.secret}")
-    private String secret;
+    @Autowired
+    private List<WebLogParamCapture> captureList;
     
-    @Value("${jwt.tokenHeader}")
-    private String tokenHeader;
+    @Autowired
+    private MeterRegistry meterRegistry;
     
-    @Value("${jwt.tokenHead}")
-    private String tokenHead;
+    @Value("${web.log.capture.mode:summary}")
+    private String captureMode;
+
+    @PostConstruct
+    public void init() {
+        for (WebLogParamCapture capture : captureList) {
+            captureMap.put(capture.getMode(), capture);
+        }
+    }
 
     @Pointcut("@annotation(com.macro.mall.annotation.WebLog)")
     public void webLog() {
@@ -56,162 +88,111 @@ public class WebLogAspect {
         //获取当前请求对象
         ServletRequestAttributes attributes = (ServletRequestAttributes) RequestContextHolder.getRequestAttributes();
         HttpServletRequest request = attributes.getRequest();
-        //记录请求信息
-        SysWebLog webLog = new SysWebLog();
         Object result = joinPoint.proceed();
         long endTime = System.currentTimeMillis();
-        Signature signature = joinPoint.getSignature();
-        MethodSignature methodSignature = (MethodSignature) signature;
-        Method method = methodSignature.getMethod();
-        if (method.isAnnotationPresent(WebLog.class)) {
-            WebLog webLogAnnotation = method.getAnnotation(WebLog.class);
-            webLog.setDescription(webLogAnnotation.description());
-        }
-        String urlStr = request.getRequestURL().toString();
+        long captureStart = System.nanoTime();
+        Method method = ((MethodSignature) joinPoint.getSignature()).getMethod();
+        WebLogMethodMeta meta = metaCache.computeIfAbsent(method, this::resolveMeta);
+        Object[] args = joinPoint.getArgs();
+        //记录请求信息
+        SysWebLog webLog = new SysWebLog();
+        webLog.setDescription(meta.getDescription());
         webLog.setMethod(request.getMethod());
-        webLog.setParams(getParameter(method, joinPoint.getArgs()));
+        webLog.setParamsSupplier(timed(meta, meta.getCapture().capture(meta, args)));
         webLog.setCreateTime(new Date());
         webLog.setSpendTime((int) (endTime - startTime));
         webLog.setIp(RequestUtil.getRequestIp(request));
-        webLog.setUsername(getCurrentUsername(request, joinPoint.getArgs()));
+        webLog.setUsername(getCurrentUsername(request, meta, args));
+        meta.getCaptureTimer().record(System.nanoTime() - captureStart, TimeUnit.NANOSECONDS);
         //异步保存日志到数据库
         sysWebLogService.saveAsync(webLog);
-        LOGGER.info("{}", JSONUtil.parse(webLog));
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("{} {} {} {}ms", webLog.getUsername(), webLog.getMethod(), webLog.getDescription(), webLog.getSpendTime());
+        }
         return result;
     }
 
-    /**
-     * 根据方法和传入的参数获取请求参数
-     */
-    private String getParameter(Method method, Object[] args) {
-        StringBuilder sb = new StringBuilder();
-        String[] parameterNames = new String[method.getParameterCount()];
-        for (int i = 0; i < method.getParameterCount(); i++) {
-            parameterNames[i] = "arg" + i;
-        }
-        if (args != null && parameterNames != null) {
-            for (int i = 0; i < args.length; i++) {
-                sb.append(parameterNames[i]).append(": ").append(JSONUtil.toJsonStr(args[i])).append("; ");
-            }
-        }
-        return sb.toString();
+    private Supplier<String> timed(WebLogMethodMeta meta, Supplier<String> supplier) {
+        return () -> meta.getRenderTimer().record(supplier);
     }
 
     /**
-     * 获取当前登录用户名
-     * 优先从Token中获取，如果获取不到则尝试从请求参数中提取
+     * 解析方法元数据
      */
-    private String getCurrentUsername(HttpServletRequest request, Object[] args) {
-        // 1. 优先尝试从Token中获取用户名
-        String token = request.getHeader(tokenHeader);
-        if (token != null && token.startsWith(tokenHead)) {
-            token = token.substring(tokenHead.length());
+    private WebLogMethodMeta resolveMeta(Method method) {
+        WebLog annotation = method.getAnnotation(WebLog.class);
+        String mode = annotation == null || StrUtil.isEmpty(annotation.capture()) ? captureMode : annotation.capture();
+        WebLogParamCapture capture = captureMap.get(mode);
+        if (capture == null) {
+            LOGGER.warn("未找到参数采集方式：{}，改为使用none", mode);
+            mode = "none";
+            capture = captureMap.get(mode);
         }
-        if (StrUtil.isNotEmpty(token)) {
-            try {
-                Claims claims = Jwts.parser()
-                        .setSigningKey(secret)
-                        .parseClaimsJws(token)
-                        .getBody();
-                String username = claims.getSubject();
-                if (StrUtil.isNotEmpty(username) && !"anonymous".equals(username)) {
-                    return username;
-                }
-            } catch (Exception e) {
-                LOGGER.debug("JWT token解析失败，尝试从请求参数中获取用户名", e);
+        Class<?>[] parameterTypes = method.getParameterTypes();
+        String[] parameterNames = parameterNameDiscoverer.getParameterNames(method);
+        if (parameterNames == null) {
+            parameterNames = new String[parameterTypes.length];
+            for (int i = 0; i < parameterTypes.length; i++) {
+                parameterNames[i] = "arg" + i;
             }
         }
-        
-        // 2. Token获取失败时，尝试从请求参数中获取用户名
-        String usernameFromParams = extractUsernameFromRequest(request);
-        if (StrUtil.isNotEmpty(usernameFromParams)) {
-            return usernameFromParams;
-        }
-        
-        // 3. 从方法参数中提取用户名
-        String usernameFromArgs = extractUsernameFromArgs(args);
-        if (StrUtil.isNotEmpty(usernameFromArgs)) {
-            return usernameFromArgs;
+        boolean[] loggable = new boolean[parameterTypes.length];
+        int usernameIndex = -1;
+        Method usernameGetter = null;
+        for (int i = 0; i < parameterTypes.length; i++) {
+            loggable[i] = isLoggable(parameterTypes[i]);
+            if (usernameIndex == -1 && loggable[i] && !BeanUtils.isSimpleValueType(parameterTypes[i])) {
+                Method getter = ReflectionUtils.findMethod(parameterTypes[i], "getUsername");
+                if (getter != null && getter.getReturnType() == String.class) {
+                    usernameIndex = i;
+                    usernameGetter = getter;
+                }
+            }
         }
-        
-        return "anonymous";
+        String description = annotation == null ? null : annotation.description();
+        return new WebLogMethodMeta(description, parameterNames, loggable, usernameIndex, usernameGetter, capture,
+                meterRegistry.timer("mall.weblog.capture", "mode", mode),
+                meterRegistry.timer("mall.weblog.render", "mode", mode));
     }
-    
-    /**
-     * 从请求参数中提取用户名
-     * 支持表单参数和JSON参数
-     */
-    private String extractUsernameFromRequest(HttpServletRequest request) {
-        try {
-            // 1. 尝试从表单参数中获取
-            String username = request.getParameter("username");
-            if (StrUtil.isNotEmpty(username)) {
-                LOGGER.debug("从表单参数中获取到用户名: {}", username);
-                return username;
+
+    private static boolean isLoggable(Class<?> type) {
+        for (Class<?> unloggableType : UNLOGGABLE_TYPES) {
+            if (unloggableType.isAssignableFrom(type)) {
+                return false;
             }
-            
-            // 2. 尝试从请求体中获取（针对JSON请求）
-            // 注意：这里只是示例，实际项目中可能需要根据具体的请求体格式来解析
-            // 由于HttpServletRequest的输入流只能读取一次，这里采用更安全的方式
-            
-        } catch (Exception e) {
-            LOGGER.debug("从请求参数中提取用户名失败", e);
         }
-        
-        return null;
+        return true;
     }
-    
+
     /**
-     * 从方法参数中提取用户名
-     * 当Token无法获取用户名时，尝试从方法参数中提取
+     * 获取当前登录用户名
+     * 优先从SecurityContext中获取，登录、注册等未认证的请求从请求参数中提取
      */
-    private String extractUsernameFromArgs(Object[] args) {
-        if (args == null || args.length == 0) {
-            return null;
+    private String getCurrentUsername(HttpServletRequest request, WebLogMethodMeta meta, Object[] args) {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication != null && authentication.isAuthenticated()
+                && !(authentication instanceof AnonymousAuthenticationToken)
+                && StrUtil.isNotEmpty(authentication.getName())) {
+            return authentication.getName();
         }
-        
-        try {
-            // 遍历所有参数，寻找包含username字段的对象
-            for (Object arg : args) {
-                if (arg == null) {
-                    continue;
-                }
-                
-                // 尝试将参数转换为JSON并提取username
-                String jsonStr = JSONUtil.toJsonStr(arg);
-                if (StrUtil.isNotEmpty(jsonStr) && jsonStr.contains("username")) {
-                    try {
-                        cn.hutool.json.JSONObject jsonObject = JSONUtil.parseObj(jsonStr);
-                        if (jsonObject.containsKey("username")) {
-                            String username = jsonObject.getStr("username");
-                            if (StrUtil.isNotEmpty(username)) {
-                                LOGGER.debug("从方法参数中提取到用户名: {}", username);
-                                return username;
-                            }
-                        }
-                    } catch (Exception e) {
-                        LOGGER.debug("解析参数JSON失败: {}", jsonStr, e);
-                    }
-                }
-                
-                // 尝试通过反射获取username字段
+        String username = request.getParameter("username");
+        if (StrUtil.isNotEmpty(username)) {
+            return username;
+        }
+        if (meta.getUsernameIndex() >= 0 && meta.getUsernameIndex() < args.length) {
+            Object arg = args[meta.getUsernameIndex()];
+            if (arg != null) {
                 try {
-                    java.lang.reflect.Field usernameField = arg.getClass().getDeclaredField("username");
-                    usernameField.setAccessible(true);
-                    Object usernameValue = usernameField.get(arg);
-                    if (usernameValue != null && StrUtil.isNotEmpty(usernameValue.toString())) {
-                        LOGGER.debug("通过反射从参数中提取到用户名: {}", usernameValue);
-                        return usernameValue.toString();
-                    }
+                    username = (String) meta.getUsernameGetter().invoke(arg);
                 } catch (Exception e) {
-                    // 忽略反射异常，继续尝试其他参数
+                    LOGGER.debug("从方法参数中提取用户名失败", e);
+                }
+                if (StrUtil.isNotEmpty(username)) {
+                    return username;
                 }
             }
-        } catch (Exception e) {
-            LOGGER.debug("从方法参数中提取用户名失败", e);
         }
-        
-        return null;
+        return ANONYMOUS;
     }
 
 }
@@ -0,0 +1,42 @@
+package com.macro.mall.aspect.capture;
+
+import cn.hutool.json.JSONUtil;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.function.Supplier;
+
+/**
+ * 将参数完整序列化为JSON，结果超过长度上限时截断
+ */
+@Component
+public class JsonParamCapture implements WebLogParamCapture {
+    @Value("${web.log.capture.maxLength:2000}")
+    private Integer MAX_LENGTH;
+
+    @Override
+    public String getMode() {
+        return "json";
+    }
+
+    @Override
+    public Supplier<String> capture(WebLogMethodMeta meta, Object[] args) {
+        Object[] snapshot = args.clone();
+        return () -> render(meta, snapshot);
+    }
+
+    private String render(WebLogMethodMeta meta, Object[] args) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < args.length && sb.length() <= MAX_LENGTH; i++) {
+            if (!meta.isLoggable(i)) {
+                continue;
+            }
+            sb.append(meta.getParameterName(i)).append(": ").append(JSONUtil.toJsonStr(args[i])).append("; ");
+        }
+        if (sb.length() > MAX_LENGTH) {
+            sb.setLength(MAX_LENGTH);
+            sb.append("...");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,23 @@
+package com.macro.mall.aspect.capture;
+
+import org.springframework.stereotype.Component;
+
+import java.util.function.Supplier;
+
+/**
+ * 不记录请求参数
+ */
+@Component
+public class NoneParamCapture implements WebLogParamCapture {
+    private static final Supplier<String> EMPTY = () -> null;
+
+    @Override
+    public String getMode() {
+        return "none";
+    }
+
+    @Override
+    public Supplier<String> capture(WebLogMethodMeta meta, Object[] args) {
+        return EMPTY;
+    }
+}
@@ -0,0 +1,200 @@
+package com.macro.mall.aspect.capture;
+
+import cn.hutool.core.date.DateUtil;
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * 按长度上限生成参数摘要
+ * 对象通过缓存的getter方法展开有限层级，集合只输出前几个元素和总数，
+ * 密码等敏感属性以掩码代替，达到长度上限后不再继续遍历
+ */
+@Component
+public class SummaryParamCapture implements WebLogParamCapture {
+    private static final String MASK = "******";
+    private static final String[] SENSITIVE_NAMES = {"password", "secret", "token"};
+    @Value("${web.log.capture.maxLength:2000}")
+    private Integer MAX_LENGTH;
+    @Value("${web.log.capture.maxElements:10}")
+    private Integer MAX_ELEMENTS;
+    @Value("${web.log.capture.maxDepth:2}")
+    private Integer MAX_DEPTH;
+    private final Map<Class<?>, List<Property>> propertyCache = new ConcurrentHashMap<>();
+
+    @Override
+    public String getMode() {
+        return "summary";
+    }
+
+    @Override
+    public Supplier<String> capture(WebLogMethodMeta meta, Object[] args) {
+        Object[] snapshot = args.clone();
+        return () -> render(meta, snapshot);
+    }
+
+    private String render(WebLogMethodMeta meta, Object[] args) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < args.length && !isFull(sb); i++) {
+            if (!meta.isLoggable(i)) {
+                continue;
+            }
+            sb.append(meta.getParameterName(i)).append(": ");
+            appendValue(sb, args[i], 0);
+            sb.append("; ");
+        }
+        if (isFull(sb)) {
+            sb.setLength(MAX_LENGTH);
+            sb.append("...");
+        }
+        return sb.toString();
+    }
+
+    private void appendValue(StringBuilder sb, Object value, int depth) {
+        if (isFull(sb)) {
+            return;
+        }
+        if (value == null) {
+            sb.append("null");
+        } else if (value instanceof CharSequence) {
+            CharSequence str = (CharSequence) value;
+            sb.append(str, 0, Math.min(str.length(), MAX_LENGTH - sb.length() + 1));
+        } else if (value instanceof Number || value instanceof Boolean || value instanceof Character || value instanceof Enum) {
+            sb.append(value);
+        } else if (value instanceof Date) {
+            sb.append(DateUtil.formatDateTime((Date) value));
+        } else if (value.getClass().isArray()) {
+            int length = Array.getLength(value);
+            sb.append('[');
+            for (int i = 0; i < length && i < MAX_ELEMENTS && !isFull(sb); i++) {
+                if (i > 0) {
+                    sb.append(", ");
+                }
+                appendValue(sb, Array.get(value, i), depth + 1);
+            }
+            appendSize(sb, length).append(']');
+        } else if (value instanceof Collection) {
+            Collection<?> collection = (Collection<?>) value;
+            sb.append('[');
+            int i = 0;
+            for (Object element : collection) {
+                if (i >= MAX_ELEMENTS || isFull(sb)) {
+                    break;
+                }
+                if (i++ > 0) {
+                    sb.append(", ");
+                }
+                appendValue(sb, element, depth + 1);
+            }
+            appendSize(sb, collection.size()).append(']');
+        } else if (value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            sb.append('{');
+            int i = 0;
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                if (i >= MAX_ELEMENTS || isFull(sb)) {
+                    break;
+                }
+                if (i++ > 0) {
+                    sb.append(", ");
+                }
+                String key = String.valueOf(entry.getKey());
+                sb.append(key).append('=');
+                if (isSensitive(key)) {
+                    sb.append(MASK);
+                } else {
+                    appendValue(sb, entry.getValue(), depth + 1);
+                }
+            }
+            appendSize(sb, map.size()).append('}');
+        } else if (depth >= MAX_DEPTH) {
+            sb.append(value.getClass().getSimpleName());
+        } else {
+            appendBean(sb, value, depth);
+        }
+    }
+
+    private void appendBean(StringBuilder sb, Object bean, int depth) {
+        List<Property> properties = propertyCache.computeIfAbsent(bean.getClass(), SummaryParamCapture::resolveProperties);
+        if (properties.isEmpty()) {
+            sb.append(bean);
+            return;
+        }
+        sb.append('{');
+        for (int i = 0; i < properties.size() && !isFull(sb); i++) {
+            Property property = properties.get(i);
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(property.name).append('=');
+            if (property.sensitive) {
+                sb.append(MASK);
+                continue;
+            }
+            try {
+                appendValue(sb, property.getter.invoke(bean), depth + 1);
+            } catch (Exception e) {
+                sb.append('?');
+            }
+        }
+        sb.append('}');
+    }
+
+    private StringBuilder appendSize(StringBuilder sb, int size) {
+        if (size > MAX_ELEMENTS) {
+            sb.append(", ...(").append(size).append(')');
+        }
+        return sb;
+    }
+
+    private boolean isFull(StringBuilder sb) {
+        return sb.length() > MAX_LENGTH;
+    }
+
+    private static List<Property> resolveProperties(Class<?> clazz) {
+        List<Property> properties = new ArrayList<>();
+        for (PropertyDescriptor descriptor : BeanUtils.getPropertyDescriptors(clazz)) {
+            Method getter = descriptor.getReadMethod();
+            if (getter == null || getter.getDeclaringClass() == Object.class) {
+                continue;
+            }
+            getter.setAccessible(true);
+            properties.add(new Property(descriptor.getName(), getter, isSensitive(descriptor.getName())));
+        }
+        return properties;
+    }
+
+    private static boolean isSensitive(String name) {
+        String lowerName = name.toLowerCase(Locale.ROOT);
+        for (String sensitiveName : SENSITIVE_NAMES) {
+            if (lowerName.contains(sensitiveName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static class Property {
+        private final String name;
+        private final Method getter;
+        private final boolean sensitive;
+
+        private Property(String name, Method getter, boolean sensitive) {
+            this.name = name;
+            this.getter = getter;
+            this.sensitive = sensitive;
+        }
+    }
+}
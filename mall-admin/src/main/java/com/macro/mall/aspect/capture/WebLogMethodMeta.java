@@ -0,0 +1,66 @@
+package com.macro.mall.aspect.capture;
+
+import io.micrometer.core.instrument.Timer;
+import lombok.Getter;
+
+import java.lang.reflect.Method;
+
+/**
+ * 记录操作日志的方法元数据，每个方法只解析一次
+ */
+@Getter
+public class WebLogMethodMeta {
+    /**
+     * 操作描述
+     */
+    private final String description;
+    /**
+     * 参数名称
+     */
+    private final String[] parameterNames;
+    /**
+     * 参数是否需要记录，请求、响应、文件等参数不记录
+     */
+    private final boolean[] loggable;
+    /**
+     * 可提取用户名的参数下标，没有时为-1
+     */
+    private final int usernameIndex;
+    /**
+     * 用户名参数的getter方法
+     */
+    private final Method usernameGetter;
+    /**
+     * 参数采集策略
+     */
+    private final WebLogParamCapture capture;
+    /**
+     * 请求线程中采集参数的耗时
+     */
+    private final Timer captureTimer;
+    /**
+     * 写入前渲染参数的耗时
+     */
+    private final Timer renderTimer;
+
+    public WebLogMethodMeta(String description, String[] parameterNames, boolean[] loggable,
+                            int usernameIndex, Method usernameGetter, WebLogParamCapture capture,
+                            Timer captureTimer, Timer renderTimer) {
+        this.description = description;
+        this.parameterNames = parameterNames;
+        this.loggable = loggable;
+        this.usernameIndex = usernameIndex;
+        this.usernameGetter = usernameGetter;
+        this.capture = capture;
+        this.captureTimer = captureTimer;
+        this.renderTimer = renderTimer;
+    }
+
+    public String getParameterName(int index) {
+        return index < parameterNames.length ? parameterNames[index] : "arg" + index;
+    }
+
+    public boolean isLoggable(int index) {
+        return index < loggable.length && loggable[index];
+    }
+}
@@ -0,0 +1,20 @@
+package com.macro.mall.aspect.capture;
+
+import java.util.function.Supplier;
+
+/**
+ * 操作日志参数采集策略
+ * 在请求线程中只做采集，返回的结果在日志写入前才会被渲染为字符串
+ */
+public interface WebLogParamCapture {
+
+    /**
+     * 采集方式名称，对应web.log.capture.mode配置及@WebLog的capture属性
+     */
+    String getMode();
+
+    /**
+     * 采集方法参数
+     */
+    Supplier<String> capture(WebLogMethodMeta meta, Object[] args);
+}
@@ -2,10 +2,11 @@ package com.macro.mall.bo;
 
 import com.macro.mall.model.UmsAdmin;
 import com.macro.mall.model.UmsResource;
+import com.macro.mall.security.component.ResourceUserDetails;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
-import org.springframework.security.core.userdetails.UserDetails;
 
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.List;
 import java.util.stream.Collectors;
@@ -14,15 +15,21 @@ import java.util.stream.Collectors;
  * SpringSecurity需要的用户信息封装类
  * Created by macro on 2018/4/26.
  */
-public class AdminUserDetails implements UserDetails {
+public class AdminUserDetails implements ResourceUserDetails {
     //后台用户
     private final UmsAdmin umsAdmin;
     //拥有资源列表
     private final List<UmsResource> resourceList;
+    //拥有资源位图，下标为资源id
+    private final BitSet resourceBitSet;
 
     public AdminUserDetails(UmsAdmin umsAdmin,List<UmsResource> resourceList) {
         this.umsAdmin = umsAdmin;
         this.resourceList = resourceList;
+        this.resourceBitSet = new BitSet();
+        for (UmsResource resource : resourceList) {
+            resourceBitSet.set(resource.getId().intValue());
+        }
     }
 
     @Override
@@ -33,6 +40,11 @@ public class AdminUserDetails implements UserDetails {
                 .collect(Collectors.toList());
     }
 
+    @Override
+    public BitSet getResourceBitSet() {
+        return resourceBitSet;
+    }
+
     @Override
     public String getPassword() {
         return umsAdmin.getPassword();
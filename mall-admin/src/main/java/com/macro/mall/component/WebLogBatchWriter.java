@@ -0,0 +1,392 @@
+package com.macro.mall.component;
+
+import cn.hutool.json.JSONUtil;
+import com.macro.mall.dao.SysWebLogDao;
+import com.macro.mall.model.SysWebLog;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * 操作日志批量写入器
+ * 请求线程只把日志放入有界无锁环形队列，由单个后台线程在攒够一批或到达时间间隔时合并为多行插入；
+ * 队列已满时按配置丢弃或写入本地溢出文件，溢出文件在队列空闲时回放入库，应用关闭前会写完队列中的日志
+ */
+@Component
+public class WebLogBatchWriter {
+    private static final Logger LOGGER = LoggerFactory.getLogger(WebLogBatchWriter.class);
+    private static final String POLICY_SPILL = "spill";
+    private static final String SPILL_FILE = "web-log-spill.jsonl";
+    private static final String REPLAY_FILE = "web-log-replay.jsonl";
+    @Autowired
+    private SysWebLogDao sysWebLogDao;
+    @Autowired
+    private MeterRegistry meterRegistry;
+    @Value("${web.log.queueCapacity:8192}")
+    private Integer QUEUE_CAPACITY;
+    @Value("${web.log.batchSize:200}")
+    private Integer BATCH_SIZE;
+    @Value("${web.log.flushInterval:1000}")
+    private Long FLUSH_INTERVAL;
+    @Value("${web.log.overflow:drop}")
+    private String OVERFLOW_POLICY;
+    @Value("${web.log.spill.dir:logs/web-log}")
+    private String SPILL_DIR;
+    @Value("${web.log.spill.maxFileSize:64}")
+    private Long SPILL_MAX_FILE_SIZE;
+    private RingBuffer<SysWebLog> queue;
+    private Thread flusher;
+    private volatile boolean running;
+    private final Object spillLock = new Object();
+    private BufferedWriter spillWriter;
+    private long spillBytes;
+    private volatile boolean spillPending;
+    private DistributionSummary batchSizeSummary;
+    private Counter writtenCounter;
+    private Counter droppedCounter;
+    private Counter spilledCounter;
+    private Counter failedCounter;
+
+    @PostConstruct
+    public void init() {
+        queue = new RingBuffer<>(QUEUE_CAPACITY);
+        meterRegistry.gauge("mall.weblog.queue.size", queue, RingBuffer::size);
+        batchSizeSummary = meterRegistry.summary("mall.weblog.batch.size");
+        writtenCounter = meterRegistry.counter("mall.weblog.records", "result", "written");
+        droppedCounter = meterRegistry.counter("mall.weblog.records", "result", "dropped");
+        spilledCounter = meterRegistry.counter("mall.weblog.records", "result", "spilled");
+        failedCounter = meterRegistry.counter("mall.weblog.records", "result", "failed");
+        spillPending = Files.exists(spillPath(SPILL_FILE)) || Files.exists(spillPath(REPLAY_FILE));
+        running = true;
+        flusher = new Thread(this::runFlusher, "web-log-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    @PreDestroy
+    public void destroy() {
+        running = false;
+        LockSupport.unpark(flusher);
+        try {
+            flusher.join(TimeUnit.SECONDS.toMillis(30));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        //后台线程未能按时结束时由关闭线程写完剩余日志
+        if (flusher.isAlive()) {
+            LOGGER.warn("操作日志写入线程未能按时结束，剩余日志数：{}", queue.size());
+        } else {
+            drainAll();
+        }
+        synchronized (spillLock) {
+            closeSpillWriter();
+        }
+    }
+
+    /**
+     * 提交一条操作日志，不会阻塞调用线程
+     */
+    public void submit(SysWebLog webLog) {
+        if (!running || !queue.offer(webLog)) {
+            overflow(webLog);
+            return;
+        }
+        if (queue.size() >= BATCH_SIZE) {
+            LockSupport.unpark(flusher);
+        }
+    }
+
+    private void runFlusher() {
+        List<SysWebLog> batch = new ArrayList<>(BATCH_SIZE);
+        long intervalNanos = TimeUnit.MILLISECONDS.toNanos(FLUSH_INTERVAL);
+        long deadline = System.nanoTime() + intervalNanos;
+        while (running) {
+            queue.drainTo(batch, BATCH_SIZE - batch.size());
+            long now = System.nanoTime();
+            if (batch.size() >= BATCH_SIZE || (now - deadline >= 0 && !batch.isEmpty())) {
+                write(batch);
+                batch.clear();
+                deadline = now + intervalNanos;
+                continue;
+            }
+            if (batch.isEmpty()) {
+                if (spillPending && queue.size() == 0) {
+                    replaySpill();
+                }
+                deadline = now + intervalNanos;
+            }
+            LockSupport.parkNanos(this, Math.max(deadline - now, 1));
+        }
+        if (!batch.isEmpty()) {
+            write(batch);
+        }
+        drainAll();
+    }
+
+    /**
+     * 写完队列中的全部日志
+     */
+    private void drainAll() {
+        List<SysWebLog> batch = new ArrayList<>(BATCH_SIZE);
+        while (queue.drainTo(batch, BATCH_SIZE) > 0) {
+            write(batch);
+            batch.clear();
+        }
+    }
+
+    private void write(List<SysWebLog> batch) {
+        for (SysWebLog webLog : batch) {
+            renderParams(webLog);
+        }
+        try {
+            sysWebLogDao.insertList(batch);
+            batchSizeSummary.record(batch.size());
+            writtenCounter.increment(batch.size());
+        } catch (Exception e) {
+            LOGGER.error("批量保存操作日志失败，数量：{}，原因：{}", batch.size(), e.getMessage());
+            failedCounter.increment(batch.size());
+            for (SysWebLog webLog : batch) {
+                overflow(webLog);
+            }
+        }
+    }
+
+    /**
+     * 队列已满或写入失败时按配置的策略处理
+     */
+    private void overflow(SysWebLog webLog) {
+        if (POLICY_SPILL.equals(OVERFLOW_POLICY) && spill(webLog)) {
+            spilledCounter.increment();
+        } else {
+            droppedCounter.increment();
+        }
+    }
+
+    /**
+     * 渲染延迟采集的请求参数
+     */
+    private void renderParams(SysWebLog webLog) {
+        Supplier<String> supplier = webLog.getParamsSupplier();
+        if (supplier == null) {
+            return;
+        }
+        webLog.setParamsSupplier(null);
+        try {
+            webLog.setParams(supplier.get());
+        } catch (Exception e) {
+            LOGGER.warn("渲染操作日志参数失败，原因：{}", e.getMessage());
+        }
+    }
+
+    private boolean spill(SysWebLog webLog) {
+        renderParams(webLog);
+        String line = JSONUtil.toJsonStr(webLog);
+        synchronized (spillLock) {
+            try {
+                if (spillWriter == null) {
+                    Path path = spillPath(SPILL_FILE);
+                    Files.createDirectories(path.getParent());
+                    spillBytes = Files.exists(path) ? Files.size(path) : 0;
+                    spillWriter = Files.newBufferedWriter(path, StandardCharsets.UTF_8,
+                            StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                }
+                if (spillBytes >= SPILL_MAX_FILE_SIZE * 1024 * 1024) {
+                    return false;
+                }
+                spillWriter.write(line);
+                spillWriter.newLine();
+                spillWriter.flush();
+                spillBytes += line.length() + 1;
+                spillPending = true;
+                return true;
+            } catch (IOException e) {
+                LOGGER.warn("操作日志写入溢出文件失败，原因：{}", e.getMessage());
+                closeSpillWriter();
+                return false;
+            }
+        }
+    }
+
+    /**
+     * 回放溢出文件：先将其改名，之后的溢出日志写入新文件，回放失败时保留未写入的部分等待下次回放
+     */
+    private void replaySpill() {
+        Path replayPath = spillPath(REPLAY_FILE);
+        synchronized (spillLock) {
+            Path spillPath = spillPath(SPILL_FILE);
+            if (!Files.exists(replayPath) && Files.exists(spillPath)) {
+                closeSpillWriter();
+                try {
+                    Files.move(spillPath, replayPath, StandardCopyOption.ATOMIC_MOVE);
+                } catch (IOException e) {
+                    LOGGER.warn("操作日志溢出文件改名失败，原因：{}", e.getMessage());
+                    return;
+                }
+            }
+            spillPending = false;
+        }
+        if (!Files.exists(replayPath)) {
+            return;
+        }
+        List<String> remaining = new ArrayList<>();
+        List<SysWebLog> batch = new ArrayList<>(BATCH_SIZE);
+        int replayed = 0;
+        try (BufferedReader reader = Files.newBufferedReader(replayPath, StandardCharsets.UTF_8)) {
+            List<String> lines = new ArrayList<>(BATCH_SIZE);
+            String line;
+            boolean failed = false;
+            while ((line = reader.readLine()) != null) {
+                if (failed) {
+                    remaining.add(line);
+                    continue;
+                }
+                if (line.isEmpty()) {
+                    continue;
+                }
+                try {
+                    batch.add(JSONUtil.toBean(line, SysWebLog.class));
+                } catch (Exception e) {
+                    LOGGER.warn("跳过无法解析的操作日志：{}", line);
+                    continue;
+                }
+                lines.add(line);
+                if (batch.size() >= BATCH_SIZE) {
+                    failed = !replayBatch(batch, lines, remaining);
+                    replayed += failed ? 0 : batch.size();
+                    batch.clear();
+                    lines.clear();
+                }
+            }
+            if (!batch.isEmpty() && !failed) {
+                failed = !replayBatch(batch, lines, remaining);
+                replayed += failed ? 0 : batch.size();
+            }
+        } catch (Exception e) {
+            LOGGER.warn("回放操作日志溢出文件失败，原因：{}", e.getMessage());
+            spillPending = true;
+            return;
+        }
+        try {
+            if (remaining.isEmpty()) {
+                Files.delete(replayPath);
+            } else {
+                Files.write(replayPath, remaining, StandardCharsets.UTF_8);
+                spillPending = true;
+            }
+        } catch (IOException e) {
+            LOGGER.warn("更新操作日志溢出文件失败，原因：{}", e.getMessage());
+            spillPending = true;
+        }
+        if (replayed > 0) {
+            LOGGER.info("已回放操作日志溢出文件，数量：{}", replayed);
+        }
+    }
+
+    private boolean replayBatch(List<SysWebLog> batch, List<String> lines, List<String> remaining) {
+        try {
+            sysWebLogDao.insertList(batch);
+            batchSizeSummary.record(batch.size());
+            writtenCounter.increment(batch.size());
+            return true;
+        } catch (Exception e) {
+            LOGGER.warn("回放操作日志失败，原因：{}", e.getMessage());
+            remaining.addAll(lines);
+            return false;
+        }
+    }
+
+    private void closeSpillWriter() {
+        if (spillWriter != null) {
+            try {
+                spillWriter.close();
+            } catch (IOException e) {
+                LOGGER.warn("关闭操作日志溢出文件失败，原因：{}", e.getMessage());
+            }
+            spillWriter = null;
+        }
+    }
+
+    private Path spillPath(String fileName) {
+        return Paths.get(SPILL_DIR + File.separator + fileName);
+    }
+
+    /**
+     * 多生产者单消费者的有界环形队列
+     * 生产者通过CAS领取序号后写入槽位，消费者按序号顺序读取，槽位尚未写入时视为暂无数据
+     */
+    static class RingBuffer<E> {
+        private final AtomicReferenceArray<E> slots;
+        private final int mask;
+        private final AtomicLong head = new AtomicLong();
+        private final AtomicLong tail = new AtomicLong();
+
+        RingBuffer(int capacity) {
+            int size = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+            this.slots = new AtomicReferenceArray<>(size);
+            this.mask = size - 1;
+        }
+
+        boolean offer(E element) {
+            while (true) {
+                long current = tail.get();
+                if (current - head.get() > mask) {
+                    return false;
+                }
+                if (tail.compareAndSet(current, current + 1)) {
+                    slots.lazySet((int) (current & mask), element);
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * 仅由单个消费线程调用
+         */
+        int drainTo(List<E> target, int max) {
+            int count = 0;
+            long current = head.get();
+            while (count < max) {
+                int index = (int) (current & mask);
+                E element = slots.get(index);
+                if (element == null) {
+                    break;
+                }
+                slots.lazySet(index, null);
+                target.add(element);
+                current++;
+                count++;
+            }
+            head.set(current);
+            return count;
+        }
+
+        int size() {
+            return (int) Math.max(tail.get() - head.get(), 0);
+        }
+    }
+}
@@ -1,52 +0,0 @@
-package com.macro.mall.config;
-
-import org.springframework.context.annotation.Bean;
-import org.springframework.context.annotation.Configuration;
-import org.springframework.scheduling.annotation.EnableAsync;
-import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
-
-import java.util.concurrent.Executor;
-import java.util.concurrent.ThreadPoolExecutor;
-
-/**
- * 异步任务配置类
- */
-@Configuration
-@EnableAsync
-public class AsyncConfig {
-
-    /**
-     * 日志异步处理线程池
-     */
-    @Bean("logTaskExecutor")
-    public Executor logTaskExecutor() {
-        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
-        
-        // 核心线程数：CPU核心数
-        executor.setCorePoolSize(Runtime.getRuntime().availableProcessors());
-        
-        // 最大线程数：核心线程数的2倍
-        executor.setMaxPoolSize(Runtime.getRuntime().availableProcessors() * 2);
-        
-        // 队列容量：200个任务
-        executor.setQueueCapacity(200);
-        
-        // 线程名称前缀
-        executor.setThreadNamePrefix("log-async-");
-        
-        // 线程空闲时间：60秒
-        executor.setKeepAliveSeconds(60);
-        
-        // 拒绝策略：由调用线程处理
-        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
-        
-        // 等待所有任务结束后再关闭线程池
-        executor.setWaitForTasksToCompleteOnShutdown(true);
-        
-        // 等待时间：60秒
-        executor.setAwaitTerminationSeconds(60);
-        
-        executor.initialize();
-        return executor;
-    }
-}
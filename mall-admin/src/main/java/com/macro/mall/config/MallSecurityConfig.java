@@ -2,6 +2,7 @@ package com.macro.mall.config;
 
 import com.macro.mall.model.UmsResource;
 import com.macro.mall.security.component.DynamicSecurityService;
+import com.macro.mall.security.component.ResourceConfigAttribute;
 import com.macro.mall.service.UmsAdminService;
 import com.macro.mall.service.UmsResourceService;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -40,7 +41,7 @@ public class MallSecurityConfig {
                 Map<String, ConfigAttribute> map = new ConcurrentHashMap<>();
                 List<UmsResource> resourceList = resourceService.listAll();
                 for (UmsResource resource : resourceList) {
-                    map.put(resource.getUrl(), new org.springframework.security.access.SecurityConfig(resource.getId() + ":" + resource.getName()));
+                    map.put(resource.getUrl(), new ResourceConfigAttribute(resource.getId().intValue(), resource.getId() + ":" + resource.getName()));
                 }
                 return map;
             }
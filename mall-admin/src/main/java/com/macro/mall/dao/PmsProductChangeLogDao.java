@@ -0,0 +1,35 @@
+package com.macro.mall.dao;
+
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
+
+/**
+ * 商品变更记录自定义Dao
+ * 与商品修改在同一事务中写入，由搜索服务读取后同步到索引
+ */
+public interface PmsProductChangeLogDao {
+    /**
+     * 变更类型：基本信息
+     */
+    int TYPE_BASE = 0;
+    /**
+     * 变更类型：全部信息（含属性、上下架及删除）
+     */
+    int TYPE_FULL = 1;
+
+    /**
+     * 批量写入商品变更记录
+     */
+    int insertList(@Param("productIds") List<Long> productIds, @Param("changeType") Integer changeType);
+
+    /**
+     * 写入指定品牌下所有商品的变更记录
+     */
+    int insertByBrandId(@Param("brandId") Long brandId, @Param("changeType") Integer changeType);
+
+    /**
+     * 写入指定分类下所有商品的变更记录
+     */
+    int insertByCategoryId(@Param("productCategoryId") Long productCategoryId, @Param("changeType") Integer changeType);
+}
@@ -18,6 +18,11 @@ public interface SysWebLogDao {
      */
     int insert(SysWebLog record);
     
+    /**
+     * 批量插入操作日志
+     */
+    int insertList(@Param("list") List<SysWebLog> list);
+    
     /**
      * 根据ID查询操作日志
      */
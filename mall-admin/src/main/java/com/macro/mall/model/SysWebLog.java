@@ -1,8 +1,10 @@
 package com.macro.mall.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.Data;
 
 import java.util.Date;
+import java.util.function.Supplier;
 
 /**
  * 后台操作日志实体类
@@ -45,4 +47,10 @@ public class SysWebLog {
      * 消耗时间(毫秒)
      */
     private Integer spendTime;
+    
+    /**
+     * 延迟渲染的请求参数，写入前转换为params
+     */
+    @JsonIgnore
+    private transient Supplier<String> paramsSupplier;
 }
@@ -0,0 +1,13 @@
+package com.macro.mall.service;
+
+import java.util.List;
+
+/**
+ * 商品缓存管理Service
+ */
+public interface PmsProductCacheService {
+    /**
+     * 商品促销规则（价格、sku、打折、满减等）改变时通知前台淘汰本地促销规则索引
+     */
+    void delPromotionRule(List<Long> productIds);
+}
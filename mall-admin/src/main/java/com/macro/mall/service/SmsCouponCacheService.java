@@ -0,0 +1,23 @@
+package com.macro.mall.service;
+
+import com.macro.mall.model.SmsCoupon;
+
+/**
+ * 优惠券缓存管理Service
+ */
+public interface SmsCouponCacheService {
+    /**
+     * 优惠券使用规则改变时使前台缓存的会员优惠券失效
+     */
+    void delCouponRule();
+
+    /**
+     * 优惠券数量、限领数量或领取时间改变时更新前台的领取计数，保留会员已领取的数量
+     */
+    void updateCouponClaim(SmsCoupon coupon);
+
+    /**
+     * 删除优惠券时删除前台的领取计数
+     */
+    void delCouponClaim(Long couponId);
+}
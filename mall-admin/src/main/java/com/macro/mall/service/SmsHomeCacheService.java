@@ -0,0 +1,11 @@
+package com.macro.mall.service;
+
+/**
+ * 首页内容缓存管理Service
+ */
+public interface SmsHomeCacheService {
+    /**
+     * 首页广告、推荐及秒杀活动等改变时通知前台重建首页内容快照
+     */
+    void delHomeContent();
+}
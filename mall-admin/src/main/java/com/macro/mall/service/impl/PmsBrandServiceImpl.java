@@ -2,6 +2,7 @@ package com.macro.mall.service.impl;
 
 import cn.hutool.core.util.StrUtil;
 import com.github.pagehelper.PageHelper;
+import com.macro.mall.dao.PmsProductChangeLogDao;
 import com.macro.mall.dto.PmsBrandParam;
 import com.macro.mall.mapper.PmsBrandMapper;
 import com.macro.mall.mapper.PmsProductMapper;
@@ -26,6 +27,8 @@ public class PmsBrandServiceImpl implements PmsBrandService {
     private PmsBrandMapper brandMapper;
     @Autowired
     private PmsProductMapper productMapper;
+    @Autowired
+    private PmsProductChangeLogDao productChangeLogDao;
 
     @Override
     public List<PmsBrand> listAllBrand() {
@@ -58,6 +61,7 @@ public class PmsBrandServiceImpl implements PmsBrandService {
         PmsProductExample example = new PmsProductExample();
         example.createCriteria().andBrandIdEqualTo(id);
         productMapper.updateByExampleSelective(product,example);
+        productChangeLogDao.insertByBrandId(id, PmsProductChangeLogDao.TYPE_BASE);
         return brandMapper.updateByPrimaryKeySelective(pmsBrand);
     }
 
@@ -0,0 +1,53 @@
+package com.macro.mall.service.impl;
+
+import cn.hutool.core.collection.CollUtil;
+import cn.hutool.core.util.StrUtil;
+import com.macro.mall.service.PmsProductCacheService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.List;
+
+/**
+ * 商品缓存管理Service实现类
+ */
+@Service
+public class PmsProductCacheServiceImpl implements PmsProductCacheService {
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+    @Value("${redis.database}")
+    private String REDIS_DATABASE;
+    @Value("${redis.key.promotionRule}")
+    private String REDIS_KEY_PROMOTION_RULE;
+
+    @Override
+    public void delPromotionRule(List<Long> productIds) {
+        if (CollUtil.isEmpty(productIds)) {
+            return;
+        }
+        //事务提交后再通知，避免前台在提交前重新加载到旧数据
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    publish(productIds);
+                }
+            });
+        } else {
+            publish(productIds);
+        }
+    }
+
+    /**
+     * 递增版本号并发布变更的商品id，消息格式为：版本号:商品id,商品id
+     */
+    private void publish(List<Long> productIds) {
+        String prefix = REDIS_DATABASE + ":" + REDIS_KEY_PROMOTION_RULE;
+        Long version = stringRedisTemplate.opsForValue().increment(prefix + ":version");
+        stringRedisTemplate.convertAndSend(prefix + ":channel", version + ":" + StrUtil.join(",", productIds));
+    }
+}
@@ -5,10 +5,12 @@ import com.macro.mall.dao.PmsSkuStockDao;
 import com.macro.mall.mapper.PmsSkuStockMapper;
 import com.macro.mall.model.PmsSkuStock;
 import com.macro.mall.model.PmsSkuStockExample;
+import com.macro.mall.service.PmsProductCacheService;
 import com.macro.mall.service.PmsSkuStockService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -22,6 +24,8 @@ public class PmsSkuStockServiceImpl implements PmsSkuStockService {
     private PmsSkuStockMapper skuStockMapper;
     @Autowired
     private PmsSkuStockDao skuStockDao;
+    @Autowired
+    private PmsProductCacheService productCacheService;
 
     @Override
     public List<PmsSkuStock> getList(Long pid, String keyword) {
@@ -38,6 +42,8 @@ public class PmsSkuStockServiceImpl implements PmsSkuStockService {
         List<PmsSkuStock> filterSkuList = skuStockList.stream()
                 .filter(item -> pid.equals(item.getProductId()))
                 .collect(Collectors.toList());
-        return skuStockDao.replaceList(filterSkuList);
+        int count = skuStockDao.replaceList(filterSkuList);
+        productCacheService.delPromotionRule(Collections.singletonList(pid));
+        return count;
     }
 }
@@ -0,0 +1,82 @@
+package com.macro.mall.service.impl;
+
+import com.macro.mall.model.SmsCoupon;
+import com.macro.mall.service.SmsCouponCacheService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Collections;
+
+/**
+ * 优惠券缓存管理Service实现类
+ */
+@Service
+public class SmsCouponCacheServiceImpl implements SmsCouponCacheService {
+    /**
+     * 领取计数已加载时更新剩余数量、每人限领数量及领取开始时间
+     */
+    private static final DefaultRedisScript<Long> UPDATE_CLAIM_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('EXISTS', KEYS[1]) == 0 then\n" +
+            "    return 0\n" +
+            "end\n" +
+            "redis.call('HSET', KEYS[1], 'remain', ARGV[1], 'perLimit', ARGV[2], 'enableTime', ARGV[3])\n" +
+            "return 1", Long.class);
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+    @Value("${redis.database}")
+    private String REDIS_DATABASE;
+    @Value("${redis.key.coupon}")
+    private String REDIS_KEY_COUPON;
+
+    @Override
+    public void delCouponRule() {
+        //事务提交后再递增，避免前台在提交前缓存到旧规则
+        afterCommit(this::increaseVersion);
+    }
+
+    @Override
+    public void updateCouponClaim(SmsCoupon coupon) {
+        String count = String.valueOf(coupon.getCount() == null ? 0 : coupon.getCount());
+        String perLimit = String.valueOf(coupon.getPerLimit() == null ? 1 : coupon.getPerLimit());
+        String enableTime = String.valueOf(coupon.getEnableTime() == null ? 0 : coupon.getEnableTime().getTime());
+        afterCommit(() -> stringRedisTemplate.execute(UPDATE_CLAIM_SCRIPT,
+                Collections.singletonList(claimKey(coupon.getId())), count, perLimit, enableTime));
+    }
+
+    @Override
+    public void delCouponClaim(Long couponId) {
+        afterCommit(() -> stringRedisTemplate.delete(claimKey(couponId)));
+    }
+
+    /**
+     * 在当前事务提交后执行，无事务时立即执行
+     */
+    private void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+
+    /**
+     * 递增版本号，前台缓存的会员优惠券版本号不一致时重新加载
+     */
+    private void increaseVersion() {
+        stringRedisTemplate.opsForValue().increment(REDIS_DATABASE + ":" + REDIS_KEY_COUPON + ":version");
+    }
+
+    private String claimKey(Long couponId) {
+        return REDIS_DATABASE + ":" + REDIS_KEY_COUPON + ":claim:" + couponId;
+    }
+}
@@ -10,6 +10,7 @@ import com.macro.mall.mapper.SmsCouponMapper;
 import com.macro.mall.mapper.SmsCouponProductCategoryRelationMapper;
 import com.macro.mall.mapper.SmsCouponProductRelationMapper;
 import com.macro.mall.model.*;
+import com.macro.mall.service.SmsCouponCacheService;
 import com.macro.mall.service.SmsCouponService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
@@ -34,6 +35,8 @@ public class SmsCouponServiceImpl implements SmsCouponService {
     private SmsCouponProductCategoryRelationDao productCategoryRelationDao;
     @Autowired
     private SmsCouponDao couponDao;
+    @Autowired
+    private SmsCouponCacheService couponCacheService;
     @Override
     public int create(SmsCouponParam couponParam) {
         couponParam.setCount(couponParam.getPublishCount());
@@ -66,6 +69,8 @@ public class SmsCouponServiceImpl implements SmsCouponService {
         deleteProductRelation(id);
         //删除商品分类关联
         deleteProductCategoryRelation(id);
+        couponCacheService.delCouponRule();
+        couponCacheService.delCouponClaim(id);
         return count;
     }
 
@@ -101,6 +106,8 @@ public class SmsCouponServiceImpl implements SmsCouponService {
             deleteProductCategoryRelation(id);
             productCategoryRelationDao.insertList(couponParam.getProductCategoryRelationList());
         }
+        couponCacheService.delCouponRule();
+        couponCacheService.updateCouponClaim(couponParam);
         return count;
     }
 
@@ -6,6 +6,7 @@ import com.macro.mall.mapper.SmsHomeBrandMapper;
 import com.macro.mall.model.SmsHomeBrand;
 import com.macro.mall.model.SmsHomeBrandExample;
 import com.macro.mall.service.SmsHomeBrandService;
+import com.macro.mall.service.SmsHomeCacheService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
@@ -19,6 +20,8 @@ import java.util.List;
 public class SmsHomeBrandServiceImpl implements SmsHomeBrandService {
     @Autowired
     private SmsHomeBrandMapper homeBrandMapper;
+    @Autowired
+    private SmsHomeCacheService homeCacheService;
     @Override
     public int create(List<SmsHomeBrand> homeBrandList) {
         for (SmsHomeBrand smsHomeBrand : homeBrandList) {
@@ -26,7 +29,9 @@ public class SmsHomeBrandServiceImpl implements SmsHomeBrandService {
             smsHomeBrand.setSort(0);
             homeBrandMapper.insert(smsHomeBrand);
         }
-        return homeBrandList.size();
+        int count = homeBrandList.size();
+        homeCacheService.delHomeContent();
+        return count;
     }
 
     @Override
@@ -34,14 +39,18 @@ public class SmsHomeBrandServiceImpl implements SmsHomeBrandService {
         SmsHomeBrand homeBrand = new SmsHomeBrand();
         homeBrand.setId(id);
         homeBrand.setSort(sort);
-        return homeBrandMapper.updateByPrimaryKeySelective(homeBrand);
+        int count = homeBrandMapper.updateByPrimaryKeySelective(homeBrand);
+        homeCacheService.delHomeContent();
+        return count;
     }
 
     @Override
     public int delete(List<Long> ids) {
         SmsHomeBrandExample example = new SmsHomeBrandExample();
         example.createCriteria().andIdIn(ids);
-        return homeBrandMapper.deleteByExample(example);
+        int count = homeBrandMapper.deleteByExample(example);
+        homeCacheService.delHomeContent();
+        return count;
     }
 
     @Override
@@ -50,7 +59,9 @@ public class SmsHomeBrandServiceImpl implements SmsHomeBrandService {
         example.createCriteria().andIdIn(ids);
         SmsHomeBrand record = new SmsHomeBrand();
         record.setRecommendStatus(recommendStatus);
-        return homeBrandMapper.updateByExampleSelective(record,example);
+        int count = homeBrandMapper.updateByExampleSelective(record,example);
+        homeCacheService.delHomeContent();
+        return count;
     }
 
     @Override
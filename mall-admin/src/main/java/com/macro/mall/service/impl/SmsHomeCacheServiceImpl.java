@@ -0,0 +1,46 @@
+package com.macro.mall.service.impl;
+
+import com.macro.mall.service.SmsHomeCacheService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * 首页内容缓存管理Service实现类
+ */
+@Service
+public class SmsHomeCacheServiceImpl implements SmsHomeCacheService {
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+    @Value("${redis.database}")
+    private String REDIS_DATABASE;
+    @Value("${redis.key.homeContent}")
+    private String REDIS_KEY_HOME_CONTENT;
+
+    @Override
+    public void delHomeContent() {
+        //事务提交后再通知，避免前台在提交前重建到旧数据
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    publish();
+                }
+            });
+        } else {
+            publish();
+        }
+    }
+
+    /**
+     * 递增版本号并发布，消息内容为版本号
+     */
+    private void publish() {
+        String prefix = REDIS_DATABASE + ":" + REDIS_KEY_HOME_CONTENT;
+        Long version = stringRedisTemplate.opsForValue().increment(prefix + ":version");
+        stringRedisTemplate.convertAndSend(prefix + ":channel", String.valueOf(version));
+    }
+}
@@ -5,6 +5,7 @@ import com.github.pagehelper.PageHelper;
 import com.macro.mall.mapper.SmsHomeNewProductMapper;
 import com.macro.mall.model.SmsHomeNewProduct;
 import com.macro.mall.model.SmsHomeNewProductExample;
+import com.macro.mall.service.SmsHomeCacheService;
 import com.macro.mall.service.SmsHomeNewProductService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
@@ -19,6 +20,8 @@ import java.util.List;
 public class SmsHomeNewProductServiceImpl implements SmsHomeNewProductService {
     @Autowired
     private SmsHomeNewProductMapper homeNewProductMapper;
+    @Autowired
+    private SmsHomeCacheService homeCacheService;
     @Override
     public int create(List<SmsHomeNewProduct> homeNewProductList) {
         for (SmsHomeNewProduct SmsHomeNewProduct : homeNewProductList) {
@@ -26,7 +29,9 @@ public class SmsHomeNewProductServiceImpl implements SmsHomeNewProductService {
             SmsHomeNewProduct.setSort(0);
             homeNewProductMapper.insert(SmsHomeNewProduct);
         }
-        return homeNewProductList.size();
+        int count = homeNewProductList.size();
+        homeCacheService.delHomeContent();
+        return count;
     }
 
     @Override
@@ -34,14 +39,18 @@ public class SmsHomeNewProductServiceImpl implements SmsHomeNewProductService {
         SmsHomeNewProduct homeNewProduct = new SmsHomeNewProduct();
         homeNewProduct.setId(id);
         homeNewProduct.setSort(sort);
-        return homeNewProductMapper.updateByPrimaryKeySelective(homeNewProduct);
+        int count = homeNewProductMapper.updateByPrimaryKeySelective(homeNewProduct);
+        homeCacheService.delHomeContent();
+        return count;
     }
 
     @Override
     public int delete(List<Long> ids) {
         SmsHomeNewProductExample example = new SmsHomeNewProductExample();
         example.createCriteria().andIdIn(ids);
-        return homeNewProductMapper.deleteByExample(example);
+        int count = homeNewProductMapper.deleteByExample(example);
+        homeCacheService.delHomeContent();
+        return count;
     }
 
     @Override
@@ -50,7 +59,9 @@ public class SmsHomeNewProductServiceImpl implements SmsHomeNewProductService {
         example.createCriteria().andIdIn(ids);
         SmsHomeNewProduct record = new SmsHomeNewProduct();
         record.setRecommendStatus(recommendStatus);
-        return homeNewProductMapper.updateByExampleSelective(record,example);
+        int count = homeNewProductMapper.updateByExampleSelective(record,example);
+        homeCacheService.delHomeContent();
+        return count;
     }
 
     @Override
@@ -5,6 +5,7 @@ import com.github.pagehelper.PageHelper;
 import com.macro.mall.mapper.SmsHomeRecommendSubjectMapper;
 import com.macro.mall.model.SmsHomeRecommendSubject;
 import com.macro.mall.model.SmsHomeRecommendSubjectExample;
+import com.macro.mall.service.SmsHomeCacheService;
 import com.macro.mall.service.SmsHomeRecommendSubjectService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
@@ -19,6 +20,8 @@ import java.util.List;
 public class SmsHomeRecommendSubjectServiceImpl implements SmsHomeRecommendSubjectService {
     @Autowired
     private SmsHomeRecommendSubjectMapper smsHomeRecommendSubjectMapper;
+    @Autowired
+    private SmsHomeCacheService homeCacheService;
     @Override
     public int create(List<SmsHomeRecommendSubject> recommendSubjectList) {
         for (SmsHomeRecommendSubject recommendSubject : recommendSubjectList) {
@@ -26,7 +29,9 @@ public class SmsHomeRecommendSubjectServiceImpl implements SmsHomeRecommendSubje
             recommendSubject.setSort(0);
             smsHomeRecommendSubjectMapper.insert(recommendSubject);
         }
-        return recommendSubjectList.size();
+        int count = recommendSubjectList.size();
+        homeCacheService.delHomeContent();
+        return count;
     }
 
     @Override
@@ -34,14 +39,18 @@ public class SmsHomeRecommendSubjectServiceImpl implements SmsHomeRecommendSubje
         SmsHomeRecommendSubject recommendSubject = new SmsHomeRecommendSubject();
         recommendSubject.setId(id);
         recommendSubject.setSort(sort);
-        return smsHomeRecommendSubjectMapper.updateByPrimaryKeySelective(recommendSubject);
+        int count = smsHomeRecommendSubjectMapper.updateByPrimaryKeySelective(recommendSubject);
+        homeCacheService.delHomeContent();
+        return count;
     }
 
     @Override
     public int delete(List<Long> ids) {
         SmsHomeRecommendSubjectExample example = new SmsHomeRecommendSubjectExample();
         example.createCriteria().andIdIn(ids);
-        return smsHomeRecommendSubjectMapper.deleteByExample(example);
+        int count = smsHomeRecommendSubjectMapper.deleteByExample(example);
+        homeCacheService.delHomeContent();
+        return count;
     }
 
     @Override
@@ -50,7 +59,9 @@ public class SmsHomeRecommendSubjectServiceImpl implements SmsHomeRecommendSubje
         example.createCriteria().andIdIn(ids);
         SmsHomeRecommendSubject record = new SmsHomeRecommendSubject();
         record.setRecommendStatus(recommendStatus);
-        return smsHomeRecommendSubjectMapper.updateByExampleSelective(record,example);
+        int count = smsHomeRecommendSubjectMapper.updateByExampleSelective(record,example);
+        homeCacheService.delHomeContent();
+        return count;
     }
 
     @Override
@@ -1,12 +1,12 @@
 package com.macro.mall.service.impl;
 
+import com.macro.mall.component.WebLogBatchWriter;
 import com.macro.mall.dao.SysWebLogDao;
 import com.macro.mall.model.SysWebLog;
 import com.macro.mall.service.SysWebLogService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 
 import java.util.HashMap;
@@ -25,21 +25,18 @@ public class SysWebLogServiceImpl implements SysWebLogService {
     @Autowired
     private SysWebLogDao sysWebLogDao;
     
+    @Autowired
+    private WebLogBatchWriter webLogBatchWriter;
+    
     @Override
     public int save(SysWebLog webLog) {
         return sysWebLogDao.insert(webLog);
     }
     
     @Override
-    @Async("logTaskExecutor")
     public CompletableFuture<Void> saveAsync(SysWebLog webLog) {
-        try {
-            sysWebLogDao.insert(webLog);
-            LOGGER.debug("异步保存操作日志成功，用户：{}，操作：{}", webLog.getUsername(), webLog.getDescription());
-        } catch (Exception e) {
-            LOGGER.error("异步保存操作日志失败，用户：{}，操作：{}，错误：{}", 
-                webLog.getUsername(), webLog.getDescription(), e.getMessage(), e);
-        }
+        //放入批量写入队列后立即返回，由后台线程合并写入
+        webLogBatchWriter.submit(webLog);
         return CompletableFuture.completedFuture(null);
     }
     
@@ -0,0 +1,196 @@
+package com.macro.mall.component;
+
+import com.macro.mall.dao.SysWebLogDao;
+import com.macro.mall.model.SysWebLog;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 操作日志批量写入器单元测试：环形队列及溢出文件的写入与回放
+ */
+public class WebLogBatchWriterTests {
+    private final List<SysWebLog> insertedList = new CopyOnWriteArrayList<>();
+    private volatile boolean dbDown;
+
+    @Test
+    public void testRingBufferCapacity() {
+        //容量向上取整为2的幂
+        WebLogBatchWriter.RingBuffer<Integer> buffer = new WebLogBatchWriter.RingBuffer<>(3);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(buffer.offer(i));
+        }
+        assertFalse(buffer.offer(4));
+        assertEquals(4, buffer.size());
+        List<Integer> target = new ArrayList<>();
+        assertEquals(2, buffer.drainTo(target, 2));
+        assertEquals(Arrays.asList(0, 1), target);
+        //读取后的槽位可以再次写入
+        assertTrue(buffer.offer(4));
+        assertTrue(buffer.offer(5));
+        assertFalse(buffer.offer(6));
+        target.clear();
+        assertEquals(4, buffer.drainTo(target, 10));
+        assertEquals(Arrays.asList(2, 3, 4, 5), target);
+        assertEquals(0, buffer.drainTo(target, 10));
+        assertEquals(0, buffer.size());
+    }
+
+    @Test
+    public void testRingBufferConcurrentProducers() throws InterruptedException {
+        WebLogBatchWriter.RingBuffer<Integer> buffer = new WebLogBatchWriter.RingBuffer<>(64);
+        int producerCount = 4;
+        int perProducer = 50000;
+        CountDownLatch done = new CountDownLatch(producerCount);
+        for (int p = 0; p < producerCount; p++) {
+            int base = p * perProducer;
+            new Thread(() -> {
+                for (int i = 0; i < perProducer; i++) {
+                    while (!buffer.offer(base + i)) {
+                        Thread.yield();
+                    }
+                }
+                done.countDown();
+            }).start();
+        }
+        //每个元素恰好被读取一次，且同一生产者的元素保持顺序
+        boolean[] received = new boolean[producerCount * perProducer];
+        int[] lastOfProducer = new int[producerCount];
+        Arrays.fill(lastOfProducer, -1);
+        List<Integer> target = new ArrayList<>();
+        int count = 0;
+        while (count < received.length) {
+            target.clear();
+            buffer.drainTo(target, 32);
+            for (Integer value : target) {
+                assertFalse(received[value], String.valueOf(value));
+                received[value] = true;
+                int producer = value / perProducer;
+                assertTrue(value > lastOfProducer[producer], String.valueOf(value));
+                lastOfProducer[producer] = value;
+                count++;
+            }
+            if (target.isEmpty()) {
+                Thread.yield();
+            }
+        }
+        done.await();
+        assertEquals(0, buffer.size());
+    }
+
+    @Test
+    public void testSpillAndReplay() throws Exception {
+        Path dir = Files.createTempDirectory("web-log");
+        WebLogBatchWriter writer = createWriter(dir);
+        try {
+            dbDown = true;
+            for (int i = 0; i < 10; i++) {
+                writer.submit(webLog(i));
+            }
+            //写入失败的日志进入溢出文件，回放失败时保留在待回放文件中
+            Path spillFile = dir.resolve("web-log-spill.jsonl");
+            Path replayFile = dir.resolve("web-log-replay.jsonl");
+            waitFor(() -> lineCount(spillFile) + lineCount(replayFile) == 10);
+            assertTrue(insertedList.isEmpty());
+            dbDown = false;
+            //数据库恢复后在队列空闲时回放溢出文件
+            waitFor(() -> insertedList.size() == 10);
+            waitFor(() -> !Files.exists(spillFile) && !Files.exists(replayFile));
+            List<String> descriptions = new ArrayList<>();
+            for (SysWebLog webLog : insertedList) {
+                descriptions.add(webLog.getDescription());
+            }
+            Collections.sort(descriptions);
+            assertEquals(Arrays.asList("log0", "log1", "log2", "log3", "log4", "log5", "log6", "log7", "log8", "log9"), descriptions);
+        } finally {
+            writer.destroy();
+        }
+    }
+
+    @Test
+    public void testDestroyDrainsQueue() throws Exception {
+        WebLogBatchWriter writer = createWriter(Files.createTempDirectory("web-log"));
+        for (int i = 0; i < 50; i++) {
+            writer.submit(webLog(i));
+        }
+        writer.destroy();
+        assertEquals(50, insertedList.size());
+    }
+
+    private WebLogBatchWriter createWriter(Path spillDir) {
+        WebLogBatchWriter writer = new WebLogBatchWriter();
+        setField(writer, "sysWebLogDao", Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{SysWebLogDao.class},
+                (proxy, method, args) -> {
+                    if ("insertList".equals(method.getName())) {
+                        if (dbDown) {
+                            throw new IllegalStateException("db down");
+                        }
+                        @SuppressWarnings("unchecked")
+                        List<SysWebLog> list = (List<SysWebLog>) args[0];
+                        insertedList.addAll(list);
+                        return list.size();
+                    }
+                    return null;
+                }));
+        setField(writer, "meterRegistry", new SimpleMeterRegistry());
+        setField(writer, "QUEUE_CAPACITY", 64);
+        setField(writer, "BATCH_SIZE", 4);
+        setField(writer, "FLUSH_INTERVAL", 20L);
+        setField(writer, "OVERFLOW_POLICY", "spill");
+        setField(writer, "SPILL_DIR", spillDir.toString());
+        setField(writer, "SPILL_MAX_FILE_SIZE", 1L);
+        writer.init();
+        return writer;
+    }
+
+    private static SysWebLog webLog(int i) {
+        SysWebLog webLog = new SysWebLog();
+        webLog.setUsername("admin");
+        webLog.setDescription("log" + i);
+        webLog.setParamsSupplier(() -> "{\"id\":" + i + "}");
+        return webLog;
+    }
+
+    private static long lineCount(Path path) {
+        try {
+            return Files.exists(path) ? Files.readAllLines(path, StandardCharsets.UTF_8).size() : 0;
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "等待超时");
+            Thread.sleep(10);
+        }
+    }
+
+    private static void setField(Object target, String name, Object value) {
+        try {
+            Field field = target.getClass().getDeclaredField(name);
+            field.setAccessible(true);
+            field.set(target, value);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.macro.mall.portal.component;
+
+import cn.hutool.core.date.DateUtil;
+import cn.hutool.core.util.IdUtil;
+import com.macro.mall.portal.dao.OmsOrderCancelOutboxDao;
+import com.macro.mall.portal.domain.OmsOrderCancelOutbox;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.AmqpConnectException;
+import org.springframework.amqp.AmqpTimeoutException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * 取消订单消息发件箱的投递任务
+ * 订单事务内只写入发件箱，由该任务批量投递到延迟队列；
+ * 各节点通过条件更新原子领取消息后再投递，同一条消息同一时间只由一个节点投递，
+ * 领取后超时未完成的消息会重新开放领取，此时仍可能重复投递，由cancelOrder按订单状态保证幂等；
+ * 投递失败的消息按失败次数退避，达到最大次数后标记为投递失败并告警，broker不可用时整体暂停投递且不计失败次数
+ */
+@Component
+@ConditionalOnProperty(prefix = "order.timeout", name = "mode", havingValue = "mq", matchIfMissing = true)
+public class CancelOrderOutboxRelay {
+    private static final Logger LOGGER = LoggerFactory.getLogger(CancelOrderOutboxRelay.class);
+    @Autowired
+    private OmsOrderCancelOutboxDao outboxDao;
+    @Autowired
+    private CancelOrderSender cancelOrderSender;
+    @Value("${rabbitmq.outbox.batchSize:200}")
+    private Integer BATCH_SIZE;
+    @Value("${rabbitmq.outbox.confirmTimeout:5000}")
+    private Long CONFIRM_TIMEOUT;
+    @Value("${rabbitmq.outbox.claimTimeout:60000}")
+    private Long CLAIM_TIMEOUT;
+    @Value("${rabbitmq.outbox.keepDays:3}")
+    private Integer KEEP_DAYS;
+    @Value("${rabbitmq.outbox.maxRetry:10}")
+    private Integer MAX_RETRY;
+    @Value("${rabbitmq.outbox.retryDelay:5}")
+    private Long RETRY_DELAY;
+    @Value("${rabbitmq.outbox.maxRetryDelay:600}")
+    private Long MAX_RETRY_DELAY;
+    /**
+     * broker不可用时暂停投递，在此时间之前不领取消息
+     */
+    private long pauseUntil;
+    private int pauseCount;
+
+    /**
+     * 持续投递直到发件箱中没有待投递消息，投递失败时等待下次调度重试
+     */
+    @Scheduled(fixedDelayString = "${rabbitmq.outbox.relayInterval:1000}")
+    private void relay() {
+        if (System.currentTimeMillis() < pauseUntil) {
+            return;
+        }
+        int resetCount = outboxDao.resetExpiredClaim(new Date(System.currentTimeMillis() - CLAIM_TIMEOUT));
+        if (resetCount > 0) {
+            LOGGER.warn("取消订单消息领取后超时未投递，重新投递，数量：{}", resetCount);
+        }
+        while (true) {
+            //每个批次使用新的标识，只处理本批次领取到的消息
+            String claimToken = IdUtil.fastSimpleUUID();
+            int claimCount = outboxDao.claimPending(claimToken, BATCH_SIZE);
+            if (claimCount == 0) {
+                return;
+            }
+            List<OmsOrderCancelOutbox> outboxList = outboxDao.listClaimed(claimToken);
+            try {
+                cancelOrderSender.sendMessages(outboxList, CONFIRM_TIMEOUT);
+            } catch (Exception e) {
+                if (isBrokerUnavailable(e)) {
+                    pause(claimToken, e);
+                } else {
+                    LOGGER.warn("批量投递取消订单消息失败，改为逐条投递，数量：{}，原因：{}", outboxList.size(), e.getMessage());
+                    sendEach(claimToken, outboxList);
+                }
+                return;
+            }
+            pauseCount = 0;
+            outboxDao.updateSent(claimToken);
+            if (claimCount < BATCH_SIZE) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 逐条投递，隔离导致整批失败的消息，只对投递失败的消息累加失败次数
+     */
+    private void sendEach(String claimToken, List<OmsOrderCancelOutbox> outboxList) {
+        List<Long> sentIds = new ArrayList<>();
+        List<OmsOrderCancelOutbox> failedList = new ArrayList<>();
+        for (OmsOrderCancelOutbox outbox : outboxList) {
+            try {
+                cancelOrderSender.sendMessages(Collections.singletonList(outbox), CONFIRM_TIMEOUT);
+                sentIds.add(outbox.getId());
+            } catch (Exception e) {
+                if (isBrokerUnavailable(e)) {
+                    if (!sentIds.isEmpty()) {
+                        outboxDao.updateSentByIds(claimToken, sentIds);
+                    }
+                    pause(claimToken, e);
+                    return;
+                }
+                LOGGER.warn("投递取消订单消息失败，订单id：{}，失败次数：{}，原因：{}", outbox.getOrderId(), outbox.getRetryCount() + 1, e.getMessage());
+                failedList.add(outbox);
+            }
+        }
+        if (!sentIds.isEmpty()) {
+            outboxDao.updateSentByIds(claimToken, sentIds);
+        }
+        if (!failedList.isEmpty()) {
+            outboxDao.retryClaim(claimToken, MAX_RETRY, RETRY_DELAY, MAX_RETRY_DELAY);
+            List<Long> failedOrderIds = failedList.stream().filter(outbox -> outbox.getRetryCount() + 1 >= MAX_RETRY)
+                    .map(OmsOrderCancelOutbox::getOrderId).collect(Collectors.toList());
+            if (!failedOrderIds.isEmpty()) {
+                LOGGER.error("取消订单消息投递失败次数达到上限，已标记为投递失败，需人工处理，订单id：{}", failedOrderIds);
+            }
+        }
+    }
+
+    /**
+     * broker不可用时释放消息且不计失败次数，按连续暂停次数指数退避
+     */
+    private void pause(String claimToken, Exception e) {
+        outboxDao.releaseClaim(claimToken);
+        long delay = Math.min(TimeUnit.SECONDS.toMillis(RETRY_DELAY) << Math.min(pauseCount, 16), TimeUnit.SECONDS.toMillis(MAX_RETRY_DELAY));
+        pauseCount++;
+        pauseUntil = System.currentTimeMillis() + delay;
+        LOGGER.warn("broker暂时不可用，{}毫秒后重新投递取消订单消息，原因：{}", delay, e.getMessage());
+    }
+
+    private boolean isBrokerUnavailable(Exception e) {
+        return e instanceof AmqpConnectException || e instanceof AmqpTimeoutException;
+    }
+
+    /**
+     * 每天凌晨清理已投递的历史消息
+     */
+    @Scheduled(cron = "0 0 3 * * ?")
+    private void cleanSent() {
+        Date before = DateUtil.offsetDay(new Date(), -KEEP_DAYS);
+        int count = outboxDao.deleteSent(before);
+        LOGGER.info("清理已投递的取消订单消息，数量：{}", count);
+    }
+}
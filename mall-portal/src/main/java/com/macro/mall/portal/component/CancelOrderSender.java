@@ -1,5 +1,6 @@
 package com.macro.mall.portal.component;
 
+import com.macro.mall.portal.domain.OmsOrderCancelOutbox;
 import com.macro.mall.portal.domain.QueueEnum;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -7,9 +8,12 @@ import org.springframework.amqp.AmqpException;
 import org.springframework.amqp.core.AmqpTemplate;
 import org.springframework.amqp.core.Message;
 import org.springframework.amqp.core.MessagePostProcessor;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import java.util.List;
+
 /**
  * 取消订单消息的发送者
  * Created by macro on 2018/9/14.
@@ -19,6 +23,8 @@ public class CancelOrderSender {
     private static final Logger LOGGER = LoggerFactory.getLogger(CancelOrderSender.class);
     @Autowired
     private AmqpTemplate amqpTemplate;
+    @Autowired
+    private RabbitTemplate rabbitTemplate;
 
     public void sendMessage(Long orderId,final long delayTimes){
         //给延迟队列发送消息
@@ -32,4 +38,25 @@ public class CancelOrderSender {
         });
         LOGGER.info("send orderId:{}",orderId);
     }
+
+    /**
+     * 在同一个通道上批量发送发件箱中的延迟消息，并等待broker确认
+     * 需要开启spring.rabbitmq.publisher-confirm-type=simple，未全部确认时抛出AmqpException
+     */
+    public void sendMessages(List<OmsOrderCancelOutbox> outboxList, final long confirmTimeout) {
+        final long now = System.currentTimeMillis();
+        rabbitTemplate.invoke(operations -> {
+            for (OmsOrderCancelOutbox outbox : outboxList) {
+                //扣除消息在发件箱中等待的时间，保证订单按时取消
+                long delayTimes = Math.max(0, outbox.getCreateTime().getTime() + outbox.getDelayTimes() - now);
+                operations.convertAndSend(QueueEnum.QUEUE_TTL_ORDER_CANCEL.getExchange(), QueueEnum.QUEUE_TTL_ORDER_CANCEL.getRouteKey(), outbox.getOrderId(), message -> {
+                    message.getMessageProperties().setExpiration(String.valueOf(delayTimes));
+                    return message;
+                });
+            }
+            operations.waitForConfirmsOrDie(confirmTimeout);
+            return Boolean.TRUE;
+        });
+        LOGGER.info("send cancel order messages, count:{}", outboxList.size());
+    }
 }
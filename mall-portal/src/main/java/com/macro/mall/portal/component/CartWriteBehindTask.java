@@ -0,0 +1,41 @@
+package com.macro.mall.portal.component;
+
+import com.macro.mall.portal.service.impl.RedisCartItemServiceImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+
+/**
+ * Redis购物车的异步回写定时器
+ */
+@Component
+@ConditionalOnProperty(prefix = "cart.store", name = "mode", havingValue = "redis")
+public class CartWriteBehindTask {
+    private static final Logger LOGGER = LoggerFactory.getLogger(CartWriteBehindTask.class);
+    @Autowired
+    private RedisCartItemServiceImpl cartItemService;
+
+    /**
+     * 定时将修改过的会员购物车回写到oms_cart_item
+     */
+    @Scheduled(fixedDelayString = "${cart.store.flushInterval:1000}")
+    public void flushDirty() {
+        int count = cartItemService.flushDirty();
+        if (count > 0) {
+            LOGGER.debug("回写购物车，会员数量：{}", count);
+        }
+    }
+
+    /**
+     * 停机前回写剩余的修改
+     */
+    @PreDestroy
+    public void destroy() {
+        flushDirty();
+    }
+}
@@ -0,0 +1,40 @@
+package com.macro.mall.portal.component;
+
+import com.macro.mall.portal.service.impl.UmsMemberCouponServiceImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * 优惠券领取记录的异步批量插入定时器
+ */
+@Component
+public class CouponHistoryWriteBehindTask {
+    private static final Logger LOGGER = LoggerFactory.getLogger(CouponHistoryWriteBehindTask.class);
+    @Autowired
+    private UmsMemberCouponServiceImpl memberCouponService;
+
+    /**
+     * 定时将Redis中待插入的领取记录批量写入sms_coupon_history
+     */
+    @Scheduled(fixedDelayString = "${coupon.claim.flushInterval:500}")
+    public void flushHistory() {
+        int count = memberCouponService.flushHistory();
+        if (count > 0) {
+            LOGGER.debug("插入优惠券领取记录，数量：{}", count);
+        }
+    }
+
+    /**
+     * 定时将死信列表中的领取记录移回待插入列表重新插入
+     */
+    @Scheduled(initialDelayString = "${coupon.claim.reviveInterval:600000}", fixedDelayString = "${coupon.claim.reviveInterval:600000}")
+    public void reviveDeadHistory() {
+        int count = memberCouponService.reviveDeadHistory();
+        if (count > 0) {
+            LOGGER.warn("死信列表中的优惠券领取记录已移回待插入列表，数量：{}", count);
+        }
+    }
+}
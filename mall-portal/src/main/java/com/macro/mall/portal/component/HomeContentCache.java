@@ -0,0 +1,143 @@
+package com.macro.mall.portal.component;
+
+import cn.hutool.crypto.digest.DigestUtil;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.macro.mall.common.api.CommonResult;
+import com.macro.mall.mapper.SmsFlashPromotionSessionMapper;
+import com.macro.mall.model.SmsFlashPromotionSession;
+import com.macro.mall.model.SmsFlashPromotionSessionExample;
+import com.macro.mall.portal.domain.HomeContentResult;
+import com.macro.mall.portal.domain.HomeContentSnapshot;
+import com.macro.mall.portal.service.HomeService;
+import com.macro.mall.portal.util.DateUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 首页内容快照
+ * 在后台构建首页内容并序列化为字节数组，请求直接返回内存中的快照；
+ * 后台修改首页推荐及秒杀活动时递增Redis中的版本号并发布通知，版本号变化、到达秒杀场次切换时间
+ * 或超过最长保留时间时重建快照
+ */
+@Component
+public class HomeContentCache {
+    private static final Logger LOGGER = LoggerFactory.getLogger(HomeContentCache.class);
+    @Autowired
+    private HomeService homeService;
+    @Autowired
+    private ObjectMapper objectMapper;
+    @Autowired
+    private SmsFlashPromotionSessionMapper promotionSessionMapper;
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+    @Autowired
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+    @Value("${redis.database}")
+    private String REDIS_DATABASE;
+    @Value("${redis.key.homeContent}")
+    private String REDIS_KEY_HOME_CONTENT;
+    @Value("${home.content.maxAgeSeconds:300}")
+    private Long MAX_AGE_SECONDS;
+    private volatile HomeContentSnapshot snapshot;
+    /**
+     * 当前快照对应的后台变更版本号
+     */
+    private long version = -1;
+
+    @PostConstruct
+    public void init() {
+        //收到后台变更通知时立即检查，不等待下次定时检查
+        redisMessageListenerContainer.addMessageListener((message, pattern) -> check(), new ChannelTopic(channel()));
+    }
+
+    /**
+     * 获取首页内容快照，首次访问时同步构建
+     */
+    public HomeContentSnapshot getSnapshot() {
+        HomeContentSnapshot current = snapshot;
+        if (current == null) {
+            synchronized (this) {
+                if (snapshot == null) {
+                    version = currentVersion();
+                    snapshot = build();
+                }
+                current = snapshot;
+            }
+        }
+        return current;
+    }
+
+    /**
+     * 定时检查版本号及快照过期时间，构建失败时继续使用旧快照
+     */
+    @Scheduled(fixedDelayString = "${home.content.checkInterval:1000}")
+    public synchronized void check() {
+        try {
+            long current = currentVersion();
+            HomeContentSnapshot old = snapshot;
+            if (old == null || current != version || System.currentTimeMillis() >= old.getExpireTime()) {
+                version = current;
+                snapshot = build();
+            }
+        } catch (Exception e) {
+            LOGGER.error("首页内容快照构建失败", e);
+        }
+    }
+
+    private HomeContentSnapshot build() {
+        long now = System.currentTimeMillis();
+        HomeContentResult contentResult = homeService.content();
+        byte[] body;
+        try {
+            body = objectMapper.writeValueAsBytes(CommonResult.success(contentResult));
+        } catch (Exception e) {
+            throw new IllegalStateException("首页内容序列化失败", e);
+        }
+        String etag = "\"" + DigestUtil.md5Hex(body) + "\"";
+        long expireTime = Math.min(now + TimeUnit.SECONDS.toMillis(MAX_AGE_SECONDS), nextFlashBoundary(now));
+        return new HomeContentSnapshot(body, etag, now, expireTime);
+    }
+
+    /**
+     * 计算下一次秒杀场次开始、结束或日期切换的时间
+     */
+    private long nextFlashBoundary(long now) {
+        //场次时间只有时分秒部分，与当前时间的时分秒比较后换算到当天
+        long nowTime = DateUtil.getTime(new Date(now)).getTime();
+        long dayOffset = now - nowTime;
+        //秒杀活动按日期生效，默认在次日零点切换
+        long boundary = DateUtil.getDate(new Date(now)).getTime() + TimeUnit.DAYS.toMillis(1);
+        List<SmsFlashPromotionSession> sessionList = promotionSessionMapper.selectByExample(new SmsFlashPromotionSessionExample());
+        for (SmsFlashPromotionSession session : sessionList) {
+            //场次结束时间包含在场次内，结束1秒后切换
+            Date[] times = {session.getStartTime(), session.getEndTime() == null ? null : new Date(session.getEndTime().getTime() + 1000)};
+            for (Date time : times) {
+                if (time != null && time.getTime() > nowTime) {
+                    boundary = Math.min(boundary, time.getTime() + dayOffset);
+                }
+            }
+        }
+        return boundary;
+    }
+
+    private long currentVersion() {
+        String value = stringRedisTemplate.opsForValue().get(REDIS_DATABASE + ":" + REDIS_KEY_HOME_CONTENT + ":version");
+        return value == null ? 0 : Long.parseLong(value);
+    }
+
+    private String channel() {
+        return REDIS_DATABASE + ":" + REDIS_KEY_HOME_CONTENT + ":channel";
+    }
+}
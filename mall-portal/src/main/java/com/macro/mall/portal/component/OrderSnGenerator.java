@@ -0,0 +1,274 @@
+package com.macro.mall.portal.component;
+
+import com.macro.mall.portal.dao.OmsOrderSnSegmentDao;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 订单编号生成器
+ * 按天从Redis批量领取号段（Redis不可用时从数据库领取），号段内的序号在本地通过CAS分配，
+ * 当前号段用到一定比例时在后台预取下一个号段，生成编号时通常不需要访问网络；
+ * 6位以内Redis使用1-899999，数据库使用900000-999999，超出后加宽编号，两个来源互不重叠；
+ * 优惠码使用单独的序号，不占用订单编号
+ */
+@Component
+public class OrderSnGenerator {
+    private static final Logger LOGGER = LoggerFactory.getLogger(OrderSnGenerator.class);
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.BASIC_ISO_DATE;
+    private static final String BIZ_TYPE_ORDER = "order";
+    private static final String BIZ_TYPE_COUPON = "coupon";
+    /**
+     * Redis号段6位以内可分配的最大序号
+     */
+    private static final long REDIS_SEQUENCE_MAX = 899999L;
+    /**
+     * 数据库号段的初始值，从900000开始分配，与Redis号段错开，切换来源时不会产生重复编号
+     */
+    private static final long DB_SEGMENT_BASE = REDIS_SEQUENCE_MAX;
+    /**
+     * 6位序号的最大值
+     */
+    private static final long SEQUENCE_MAX = 999999L;
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+    @Autowired
+    private OmsOrderSnSegmentDao orderSnSegmentDao;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+    @Value("${redis.key.orderId}")
+    private String REDIS_KEY_ORDER_ID;
+    @Value("${redis.key.couponCode}")
+    private String REDIS_KEY_COUPON_CODE;
+    @Value("${redis.database}")
+    private String REDIS_DATABASE;
+    @Value("${order.sn.step:1000}")
+    private Integer STEP;
+    @Value("${order.sn.prefetchPercent:80}")
+    private Integer PREFETCH_PERCENT;
+    private volatile DateCache dateCache;
+    private Sequence orderSequence;
+    private Sequence couponSequence;
+    private ExecutorService prefetchExecutor;
+
+    @PostConstruct
+    public void init() {
+        prefetchExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "order-sn-prefetch");
+            thread.setDaemon(true);
+            return thread;
+        });
+        orderSequence = new Sequence(BIZ_TYPE_ORDER, REDIS_DATABASE + ":" + REDIS_KEY_ORDER_ID);
+        couponSequence = new Sequence(BIZ_TYPE_COUPON, REDIS_DATABASE + ":" + REDIS_KEY_COUPON_CODE);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        prefetchExecutor.shutdownNow();
+    }
+
+    /**
+     * 生成18位订单编号:8位日期+2位平台号码+2位支付方式+6位以上自增id
+     */
+    public String generate(Integer sourceType, Integer payType) {
+        String date = today();
+        long sequence = orderSequence.next(date);
+        StringBuilder sb = new StringBuilder(20);
+        sb.append(date);
+        appendPadded(sb, sourceType == null ? 0 : sourceType, 2);
+        appendPadded(sb, payType == null ? 0 : payType, 2);
+        appendPadded(sb, sequence, 6);
+        return sb.toString();
+    }
+
+    /**
+     * 获取当天优惠码的下一个序号
+     */
+    public long nextCouponSequence() {
+        return couponSequence.next(today());
+    }
+
+    /**
+     * 获取当天订单编号的下一个序号
+     */
+    long nextSequence() {
+        return orderSequence.next(today());
+    }
+
+    /**
+     * 将号段中的原始值映射为序号：6位以内原样使用；超出后与原来一样加宽编号，
+     * Redis使用偶数、数据库使用奇数，两个来源在加宽后仍互不重叠
+     */
+    static long toSequence(long value, boolean fromRedis) {
+        if (fromRedis) {
+            return value <= REDIS_SEQUENCE_MAX ? value : SEQUENCE_MAX + 2 * (value - REDIS_SEQUENCE_MAX) - 1;
+        }
+        return value <= SEQUENCE_MAX ? value : SEQUENCE_MAX + 2 * (value - SEQUENCE_MAX);
+    }
+
+    /**
+     * 按天递增的序号，Redis及数据库中使用各自的键
+     */
+    private class Sequence {
+        private final String bizType;
+        private final String redisKeyPrefix;
+        private volatile Segment current;
+        private volatile Segment next;
+        private final AtomicBoolean prefetching = new AtomicBoolean();
+
+        private Sequence(String bizType, String redisKeyPrefix) {
+            this.bizType = bizType;
+            this.redisKeyPrefix = redisKeyPrefix;
+        }
+
+        private long next(String date) {
+            while (true) {
+                Segment segment = current;
+                if (segment != null && segment.date.equals(date)) {
+                    long value = segment.cursor.getAndIncrement();
+                    if (value <= segment.end) {
+                        if (value == segment.prefetchAt) {
+                            prefetch(date);
+                        }
+                        return toSequence(value, segment.fromRedis);
+                    }
+                }
+                switchSegment(segment, date);
+            }
+        }
+
+        /**
+         * 当前号段用完或日期改变时切换到预取的号段，没有可用的预取号段时同步领取
+         */
+        private synchronized void switchSegment(Segment exhausted, String date) {
+            if (current != exhausted) {
+                //其他线程已经切换
+                return;
+            }
+            Segment prefetched = next;
+            next = null;
+            if (prefetched != null && prefetched.date.equals(date)) {
+                current = prefetched;
+            } else {
+                current = lease(date);
+            }
+        }
+
+        private void prefetch(String date) {
+            if (!prefetching.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                prefetchExecutor.execute(() -> {
+                    try {
+                        Segment segment = lease(date);
+                        synchronized (this) {
+                            if (next == null) {
+                                next = segment;
+                            }
+                        }
+                    } catch (Exception e) {
+                        LOGGER.warn("预取{}号段失败，原因：{}", bizType, e.getMessage());
+                    } finally {
+                        prefetching.set(false);
+                    }
+                });
+            } catch (Exception e) {
+                prefetching.set(false);
+            }
+        }
+
+        /**
+         * 领取一个号段，优先使用Redis
+         */
+        private Segment lease(String date) {
+            try {
+                String key = redisKeyPrefix + date;
+                Long end = stringRedisTemplate.opsForValue().increment(key, STEP);
+                stringRedisTemplate.expire(key, 2, TimeUnit.DAYS);
+                if (end != null) {
+                    return new Segment(date, end - STEP + 1, end, true, PREFETCH_PERCENT);
+                }
+            } catch (Exception e) {
+                LOGGER.warn("从Redis领取{}号段失败，改为从数据库领取，原因：{}", bizType, e.getMessage());
+            }
+            Long end = transactionTemplate.execute(status -> {
+                orderSnSegmentDao.insertIgnore(bizType, date, DB_SEGMENT_BASE);
+                orderSnSegmentDao.increase(bizType, date, STEP);
+                return orderSnSegmentDao.getMaxId(bizType, date);
+            });
+            return new Segment(date, end - STEP + 1, end, false, PREFETCH_PERCENT);
+        }
+    }
+
+    /**
+     * 获取当天日期，跨天前复用已格式化的结果
+     */
+    private String today() {
+        DateCache cache = dateCache;
+        long now = System.currentTimeMillis();
+        if (cache == null || now >= cache.endMillis || now < cache.startMillis) {
+            ZoneId zone = ZoneId.systemDefault();
+            LocalDate date = LocalDate.now(zone);
+            cache = new DateCache(date.format(DATE_FORMATTER),
+                    date.atStartOfDay(zone).toInstant().toEpochMilli(),
+                    date.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli());
+            dateCache = cache;
+        }
+        return cache.date;
+    }
+
+    private static void appendPadded(StringBuilder sb, long value, int width) {
+        String str = Long.toString(value);
+        for (int i = str.length(); i < width; i++) {
+            sb.append('0');
+        }
+        sb.append(str);
+    }
+
+    /**
+     * 号段：[cursor初始值, end]范围内的原始值
+     */
+    private static class Segment {
+        private final String date;
+        private final long end;
+        private final boolean fromRedis;
+        private final long prefetchAt;
+        private final AtomicLong cursor;
+
+        private Segment(String date, long start, long end, boolean fromRedis, int prefetchPercent) {
+            this.date = date;
+            this.end = end;
+            this.fromRedis = fromRedis;
+            this.prefetchAt = start + (end - start) * prefetchPercent / 100;
+            this.cursor = new AtomicLong(start);
+        }
+    }
+
+    private static class DateCache {
+        private final String date;
+        private final long startMillis;
+        private final long endMillis;
+
+        private DateCache(String date, long startMillis, long endMillis) {
+            this.date = date;
+            this.startMillis = startMillis;
+            this.endMillis = endMillis;
+        }
+    }
+}
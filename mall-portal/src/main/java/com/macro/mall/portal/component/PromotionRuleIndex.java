@@ -0,0 +1,204 @@
+package com.macro.mall.portal.component;
+
+import cn.hutool.core.util.StrUtil;
+import com.macro.mall.mapper.PmsProductFullReductionMapper;
+import com.macro.mall.mapper.PmsProductLadderMapper;
+import com.macro.mall.mapper.PmsProductMapper;
+import com.macro.mall.mapper.PmsSkuStockMapper;
+import com.macro.mall.model.*;
+import com.macro.mall.portal.domain.PromotionRuleSnapshot;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 商品促销规则的本地索引
+ * 按商品缓存不可变的促销规则快照，未命中时分别查询商品、sku、打折和满减信息，避免多表关联产生笛卡尔积；
+ * 后台修改商品时递增Redis中的版本号并发布变更的商品id，收到通知后淘汰对应快照，
+ * 定时比对版本号，发现遗漏通知时清空全部快照
+ */
+@Component
+public class PromotionRuleIndex implements MessageListener {
+    private static final Logger LOGGER = LoggerFactory.getLogger(PromotionRuleIndex.class);
+    @Autowired
+    private PmsProductMapper productMapper;
+    @Autowired
+    private PmsSkuStockMapper skuStockMapper;
+    @Autowired
+    private PmsProductLadderMapper productLadderMapper;
+    @Autowired
+    private PmsProductFullReductionMapper productFullReductionMapper;
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+    @Autowired
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+    @Value("${redis.database}")
+    private String REDIS_DATABASE;
+    @Value("${redis.key.promotionRule}")
+    private String REDIS_KEY_PROMOTION_RULE;
+    @Value("${promotion.rule.expireSeconds:60}")
+    private Long EXPIRE_SECONDS;
+    @Value("${promotion.rule.maxSize:10000}")
+    private Integer MAX_SIZE;
+    private final Map<Long, PromotionRuleSnapshot> snapshotMap = new ConcurrentHashMap<>();
+    /**
+     * 已处理的后台变更版本号
+     */
+    private final AtomicLong version = new AtomicLong(-1);
+    /**
+     * 每次淘汰快照时递增，用于丢弃淘汰前开始加载的过期快照
+     */
+    private final AtomicLong epoch = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        version.set(currentVersion());
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(channel()));
+    }
+
+    /**
+     * 批量获取商品的促销规则快照，未命中的商品合并查询后放入缓存
+     */
+    public Map<Long, PromotionRuleSnapshot> getSnapshots(Collection<Long> productIds) {
+        Map<Long, PromotionRuleSnapshot> result = new HashMap<>();
+        List<Long> missIds = new ArrayList<>();
+        long expireBefore = System.currentTimeMillis() - EXPIRE_SECONDS * 1000;
+        for (Long productId : new LinkedHashSet<>(productIds)) {
+            PromotionRuleSnapshot snapshot = snapshotMap.get(productId);
+            if (snapshot != null && snapshot.getLoadTime() >= expireBefore) {
+                result.put(productId, snapshot);
+            } else {
+                missIds.add(productId);
+            }
+        }
+        if (!missIds.isEmpty()) {
+            long loadEpoch = epoch.get();
+            Map<Long, PromotionRuleSnapshot> loadedMap = load(missIds);
+            result.putAll(loadedMap);
+            if (snapshotMap.size() + loadedMap.size() > MAX_SIZE) {
+                snapshotMap.clear();
+            }
+            snapshotMap.putAll(loadedMap);
+            if (epoch.get() != loadEpoch) {
+                //加载期间商品被修改，不缓存本次加载的快照
+                snapshotMap.keySet().removeAll(loadedMap.keySet());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 淘汰指定商品的快照
+     */
+    public void evict(Collection<Long> productIds) {
+        epoch.incrementAndGet();
+        snapshotMap.keySet().removeAll(productIds);
+    }
+
+    /**
+     * 淘汰全部快照
+     */
+    public void evictAll() {
+        epoch.incrementAndGet();
+        snapshotMap.clear();
+    }
+
+    /**
+     * 接收后台发布的变更通知，消息格式为：版本号:商品id,商品id
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        try {
+            List<String> parts = StrUtil.split(body, ':');
+            long messageVersion = Long.parseLong(parts.get(0));
+            List<Long> productIds = new ArrayList<>();
+            for (String productId : StrUtil.split(parts.get(1), ',', true, true)) {
+                productIds.add(Long.valueOf(productId));
+            }
+            evict(productIds);
+            long handled = version.get();
+            if (messageVersion != handled + 1 || !version.compareAndSet(handled, messageVersion)) {
+                //通知不连续，可能有遗漏，交给版本号比对处理
+                checkVersion();
+            }
+        } catch (Exception e) {
+            LOGGER.warn("促销规则变更通知处理失败：{}，原因：{}", body, e.getMessage());
+            evictAll();
+        }
+    }
+
+    /**
+     * 定时比对版本号，Redis断线重连等导致通知遗漏时清空全部快照
+     */
+    @Scheduled(fixedDelayString = "${promotion.rule.versionCheckInterval:5000}")
+    public void checkVersion() {
+        long current = currentVersion();
+        long handled = version.get();
+        if (current != handled && version.compareAndSet(handled, current)) {
+            evictAll();
+        }
+    }
+
+    private Map<Long, PromotionRuleSnapshot> load(List<Long> productIds) {
+        PmsProductExample productExample = new PmsProductExample();
+        productExample.createCriteria().andIdIn(productIds);
+        List<PmsProduct> productList = productMapper.selectByExample(productExample);
+        PmsSkuStockExample skuStockExample = new PmsSkuStockExample();
+        skuStockExample.createCriteria().andProductIdIn(productIds);
+        Map<Long, List<PmsSkuStock>> skuStockMap = new HashMap<>();
+        for (PmsSkuStock skuStock : skuStockMapper.selectByExample(skuStockExample)) {
+            skuStockMap.computeIfAbsent(skuStock.getProductId(), key -> new ArrayList<>()).add(skuStock);
+        }
+        PmsProductLadderExample ladderExample = new PmsProductLadderExample();
+        ladderExample.createCriteria().andProductIdIn(productIds);
+        Map<Long, List<PmsProductLadder>> ladderMap = new HashMap<>();
+        for (PmsProductLadder ladder : productLadderMapper.selectByExample(ladderExample)) {
+            ladderMap.computeIfAbsent(ladder.getProductId(), key -> new ArrayList<>()).add(ladder);
+        }
+        PmsProductFullReductionExample fullReductionExample = new PmsProductFullReductionExample();
+        fullReductionExample.createCriteria().andProductIdIn(productIds);
+        Map<Long, List<PmsProductFullReduction>> fullReductionMap = new HashMap<>();
+        for (PmsProductFullReduction fullReduction : productFullReductionMapper.selectByExample(fullReductionExample)) {
+            fullReductionMap.computeIfAbsent(fullReduction.getProductId(), key -> new ArrayList<>()).add(fullReduction);
+        }
+        long now = System.currentTimeMillis();
+        Map<Long, PromotionRuleSnapshot> result = new HashMap<>();
+        for (PmsProduct product : productList) {
+            Long productId = product.getId();
+            result.put(productId, new PromotionRuleSnapshot(productId, product.getPromotionType(),
+                    product.getGiftPoint(), product.getGiftGrowth(),
+                    skuStockMap.getOrDefault(productId, Collections.emptyList()),
+                    ladderMap.getOrDefault(productId, Collections.emptyList()),
+                    fullReductionMap.getOrDefault(productId, Collections.emptyList()), now));
+        }
+        return result;
+    }
+
+    private long currentVersion() {
+        String value = stringRedisTemplate.opsForValue().get(versionKey());
+        return value == null ? 0 : Long.parseLong(value);
+    }
+
+    private String versionKey() {
+        return REDIS_DATABASE + ":" + REDIS_KEY_PROMOTION_RULE + ":version";
+    }
+
+    private String channel() {
+        return REDIS_DATABASE + ":" + REDIS_KEY_PROMOTION_RULE + ":channel";
+    }
+}
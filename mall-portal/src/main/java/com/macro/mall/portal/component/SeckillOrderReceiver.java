@@ -0,0 +1,33 @@
+package com.macro.mall.portal.component;
+
+import cn.hutool.json.JSONUtil;
+import com.macro.mall.portal.domain.SeckillOrderMessage;
+import com.macro.mall.portal.service.OmsSeckillService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 秒杀下单消息的接收者，批量消费后合并写入订单
+ */
+@Component
+public class SeckillOrderReceiver {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SeckillOrderReceiver.class);
+    @Autowired
+    private OmsSeckillService seckillService;
+
+    @RabbitListener(queues = "mall.seckill.order", containerFactory = "seckillBatchContainerFactory")
+    public void handle(List<String> messages) {
+        List<SeckillOrderMessage> messageList = new ArrayList<>(messages.size());
+        for (String message : messages) {
+            messageList.add(JSONUtil.toBean(message, SeckillOrderMessage.class));
+        }
+        int count = seckillService.createOrders(messageList);
+        LOGGER.info("process seckill order, received:{}, created:{}", messageList.size(), count);
+    }
+}
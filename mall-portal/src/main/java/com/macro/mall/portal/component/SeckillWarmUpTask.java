@@ -0,0 +1,38 @@
+package com.macro.mall.portal.component;
+
+import com.macro.mall.portal.service.OmsSeckillService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * 秒杀库存预热的定时器
+ */
+@Component
+public class SeckillWarmUpTask {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SeckillWarmUpTask.class);
+    @Autowired
+    private OmsSeckillService seckillService;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onReady() {
+        warmUp();
+    }
+
+    /**
+     * 每分钟加载一次即将开始及进行中场次的秒杀库存
+     */
+    @Scheduled(cron = "0 * * ? * ?")
+    public void warmUp() {
+        try {
+            int count = seckillService.warmUp();
+            LOGGER.debug("秒杀库存预热完成，秒杀商品数量：{}", count);
+        } catch (Exception e) {
+            LOGGER.error("秒杀库存预热失败", e);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.macro.mall.portal.component;
+
+import com.macro.mall.portal.service.impl.RedisStockReservationServiceImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Redis库存预占的异步回写及对账定时器
+ */
+@Component
+@ConditionalOnProperty(prefix = "stock.reservation", name = "mode", havingValue = "redis")
+public class StockWriteBehindTask {
+    private static final Logger LOGGER = LoggerFactory.getLogger(StockWriteBehindTask.class);
+    @Autowired
+    private RedisStockReservationServiceImpl stockReservationService;
+
+    /**
+     * 定时将Redis中累积的锁定库存变化量回写到pms_sku_stock.lock_stock
+     */
+    @Scheduled(fixedDelayString = "${stock.reservation.flushInterval:1000}")
+    private void flushPending() {
+        int count = stockReservationService.flushPending();
+        if (count > 0) {
+            LOGGER.debug("回写锁定库存，sku数量：{}", count);
+        }
+    }
+
+    /**
+     * 定时以数据库为准校正Redis中的可用库存，修正后台改库存等造成的偏差
+     */
+    @Scheduled(cron = "${stock.reservation.reconcileCron:0 0/5 * ? * ?}")
+    private void reconcile() {
+        int count = stockReservationService.reconcile();
+        LOGGER.info("库存对账完成，sku数量：{}", count);
+    }
+}
@@ -2,6 +2,10 @@ package com.macro.mall.portal.config;
 
 import com.macro.mall.portal.domain.QueueEnum;
 import org.springframework.amqp.core.*;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.amqp.SimpleRabbitListenerContainerFactoryConfigurer;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
@@ -76,4 +80,52 @@ public class RabbitMqConfig {
                 .with(QueueEnum.QUEUE_TTL_ORDER_CANCEL.getRouteKey());
     }
 
+    /**
+     * 秒杀下单队列所绑定的交换机
+     */
+    @Bean
+    DirectExchange seckillDirect() {
+        return ExchangeBuilder
+                .directExchange(QueueEnum.QUEUE_SECKILL_ORDER.getExchange())
+                .durable(true)
+                .build();
+    }
+
+    /**
+     * 秒杀下单队列
+     */
+    @Bean
+    public Queue seckillOrderQueue() {
+        return new Queue(QueueEnum.QUEUE_SECKILL_ORDER.getName());
+    }
+
+    /**
+     * 将秒杀下单队列绑定到交换机
+     */
+    @Bean
+    Binding seckillOrderBinding(DirectExchange seckillDirect, Queue seckillOrderQueue) {
+        return BindingBuilder
+                .bind(seckillOrderQueue)
+                .to(seckillDirect)
+                .with(QueueEnum.QUEUE_SECKILL_ORDER.getRouteKey());
+    }
+
+    /**
+     * 秒杀下单消息的批量消费容器，攒够一批或等待超时后一次性交给消费者
+     */
+    @Bean
+    public SimpleRabbitListenerContainerFactory seckillBatchContainerFactory(SimpleRabbitListenerContainerFactoryConfigurer configurer,
+                                                                             ConnectionFactory connectionFactory,
+                                                                             @Value("${seckill.batchSize:200}") Integer batchSize,
+                                                                             @Value("${seckill.receiveTimeout:200}") Long receiveTimeout) {
+        SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+        configurer.configure(factory, connectionFactory);
+        factory.setBatchListener(true);
+        factory.setConsumerBatchEnabled(true);
+        factory.setBatchSize(batchSize);
+        factory.setPrefetchCount(batchSize * 2);
+        factory.setReceiveTimeout(receiveTimeout);
+        return factory;
+    }
+
 }
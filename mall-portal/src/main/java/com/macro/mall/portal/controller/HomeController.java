@@ -4,12 +4,18 @@ import com.macro.mall.common.api.CommonResult;
 import com.macro.mall.model.CmsSubject;
 import com.macro.mall.model.PmsProduct;
 import com.macro.mall.model.PmsProductCategory;
+import com.macro.mall.portal.component.HomeContentCache;
 import com.macro.mall.portal.domain.HomeContentResult;
+import com.macro.mall.portal.domain.HomeContentSnapshot;
 import com.macro.mall.portal.service.HomeService;
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.*;
 
@@ -26,13 +32,22 @@ import java.util.List;
 public class HomeController {
     @Autowired
     private HomeService homeService;
+    @Autowired
+    private HomeContentCache homeContentCache;
 
-    @ApiOperation("首页内容信息展示")
+    @ApiOperation(value = "首页内容信息展示", response = HomeContentResult.class)
     @RequestMapping(value = "/content", method = RequestMethod.GET)
     @ResponseBody
-    public CommonResult<HomeContentResult> content() {
-        HomeContentResult contentResult = homeService.content();
-        return CommonResult.success(contentResult);
+    public ResponseEntity<byte[]> content(@RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        //直接返回预先序列化的快照，内容未变化时返回304
+        HomeContentSnapshot snapshot = homeContentCache.getSnapshot();
+        if (snapshot.getEtag().equals(ifNoneMatch)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(snapshot.getEtag()).build();
+        }
+        return ResponseEntity.ok()
+                .eTag(snapshot.getEtag())
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(snapshot.getBody());
     }
 
     @ApiOperation("分页获取推荐商品")
@@ -0,0 +1,41 @@
+package com.macro.mall.portal.controller;
+
+import com.macro.mall.common.api.CommonResult;
+import com.macro.mall.portal.domain.SeckillOrderParam;
+import com.macro.mall.portal.service.OmsSeckillService;
+import io.swagger.annotations.Api;
+import io.swagger.annotations.ApiOperation;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.Map;
+
+/**
+ * 秒杀下单Controller
+ */
+@Controller
+@Api(tags = "OmsSeckillController")
+@Tag(name = "OmsSeckillController", description = "秒杀下单")
+@RequestMapping("/seckill")
+public class OmsSeckillController {
+    @Autowired
+    private OmsSeckillService seckillService;
+
+    @ApiOperation("秒杀下单，返回排队结果")
+    @RequestMapping(value = "/generateOrder", method = RequestMethod.POST)
+    @ResponseBody
+    public CommonResult generateOrder(@RequestBody SeckillOrderParam orderParam) {
+        Map<String, Object> result = seckillService.generateOrder(orderParam);
+        return CommonResult.success(result, "排队中");
+    }
+
+    @ApiOperation("查询秒杀下单结果")
+    @RequestMapping(value = "/result/{requestId}", method = RequestMethod.GET)
+    @ResponseBody
+    public CommonResult getResult(@PathVariable String requestId) {
+        Map<String, Object> result = seckillService.getResult(requestId);
+        return CommonResult.success(result);
+    }
+}
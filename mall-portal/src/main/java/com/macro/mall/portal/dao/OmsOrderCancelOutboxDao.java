@@ -0,0 +1,61 @@
+package com.macro.mall.portal.dao;
+
+import com.macro.mall.portal.domain.OmsOrderCancelOutbox;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * 取消订单消息发件箱自定义Dao
+ */
+public interface OmsOrderCancelOutboxDao {
+    /**
+     * 写入待投递消息
+     */
+    int insert(OmsOrderCancelOutbox outbox);
+
+    /**
+     * 把领取时间早于指定时间仍未完成投递的消息恢复为待投递，用于领取节点宕机后的补偿
+     */
+    int resetExpiredClaim(@Param("before") Date before);
+
+    /**
+     * 按id顺序原子领取待投递消息，多节点并发领取时每条消息只会被一个批次领取
+     * @return 领取到的消息数量
+     */
+    int claimPending(@Param("claimToken") String claimToken, @Param("limit") Integer limit);
+
+    /**
+     * 获取指定批次领取的消息
+     */
+    List<OmsOrderCancelOutbox> listClaimed(@Param("claimToken") String claimToken);
+
+    /**
+     * 把指定批次领取的消息标记为已投递
+     */
+    int updateSent(@Param("claimToken") String claimToken);
+
+    /**
+     * 把指定批次领取的部分消息标记为已投递
+     */
+    int updateSentByIds(@Param("claimToken") String claimToken, @Param("ids") List<Long> ids);
+
+    /**
+     * 释放指定批次领取的消息，不累加投递失败次数，用于broker暂时不可用的情况
+     */
+    int releaseClaim(@Param("claimToken") String claimToken);
+
+    /**
+     * 释放指定批次领取的消息并累加投递失败次数，按失败次数指数退避，达到最大次数的消息标记为投递失败
+     * @param retryDelay 首次失败后的退避时间（秒）
+     * @param maxRetryDelay 最大退避时间（秒）
+     */
+    int retryClaim(@Param("claimToken") String claimToken, @Param("maxRetry") Integer maxRetry,
+                   @Param("retryDelay") Long retryDelay, @Param("maxRetryDelay") Long maxRetryDelay);
+
+    /**
+     * 删除指定时间之前已投递的消息
+     */
+    int deleteSent(@Param("before") Date before);
+}
@@ -0,0 +1,23 @@
+package com.macro.mall.portal.dao;
+
+import org.apache.ibatis.annotations.Param;
+
+/**
+ * 订单编号号段自定义Dao，Redis不可用时从数据库领取号段
+ */
+public interface OmsOrderSnSegmentDao {
+    /**
+     * 当天的号段记录不存在时以初始值创建
+     */
+    int insertIgnore(@Param("bizType") String bizType, @Param("bizDate") String bizDate, @Param("initId") Long initId);
+
+    /**
+     * 领取一个号段，将已分配的最大值增加step
+     */
+    int increase(@Param("bizType") String bizType, @Param("bizDate") String bizDate, @Param("step") Integer step);
+
+    /**
+     * 获取已分配的最大值
+     */
+    Long getMaxId(@Param("bizType") String bizType, @Param("bizDate") String bizDate);
+}
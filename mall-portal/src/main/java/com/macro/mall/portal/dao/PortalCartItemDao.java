@@ -0,0 +1,26 @@
+package com.macro.mall.portal.dao;
+
+import com.macro.mall.model.OmsCartItem;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
+
+/**
+ * 购物车商品回写自定义Dao
+ */
+public interface PortalCartItemDao {
+    /**
+     * 获取购物车商品的最大id
+     */
+    Long selectMaxId();
+
+    /**
+     * 批量保存购物车商品，已存在的更新数量并恢复为未删除
+     */
+    int saveList(@Param("list") List<OmsCartItem> list);
+
+    /**
+     * 删除会员购物车中除指定id外的商品
+     */
+    int deleteExcept(@Param("memberId") Long memberId, @Param("ids") List<Long> ids);
+}
@@ -1,6 +1,10 @@
 package com.macro.mall.portal.dao;
 
+import com.macro.mall.model.OmsOrder;
 import com.macro.mall.model.OmsOrderItem;
+import com.macro.mall.model.PmsSkuStock;
+import com.macro.mall.model.SmsFlashPromotionProductRelation;
+import com.macro.mall.model.UmsMember;
 import com.macro.mall.portal.domain.OmsOrderDetail;
 import org.apache.ibatis.annotations.Param;
 
@@ -51,4 +55,77 @@ public interface PortalOrderDao {
      * 根据商品的skuId释放库存
      */
     int releaseStockBySkuId(@Param("productSkuId")Long productSkuId,@Param("quantity") Integer quantity);
+
+    /**
+     * 批量调整锁定库存，productQuantity为锁定库存的变化量（可为负数）
+     */
+    int updateSkuLockStock(@Param("itemList") List<OmsOrderItem> orderItemList);
+
+    /**
+     * 批量锁定库存，任一sku库存不足时该sku不会被更新，需根据返回的更新行数判断是否全部锁定成功
+     */
+    int lockStockByItemList(@Param("itemList") List<OmsOrderItem> orderItemList);
+
+    /**
+     * 批量扣减真实库存及锁定库存，返回实际扣减成功的sku数量
+     */
+    int reduceSkuStockByItemList(@Param("itemList") List<OmsOrderItem> orderItemList);
+
+    /**
+     * 锁定sku库存记录并获取当前锁定库存
+     */
+    List<PmsSkuStock> lockSkuStockList(@Param("skuIds") List<Long> skuIds);
+
+    /**
+     * 批量释放锁定库存，锁定库存不足释放数量时置为0，不会因锁定库存不一致而释放失败
+     */
+    int releaseStockByItemList(@Param("itemList") List<OmsOrderItem> orderItemList);
+
+    /**
+     * 批量扣减真实库存（锁定库存已由Redis预占回写处理），返回实际扣减成功的sku数量
+     */
+    int reduceSkuRealStockByItemList(@Param("itemList") List<OmsOrderItem> orderItemList);
+
+    /**
+     * 按id顺序分页获取超时订单id
+     * @param minute 超时时间（分）
+     * @param lastId 上一页最后一个订单id
+     */
+    List<Long> getTimeOutOrderIds(@Param("minute") Integer minute, @Param("lastId") Long lastId, @Param("limit") Integer limit);
+
+    /**
+     * 锁定仍处于待付款状态的订单
+     */
+    List<OmsOrder> lockUnpaidOrders(@Param("ids") List<Long> ids);
+
+    /**
+     * 按sku汇总订单的下单数量
+     */
+    List<OmsOrderItem> sumQuantityBySkuId(@Param("orderIds") List<Long> orderIds);
+
+    /**
+     * 根据订单id批量返还已使用的优惠券
+     */
+    int releaseCouponByOrderIds(@Param("orderIds") List<Long> orderIds);
+
+    /**
+     * 获取已返还优惠券的订单id，用于找出未记录订单id的历史优惠券
+     */
+    List<Long> getReleasedCouponOrderIds(@Param("orderIds") List<Long> orderIds);
+
+    /**
+     * 批量返还会员积分，integration为需要返还的积分数量
+     */
+    int releaseIntegration(@Param("memberList") List<UmsMember> memberList);
+
+    /**
+     * 批量扣减秒杀商品的活动库存，flashPromotionCount为扣减数量，
+     * 活动库存不足的商品不会被更新，需根据返回的更新行数判断是否全部扣减成功
+     */
+    int reduceFlashPromotionCount(@Param("relationList") List<SmsFlashPromotionProductRelation> relationList);
+
+    /**
+     * 批量退还秒杀商品的活动库存，flashPromotionCount为退还数量
+     */
+    int increaseFlashPromotionCount(@Param("relationList") List<SmsFlashPromotionProductRelation> relationList);
 }
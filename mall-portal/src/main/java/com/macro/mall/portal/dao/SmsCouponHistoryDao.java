@@ -1,6 +1,7 @@
 package com.macro.mall.portal.dao;
 
 import com.macro.mall.model.SmsCoupon;
+import com.macro.mall.model.SmsCouponHistory;
 import com.macro.mall.portal.domain.SmsCouponHistoryDetail;
 import org.apache.ibatis.annotations.Param;
 
@@ -20,4 +21,14 @@ public interface SmsCouponHistoryDao {
      * 获取指定会员优惠券列表
      */
     List<SmsCoupon> getCouponList(@Param("memberId") Long memberId, @Param("useStatus")Integer useStatus);
+
+    /**
+     * 批量插入优惠券领取记录
+     */
+    int insertList(@Param("list") List<SmsCouponHistory> list);
+
+    /**
+     * 剩余数量充足时扣减优惠券数量并增加领取数量
+     */
+    int reduceCouponCount(@Param("couponId") Long couponId, @Param("count") Integer count);
 }
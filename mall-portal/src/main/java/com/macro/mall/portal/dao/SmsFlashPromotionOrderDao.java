@@ -0,0 +1,26 @@
+package com.macro.mall.portal.dao;
+
+import com.macro.mall.portal.domain.SmsFlashPromotionOrder;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
+
+/**
+ * 秒杀订单记录自定义Dao
+ */
+public interface SmsFlashPromotionOrderDao {
+    /**
+     * 批量写入秒杀订单记录，订单编号重复时抛出DuplicateKeyException
+     */
+    int insertList(@Param("list") List<SmsFlashPromotionOrder> list);
+
+    /**
+     * 锁定订单对应的未退还秒杀库存的记录
+     */
+    List<SmsFlashPromotionOrder> lockUnreturnedByOrderIds(@Param("orderIds") List<Long> orderIds);
+
+    /**
+     * 批量标记为已退还秒杀库存
+     */
+    int updateReturned(@Param("ids") List<Long> ids);
+}
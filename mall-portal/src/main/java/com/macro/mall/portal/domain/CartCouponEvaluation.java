@@ -0,0 +1,46 @@
+package com.macro.mall.portal.domain;
+
+import lombok.Getter;
+
+import java.util.*;
+
+/**
+ * 购物车优惠券可用性的计算结果
+ * 一次计算同时得到可用和不可用的优惠券，以及指定分类、指定商品优惠券的适用范围，
+ * 确认单展示与下单时优惠券的校验、分摊共用同一结果
+ */
+@Getter
+public class CartCouponEvaluation {
+    private final List<SmsCouponHistoryDetail> enableList = new ArrayList<>();
+    private final List<SmsCouponHistoryDetail> disableList = new ArrayList<>();
+    /**
+     * 优惠券id->适用的商品分类id或商品id，全场通用优惠券不在其中
+     */
+    private final Map<Long, Set<Long>> scopeMap = new HashMap<>();
+
+    /**
+     * 获取指定优惠券的第一张可用优惠券
+     */
+    public SmsCouponHistoryDetail getEnableCoupon(Long couponId) {
+        for (SmsCouponHistoryDetail couponHistoryDetail : enableList) {
+            if (couponHistoryDetail.getCoupon().getId().equals(couponId)) {
+                return couponHistoryDetail;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 判断优惠券是否适用于指定商品
+     */
+    public boolean isApplicable(SmsCouponHistoryDetail couponHistoryDetail, Long productId, Long productCategoryId) {
+        Integer useType = couponHistoryDetail.getCoupon().getUseType();
+        Set<Long> scope = scopeMap.getOrDefault(couponHistoryDetail.getCoupon().getId(), Collections.emptySet());
+        if (useType.equals(1)) {
+            return scope.contains(productCategoryId);
+        } else if (useType.equals(2)) {
+            return scope.contains(productId);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,25 @@
+package com.macro.mall.portal.domain;
+
+import lombok.Getter;
+
+/**
+ * 预先序列化的首页内容快照，创建后不可修改
+ */
+@Getter
+public class HomeContentSnapshot {
+    //序列化后的响应内容
+    private final byte[] body;
+    //根据内容生成的ETag，各节点内容相同时一致
+    private final String etag;
+    //快照生成时间
+    private final long buildTime;
+    //快照需要重建的时间，取秒杀场次切换时间与最长保留时间中较早者
+    private final long expireTime;
+
+    public HomeContentSnapshot(byte[] body, String etag, long buildTime, long expireTime) {
+        this.body = body;
+        this.etag = etag;
+        this.buildTime = buildTime;
+        this.expireTime = expireTime;
+    }
+}
@@ -0,0 +1,21 @@
+package com.macro.mall.portal.domain;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * 会员持有的未使用优惠券（包括优惠券信息和关联关系），按会员缓存
+ */
+@Getter
+@Setter
+public class MemberCouponWallet implements Serializable {
+    private static final long serialVersionUID = 1L;
+    /**
+     * 加载时的优惠券规则版本号，与当前版本号不一致时重新加载
+     */
+    private String version;
+    private List<SmsCouponHistoryDetail> couponList;
+}
@@ -0,0 +1,45 @@
+package com.macro.mall.portal.domain;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.Date;
+
+/**
+ * 取消订单延迟消息发件箱记录
+ */
+@Getter
+@Setter
+public class OmsOrderCancelOutbox {
+    private Long id;
+    /**
+     * 待取消的订单id
+     */
+    private Long orderId;
+    /**
+     * 消息延迟时间（毫秒），从createTime开始计算
+     */
+    private Long delayTimes;
+    /**
+     * 投递状态：0->待投递；1->已投递；2->投递中；3->投递失败
+     */
+    private Integer status;
+    /**
+     * 投递失败次数
+     */
+    private Integer retryCount;
+    /**
+     * 投递失败后的下次投递时间
+     */
+    private Date nextRetryTime;
+    /**
+     * 领取该消息的投递批次标识
+     */
+    private String claimToken;
+    /**
+     * 领取时间，超时未完成投递的消息可被重新领取
+     */
+    private Date claimTime;
+    private Date createTime;
+    private Date sendTime;
+}
@@ -0,0 +1,85 @@
+package com.macro.mall.portal.domain;
+
+import com.macro.mall.model.PmsProductFullReduction;
+import com.macro.mall.model.PmsProductLadder;
+import com.macro.mall.model.PmsSkuStock;
+import lombok.Getter;
+
+import java.math.BigDecimal;
+import java.util.*;
+
+/**
+ * 单个商品的促销规则快照，创建后不可修改
+ * sku按id索引，打折按件数、满减按金额预先从高到低排序
+ */
+@Getter
+public class PromotionRuleSnapshot {
+    //商品id
+    private final Long productId;
+    //促销类型
+    private final Integer promotionType;
+    //赠送的积分
+    private final Integer giftPoint;
+    //赠送的成长值
+    private final Integer giftGrowth;
+    //按id索引的sku信息
+    private final Map<Long, PmsSkuStock> skuStockMap;
+    //按件数从大到小排序的打折信息
+    private final List<PmsProductLadder> productLadderList;
+    //按金额从高到低排序的满减信息
+    private final List<PmsProductFullReduction> productFullReductionList;
+    //快照加载时间
+    private final long loadTime;
+
+    public PromotionRuleSnapshot(Long productId, Integer promotionType, Integer giftPoint, Integer giftGrowth,
+                                 List<PmsSkuStock> skuStockList, List<PmsProductLadder> productLadderList,
+                                 List<PmsProductFullReduction> productFullReductionList, long loadTime) {
+        this.productId = productId;
+        this.promotionType = promotionType;
+        this.giftPoint = giftPoint;
+        this.giftGrowth = giftGrowth;
+        Map<Long, PmsSkuStock> skuMap = new HashMap<>();
+        for (PmsSkuStock skuStock : skuStockList) {
+            skuMap.put(skuStock.getId(), skuStock);
+        }
+        this.skuStockMap = Collections.unmodifiableMap(skuMap);
+        List<PmsProductLadder> ladderList = new ArrayList<>(productLadderList);
+        ladderList.sort((o1, o2) -> o2.getCount() - o1.getCount());
+        this.productLadderList = Collections.unmodifiableList(ladderList);
+        List<PmsProductFullReduction> fullReductionList = new ArrayList<>(productFullReductionList);
+        fullReductionList.sort((o1, o2) -> o2.getFullPrice().compareTo(o1.getFullPrice()));
+        this.productFullReductionList = Collections.unmodifiableList(fullReductionList);
+        this.loadTime = loadTime;
+    }
+
+    /**
+     * 根据skuId获取sku信息
+     */
+    public PmsSkuStock getSkuStock(Long productSkuId) {
+        return skuStockMap.get(productSkuId);
+    }
+
+    /**
+     * 根据购买商品数量获取满足条件的打折优惠策略
+     */
+    public PmsProductLadder matchLadder(int count) {
+        for (PmsProductLadder productLadder : productLadderList) {
+            if (count >= productLadder.getCount()) {
+                return productLadder;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 根据商品总价获取满足条件的满减优惠策略
+     */
+    public PmsProductFullReduction matchFullReduction(BigDecimal totalAmount) {
+        for (PmsProductFullReduction fullReduction : productFullReductionList) {
+            if (totalAmount.subtract(fullReduction.getFullPrice()).intValue() >= 0) {
+                return fullReduction;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,27 @@
+package com.macro.mall.portal.domain;
+
+import lombok.Data;
+
+import java.util.Date;
+
+/**
+ * 秒杀下单消息，抢到秒杀库存后发送到消息队列，由消费者批量生成订单
+ */
+@Data
+public class SeckillOrderMessage {
+    //请求id，用于查询下单结果
+    private String requestId;
+    //预先生成的订单编号，同时用于消费幂等
+    private String orderSn;
+    private Long memberId;
+    private String memberUsername;
+    private Long flashPromotionId;
+    private Long flashPromotionSessionId;
+    private Long relationId;
+    private Long productId;
+    private Long productSkuId;
+    private Integer quantity;
+    private Long memberReceiveAddressId;
+    private Integer payType;
+    private Date createTime;
+}
@@ -0,0 +1,30 @@
+package com.macro.mall.portal.domain;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.Date;
+
+/**
+ * 秒杀订单记录，订单编号唯一，用于防止重复生成订单及取消订单后退还秒杀库存
+ */
+@Getter
+@Setter
+public class SmsFlashPromotionOrder {
+    private Long id;
+    private Long orderId;
+    private String orderSn;
+    private Long memberId;
+    private Long flashPromotionSessionId;
+    private Long relationId;
+    private Integer quantity;
+    /**
+     * 场次日期，用于定位当天的秒杀库存令牌
+     */
+    private Date promotionDate;
+    /**
+     * 状态：0->已下单；1->已退还秒杀库存
+     */
+    private Integer status;
+    private Date createTime;
+}
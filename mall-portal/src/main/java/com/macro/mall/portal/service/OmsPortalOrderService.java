@@ -32,11 +32,16 @@ public interface OmsPortalOrderService {
     Integer paySuccess(Long orderId, Integer payType);
 
     /**
-     * 自动取消超时订单
+     * 自动取消超时订单，按批次分别在独立事务中处理
      */
-    @Transactional
     Integer cancelTimeOutOrder();
 
+    /**
+     * 批量取消指定的超时订单，整批在一个事务中处理，失败时逐个重试
+     * @return 处理成功的订单id，包括已支付或已取消而无需处理的订单
+     */
+    List<Long> cancelTimeOutOrders(List<Long> orderIds);
+
     /**
      * 取消单个超时订单
      */
@@ -44,7 +49,7 @@ public interface OmsPortalOrderService {
     void cancelOrder(Long orderId);
 
     /**
-     * 发送延迟消息取消订单
+     * 发送延迟消息取消订单（写入消息发件箱，由后台任务批量投递）
      */
     void sendDelayMessageCancelOrder(Long orderId);
 
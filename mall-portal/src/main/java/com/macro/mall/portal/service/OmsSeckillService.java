@@ -0,0 +1,41 @@
+package com.macro.mall.portal.service;
+
+import com.macro.mall.portal.domain.SeckillOrderMessage;
+import com.macro.mall.portal.domain.SeckillOrderParam;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 秒杀下单Service
+ * 下单请求只在Redis中扣减秒杀库存令牌并校验限购，通过消息队列异步批量生成订单
+ */
+public interface OmsSeckillService {
+    /**
+     * 加载当天正在进行及即将开始场次的秒杀库存令牌
+     * @return 加载的秒杀商品数量
+     */
+    int warmUp();
+
+    /**
+     * 抢购秒杀商品，成功后返回排队中的请求id
+     */
+    Map<String, Object> generateOrder(SeckillOrderParam orderParam);
+
+    /**
+     * 查询当前会员的秒杀下单结果
+     */
+    Map<String, Object> getResult(String requestId);
+
+    /**
+     * 批量生成秒杀订单，由消息队列消费者调用
+     * @return 成功生成的订单数量
+     */
+    int createOrders(List<SeckillOrderMessage> messageList);
+
+    /**
+     * 取消秒杀订单后退还数据库中的活动库存及Redis中的库存令牌，需在取消订单的事务中调用
+     * @return 退还的秒杀订单数量
+     */
+    int returnFlashPromotion(List<Long> orderIds);
+}
@@ -0,0 +1,18 @@
+package com.macro.mall.portal.service;
+
+/**
+ * 订单超时取消调度
+ * 通过order.timeout.mode切换实现：mq->RabbitMQ延迟队列（经消息发件箱投递）；wheel->时间轮+Redis有序集合
+ */
+public interface OrderTimeoutScheduler {
+    /**
+     * 在指定延迟后取消订单，调用方事务提交后生效
+     * @param delayTimes 延迟时间（毫秒）
+     */
+    void schedule(Long orderId, long delayTimes);
+
+    /**
+     * 撤销订单的超时取消（如订单已支付），调用方事务提交后生效
+     */
+    void cancel(Long orderId);
+}
@@ -0,0 +1,26 @@
+package com.macro.mall.portal.service;
+
+import com.macro.mall.model.OmsOrderItem;
+
+import java.util.List;
+
+/**
+ * 下单库存预占Service
+ * 通过stock.reservation.mode切换实现：db->数据库行锁；redis->Redis预扣减并异步回写
+ */
+public interface StockReservationService {
+    /**
+     * 锁定下单商品库存，库存不足时抛出异常
+     */
+    void lock(List<OmsOrderItem> orderItemList);
+
+    /**
+     * 支付成功后扣减真实库存并解除锁定
+     */
+    void reduce(List<OmsOrderItem> orderItemList);
+
+    /**
+     * 取消订单后释放锁定库存，锁定库存与订单不一致时不抛出异常
+     */
+    void release(List<OmsOrderItem> orderItemList);
+}
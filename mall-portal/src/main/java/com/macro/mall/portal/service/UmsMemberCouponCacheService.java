@@ -0,0 +1,28 @@
+package com.macro.mall.portal.service;
+
+import com.macro.mall.portal.domain.MemberCouponWallet;
+
+/**
+ * 会员优惠券缓存业务类
+ */
+public interface UmsMemberCouponCacheService {
+    /**
+     * 获取会员未使用的优惠券缓存，优惠券规则已改变时返回null
+     */
+    MemberCouponWallet getWallet(Long memberId);
+
+    /**
+     * 设置会员未使用的优惠券缓存
+     */
+    void setWallet(Long memberId, MemberCouponWallet wallet);
+
+    /**
+     * 会员领取、使用或退还优惠券后删除缓存
+     */
+    void delWallet(Long memberId);
+
+    /**
+     * 获取当前的优惠券规则版本号
+     */
+    String getVersion();
+}
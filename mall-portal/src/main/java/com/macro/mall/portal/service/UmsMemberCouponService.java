@@ -2,9 +2,9 @@ package com.macro.mall.portal.service;
 
 import com.macro.mall.model.SmsCoupon;
 import com.macro.mall.model.SmsCouponHistory;
+import com.macro.mall.portal.domain.CartCouponEvaluation;
 import com.macro.mall.portal.domain.CartPromotionItem;
 import com.macro.mall.portal.domain.SmsCouponHistoryDetail;
-import org.springframework.transaction.annotation.Transactional;
 
 import java.util.List;
 
@@ -16,7 +16,6 @@ public interface UmsMemberCouponService {
     /**
      * 会员添加优惠券
      */
-    @Transactional
     void add(Long couponId);
 
     /**
@@ -29,6 +28,11 @@ public interface UmsMemberCouponService {
      */
     List<SmsCouponHistoryDetail> listCart(List<CartPromotionItem> cartItemList, Integer type);
 
+    /**
+     * 根据购物车信息计算当前会员优惠券的可用性
+     */
+    CartCouponEvaluation evaluateCart(List<CartPromotionItem> cartItemList);
+
     /**
      * 获取当前商品相关优惠券
      */
@@ -0,0 +1,102 @@
+package com.macro.mall.portal.service.impl;
+
+import com.macro.mall.common.exception.Asserts;
+import com.macro.mall.model.OmsOrderItem;
+import com.macro.mall.model.PmsSkuStock;
+import com.macro.mall.portal.dao.PortalOrderDao;
+import com.macro.mall.portal.service.StockReservationService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * 基于数据库行锁的库存预占实现（默认）
+ */
+@Service
+@ConditionalOnProperty(prefix = "stock.reservation", name = "mode", havingValue = "db", matchIfMissing = true)
+public class DbStockReservationServiceImpl implements StockReservationService {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DbStockReservationServiceImpl.class);
+    @Autowired
+    private PortalOrderDao portalOrderDao;
+
+    @Override
+    public void lock(List<OmsOrderItem> orderItemList) {
+        List<OmsOrderItem> itemList = mergeBySkuId(orderItemList);
+        if (itemList.isEmpty()) {
+            return;
+        }
+        //一条语句锁定整单库存，部分sku库存不足时抛出异常回滚整个下单事务
+        int count = portalOrderDao.lockStockByItemList(itemList);
+        if (count < itemList.size()) {
+            Asserts.fail("库存不足，无法下单");
+        }
+    }
+
+    @Override
+    public void reduce(List<OmsOrderItem> orderItemList) {
+        List<OmsOrderItem> itemList = mergeBySkuId(orderItemList);
+        if (itemList.isEmpty()) {
+            return;
+        }
+        int count = portalOrderDao.reduceSkuStockByItemList(itemList);
+        if (count < itemList.size()) {
+            Asserts.fail("库存不足，无法扣减！");
+        }
+    }
+
+    @Override
+    public void release(List<OmsOrderItem> orderItemList) {
+        List<OmsOrderItem> itemList = mergeBySkuId(orderItemList);
+        if (itemList.isEmpty()) {
+            return;
+        }
+        //释放不能使取消订单失败，锁定库存与订单不一致的sku只记录日志，锁定库存最多释放到0
+        List<Long> skuIds = itemList.stream().map(OmsOrderItem::getProductSkuId).collect(Collectors.toList());
+        Map<Long, Integer> lockStockMap = new HashMap<>();
+        for (PmsSkuStock skuStock : portalOrderDao.lockSkuStockList(skuIds)) {
+            lockStockMap.put(skuStock.getId(), skuStock.getLockStock());
+        }
+        for (OmsOrderItem item : itemList) {
+            Integer lockStock = lockStockMap.get(item.getProductSkuId());
+            if (lockStock == null) {
+                LOGGER.warn("释放锁定库存时sku不存在，skuId：{}，释放数量：{}", item.getProductSkuId(), item.getProductQuantity());
+            } else if (lockStock < item.getProductQuantity()) {
+                LOGGER.warn("释放锁定库存时锁定库存不足，skuId：{}，锁定库存：{}，释放数量：{}",
+                        item.getProductSkuId(), lockStock, item.getProductQuantity());
+            }
+        }
+        portalOrderDao.releaseStockByItemList(itemList);
+    }
+
+    /**
+     * 按sku合并下单数量，保证批量语句中每个sku只出现一次
+     */
+    private List<OmsOrderItem> mergeBySkuId(List<OmsOrderItem> orderItemList) {
+        Map<Long, Integer> quantityMap = new LinkedHashMap<>();
+        if (orderItemList != null) {
+            for (OmsOrderItem orderItem : orderItemList) {
+                if (orderItem.getProductSkuId() == null || orderItem.getProductQuantity() == null) {
+                    continue;
+                }
+                quantityMap.merge(orderItem.getProductSkuId(), orderItem.getProductQuantity(), Integer::sum);
+            }
+        }
+        List<OmsOrderItem> itemList = new ArrayList<>(quantityMap.size());
+        for (Map.Entry<Long, Integer> entry : quantityMap.entrySet()) {
+            OmsOrderItem item = new OmsOrderItem();
+            item.setProductSkuId(entry.getKey());
+            item.setProductQuantity(entry.getValue());
+            itemList.add(item);
+        }
+        return itemList;
+    }
+}
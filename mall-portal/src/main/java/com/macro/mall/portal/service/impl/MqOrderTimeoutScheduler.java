@@ -0,0 +1,35 @@
+package com.macro.mall.portal.service.impl;
+
+import com.macro.mall.portal.dao.OmsOrderCancelOutboxDao;
+import com.macro.mall.portal.domain.OmsOrderCancelOutbox;
+import com.macro.mall.portal.service.OrderTimeoutScheduler;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import java.util.Date;
+
+/**
+ * 基于RabbitMQ延迟队列的订单超时取消（默认）
+ * 消息写入发件箱并与订单在同一事务中提交，由CancelOrderOutboxRelay批量投递
+ */
+@Service
+@ConditionalOnProperty(prefix = "order.timeout", name = "mode", havingValue = "mq", matchIfMissing = true)
+public class MqOrderTimeoutScheduler implements OrderTimeoutScheduler {
+    @Autowired
+    private OmsOrderCancelOutboxDao orderCancelOutboxDao;
+
+    @Override
+    public void schedule(Long orderId, long delayTimes) {
+        OmsOrderCancelOutbox outbox = new OmsOrderCancelOutbox();
+        outbox.setOrderId(orderId);
+        outbox.setDelayTimes(delayTimes);
+        outbox.setCreateTime(new Date());
+        orderCancelOutboxDao.insert(outbox);
+    }
+
+    @Override
+    public void cancel(Long orderId) {
+        //延迟消息无法撤回，到期后由cancelOrder根据订单状态忽略
+    }
+}
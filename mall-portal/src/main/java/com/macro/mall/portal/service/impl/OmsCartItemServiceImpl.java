@@ -12,6 +12,7 @@ import com.macro.mall.portal.service.OmsCartItemService;
 import com.macro.mall.portal.service.OmsPromotionService;
 import com.macro.mall.portal.service.UmsMemberService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Service;
 import org.springframework.util.CollectionUtils;
 
@@ -25,6 +26,7 @@ import java.util.stream.Collectors;
  * Created by macro on 2018/8/2.
  */
 @Service
+@ConditionalOnProperty(prefix = "cart.store", name = "mode", havingValue = "db", matchIfMissing = true)
 public class OmsCartItemServiceImpl implements OmsCartItemService {
     @Autowired
     private OmsCartItemMapper cartItemMapper;
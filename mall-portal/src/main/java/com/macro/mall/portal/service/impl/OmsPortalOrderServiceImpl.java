@@ -5,25 +5,29 @@ import cn.hutool.core.collection.CollUtil;
 import com.github.pagehelper.PageHelper;
 import com.macro.mall.common.api.CommonPage;
 import com.macro.mall.common.exception.Asserts;
-import com.macro.mall.common.service.RedisService;
 import com.macro.mall.mapper.*;
 import com.macro.mall.model.*;
-import com.macro.mall.portal.component.CancelOrderSender;
+import com.macro.mall.portal.component.OrderSnGenerator;
 import com.macro.mall.portal.dao.PortalOrderDao;
 import com.macro.mall.portal.dao.PortalOrderItemDao;
 import com.macro.mall.portal.dao.SmsCouponHistoryDao;
 import com.macro.mall.portal.domain.*;
 import com.macro.mall.portal.service.*;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.util.CollectionUtils;
 
+import javax.annotation.PostConstruct;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
-import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 /**
@@ -44,8 +48,6 @@ public class OmsPortalOrderServiceImpl implements OmsPortalOrderService {
     @Autowired
     private UmsIntegrationConsumeSettingMapper integrationConsumeSettingMapper;
     @Autowired
-    private PmsSkuStockMapper skuStockMapper;
-    @Autowired
     private SmsCouponHistoryDao couponHistoryDao;
     @Autowired
     private OmsOrderMapper orderMapper;
@@ -54,11 +56,7 @@ public class OmsPortalOrderServiceImpl implements OmsPortalOrderService {
     @Autowired
     private SmsCouponHistoryMapper couponHistoryMapper;
     @Autowired
-    private RedisService redisService;
-    @Value("${redis.key.orderId}")
-    private String REDIS_KEY_ORDER_ID;
-    @Value("${redis.database}")
-    private String REDIS_DATABASE;
+    private OrderSnGenerator orderSnGenerator;
     @Autowired
     private PortalOrderDao portalOrderDao;
     @Autowired
@@ -66,7 +64,35 @@ public class OmsPortalOrderServiceImpl implements OmsPortalOrderService {
     @Autowired
     private OmsOrderItemMapper orderItemMapper;
     @Autowired
-    private CancelOrderSender cancelOrderSender;
+    private OrderTimeoutScheduler orderTimeoutScheduler;
+    @Autowired
+    private UmsMemberCacheService memberCacheService;
+    @Autowired
+    private UmsMemberCouponCacheService memberCouponCacheService;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+    @Autowired
+    private MeterRegistry meterRegistry;
+    @Autowired
+    private StockReservationService stockReservationService;
+    @Autowired
+    private OmsSeckillService seckillService;
+    @Value("${order.timeout.chunkSize:500}")
+    private Integer CANCEL_CHUNK_SIZE;
+    private Timer cancelChunkTimer;
+    private Counter cancelChunkCounter;
+    private Counter cancelChunkFailedCounter;
+    private Counter cancelOrderCounter;
+
+    @PostConstruct
+    public void initMetrics() {
+        cancelChunkTimer = Timer.builder("mall.order.timeout.cancel.chunk")
+                .description("超时订单每批取消耗时")
+                .register(meterRegistry);
+        cancelChunkCounter = meterRegistry.counter("mall.order.timeout.cancel.chunks", "result", "success");
+        cancelChunkFailedCounter = meterRegistry.counter("mall.order.timeout.cancel.chunks", "result", "failed");
+        cancelOrderCounter = meterRegistry.counter("mall.order.timeout.cancel.orders");
+    }
 
     @Override
     public ConfirmOrderResult generateConfirmOrder(List<Long> cartIds) {
@@ -133,13 +159,14 @@ public class OmsPortalOrderServiceImpl implements OmsPortalOrderService {
                 orderItem.setCouponAmount(new BigDecimal(0));
             }
         } else {
-            //使用优惠券
-            SmsCouponHistoryDetail couponHistoryDetail = getUseCoupon(cartPromotionItemList, orderParam.getCouponId());
+            //使用优惠券，可用性校验与金额分摊共用一次计算结果
+            CartCouponEvaluation couponEvaluation = memberCouponService.evaluateCart(cartPromotionItemList);
+            SmsCouponHistoryDetail couponHistoryDetail = couponEvaluation.getEnableCoupon(orderParam.getCouponId());
             if (couponHistoryDetail == null) {
                 Asserts.fail("该优惠券不可用");
             }
             //对下单商品的优惠券进行处理
-            handleCouponAmount(orderItemList, couponHistoryDetail);
+            handleCouponAmount(orderItemList, couponHistoryDetail, couponEvaluation);
         }
         //判断是否使用积分
         if (orderParam.getUseIntegration() == null||orderParam.getUseIntegration().equals(0)) {
@@ -164,7 +191,7 @@ public class OmsPortalOrderServiceImpl implements OmsPortalOrderService {
         //计算order_item的实付金额
         handleRealAmount(orderItemList);
         //进行库存锁定
-        lockStock(cartPromotionItemList);
+        stockReservationService.lock(orderItemList);
         //根据商品合计、运费、活动优惠、优惠券、积分计算应付金额
         OmsOrder order = new OmsOrder();
         order.setDiscountAmount(new BigDecimal(0));
@@ -215,7 +242,7 @@ public class OmsPortalOrderServiceImpl implements OmsPortalOrderService {
         //计算赠送成长值
         order.setGrowth(calcGiftGrowth(orderItemList));
         //生成订单号
-        order.setOrderSn(generateOrderSn(order));
+        order.setOrderSn(orderSnGenerator.generate(order.getSourceType(), order.getPayType()));
         //设置自动收货天数
         List<OmsOrderSetting> orderSettings = orderSettingMapper.selectByExample(new OmsOrderSettingExample());
         if(CollUtil.isNotEmpty(orderSettings)){
@@ -231,7 +258,7 @@ public class OmsPortalOrderServiceImpl implements OmsPortalOrderService {
         orderItemDao.insertList(orderItemList);
         //如使用优惠券更新优惠券使用状态
         if (orderParam.getCouponId() != null) {
-            updateCouponStatus(orderParam.getCouponId(), currentMember.getId(), 1);
+            updateCouponStatus(orderParam.getCouponId(), currentMember.getId(), 1, order);
         }
         //如使用积分需要扣除积分
         if (orderParam.getUseIntegration() != null) {
@@ -271,44 +298,149 @@ public class OmsPortalOrderServiceImpl implements OmsPortalOrderService {
         }
         //恢复所有下单商品的锁定库存，扣减真实库存
         OmsOrderDetail orderDetail = portalOrderDao.getDetail(orderId);
-        int totalCount = 0;
-        for (OmsOrderItem orderItem : orderDetail.getOrderItemList()) {
-            int count = portalOrderDao.reduceSkuStock(orderItem.getProductSkuId(),orderItem.getProductQuantity());
-            if(count==0){
-                Asserts.fail("库存不足，无法扣减！");
-            }
-            totalCount+=count;
-        }
-        return totalCount;
+        stockReservationService.reduce(orderDetail.getOrderItemList());
+        //已支付订单无需再超时取消
+        orderTimeoutScheduler.cancel(orderId);
+        return orderDetail.getOrderItemList().size();
     }
 
     @Override
     public Integer cancelTimeOutOrder() {
-        Integer count=0;
         OmsOrderSetting orderSetting = orderSettingMapper.selectByPrimaryKey(1L);
-        //查询超时、未支付的订单及订单详情
-        List<OmsOrderDetail> timeOutOrders = portalOrderDao.getTimeOutOrders(orderSetting.getNormalOrderOvertime());
-        if (CollectionUtils.isEmpty(timeOutOrders)) {
+        int count = 0;
+        long lastId = 0L;
+        while (true) {
+            //按主键分页获取超时订单，每批在独立事务中处理，避免长事务占用连接
+            List<Long> ids = portalOrderDao.getTimeOutOrderIds(orderSetting.getNormalOrderOvertime(), lastId, CANCEL_CHUNK_SIZE);
+            if (CollectionUtils.isEmpty(ids)) {
+                break;
+            }
+            lastId = ids.get(ids.size() - 1);
+            count += cancelTimeOutOrderIds(ids, null);
+            if (ids.size() < CANCEL_CHUNK_SIZE) {
+                break;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public List<Long> cancelTimeOutOrders(List<Long> orderIds) {
+        if (CollectionUtils.isEmpty(orderIds)) {
+            return Collections.emptyList();
+        }
+        List<Long> succeedIds = new ArrayList<>(orderIds.size());
+        cancelTimeOutOrderIds(orderIds, succeedIds);
+        return succeedIds;
+    }
+
+    /**
+     * 在一个事务中取消一批超时订单，批次失败时逐个订单重试
+     * @param succeedIds 不为空时收集处理成功的订单id
+     * @return 取消的订单数量
+     */
+    private int cancelTimeOutOrderIds(List<Long> ids, List<Long> succeedIds) {
+        long start = System.nanoTime();
+        try {
+            Integer chunkCount = transactionTemplate.execute(status -> cancelTimeOutOrderChunk(ids));
+            int count = chunkCount == null ? 0 : chunkCount;
+            cancelChunkCounter.increment();
+            cancelOrderCounter.increment(count);
+            if (succeedIds != null) {
+                succeedIds.addAll(ids);
+            }
+            return count;
+        } catch (Exception e) {
+            //批次失败时逐个订单重试，避免个别订单导致整批订单一直无法取消
+            cancelChunkFailedCounter.increment();
+            log.error("批量取消超时订单失败，改为逐个取消，订单id范围：{}-{}", ids.get(0), ids.get(ids.size() - 1), e);
+            int count = cancelTimeOutOrderOneByOne(ids, succeedIds);
+            cancelOrderCounter.increment(count);
             return count;
+        } finally {
+            cancelChunkTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * 在各自的事务中逐个取消订单，失败的订单跳过，留待下次重试
+     */
+    private int cancelTimeOutOrderOneByOne(List<Long> ids, List<Long> succeedIds) {
+        int count = 0;
+        for (Long id : ids) {
+            try {
+                Integer orderCount = transactionTemplate.execute(status -> cancelTimeOutOrderChunk(Collections.singletonList(id)));
+                count += orderCount == null ? 0 : orderCount;
+                if (succeedIds != null) {
+                    succeedIds.add(id);
+                }
+            } catch (Exception e) {
+                log.error("取消超时订单失败，订单id：{}", id, e);
+            }
         }
+        return count;
+    }
+
+    /**
+     * 批量取消一批超时订单：库存、优惠券、积分均按批次集合处理
+     */
+    private Integer cancelTimeOutOrderChunk(List<Long> ids) {
+        //锁定仍未支付的订单，排除分页后已支付或已取消的订单
+        List<OmsOrder> orderList = portalOrderDao.lockUnpaidOrders(ids);
+        if (CollectionUtils.isEmpty(orderList)) {
+            return 0;
+        }
+        List<Long> orderIds = orderList.stream().map(OmsOrder::getId).collect(Collectors.toList());
         //修改订单状态为交易取消
-        List<Long> ids = new ArrayList<>();
-        for (OmsOrderDetail timeOutOrder : timeOutOrders) {
-            ids.add(timeOutOrder.getId());
+        portalOrderDao.updateOrderStatus(orderIds, 4);
+        //按sku汇总后一次解除库存锁定
+        List<OmsOrderItem> skuQuantityList = portalOrderDao.sumQuantityBySkuId(orderIds);
+        if (!CollectionUtils.isEmpty(skuQuantityList)) {
+            stockReservationService.release(skuQuantityList);
+        }
+        //返还秒杀订单占用的活动库存及库存令牌
+        List<Long> seckillOrderIds = orderList.stream().filter(order -> Integer.valueOf(1).equals(order.getOrderType()))
+                .map(OmsOrder::getId).collect(Collectors.toList());
+        if (!seckillOrderIds.isEmpty()) {
+            seckillService.returnFlashPromotion(seckillOrderIds);
+        }
+        //按订单id一次返还优惠券，未记录订单id的历史优惠券逐个返还
+        List<OmsOrder> couponOrderList = orderList.stream().filter(order -> order.getCouponId() != null).collect(Collectors.toList());
+        if (!couponOrderList.isEmpty()) {
+            List<Long> couponOrderIds = couponOrderList.stream().map(OmsOrder::getId).collect(Collectors.toList());
+            int releaseCount = portalOrderDao.releaseCouponByOrderIds(couponOrderIds);
+            if (releaseCount < couponOrderList.size()) {
+                Set<Long> releasedOrderIds = new HashSet<>(portalOrderDao.getReleasedCouponOrderIds(couponOrderIds));
+                for (OmsOrder order : couponOrderList) {
+                    if (!releasedOrderIds.contains(order.getId())) {
+                        updateCouponStatus(order.getCouponId(), order.getMemberId(), 0);
+                    }
+                }
+            }
+            couponOrderList.stream().map(OmsOrder::getMemberId).distinct()
+                    .forEach(memberId -> memberCouponCacheService.delWallet(memberId));
+        }
+        //按会员汇总后一次返还积分
+        Map<Long, Integer> integrationMap = new LinkedHashMap<>();
+        for (OmsOrder order : orderList) {
+            if (order.getUseIntegration() != null && order.getUseIntegration() > 0) {
+                integrationMap.merge(order.getMemberId(), order.getUseIntegration(), Integer::sum);
+            }
         }
-        portalOrderDao.updateOrderStatus(ids, 4);
-        for (OmsOrderDetail timeOutOrder : timeOutOrders) {
-            //解除订单商品库存锁定
-            portalOrderDao.releaseSkuStockLock(timeOutOrder.getOrderItemList());
-            //修改优惠券使用状态
-            updateCouponStatus(timeOutOrder.getCouponId(), timeOutOrder.getMemberId(), 0);
-            //返还使用积分
-            if (timeOutOrder.getUseIntegration() != null) {
-                UmsMember member = memberService.getById(timeOutOrder.getMemberId());
-                memberService.updateIntegration(timeOutOrder.getMemberId(), member.getIntegration() + timeOutOrder.getUseIntegration());
+        if (!integrationMap.isEmpty()) {
+            List<UmsMember> memberList = new ArrayList<>(integrationMap.size());
+            for (Map.Entry<Long, Integer> entry : integrationMap.entrySet()) {
+                UmsMember member = new UmsMember();
+                member.setId(entry.getKey());
+                member.setIntegration(entry.getValue());
+                memberList.add(member);
+            }
+            portalOrderDao.releaseIntegration(memberList);
+            for (Long memberId : integrationMap.keySet()) {
+                memberCacheService.delMember(memberId);
             }
         }
-        return timeOutOrders.size();
+        return orderList.size();
     }
 
     @Override
@@ -330,12 +462,11 @@ public class OmsPortalOrderServiceImpl implements OmsPortalOrderService {
             List<OmsOrderItem> orderItemList = orderItemMapper.selectByExample(orderItemExample);
             //解除订单商品库存锁定
             if (!CollectionUtils.isEmpty(orderItemList)) {
-                for (OmsOrderItem orderItem : orderItemList) {
-                    int count = portalOrderDao.releaseStockBySkuId(orderItem.getProductSkuId(),orderItem.getProductQuantity());
-                    if(count==0){
-                        Asserts.fail("库存不足，无法释放！");
-                    }
-                }
+                stockReservationService.release(orderItemList);
+            }
+            //返还秒杀订单占用的活动库存及库存令牌
+            if (Integer.valueOf(1).equals(cancelOrder.getOrderType())) {
+                seckillService.returnFlashPromotion(Collections.singletonList(orderId));
             }
             //修改优惠券使用状态
             updateCouponStatus(cancelOrder.getCouponId(), cancelOrder.getMemberId(), 0);
@@ -352,8 +483,8 @@ public class OmsPortalOrderServiceImpl implements OmsPortalOrderService {
         //获取订单超时时间
         OmsOrderSetting orderSetting = orderSettingMapper.selectByPrimaryKey(1L);
         long delayTimes = orderSetting.getNormalOrderOvertime() * 60 * 1000;
-        //发送延迟消息
-        cancelOrderSender.sendMessage(orderId, delayTimes);
+        //提交超时取消任务
+        orderTimeoutScheduler.schedule(orderId, delayTimes);
     }
 
     @Override
@@ -456,26 +587,6 @@ public class OmsPortalOrderServiceImpl implements OmsPortalOrderService {
         }
     }
 
-    /**
-     * 生成18位订单编号:8位日期+2位平台号码+2位支付方式+6位以上自增id
-     */
-    private String generateOrderSn(OmsOrder order) {
-        StringBuilder sb = new StringBuilder();
-        String date = new SimpleDateFormat("yyyyMMdd").format(new Date());
-        String key = REDIS_DATABASE+":"+ REDIS_KEY_ORDER_ID + date;
-        Long increment = redisService.incr(key, 1);
-        sb.append(date);
-        sb.append(String.format("%02d", order.getSourceType()));
-        sb.append(String.format("%02d", order.getPayType()));
-        String incrementStr = increment.toString();
-        if (incrementStr.length() <= 6) {
-            sb.append(String.format("%06d", increment));
-        } else {
-            sb.append(incrementStr);
-        }
-        return sb.toString();
-    }
-
     /**
      * 从购物车中删除已下单的商品信息
      */
@@ -517,6 +628,15 @@ public class OmsPortalOrderServiceImpl implements OmsPortalOrderService {
      * @param useStatus 0->未使用；1->已使用
      */
     private void updateCouponStatus(Long couponId, Long memberId, Integer useStatus) {
+        updateCouponStatus(couponId, memberId, useStatus, null);
+    }
+
+    /**
+     * 将优惠券信息更改为指定状态，使用时记录对应的订单
+     *
+     * @param order 使用优惠券的订单，返还时为null
+     */
+    private void updateCouponStatus(Long couponId, Long memberId, Integer useStatus, OmsOrder order) {
         if (couponId == null) return;
         //查询第一张优惠券
         SmsCouponHistoryExample example = new SmsCouponHistoryExample();
@@ -527,7 +647,12 @@ public class OmsPortalOrderServiceImpl implements OmsPortalOrderService {
             SmsCouponHistory couponHistory = couponHistoryList.get(0);
             couponHistory.setUseTime(new Date());
             couponHistory.setUseStatus(useStatus);
+            if (order != null) {
+                couponHistory.setOrderId(order.getId());
+                couponHistory.setOrderSn(order.getOrderSn());
+            }
             couponHistoryMapper.updateByPrimaryKeySelective(couponHistory);
+            memberCouponCacheService.delWallet(memberId);
         }
     }
 
@@ -649,21 +774,19 @@ public class OmsPortalOrderServiceImpl implements OmsPortalOrderService {
      *
      * @param orderItemList       order_item列表
      * @param couponHistoryDetail 可用优惠券详情
+     * @param couponEvaluation    购物车优惠券可用性的计算结果
      */
-    private void handleCouponAmount(List<OmsOrderItem> orderItemList, SmsCouponHistoryDetail couponHistoryDetail) {
-        SmsCoupon coupon = couponHistoryDetail.getCoupon();
-        if (coupon.getUseType().equals(0)) {
-            //全场通用
-            calcPerCouponAmount(orderItemList, coupon);
-        } else if (coupon.getUseType().equals(1)) {
-            //指定分类
-            List<OmsOrderItem> couponOrderItemList = getCouponOrderItemByRelation(couponHistoryDetail, orderItemList, 0);
-            calcPerCouponAmount(couponOrderItemList, coupon);
-        } else if (coupon.getUseType().equals(2)) {
-            //指定商品
-            List<OmsOrderItem> couponOrderItemList = getCouponOrderItemByRelation(couponHistoryDetail, orderItemList, 1);
-            calcPerCouponAmount(couponOrderItemList, coupon);
+    private void handleCouponAmount(List<OmsOrderItem> orderItemList, SmsCouponHistoryDetail couponHistoryDetail, CartCouponEvaluation couponEvaluation) {
+        //全场通用的优惠券适用于所有商品，指定分类及指定商品的优惠券只分摊到适用的商品
+        List<OmsOrderItem> couponOrderItemList = new ArrayList<>();
+        for (OmsOrderItem orderItem : orderItemList) {
+            if (couponEvaluation.isApplicable(couponHistoryDetail, orderItem.getProductId(), orderItem.getProductCategoryId())) {
+                couponOrderItemList.add(orderItem);
+            } else {
+                orderItem.setCouponAmount(new BigDecimal(0));
+            }
         }
+        calcPerCouponAmount(couponOrderItemList, couponHistoryDetail.getCoupon());
     }
 
     /**
@@ -680,59 +803,6 @@ public class OmsPortalOrderServiceImpl implements OmsPortalOrderService {
         }
     }
 
-    /**
-     * 获取与优惠券有关系的下单商品
-     *
-     * @param couponHistoryDetail 优惠券详情
-     * @param orderItemList       下单商品
-     * @param type                使用关系类型：0->相关分类；1->指定商品
-     */
-    private List<OmsOrderItem> getCouponOrderItemByRelation(SmsCouponHistoryDetail couponHistoryDetail, List<OmsOrderItem> orderItemList, int type) {
-        List<OmsOrderItem> result = new ArrayList<>();
-        if (type == 0) {
-            List<Long> categoryIdList = new ArrayList<>();
-            for (SmsCouponProductCategoryRelation productCategoryRelation : couponHistoryDetail.getCategoryRelationList()) {
-                categoryIdList.add(productCategoryRelation.getProductCategoryId());
-            }
-            for (OmsOrderItem orderItem : orderItemList) {
-                if (categoryIdList.contains(orderItem.getProductCategoryId())) {
-                    result.add(orderItem);
-                } else {
-                    orderItem.setCouponAmount(new BigDecimal(0));
-                }
-            }
-        } else if (type == 1) {
-            List<Long> productIdList = new ArrayList<>();
-            for (SmsCouponProductRelation productRelation : couponHistoryDetail.getProductRelationList()) {
-                productIdList.add(productRelation.getProductId());
-            }
-            for (OmsOrderItem orderItem : orderItemList) {
-                if (productIdList.contains(orderItem.getProductId())) {
-                    result.add(orderItem);
-                } else {
-                    orderItem.setCouponAmount(new BigDecimal(0));
-                }
-            }
-        }
-        return result;
-    }
-
-    /**
-     * 获取该用户可以使用的优惠券
-     *
-     * @param cartPromotionItemList 购物车优惠列表
-     * @param couponId              使用优惠券id
-     */
-    private SmsCouponHistoryDetail getUseCoupon(List<CartPromotionItem> cartPromotionItemList, Long couponId) {
-        List<SmsCouponHistoryDetail> couponHistoryDetailList = memberCouponService.listCart(cartPromotionItemList, 1);
-        for (SmsCouponHistoryDetail couponHistoryDetail : couponHistoryDetailList) {
-            if (couponHistoryDetail.getCoupon().getId().equals(couponId)) {
-                return couponHistoryDetail;
-            }
-        }
-        return null;
-    }
-
     /**
      * 计算总金额
      */
@@ -744,20 +814,6 @@ public class OmsPortalOrderServiceImpl implements OmsPortalOrderService {
         return totalAmount;
     }
 
-    /**
-     * 锁定下单商品的所有库存
-     */
-    private void lockStock(List<CartPromotionItem> cartPromotionItemList) {
-        for (CartPromotionItem cartPromotionItem : cartPromotionItemList) {
-            PmsSkuStock skuStock = skuStockMapper.selectByPrimaryKey(cartPromotionItem.getProductSkuId());
-            skuStock.setLockStock(skuStock.getLockStock() + cartPromotionItem.getQuantity());
-            int count = portalOrderDao.lockStockBySkuId(cartPromotionItem.getProductSkuId(),cartPromotionItem.getQuantity());
-            if(count==0){
-                Asserts.fail("库存不足，无法下单");
-            }
-        }
-    }
-
     /**
      * 判断下单商品是否都有库存
      */
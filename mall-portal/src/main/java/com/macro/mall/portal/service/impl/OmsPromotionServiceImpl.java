@@ -1,12 +1,13 @@
 package com.macro.mall.portal.service.impl;
 
+import com.macro.mall.common.exception.Asserts;
 import com.macro.mall.model.OmsCartItem;
 import com.macro.mall.model.PmsProductFullReduction;
 import com.macro.mall.model.PmsProductLadder;
 import com.macro.mall.model.PmsSkuStock;
-import com.macro.mall.portal.dao.PortalProductDao;
+import com.macro.mall.portal.component.PromotionRuleIndex;
 import com.macro.mall.portal.domain.CartPromotionItem;
-import com.macro.mall.portal.domain.PromotionProduct;
+import com.macro.mall.portal.domain.PromotionRuleSnapshot;
 import com.macro.mall.portal.service.OmsPromotionService;
 import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -23,19 +24,22 @@ import java.util.*;
 @Service
 public class OmsPromotionServiceImpl implements OmsPromotionService {
     @Autowired
-    private PortalProductDao portalProductDao;
+    private PromotionRuleIndex promotionRuleIndex;
 
     @Override
     public List<CartPromotionItem> calcCartPromotion(List<OmsCartItem> cartItemList) {
         //1.先根据productId对CartItem进行分组，以spu为单位进行计算优惠
         Map<Long, List<OmsCartItem>> productCartMap = groupCartItemBySpu(cartItemList);
-        //2.查询所有商品的优惠相关信息
-        List<PromotionProduct> promotionProductList = getPromotionProductList(cartItemList);
+        //2.从本地索引获取所有商品的促销规则快照
+        Map<Long, PromotionRuleSnapshot> promotionRuleMap = promotionRuleIndex.getSnapshots(productCartMap.keySet());
         //3.根据商品促销类型计算商品促销优惠价格
         List<CartPromotionItem> cartPromotionItemList = new ArrayList<>();
         for (Map.Entry<Long, List<OmsCartItem>> entry : productCartMap.entrySet()) {
             Long productId = entry.getKey();
-            PromotionProduct promotionProduct = getPromotionProductById(productId, promotionProductList);
+            PromotionRuleSnapshot promotionProduct = promotionRuleMap.get(productId);
+            if (promotionProduct == null) {
+                Asserts.fail("商品不存在");
+            }
             List<OmsCartItem> itemList = entry.getValue();
             Integer promotionType = promotionProduct.getPromotionType();
             if (promotionType == 1) {
@@ -45,7 +49,7 @@ public class OmsPromotionServiceImpl implements OmsPromotionService {
                     BeanUtils.copyProperties(item,cartPromotionItem);
                     cartPromotionItem.setPromotionMessage("单品促销");
                     //商品原价-促销价
-                    PmsSkuStock skuStock = getOriginalPrice(promotionProduct, item.getProductSkuId());
+                    PmsSkuStock skuStock = promotionProduct.getSkuStock(item.getProductSkuId());
                     BigDecimal originalPrice = skuStock.getPrice();
                     //单品促销使用原价
                     cartPromotionItem.setPrice(originalPrice);
@@ -58,7 +62,7 @@ public class OmsPromotionServiceImpl implements OmsPromotionService {
             } else if (promotionType == 3) {
                 //打折优惠
                 int count = getCartItemCount(itemList);
-                PmsProductLadder ladder = getProductLadder(count, promotionProduct.getProductLadderList());
+                PmsProductLadder ladder = promotionProduct.matchLadder(count);
                 if(ladder!=null){
                     for (OmsCartItem item : itemList) {
                         CartPromotionItem cartPromotionItem = new CartPromotionItem();
@@ -66,7 +70,7 @@ public class OmsPromotionServiceImpl implements OmsPromotionService {
                         String message = getLadderPromotionMessage(ladder);
                         cartPromotionItem.setPromotionMessage(message);
                         //商品原价-折扣*商品原价
-                        PmsSkuStock skuStock = getOriginalPrice(promotionProduct,item.getProductSkuId());
+                        PmsSkuStock skuStock = promotionProduct.getSkuStock(item.getProductSkuId());
                         BigDecimal originalPrice = skuStock.getPrice();
                         BigDecimal reduceAmount = originalPrice.subtract(ladder.getDiscount().multiply(originalPrice));
                         cartPromotionItem.setReduceAmount(reduceAmount);
@@ -80,8 +84,8 @@ public class OmsPromotionServiceImpl implements OmsPromotionService {
                 }
             } else if (promotionType == 4) {
                 //满减
-                BigDecimal totalAmount= getCartItemAmount(itemList,promotionProductList);
-                PmsProductFullReduction fullReduction = getProductFullReduction(totalAmount,promotionProduct.getProductFullReductionList());
+                BigDecimal totalAmount= getCartItemAmount(itemList,promotionProduct);
+                PmsProductFullReduction fullReduction = promotionProduct.matchFullReduction(totalAmount);
                 if(fullReduction!=null){
                     for (OmsCartItem item : itemList) {
                         CartPromotionItem cartPromotionItem = new CartPromotionItem();
@@ -89,7 +93,7 @@ public class OmsPromotionServiceImpl implements OmsPromotionService {
                         String message = getFullReductionPromotionMessage(fullReduction);
                         cartPromotionItem.setPromotionMessage(message);
                         //(商品原价/总价)*满减金额
-                        PmsSkuStock skuStock= getOriginalPrice(promotionProduct, item.getProductSkuId());
+                        PmsSkuStock skuStock= promotionProduct.getSkuStock(item.getProductSkuId());
                         BigDecimal originalPrice = skuStock.getPrice();
                         BigDecimal reduceAmount = originalPrice.divide(totalAmount,RoundingMode.HALF_EVEN).multiply(fullReduction.getReducePrice());
                         cartPromotionItem.setReduceAmount(reduceAmount);
@@ -109,17 +113,6 @@ public class OmsPromotionServiceImpl implements OmsPromotionService {
         return cartPromotionItemList;
     }
 
-    /**
-     * 查询所有商品的优惠相关信息
-     */
-    private List<PromotionProduct> getPromotionProductList(List<OmsCartItem> cartItemList) {
-        List<Long> productIdList = new ArrayList<>();
-        for(OmsCartItem cartItem:cartItemList){
-            productIdList.add(cartItem.getProductId());
-        }
-        return portalProductDao.getPromotionProductList(productIdList);
-    }
-
     /**
      * 以spu为单位对购物车中商品进行分组
      */
@@ -156,13 +149,13 @@ public class OmsPromotionServiceImpl implements OmsPromotionService {
     /**
      * 对没满足优惠条件的商品进行处理
      */
-    private void handleNoReduce(List<CartPromotionItem> cartPromotionItemList, List<OmsCartItem> itemList,PromotionProduct promotionProduct) {
+    private void handleNoReduce(List<CartPromotionItem> cartPromotionItemList, List<OmsCartItem> itemList,PromotionRuleSnapshot promotionProduct) {
         for (OmsCartItem item : itemList) {
             CartPromotionItem cartPromotionItem = new CartPromotionItem();
             BeanUtils.copyProperties(item,cartPromotionItem);
             cartPromotionItem.setPromotionMessage("无优惠");
             cartPromotionItem.setReduceAmount(new BigDecimal(0));
-            PmsSkuStock skuStock = getOriginalPrice(promotionProduct,item.getProductSkuId());
+            PmsSkuStock skuStock = promotionProduct.getSkuStock(item.getProductSkuId());
             if(skuStock!=null){
                 cartPromotionItem.setRealStock(skuStock.getStock()-skuStock.getLockStock());
             }
@@ -172,22 +165,6 @@ public class OmsPromotionServiceImpl implements OmsPromotionService {
         }
     }
 
-    private PmsProductFullReduction getProductFullReduction(BigDecimal totalAmount,List<PmsProductFullReduction> fullReductionList) {
-        //按条件从高到低排序
-        fullReductionList.sort(new Comparator<PmsProductFullReduction>() {
-            @Override
-            public int compare(PmsProductFullReduction o1, PmsProductFullReduction o2) {
-                return o2.getFullPrice().subtract(o1.getFullPrice()).intValue();
-            }
-        });
-        for(PmsProductFullReduction fullReduction:fullReductionList){
-            if(totalAmount.subtract(fullReduction.getFullPrice()).intValue()>=0){
-                return fullReduction;
-            }
-        }
-        return null;
-    }
-
     /**
      * 获取打折优惠的促销信息
      */
@@ -203,25 +180,6 @@ public class OmsPromotionServiceImpl implements OmsPromotionService {
         return sb.toString();
     }
 
-    /**
-     * 根据购买商品数量获取满足条件的打折优惠策略
-     */
-    private PmsProductLadder getProductLadder(int count, List<PmsProductLadder> productLadderList) {
-        //按数量从大到小排序
-        productLadderList.sort(new Comparator<PmsProductLadder>() {
-            @Override
-            public int compare(PmsProductLadder o1, PmsProductLadder o2) {
-                return o2.getCount() - o1.getCount();
-            }
-        });
-        for (PmsProductLadder productLadder : productLadderList) {
-            if (count >= productLadder.getCount()) {
-                return productLadder;
-            }
-        }
-        return null;
-    }
-
     /**
      * 获取购物车中指定商品的数量
      */
@@ -236,38 +194,13 @@ public class OmsPromotionServiceImpl implements OmsPromotionService {
     /**
      * 获取购物车中指定商品的总价
      */
-    private BigDecimal getCartItemAmount(List<OmsCartItem> itemList, List<PromotionProduct> promotionProductList) {
+    private BigDecimal getCartItemAmount(List<OmsCartItem> itemList, PromotionRuleSnapshot promotionProduct) {
         BigDecimal amount = new BigDecimal(0);
         for (OmsCartItem item : itemList) {
             //计算出商品原价
-            PromotionProduct promotionProduct = getPromotionProductById(item.getProductId(), promotionProductList);
-            PmsSkuStock skuStock = getOriginalPrice(promotionProduct,item.getProductSkuId());
+            PmsSkuStock skuStock = promotionProduct.getSkuStock(item.getProductSkuId());
             amount = amount.add(skuStock.getPrice().multiply(new BigDecimal(item.getQuantity())));
         }
         return amount;
     }
-
-    /**
-     * 获取商品的原价
-     */
-    private PmsSkuStock getOriginalPrice(PromotionProduct promotionProduct, Long productSkuId) {
-        for (PmsSkuStock skuStock : promotionProduct.getSkuStockList()) {
-            if (productSkuId.equals(skuStock.getId())) {
-                return skuStock;
-            }
-        }
-        return null;
-    }
-
-    /**
-     * 根据商品id获取商品的促销信息
-     */
-    private PromotionProduct getPromotionProductById(Long productId, List<PromotionProduct> promotionProductList) {
-        for (PromotionProduct promotionProduct : promotionProductList) {
-            if (productId.equals(promotionProduct.getId())) {
-                return promotionProduct;
-            }
-        }
-        return null;
-    }
 }
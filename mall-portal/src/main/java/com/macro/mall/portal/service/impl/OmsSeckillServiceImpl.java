@@ -0,0 +1,624 @@
+package com.macro.mall.portal.service.impl;
+
+import cn.hutool.core.collection.CollUtil;
+import cn.hutool.core.date.DateUtil;
+import cn.hutool.core.util.IdUtil;
+import cn.hutool.json.JSONUtil;
+import com.macro.mall.common.exception.Asserts;
+import com.macro.mall.common.service.RedisService;
+import com.macro.mall.mapper.*;
+import com.macro.mall.model.*;
+import com.macro.mall.portal.component.OrderSnGenerator;
+import com.macro.mall.portal.dao.PortalOrderDao;
+import com.macro.mall.portal.dao.PortalOrderItemDao;
+import com.macro.mall.portal.dao.SmsFlashPromotionOrderDao;
+import com.macro.mall.portal.domain.QueueEnum;
+import com.macro.mall.portal.domain.SeckillOrderMessage;
+import com.macro.mall.portal.domain.SeckillOrderParam;
+import com.macro.mall.portal.domain.SmsFlashPromotionOrder;
+import com.macro.mall.portal.service.OmsSeckillService;
+import com.macro.mall.portal.service.OrderTimeoutScheduler;
+import com.macro.mall.portal.service.StockReservationService;
+import com.macro.mall.portal.service.UmsMemberService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * 秒杀下单Service实现类
+ * 场次开始前将秒杀商品的活动库存作为令牌加载到Redis，下单时通过一次Lua调用同时扣减令牌和校验限购，
+ * 随后把下单请求发送到消息队列并立即返回排队结果，由消费者批量写入订单
+ */
+@Slf4j
+@Service
+public class OmsSeckillServiceImpl implements OmsSeckillService {
+    /**
+     * 扣减秒杀库存令牌并累加会员已购数量
+     * KEYS[1]:库存令牌hash KEYS[2]:会员已购数量hash
+     * ARGV[1]:秒杀商品关系id ARGV[2]:会员id ARGV[3]:购买数量 ARGV[4]:限购数量 ARGV[5]:已购数量过期时间（毫秒）
+     * 返回：1->成功；-1->未加载；-2->库存不足；-3->超出限购
+     */
+    private static final DefaultRedisScript<Long> ACQUIRE_SCRIPT = new DefaultRedisScript<>(
+            "local stock = redis.call('HGET', KEYS[1], ARGV[1])\n" +
+            "if not stock then\n" +
+            "    return -1\n" +
+            "end\n" +
+            "local quantity = tonumber(ARGV[3])\n" +
+            "if tonumber(stock) < quantity then\n" +
+            "    return -2\n" +
+            "end\n" +
+            "local limit = tonumber(ARGV[4])\n" +
+            "if limit > 0 then\n" +
+            "    local bought = tonumber(redis.call('HGET', KEYS[2], ARGV[2]) or '0')\n" +
+            "    if bought + quantity > limit then\n" +
+            "        return -3\n" +
+            "    end\n" +
+            "end\n" +
+            "redis.call('HINCRBY', KEYS[1], ARGV[1], -quantity)\n" +
+            "redis.call('HINCRBY', KEYS[2], ARGV[2], quantity)\n" +
+            "redis.call('PEXPIRE', KEYS[2], ARGV[5])\n" +
+            "return 1", Long.class);
+    /**
+     * 下单失败或取消订单时退还秒杀库存令牌及会员已购数量，参数同ACQUIRE_SCRIPT；
+     * 令牌已过期时不再退还，避免重新创建没有过期时间的key
+     */
+    private static final DefaultRedisScript<Long> RETURN_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('HEXISTS', KEYS[1], ARGV[1]) == 0 then\n" +
+            "    return 0\n" +
+            "end\n" +
+            "redis.call('HINCRBY', KEYS[1], ARGV[1], ARGV[3])\n" +
+            "local bought = redis.call('HINCRBY', KEYS[2], ARGV[2], -tonumber(ARGV[3]))\n" +
+            "if bought <= 0 then\n" +
+            "    redis.call('HDEL', KEYS[2], ARGV[2])\n" +
+            "end\n" +
+            "return 1", Long.class);
+    private static final String STATUS_QUEUED = "queued";
+    private static final String STATUS_SUCCESS = "success";
+    private static final String STATUS_FAILED = "failed";
+    @Autowired
+    private SmsFlashPromotionMapper flashPromotionMapper;
+    @Autowired
+    private SmsFlashPromotionSessionMapper promotionSessionMapper;
+    @Autowired
+    private SmsFlashPromotionProductRelationMapper relationMapper;
+    @Autowired
+    private PmsProductMapper productMapper;
+    @Autowired
+    private PmsSkuStockMapper skuStockMapper;
+    @Autowired
+    private UmsMemberReceiveAddressMapper addressMapper;
+    @Autowired
+    private OmsOrderMapper orderMapper;
+    @Autowired
+    private OmsOrderSettingMapper orderSettingMapper;
+    @Autowired
+    private PortalOrderItemDao orderItemDao;
+    @Autowired
+    private PortalOrderDao portalOrderDao;
+    @Autowired
+    private SmsFlashPromotionOrderDao flashPromotionOrderDao;
+    @Autowired
+    private UmsMemberService memberService;
+    @Autowired
+    private StockReservationService stockReservationService;
+    @Autowired
+    private OrderTimeoutScheduler orderTimeoutScheduler;
+    @Autowired
+    private OrderSnGenerator orderSnGenerator;
+    @Autowired
+    private RabbitTemplate rabbitTemplate;
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+    @Autowired
+    private RedisService redisService;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+    @Value("${redis.database}")
+    private String REDIS_DATABASE;
+    @Value("${redis.key.seckill}")
+    private String REDIS_KEY_SECKILL;
+    @Value("${seckill.warmUpMinutes:10}")
+    private Integer WARM_UP_MINUTES;
+    @Value("${seckill.resultExpireSeconds:86400}")
+    private Long RESULT_EXPIRE_SECONDS;
+    /**
+     * 已加载的秒杀商品，下单时无需访问数据库
+     */
+    private volatile Map<Long, SeckillRelation> relationMap = Collections.emptyMap();
+
+    @Override
+    public int warmUp() {
+        Date now = new Date();
+        Date today = DateUtil.beginOfDay(now);
+        SmsFlashPromotionExample promotionExample = new SmsFlashPromotionExample();
+        promotionExample.createCriteria()
+                .andStatusEqualTo(1)
+                .andStartDateLessThanOrEqualTo(today)
+                .andEndDateGreaterThanOrEqualTo(today);
+        List<Long> promotionIds = flashPromotionMapper.selectByExample(promotionExample).stream()
+                .map(SmsFlashPromotion::getId).collect(Collectors.toList());
+        SmsFlashPromotionSessionExample sessionExample = new SmsFlashPromotionSessionExample();
+        sessionExample.createCriteria().andStatusEqualTo(1);
+        //场次时间只有时分秒部分，换算为当天的开始和结束时间
+        Map<Long, SmsFlashPromotionSession> sessionMap = new HashMap<>();
+        long warmUpUntil = now.getTime() + TimeUnit.MINUTES.toMillis(WARM_UP_MINUTES);
+        for (SmsFlashPromotionSession session : promotionSessionMapper.selectByExample(sessionExample)) {
+            SmsFlashPromotionSession todaySession = new SmsFlashPromotionSession();
+            todaySession.setId(session.getId());
+            todaySession.setStartTime(toToday(today, session.getStartTime()));
+            todaySession.setEndTime(toToday(today, session.getEndTime()));
+            if (todaySession.getStartTime().getTime() <= warmUpUntil && todaySession.getEndTime().after(now)) {
+                sessionMap.put(session.getId(), todaySession);
+            }
+        }
+        if (promotionIds.isEmpty() || sessionMap.isEmpty()) {
+            relationMap = Collections.emptyMap();
+            return 0;
+        }
+        SmsFlashPromotionProductRelationExample relationExample = new SmsFlashPromotionProductRelationExample();
+        relationExample.createCriteria()
+                .andFlashPromotionIdIn(promotionIds)
+                .andFlashPromotionSessionIdIn(new ArrayList<>(sessionMap.keySet()));
+        Map<Long, SeckillRelation> newRelationMap = new HashMap<>();
+        for (SmsFlashPromotionProductRelation relation : relationMapper.selectByExample(relationExample)) {
+            SmsFlashPromotionSession session = sessionMap.get(relation.getFlashPromotionSessionId());
+            SeckillRelation seckillRelation = new SeckillRelation(relation, session,
+                    sessionKey(today, session.getId()));
+            //已加载的令牌不覆盖，避免重复加载时恢复已售出的库存
+            stringRedisTemplate.opsForHash().putIfAbsent(seckillRelation.stockKey, String.valueOf(relation.getId()),
+                    String.valueOf(relation.getFlashPromotionCount() == null ? 0 : relation.getFlashPromotionCount()));
+            stringRedisTemplate.expireAt(seckillRelation.stockKey, DateUtil.offsetDay(session.getEndTime(), 1));
+            newRelationMap.put(relation.getId(), seckillRelation);
+        }
+        relationMap = newRelationMap;
+        return newRelationMap.size();
+    }
+
+    @Override
+    public Map<String, Object> generateOrder(SeckillOrderParam orderParam) {
+        if (orderParam.getMemberReceiveAddressId() == null) {
+            Asserts.fail("请选择收货地址！");
+        }
+        int quantity = orderParam.getQuantity() == null ? 1 : orderParam.getQuantity();
+        if (quantity <= 0) {
+            Asserts.fail("购买数量不正确");
+        }
+        SeckillRelation relation = relationMap.get(orderParam.getRelationId());
+        long now = System.currentTimeMillis();
+        if (relation == null || now < relation.startTime || now > relation.endTime) {
+            Asserts.fail("秒杀活动未开始或已结束");
+        }
+        UmsMember currentMember = memberService.getCurrentMember();
+        Long result = stringRedisTemplate.execute(ACQUIRE_SCRIPT, relation.keys(), relation.args(currentMember.getId(), quantity));
+        if (result == null || result == -1) {
+            Asserts.fail("秒杀活动未开始或已结束");
+        } else if (result == -2) {
+            Asserts.fail("商品已抢完");
+        } else if (result == -3) {
+            Asserts.fail("超出限购数量");
+        }
+        SeckillOrderMessage message = new SeckillOrderMessage();
+        message.setRequestId(IdUtil.fastSimpleUUID());
+        message.setMemberId(currentMember.getId());
+        message.setMemberUsername(currentMember.getUsername());
+        message.setFlashPromotionId(relation.flashPromotionId);
+        message.setFlashPromotionSessionId(relation.sessionId);
+        message.setRelationId(relation.relationId);
+        message.setProductId(relation.productId);
+        message.setProductSkuId(orderParam.getProductSkuId());
+        message.setQuantity(quantity);
+        message.setMemberReceiveAddressId(orderParam.getMemberReceiveAddressId());
+        message.setPayType(orderParam.getPayType());
+        message.setCreateTime(new Date(now));
+        try {
+            //订单来源：1->app订单
+            message.setOrderSn(orderSnGenerator.generate(1, orderParam.getPayType()));
+            rabbitTemplate.convertAndSend(QueueEnum.QUEUE_SECKILL_ORDER.getExchange(),
+                    QueueEnum.QUEUE_SECKILL_ORDER.getRouteKey(), JSONUtil.toJsonStr(message));
+        } catch (Exception e) {
+            log.error("秒杀下单消息发送失败，relationId:{}，memberId:{}", relation.relationId, currentMember.getId(), e);
+            stringRedisTemplate.execute(RETURN_SCRIPT, relation.keys(), relation.args(currentMember.getId(), quantity));
+            Asserts.fail("系统繁忙，请稍后再试");
+        }
+        Map<String, Object> resultMap = new HashMap<>();
+        resultMap.put("requestId", message.getRequestId());
+        resultMap.put("orderSn", message.getOrderSn());
+        resultMap.put("status", STATUS_QUEUED);
+        return resultMap;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Map<String, Object> getResult(String requestId) {
+        UmsMember currentMember = memberService.getCurrentMember();
+        Map<String, Object> result = (Map<String, Object>) redisService.get(resultKey(requestId));
+        if (result == null) {
+            //消费者尚未处理
+            result = new HashMap<>();
+            result.put("requestId", requestId);
+            result.put("status", STATUS_QUEUED);
+            return result;
+        }
+        if (!currentMember.getId().equals(Long.valueOf(String.valueOf(result.get("memberId"))))) {
+            Asserts.fail("下单记录不存在");
+        }
+        return result;
+    }
+
+    @Override
+    public int createOrders(List<SeckillOrderMessage> messageList) {
+        //消息可能重复投递，已生成的订单直接记录结果
+        List<String> orderSnList = messageList.stream().map(SeckillOrderMessage::getOrderSn).collect(Collectors.toList());
+        OmsOrderExample orderExample = new OmsOrderExample();
+        orderExample.createCriteria().andOrderSnIn(orderSnList);
+        Map<String, OmsOrder> existOrderMap = orderMapper.selectByExample(orderExample).stream()
+                .collect(Collectors.toMap(OmsOrder::getOrderSn, Function.identity(), (o1, o2) -> o1));
+        List<SeckillOrderMessage> newMessageList = new ArrayList<>();
+        Set<String> handledOrderSn = new HashSet<>();
+        for (SeckillOrderMessage message : messageList) {
+            OmsOrder order = existOrderMap.get(message.getOrderSn());
+            if (order != null) {
+                saveResult(message, STATUS_SUCCESS, order.getId(), null);
+            } else if (handledOrderSn.add(message.getOrderSn())) {
+                newMessageList.add(message);
+            }
+        }
+        if (newMessageList.isEmpty()) {
+            return 0;
+        }
+        try {
+            //整批在一个事务中写入
+            Map<String, OmsOrder> orderMap = transactionTemplate.execute(status -> insertOrders(newMessageList));
+            for (SeckillOrderMessage message : newMessageList) {
+                saveResult(message, STATUS_SUCCESS, orderMap.get(message.getRequestId()).getId(), null);
+            }
+            return newMessageList.size();
+        } catch (Exception e) {
+            log.warn("秒杀订单批量生成失败，改为逐个生成，数量：{}，原因：{}", newMessageList.size(), e.getMessage());
+        }
+        //整批失败时逐个生成，找出失败的订单并退还秒杀库存
+        int count = 0;
+        for (SeckillOrderMessage message : newMessageList) {
+            try {
+                Map<String, OmsOrder> orderMap = transactionTemplate.execute(status -> insertOrders(Collections.singletonList(message)));
+                saveResult(message, STATUS_SUCCESS, orderMap.get(message.getRequestId()).getId(), null);
+                count++;
+            } catch (DuplicateKeyException e) {
+                //重复投递的消息已由其他消费者生成订单
+                OmsOrder order = getOrderBySn(message.getOrderSn());
+                saveResult(message, order == null ? STATUS_QUEUED : STATUS_SUCCESS, order == null ? null : order.getId(), null);
+            } catch (Exception e) {
+                log.warn("秒杀订单生成失败，requestId:{}，原因：{}", message.getRequestId(), e.getMessage());
+                returnToken(DateUtil.beginOfDay(message.getCreateTime()), message.getFlashPromotionSessionId(),
+                        message.getRelationId(), message.getMemberId(), message.getQuantity());
+                saveResult(message, STATUS_FAILED, null, e.getMessage());
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public int returnFlashPromotion(List<Long> orderIds) {
+        List<SmsFlashPromotionOrder> flashOrderList = flashPromotionOrderDao.lockUnreturnedByOrderIds(orderIds);
+        if (flashOrderList.isEmpty()) {
+            return 0;
+        }
+        flashPromotionOrderDao.updateReturned(flashOrderList.stream().map(SmsFlashPromotionOrder::getId).collect(Collectors.toList()));
+        Map<Long, Integer> relationQuantityMap = new HashMap<>();
+        for (SmsFlashPromotionOrder flashOrder : flashOrderList) {
+            relationQuantityMap.merge(flashOrder.getRelationId(), flashOrder.getQuantity(), Integer::sum);
+        }
+        portalOrderDao.increaseFlashPromotionCount(toRelationList(relationQuantityMap));
+        //事务提交后再退还令牌，避免回滚后令牌多于数据库中的活动库存
+        afterCommit(() -> {
+            for (SmsFlashPromotionOrder flashOrder : flashOrderList) {
+                returnToken(flashOrder.getPromotionDate(), flashOrder.getFlashPromotionSessionId(),
+                        flashOrder.getRelationId(), flashOrder.getMemberId(), flashOrder.getQuantity());
+            }
+        });
+        return flashOrderList.size();
+    }
+
+    /**
+     * 批量插入秒杀订单及订单商品，锁定sku库存并扣减数据库中的秒杀活动库存
+     * @return 请求id与订单的对应关系
+     */
+    private Map<String, OmsOrder> insertOrders(List<SeckillOrderMessage> messageList) {
+        Map<Long, SmsFlashPromotionProductRelation> relationMap = selectRelationMap(messageList);
+        Map<Long, PmsProduct> productMap = selectProductMap(messageList);
+        Map<Long, PmsSkuStock> skuStockMap = selectSkuStockMap(messageList);
+        Map<Long, UmsMemberReceiveAddress> addressMap = selectAddressMap(messageList);
+        List<OmsOrderSetting> orderSettings = orderSettingMapper.selectByExample(new OmsOrderSettingExample());
+        OmsOrderSetting orderSetting = CollUtil.isEmpty(orderSettings) ? null : orderSettings.get(0);
+        Map<String, OmsOrder> orderMap = new HashMap<>();
+        List<OmsOrderItem> orderItemList = new ArrayList<>();
+        List<SmsFlashPromotionOrder> flashOrderList = new ArrayList<>();
+        Map<Long, Integer> relationQuantityMap = new HashMap<>();
+        for (SeckillOrderMessage message : messageList) {
+            SmsFlashPromotionProductRelation relation = relationMap.get(message.getRelationId());
+            PmsProduct product = productMap.get(message.getProductId());
+            PmsSkuStock skuStock = skuStockMap.get(message.getProductSkuId());
+            UmsMemberReceiveAddress address = addressMap.get(message.getMemberReceiveAddressId());
+            if (relation == null || product == null) {
+                Asserts.fail("秒杀商品不存在");
+            }
+            if (skuStock == null || !skuStock.getProductId().equals(product.getId())) {
+                Asserts.fail("商品规格不存在");
+            }
+            if (address == null || !message.getMemberId().equals(address.getMemberId())) {
+                Asserts.fail("收货地址不存在");
+            }
+            OmsOrderItem orderItem = buildOrderItem(message, relation, product, skuStock);
+            OmsOrder order = buildOrder(message, orderItem, address, orderSetting);
+            orderMapper.insert(order);
+            orderItem.setOrderId(order.getId());
+            orderItem.setOrderSn(order.getOrderSn());
+            orderItemList.add(orderItem);
+            orderMap.put(message.getRequestId(), order);
+            flashOrderList.add(buildFlashOrder(message, order));
+            relationQuantityMap.merge(relation.getId(), message.getQuantity(), Integer::sum);
+        }
+        //订单编号唯一，重复投递的消息在此处失败
+        flashPromotionOrderDao.insertList(flashOrderList);
+        orderItemDao.insertList(orderItemList);
+        stockReservationService.lock(orderItemList);
+        List<SmsFlashPromotionProductRelation> reduceList = toRelationList(relationQuantityMap);
+        int reduceCount = portalOrderDao.reduceFlashPromotionCount(reduceList);
+        if (reduceCount < reduceList.size()) {
+            Asserts.fail("秒杀商品库存不足");
+        }
+        //秒杀订单使用秒杀订单超时时间
+        long delayTimes = (orderSetting == null || orderSetting.getFlashOrderOvertime() == null ? 0 : orderSetting.getFlashOrderOvertime()) * 60 * 1000L;
+        for (OmsOrder order : orderMap.values()) {
+            orderTimeoutScheduler.schedule(order.getId(), delayTimes);
+        }
+        return orderMap;
+    }
+
+    private SmsFlashPromotionOrder buildFlashOrder(SeckillOrderMessage message, OmsOrder order) {
+        SmsFlashPromotionOrder flashOrder = new SmsFlashPromotionOrder();
+        flashOrder.setOrderId(order.getId());
+        flashOrder.setOrderSn(order.getOrderSn());
+        flashOrder.setMemberId(message.getMemberId());
+        flashOrder.setFlashPromotionSessionId(message.getFlashPromotionSessionId());
+        flashOrder.setRelationId(message.getRelationId());
+        flashOrder.setQuantity(message.getQuantity());
+        flashOrder.setPromotionDate(DateUtil.beginOfDay(message.getCreateTime()));
+        flashOrder.setCreateTime(new Date());
+        return flashOrder;
+    }
+
+    private List<SmsFlashPromotionProductRelation> toRelationList(Map<Long, Integer> relationQuantityMap) {
+        List<SmsFlashPromotionProductRelation> relationList = new ArrayList<>(relationQuantityMap.size());
+        for (Map.Entry<Long, Integer> entry : relationQuantityMap.entrySet()) {
+            SmsFlashPromotionProductRelation relation = new SmsFlashPromotionProductRelation();
+            relation.setId(entry.getKey());
+            relation.setFlashPromotionCount(entry.getValue());
+            relationList.add(relation);
+        }
+        return relationList;
+    }
+
+    private OmsOrder getOrderBySn(String orderSn) {
+        OmsOrderExample example = new OmsOrderExample();
+        example.createCriteria().andOrderSnEqualTo(orderSn);
+        List<OmsOrder> orderList = orderMapper.selectByExample(example);
+        return orderList.isEmpty() ? null : orderList.get(0);
+    }
+
+    private OmsOrderItem buildOrderItem(SeckillOrderMessage message, SmsFlashPromotionProductRelation relation,
+                                        PmsProduct product, PmsSkuStock skuStock) {
+        BigDecimal flashPrice = relation.getFlashPromotionPrice();
+        OmsOrderItem orderItem = new OmsOrderItem();
+        orderItem.setProductId(product.getId());
+        orderItem.setProductName(product.getName());
+        orderItem.setProductPic(skuStock.getPic() == null ? product.getPic() : skuStock.getPic());
+        orderItem.setProductAttr(skuStock.getSpData());
+        orderItem.setProductBrand(product.getBrandName());
+        orderItem.setProductSn(product.getProductSn());
+        orderItem.setProductPrice(skuStock.getPrice());
+        orderItem.setProductQuantity(message.getQuantity());
+        orderItem.setProductSkuId(skuStock.getId());
+        orderItem.setProductSkuCode(skuStock.getSkuCode());
+        orderItem.setProductCategoryId(product.getProductCategoryId());
+        //商品原价-秒杀价
+        orderItem.setPromotionAmount(skuStock.getPrice().subtract(flashPrice));
+        orderItem.setPromotionName("秒杀特价");
+        orderItem.setCouponAmount(new BigDecimal(0));
+        orderItem.setIntegrationAmount(new BigDecimal(0));
+        orderItem.setRealAmount(flashPrice);
+        orderItem.setGiftIntegration(product.getGiftPoint());
+        orderItem.setGiftGrowth(product.getGiftGrowth());
+        return orderItem;
+    }
+
+    private OmsOrder buildOrder(SeckillOrderMessage message, OmsOrderItem orderItem,
+                                UmsMemberReceiveAddress address, OmsOrderSetting orderSetting) {
+        BigDecimal quantity = new BigDecimal(message.getQuantity());
+        OmsOrder order = new OmsOrder();
+        order.setOrderSn(message.getOrderSn());
+        order.setMemberId(message.getMemberId());
+        order.setMemberUsername(message.getMemberUsername());
+        order.setCreateTime(message.getCreateTime());
+        order.setTotalAmount(orderItem.getProductPrice().multiply(quantity));
+        order.setFreightAmount(new BigDecimal(0));
+        order.setPromotionAmount(orderItem.getPromotionAmount().multiply(quantity));
+        order.setPromotionInfo(orderItem.getPromotionName());
+        order.setCouponAmount(new BigDecimal(0));
+        order.setIntegrationAmount(new BigDecimal(0));
+        order.setDiscountAmount(new BigDecimal(0));
+        order.setPayAmount(orderItem.getRealAmount().multiply(quantity));
+        //支付方式：0->未支付；1->支付宝；2->微信
+        order.setPayType(message.getPayType());
+        //订单来源：0->PC订单；1->app订单
+        order.setSourceType(1);
+        //订单状态：0->待付款
+        order.setStatus(0);
+        //订单类型：0->正常订单；1->秒杀订单
+        order.setOrderType(1);
+        order.setReceiverName(address.getName());
+        order.setReceiverPhone(address.getPhoneNumber());
+        order.setReceiverPostCode(address.getPostCode());
+        order.setReceiverProvince(address.getProvince());
+        order.setReceiverCity(address.getCity());
+        order.setReceiverRegion(address.getRegion());
+        order.setReceiverDetailAddress(address.getDetailAddress());
+        order.setConfirmStatus(0);
+        order.setDeleteStatus(0);
+        //赠送积分及成长值
+        order.setIntegration(orderItem.getGiftIntegration() == null ? 0 : orderItem.getGiftIntegration() * message.getQuantity());
+        order.setGrowth(orderItem.getGiftGrowth() == null ? 0 : orderItem.getGiftGrowth() * message.getQuantity());
+        if (orderSetting != null) {
+            order.setAutoConfirmDay(orderSetting.getConfirmOvertime());
+        }
+        return order;
+    }
+
+    private Map<Long, SmsFlashPromotionProductRelation> selectRelationMap(List<SeckillOrderMessage> messageList) {
+        SmsFlashPromotionProductRelationExample example = new SmsFlashPromotionProductRelationExample();
+        example.createCriteria().andIdIn(messageList.stream().map(SeckillOrderMessage::getRelationId).distinct().collect(Collectors.toList()));
+        return relationMapper.selectByExample(example).stream()
+                .collect(Collectors.toMap(SmsFlashPromotionProductRelation::getId, Function.identity()));
+    }
+
+    private Map<Long, PmsProduct> selectProductMap(List<SeckillOrderMessage> messageList) {
+        PmsProductExample example = new PmsProductExample();
+        example.createCriteria().andIdIn(messageList.stream().map(SeckillOrderMessage::getProductId).distinct().collect(Collectors.toList()));
+        return productMapper.selectByExample(example).stream()
+                .collect(Collectors.toMap(PmsProduct::getId, Function.identity()));
+    }
+
+    private Map<Long, PmsSkuStock> selectSkuStockMap(List<SeckillOrderMessage> messageList) {
+        List<Long> skuIds = messageList.stream().map(SeckillOrderMessage::getProductSkuId)
+                .filter(Objects::nonNull).distinct().collect(Collectors.toList());
+        if (skuIds.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        PmsSkuStockExample example = new PmsSkuStockExample();
+        example.createCriteria().andIdIn(skuIds);
+        return skuStockMapper.selectByExample(example).stream()
+                .collect(Collectors.toMap(PmsSkuStock::getId, Function.identity()));
+    }
+
+    private Map<Long, UmsMemberReceiveAddress> selectAddressMap(List<SeckillOrderMessage> messageList) {
+        UmsMemberReceiveAddressExample example = new UmsMemberReceiveAddressExample();
+        example.createCriteria().andIdIn(messageList.stream().map(SeckillOrderMessage::getMemberReceiveAddressId).distinct().collect(Collectors.toList()));
+        return addressMapper.selectByExample(example).stream()
+                .collect(Collectors.toMap(UmsMemberReceiveAddress::getId, Function.identity()));
+    }
+
+    /**
+     * 订单生成失败或取消订单时退还秒杀库存令牌及会员已购数量
+     */
+    private void returnToken(Date promotionDate, Long sessionId, Long relationId, Long memberId, Integer quantity) {
+        try {
+            String sessionKey = sessionKey(promotionDate, sessionId);
+            List<String> keys = Arrays.asList(sessionKey + ":stock", sessionKey + ":bought:" + relationId);
+            stringRedisTemplate.execute(RETURN_SCRIPT, keys, String.valueOf(relationId),
+                    String.valueOf(memberId), String.valueOf(quantity));
+        } catch (Exception e) {
+            log.error("退还秒杀库存令牌失败，relationId:{}，memberId:{}", relationId, memberId, e);
+        }
+    }
+
+    /**
+     * 在当前事务提交后执行，无事务时立即执行
+     */
+    private void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    private void saveResult(SeckillOrderMessage message, String status, Long orderId, String reason) {
+        Map<String, Object> result = new HashMap<>();
+        result.put("requestId", message.getRequestId());
+        result.put("memberId", message.getMemberId());
+        result.put("orderSn", message.getOrderSn());
+        result.put("status", status);
+        if (orderId != null) {
+            result.put("orderId", orderId);
+        }
+        if (reason != null) {
+            result.put("reason", reason);
+        }
+        redisService.set(resultKey(message.getRequestId()), result, RESULT_EXPIRE_SECONDS);
+    }
+
+    /**
+     * 将只有时分秒的场次时间换算为当天的时间
+     */
+    private Date toToday(Date today, Date time) {
+        return new Date(today.getTime() + time.getTime() - DateUtil.beginOfDay(time).getTime());
+    }
+
+    /**
+     * 同一场次每天使用独立的库存令牌，以{}包裹保证集群模式下同一场次的key位于同一slot
+     */
+    private String sessionKey(Date day, Long sessionId) {
+        return REDIS_DATABASE + ":" + REDIS_KEY_SECKILL + ":{" + DateUtil.format(day, "yyyyMMdd") + "-" + sessionId + "}";
+    }
+
+    private String resultKey(String requestId) {
+        return REDIS_DATABASE + ":" + REDIS_KEY_SECKILL + ":result:" + requestId;
+    }
+
+    /**
+     * 已加载的秒杀商品信息
+     */
+    private static class SeckillRelation {
+        private final Long relationId;
+        private final Long flashPromotionId;
+        private final Long sessionId;
+        private final Long productId;
+        private final int limit;
+        private final long startTime;
+        private final long endTime;
+        private final String stockKey;
+        private final String boughtKey;
+
+        private SeckillRelation(SmsFlashPromotionProductRelation relation, SmsFlashPromotionSession session, String sessionKey) {
+            this.relationId = relation.getId();
+            this.flashPromotionId = relation.getFlashPromotionId();
+            this.sessionId = relation.getFlashPromotionSessionId();
+            this.productId = relation.getProductId();
+            this.limit = relation.getFlashPromotionLimit() == null ? 0 : relation.getFlashPromotionLimit();
+            this.startTime = session.getStartTime().getTime();
+            this.endTime = session.getEndTime().getTime();
+            this.stockKey = sessionKey + ":stock";
+            this.boughtKey = sessionKey + ":bought:" + relationId;
+        }
+
+        private List<String> keys() {
+            return Arrays.asList(stockKey, boughtKey);
+        }
+
+        private Object[] args(Long memberId, int quantity) {
+            //已购数量保留到场次结束后一天
+            long expireMillis = endTime - System.currentTimeMillis() + TimeUnit.DAYS.toMillis(1);
+            return new Object[]{String.valueOf(relationId), String.valueOf(memberId), String.valueOf(quantity),
+                    String.valueOf(limit), String.valueOf(expireMillis)};
+        }
+    }
+}
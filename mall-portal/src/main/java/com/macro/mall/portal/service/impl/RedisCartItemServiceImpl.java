@@ -0,0 +1,375 @@
+package com.macro.mall.portal.service.impl;
+
+import cn.hutool.core.collection.CollUtil;
+import cn.hutool.core.util.IdUtil;
+import cn.hutool.json.JSONUtil;
+import com.macro.mall.mapper.OmsCartItemMapper;
+import com.macro.mall.model.OmsCartItem;
+import com.macro.mall.model.OmsCartItemExample;
+import com.macro.mall.model.UmsMember;
+import com.macro.mall.portal.dao.PortalCartItemDao;
+import com.macro.mall.portal.dao.PortalProductDao;
+import com.macro.mall.portal.domain.CartProduct;
+import com.macro.mall.portal.domain.CartPromotionItem;
+import com.macro.mall.portal.service.OmsCartItemService;
+import com.macro.mall.portal.service.OmsPromotionService;
+import com.macro.mall.portal.service.UmsMemberService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.time.Duration;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * 基于Redis的购物车实现
+ * 每个会员的购物车存放在一个Hash中，增删改均通过一次Lua脚本原子完成，数量累加使用HINCRBY；
+ * 修改过的会员id记录到待回写集合，由CartWriteBehindTask异步批量回写oms_cart_item，
+ * 会员购物车在Redis中不存在时从数据库加载，用于从数据库方式平滑迁移及过期后的恢复
+ */
+@Slf4j
+@Service
+@ConditionalOnProperty(prefix = "cart.store", name = "mode", havingValue = "redis")
+public class RedisCartItemServiceImpl implements OmsCartItemService {
+    /**
+     * Hash中的字段：
+     * _loaded->已从数据库加载的标记；i:{id}->购物车商品JSON；q:{id}->数量；
+     * s:{productId}:{skuId}->同一规格对应的购物车商品id；r:{id}->该商品对应的规格字段
+     */
+    private static final String FIELD_LOADED = "_loaded";
+    private static final String FIELD_ITEM = "i:";
+    private static final String FIELD_QUANTITY = "q:";
+    private static final String FIELD_SKU = "s:";
+    /**
+     * 添加商品：同一规格已存在时累加数量，否则使用新的id；未加载时返回-1，成功返回购物车商品id
+     * KEYS[1]:购物车Hash KEYS[2]:待回写集合 KEYS[3]:id序列
+     * ARGV[1]:规格字段 ARGV[2]:商品JSON ARGV[3]:数量 ARGV[4]:过期时间（秒） ARGV[5]:会员id
+     */
+    private static final DefaultRedisScript<Long> ADD_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('HEXISTS', KEYS[1], '" + FIELD_LOADED + "') == 0 then\n" +
+            "    return -1\n" +
+            "end\n" +
+            "local id = redis.call('HGET', KEYS[1], ARGV[1])\n" +
+            "if not id then\n" +
+            "    id = tostring(redis.call('INCR', KEYS[3]))\n" +
+            "    redis.call('HSET', KEYS[1], ARGV[1], id, 'i:' .. id, ARGV[2], 'r:' .. id, ARGV[1])\n" +
+            "end\n" +
+            "redis.call('HINCRBY', KEYS[1], 'q:' .. id, ARGV[3])\n" +
+            "redis.call('EXPIRE', KEYS[1], ARGV[4])\n" +
+            "redis.call('SADD', KEYS[2], ARGV[5])\n" +
+            "return tonumber(id)", Long.class);
+    /**
+     * 修改数量：未加载时返回-1，商品不存在返回0，成功返回1
+     * ARGV[1]:购物车商品id ARGV[2]:数量 ARGV[3]:过期时间（秒） ARGV[4]:会员id
+     */
+    private static final DefaultRedisScript<Long> UPDATE_QUANTITY_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('HEXISTS', KEYS[1], '" + FIELD_LOADED + "') == 0 then\n" +
+            "    return -1\n" +
+            "end\n" +
+            "if redis.call('HEXISTS', KEYS[1], 'i:' .. ARGV[1]) == 0 then\n" +
+            "    return 0\n" +
+            "end\n" +
+            "redis.call('HSET', KEYS[1], 'q:' .. ARGV[1], ARGV[2])\n" +
+            "redis.call('EXPIRE', KEYS[1], ARGV[3])\n" +
+            "redis.call('SADD', KEYS[2], ARGV[4])\n" +
+            "return 1", Long.class);
+    /**
+     * 删除商品：未加载时返回-1，否则返回删除的数量
+     * ARGV[1]:过期时间（秒） ARGV[2]:会员id ARGV[3...]:购物车商品id
+     */
+    private static final DefaultRedisScript<Long> DELETE_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('HEXISTS', KEYS[1], '" + FIELD_LOADED + "') == 0 then\n" +
+            "    return -1\n" +
+            "end\n" +
+            "local count = 0\n" +
+            "for i = 3, #ARGV do\n" +
+            "    local sku = redis.call('HGET', KEYS[1], 'r:' .. ARGV[i])\n" +
+            "    if sku then\n" +
+            "        redis.call('HDEL', KEYS[1], sku, 'i:' .. ARGV[i], 'q:' .. ARGV[i], 'r:' .. ARGV[i])\n" +
+            "        count = count + 1\n" +
+            "    end\n" +
+            "end\n" +
+            "if count > 0 then\n" +
+            "    redis.call('EXPIRE', KEYS[1], ARGV[1])\n" +
+            "    redis.call('SADD', KEYS[2], ARGV[2])\n" +
+            "end\n" +
+            "return count", Long.class);
+    /**
+     * 从数据库加载会员购物车，已加载时不覆盖；返回1表示本次完成加载
+     * ARGV[1]:过期时间（秒） ARGV[2...]:每4个一组，依次为id、规格字段、商品JSON、数量
+     */
+    private static final DefaultRedisScript<Long> LOAD_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('EXISTS', KEYS[1]) == 1 then\n" +
+            "    return 0\n" +
+            "end\n" +
+            "redis.call('HSET', KEYS[1], '" + FIELD_LOADED + "', '1')\n" +
+            "for i = 2, #ARGV, 4 do\n" +
+            "    local id = ARGV[i]\n" +
+            "    redis.call('HSET', KEYS[1], ARGV[i + 1], id, 'i:' .. id, ARGV[i + 2], 'q:' .. id, ARGV[i + 3], 'r:' .. id, ARGV[i + 1])\n" +
+            "end\n" +
+            "redis.call('EXPIRE', KEYS[1], ARGV[1])\n" +
+            "return 1", Long.class);
+    /**
+     * 只有持有者才能释放租约
+     */
+    private static final DefaultRedisScript<Long> UNLEASE_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('GET', KEYS[1]) == ARGV[1] then\n" +
+            "    return redis.call('DEL', KEYS[1])\n" +
+            "end\n" +
+            "return 0", Long.class);
+    @Autowired
+    private OmsCartItemMapper cartItemMapper;
+    @Autowired
+    private PortalCartItemDao cartItemDao;
+    @Autowired
+    private PortalProductDao productDao;
+    @Autowired
+    private OmsPromotionService promotionService;
+    @Autowired
+    private UmsMemberService memberService;
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+    @Value("${redis.database}")
+    private String REDIS_DATABASE;
+    @Value("${redis.key.cart}")
+    private String REDIS_KEY_CART;
+    @Value("${cart.store.expireSeconds:2592000}")
+    private Long EXPIRE_SECONDS;
+    @Value("${cart.store.loadFromDb:true}")
+    private Boolean LOAD_FROM_DB;
+    @Value("${cart.store.batchSize:200}")
+    private Integer BATCH_SIZE;
+    @Value("${cart.store.leaseSeconds:60}")
+    private Long LEASE_SECONDS;
+
+    @PostConstruct
+    public void init() {
+        //id序列从数据库已有的最大id开始，保证回写时不与数据库方式生成的id冲突
+        if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(idKey()))) {
+            Long maxId = cartItemDao.selectMaxId();
+            stringRedisTemplate.opsForValue().setIfAbsent(idKey(), String.valueOf(maxId == null ? 0 : maxId));
+        }
+    }
+
+    @Override
+    public int add(OmsCartItem cartItem) {
+        UmsMember currentMember = memberService.getCurrentMember();
+        cartItem.setId(null);
+        cartItem.setMemberId(currentMember.getId());
+        cartItem.setMemberNickname(currentMember.getNickname());
+        cartItem.setDeleteStatus(0);
+        cartItem.setCreateDate(new Date());
+        int quantity = cartItem.getQuantity() == null ? 0 : cartItem.getQuantity();
+        //数量单独存放，JSON中不保留
+        cartItem.setQuantity(null);
+        String json = JSONUtil.toJsonStr(cartItem);
+        cartItem.setQuantity(quantity);
+        Long id = executeLoaded(ADD_SCRIPT, currentMember.getId(), skuField(cartItem), json,
+                String.valueOf(quantity), String.valueOf(EXPIRE_SECONDS), String.valueOf(currentMember.getId()));
+        cartItem.setId(id);
+        return 1;
+    }
+
+    @Override
+    public List<OmsCartItem> list(Long memberId) {
+        Map<Object, Object> entries = stringRedisTemplate.opsForHash().entries(cartKey(memberId));
+        if (!entries.containsKey(FIELD_LOADED)) {
+            load(memberId);
+            entries = stringRedisTemplate.opsForHash().entries(cartKey(memberId));
+        }
+        List<OmsCartItem> cartItemList = new ArrayList<>();
+        for (Map.Entry<Object, Object> entry : entries.entrySet()) {
+            String field = entry.getKey().toString();
+            if (!field.startsWith(FIELD_ITEM)) {
+                continue;
+            }
+            String id = field.substring(FIELD_ITEM.length());
+            OmsCartItem cartItem = JSONUtil.toBean(entry.getValue().toString(), OmsCartItem.class);
+            Object quantity = entries.get(FIELD_QUANTITY + id);
+            cartItem.setId(Long.valueOf(id));
+            cartItem.setQuantity(quantity == null ? 0 : Integer.valueOf(quantity.toString()));
+            cartItemList.add(cartItem);
+        }
+        //与数据库方式一致按id排序
+        cartItemList.sort(Comparator.comparing(OmsCartItem::getId));
+        return cartItemList;
+    }
+
+    @Override
+    public List<CartPromotionItem> listPromotion(Long memberId, List<Long> cartIds) {
+        List<OmsCartItem> cartItemList = list(memberId);
+        if (CollUtil.isNotEmpty(cartIds)) {
+            Set<Long> cartIdSet = new HashSet<>(cartIds);
+            cartItemList = cartItemList.stream().filter(item -> cartIdSet.contains(item.getId())).collect(Collectors.toList());
+        }
+        List<CartPromotionItem> cartPromotionItemList = new ArrayList<>();
+        if (CollUtil.isNotEmpty(cartItemList)) {
+            cartPromotionItemList = promotionService.calcCartPromotion(cartItemList);
+        }
+        return cartPromotionItemList;
+    }
+
+    @Override
+    public int updateQuantity(Long id, Long memberId, Integer quantity) {
+        Long count = executeLoaded(UPDATE_QUANTITY_SCRIPT, memberId, String.valueOf(id), String.valueOf(quantity),
+                String.valueOf(EXPIRE_SECONDS), String.valueOf(memberId));
+        return count.intValue();
+    }
+
+    @Override
+    public int delete(Long memberId, List<Long> ids) {
+        if (CollUtil.isEmpty(ids)) {
+            return 0;
+        }
+        List<String> args = new ArrayList<>(ids.size() + 2);
+        args.add(String.valueOf(EXPIRE_SECONDS));
+        args.add(String.valueOf(memberId));
+        for (Long id : ids) {
+            args.add(String.valueOf(id));
+        }
+        Long count = executeLoaded(DELETE_SCRIPT, memberId, args.toArray(new String[0]));
+        return count.intValue();
+    }
+
+    @Override
+    public CartProduct getCartProduct(Long productId) {
+        return productDao.getCartProduct(productId);
+    }
+
+    @Override
+    public int updateAttr(OmsCartItem cartItem) {
+        //删除原购物车信息
+        UmsMember currentMember = memberService.getCurrentMember();
+        delete(currentMember.getId(), Collections.singletonList(cartItem.getId()));
+        add(cartItem);
+        return 1;
+    }
+
+    @Override
+    public int clear(Long memberId) {
+        List<Long> ids = list(memberId).stream().map(OmsCartItem::getId).collect(Collectors.toList());
+        return delete(memberId, ids);
+    }
+
+    /**
+     * 将待回写会员的购物车批量回写到数据库
+     * @return 回写的会员数量，未获取到租约时返回0
+     */
+    public int flushDirty() {
+        String leaseId = IdUtil.fastSimpleUUID();
+        Boolean leased = stringRedisTemplate.opsForValue().setIfAbsent(leaseKey(), leaseId, Duration.ofSeconds(LEASE_SECONDS));
+        if (!Boolean.TRUE.equals(leased)) {
+            return 0;
+        }
+        try {
+            int count = 0;
+            List<String> memberIds;
+            while (CollUtil.isNotEmpty(memberIds = stringRedisTemplate.opsForSet().pop(dirtyKey(), BATCH_SIZE))) {
+                try {
+                    flush(memberIds);
+                    count += memberIds.size();
+                } catch (Exception e) {
+                    //回写失败时放回待回写集合，等待下次重试
+                    log.error("回写购物车失败，会员数量：{}", memberIds.size(), e);
+                    stringRedisTemplate.opsForSet().add(dirtyKey(), memberIds.toArray(new String[0]));
+                    break;
+                }
+            }
+            return count;
+        } finally {
+            stringRedisTemplate.execute(UNLEASE_SCRIPT, Collections.singletonList(leaseKey()), leaseId);
+        }
+    }
+
+    private void flush(List<String> memberIds) {
+        List<OmsCartItem> saveList = new ArrayList<>();
+        Map<Long, List<Long>> keepIdMap = new LinkedHashMap<>();
+        for (String memberId : memberIds) {
+            Long id = Long.valueOf(memberId);
+            //购物车已过期时数据库中仍为最后一次回写的结果，不做删除
+            if (!Boolean.TRUE.equals(stringRedisTemplate.opsForHash().hasKey(cartKey(id), FIELD_LOADED))) {
+                continue;
+            }
+            List<OmsCartItem> cartItemList = list(id);
+            saveList.addAll(cartItemList);
+            keepIdMap.put(id, cartItemList.stream().map(OmsCartItem::getId).collect(Collectors.toList()));
+        }
+        if (!saveList.isEmpty()) {
+            cartItemDao.saveList(saveList);
+        }
+        for (Map.Entry<Long, List<Long>> entry : keepIdMap.entrySet()) {
+            cartItemDao.deleteExcept(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * 从数据库加载会员购物车，关闭加载时仅标记为已加载
+     */
+    private void load(Long memberId) {
+        List<String> args = new ArrayList<>();
+        args.add(String.valueOf(EXPIRE_SECONDS));
+        if (LOAD_FROM_DB) {
+            OmsCartItemExample example = new OmsCartItemExample();
+            example.createCriteria().andDeleteStatusEqualTo(0).andMemberIdEqualTo(memberId);
+            //数据库中同一规格可能存在多条记录，合并为一条
+            Map<String, OmsCartItem> skuMap = new LinkedHashMap<>();
+            for (OmsCartItem cartItem : cartItemMapper.selectByExample(example)) {
+                OmsCartItem exist = skuMap.putIfAbsent(skuField(cartItem), cartItem);
+                if (exist != null) {
+                    exist.setQuantity(exist.getQuantity() + cartItem.getQuantity());
+                }
+            }
+            for (Map.Entry<String, OmsCartItem> entry : skuMap.entrySet()) {
+                OmsCartItem cartItem = entry.getValue();
+                Integer quantity = cartItem.getQuantity();
+                Long id = cartItem.getId();
+                cartItem.setId(null);
+                cartItem.setQuantity(null);
+                args.add(String.valueOf(id));
+                args.add(entry.getKey());
+                args.add(JSONUtil.toJsonStr(cartItem));
+                args.add(String.valueOf(quantity));
+            }
+        }
+        stringRedisTemplate.execute(LOAD_SCRIPT, Collections.singletonList(cartKey(memberId)), args.toArray());
+    }
+
+    /**
+     * 执行购物车脚本，购物车未加载时加载后重试一次
+     */
+    private Long executeLoaded(DefaultRedisScript<Long> script, Long memberId, String... args) {
+        List<String> keys = Arrays.asList(cartKey(memberId), dirtyKey(), idKey());
+        Long result = stringRedisTemplate.execute(script, keys, (Object[]) args);
+        if (result != null && result == -1) {
+            load(memberId);
+            result = stringRedisTemplate.execute(script, keys, (Object[]) args);
+        }
+        return result == null || result < 0 ? 0L : result;
+    }
+
+    private String skuField(OmsCartItem cartItem) {
+        return FIELD_SKU + cartItem.getProductId() + ":" + (cartItem.getProductSkuId() == null ? "" : cartItem.getProductSkuId());
+    }
+
+    private String cartKey(Long memberId) {
+        return REDIS_DATABASE + ":" + REDIS_KEY_CART + ":" + memberId;
+    }
+
+    private String dirtyKey() {
+        return REDIS_DATABASE + ":" + REDIS_KEY_CART + ":dirty";
+    }
+
+    private String idKey() {
+        return REDIS_DATABASE + ":" + REDIS_KEY_CART + ":id";
+    }
+
+    private String leaseKey() {
+        return REDIS_DATABASE + ":" + REDIS_KEY_CART + ":lease";
+    }
+}
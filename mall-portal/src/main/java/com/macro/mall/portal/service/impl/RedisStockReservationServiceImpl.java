@@ -0,0 +1,391 @@
+package com.macro.mall.portal.service.impl;
+
+import cn.hutool.core.collection.CollUtil;
+import cn.hutool.core.util.IdUtil;
+import com.macro.mall.common.exception.Asserts;
+import com.macro.mall.mapper.PmsSkuStockMapper;
+import com.macro.mall.model.OmsOrderItem;
+import com.macro.mall.model.PmsSkuStock;
+import com.macro.mall.model.PmsSkuStockExample;
+import com.macro.mall.portal.dao.PortalOrderDao;
+import com.macro.mall.portal.service.StockReservationService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * 基于Redis的库存预占实现
+ * 可用库存(stock-lock_stock)预热到Redis Hash中，整单通过一次Lua脚本原子扣减；
+ * 锁定库存的变化量累加到待回写Hash中，由StockWriteBehindTask异步批量回写pms_sku_stock.lock_stock
+ */
+@Slf4j
+@Service
+@ConditionalOnProperty(prefix = "stock.reservation", name = "mode", havingValue = "redis")
+public class RedisStockReservationServiceImpl implements StockReservationService {
+    /**
+     * 整单预占：存在未预热的sku返回-1，库存不足返回0，成功返回1
+     */
+    static final DefaultRedisScript<Long> LOCK_SCRIPT = new DefaultRedisScript<>(
+            "for i = 1, #ARGV, 2 do\n" +
+            "    local available = redis.call('HGET', KEYS[1], ARGV[i])\n" +
+            "    if not available then\n" +
+            "        return -1\n" +
+            "    end\n" +
+            "    if tonumber(available) < tonumber(ARGV[i + 1]) then\n" +
+            "        return 0\n" +
+            "    end\n" +
+            "end\n" +
+            "for i = 1, #ARGV, 2 do\n" +
+            "    redis.call('HINCRBY', KEYS[1], ARGV[i], -tonumber(ARGV[i + 1]))\n" +
+            "    redis.call('HINCRBY', KEYS[2], ARGV[i], ARGV[i + 1])\n" +
+            "end\n" +
+            "return 1", Long.class);
+    /**
+     * 释放预占：归还可用库存（已预热时）并扣减待回写的锁定库存
+     */
+    static final DefaultRedisScript<Long> RELEASE_SCRIPT = new DefaultRedisScript<>(
+            "for i = 1, #ARGV, 2 do\n" +
+            "    if redis.call('HEXISTS', KEYS[1], ARGV[i]) == 1 then\n" +
+            "        redis.call('HINCRBY', KEYS[1], ARGV[i], ARGV[i + 1])\n" +
+            "    end\n" +
+            "    redis.call('HINCRBY', KEYS[2], ARGV[i], -tonumber(ARGV[i + 1]))\n" +
+            "end\n" +
+            "return 1", Long.class);
+    /**
+     * 累加待回写的锁定库存变化量
+     */
+    static final DefaultRedisScript<Long> PENDING_SCRIPT = new DefaultRedisScript<>(
+            "for i = 1, #ARGV, 2 do\n" +
+            "    redis.call('HINCRBY', KEYS[1], ARGV[i], ARGV[i + 1])\n" +
+            "end\n" +
+            "return 1", Long.class);
+    /**
+     * 回写成功后从待回写Hash中扣除已回写的变化量，扣除后为0的sku删除
+     */
+    static final DefaultRedisScript<Long> SETTLE_SCRIPT = new DefaultRedisScript<>(
+            "for i = 1, #ARGV, 2 do\n" +
+            "    if redis.call('HINCRBY', KEYS[1], ARGV[i], -tonumber(ARGV[i + 1])) == 0 then\n" +
+            "        redis.call('HDEL', KEYS[1], ARGV[i])\n" +
+            "    end\n" +
+            "end\n" +
+            "return 1", Long.class);
+    /**
+     * 预热可用库存，已存在的sku不覆盖；可用库存=数据库可用库存-待回写的锁定库存
+     */
+    static final DefaultRedisScript<Long> WARM_UP_SCRIPT = new DefaultRedisScript<>(
+            "for i = 1, #ARGV, 2 do\n" +
+            "    if redis.call('HEXISTS', KEYS[1], ARGV[i]) == 0 then\n" +
+            "        local pending = tonumber(redis.call('HGET', KEYS[2], ARGV[i]) or '0')\n" +
+            "        redis.call('HSET', KEYS[1], ARGV[i], tonumber(ARGV[i + 1]) - pending)\n" +
+            "    end\n" +
+            "end\n" +
+            "return 1", Long.class);
+    /**
+     * 对账：以数据库为准重置已预热sku的可用库存
+     */
+    static final DefaultRedisScript<Long> RECONCILE_SCRIPT = new DefaultRedisScript<>(
+            "for i = 1, #ARGV, 2 do\n" +
+            "    if redis.call('HEXISTS', KEYS[1], ARGV[i]) == 1 then\n" +
+            "        local pending = tonumber(redis.call('HGET', KEYS[2], ARGV[i]) or '0')\n" +
+            "        redis.call('HSET', KEYS[1], ARGV[i], tonumber(ARGV[i + 1]) - pending)\n" +
+            "    end\n" +
+            "end\n" +
+            "return 1", Long.class);
+    /**
+     * 只有持有者才能释放租约
+     */
+    static final DefaultRedisScript<Long> UNLEASE_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('GET', KEYS[1]) == ARGV[1] then\n" +
+            "    return redis.call('DEL', KEYS[1])\n" +
+            "end\n" +
+            "return 0", Long.class);
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+    @Autowired
+    private PmsSkuStockMapper skuStockMapper;
+    @Autowired
+    private PortalOrderDao portalOrderDao;
+    @Value("${redis.database}")
+    private String REDIS_DATABASE;
+    @Value("${redis.key.stockAvailable}")
+    private String REDIS_KEY_STOCK_AVAILABLE;
+    @Value("${redis.key.stockPending}")
+    private String REDIS_KEY_STOCK_PENDING;
+    @Value("${redis.key.stockLease}")
+    private String REDIS_KEY_STOCK_LEASE;
+    @Value("${stock.reservation.batchSize:500}")
+    private Integer BATCH_SIZE;
+    @Value("${stock.reservation.leaseSeconds:60}")
+    private Long LEASE_SECONDS;
+    @Value("${stock.reservation.leaseWaitMillis:1000}")
+    private Long LEASE_WAIT_MILLIS;
+
+    @Override
+    public void lock(List<OmsOrderItem> orderItemList) {
+        Map<Long, Integer> quantityMap = mergeQuantity(orderItemList);
+        if (quantityMap.isEmpty()) {
+            return;
+        }
+        List<String> args = toArgs(quantityMap, 1);
+        Long result = execute(LOCK_SCRIPT, args, availableKey(), pendingKey());
+        if (result != null && result < 0) {
+            //存在未预热的sku，从数据库加载后重试一次
+            warmUp(quantityMap.keySet());
+            result = execute(LOCK_SCRIPT, args, availableKey(), pendingKey());
+        }
+        if (result != null && result < 0) {
+            Asserts.fail("系统繁忙，请稍后再试");
+        }
+        if (result == null || result != 1) {
+            Asserts.fail("库存不足，无法下单");
+        }
+        //下单事务回滚时归还已预占的库存
+        afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK,
+                () -> execute(RELEASE_SCRIPT, args, availableKey(), pendingKey()));
+    }
+
+    @Override
+    public void reduce(List<OmsOrderItem> orderItemList) {
+        Map<Long, Integer> quantityMap = mergeQuantity(orderItemList);
+        if (quantityMap.isEmpty()) {
+            return;
+        }
+        List<OmsOrderItem> itemList = new ArrayList<>(quantityMap.size());
+        for (Map.Entry<Long, Integer> entry : quantityMap.entrySet()) {
+            OmsOrderItem item = new OmsOrderItem();
+            item.setProductSkuId(entry.getKey());
+            item.setProductQuantity(entry.getValue());
+            itemList.add(item);
+        }
+        int count = portalOrderDao.reduceSkuRealStockByItemList(itemList);
+        if (count < itemList.size()) {
+            Asserts.fail("库存不足，无法扣减！");
+        }
+        //可用库存不变，事务提交后从待回写的锁定库存中扣除
+        List<String> args = toArgs(quantityMap, -1);
+        afterCompletion(TransactionSynchronization.STATUS_COMMITTED,
+                () -> execute(PENDING_SCRIPT, args, pendingKey()));
+    }
+
+    @Override
+    public void release(List<OmsOrderItem> orderItemList) {
+        Map<Long, Integer> quantityMap = mergeQuantity(orderItemList);
+        if (quantityMap.isEmpty()) {
+            return;
+        }
+        List<String> args = toArgs(quantityMap, 1);
+        afterCompletion(TransactionSynchronization.STATUS_COMMITTED,
+                () -> execute(RELEASE_SCRIPT, args, availableKey(), pendingKey()));
+    }
+
+    /**
+     * 将待回写的锁定库存变化量批量回写到数据库
+     * @return 回写的sku数量，未获取到租约时返回0
+     */
+    public int flushPending() {
+        String leaseId = IdUtil.fastSimpleUUID();
+        if (!tryLease(leaseId)) {
+            return 0;
+        }
+        try {
+            return doFlushPending();
+        } finally {
+            execute(UNLEASE_SCRIPT, Collections.singletonList(leaseId), leaseKey());
+        }
+    }
+
+    /**
+     * 先回写待处理的锁定库存，再以数据库为准重置Redis中的可用库存
+     * @return 对账的sku数量，未获取到租约时返回0
+     */
+    public int reconcile() {
+        String leaseId = IdUtil.fastSimpleUUID();
+        if (!tryLease(leaseId)) {
+            return 0;
+        }
+        try {
+            doFlushPending();
+            Set<Object> fields = stringRedisTemplate.opsForHash().keys(availableKey());
+            List<Long> skuIds = fields.stream().map(field -> Long.valueOf(field.toString())).collect(Collectors.toList());
+            for (List<Long> batch : CollUtil.split(skuIds, BATCH_SIZE)) {
+                execute(RECONCILE_SCRIPT, toAvailableArgs(selectSkuStock(batch)), availableKey(), pendingKey());
+            }
+            return skuIds.size();
+        } finally {
+            execute(UNLEASE_SCRIPT, Collections.singletonList(leaseId), leaseKey());
+        }
+    }
+
+    /**
+     * 读取待回写的变化量，回写成功后再从待回写Hash中扣除，进程在两步之间退出时变化量仍保留在Redis中
+     */
+    private int doFlushPending() {
+        Map<Object, Object> entries = stringRedisTemplate.opsForHash().entries(pendingKey());
+        if (CollUtil.isEmpty(entries)) {
+            return 0;
+        }
+        List<OmsOrderItem> itemList = new ArrayList<>();
+        List<String> zeroArgs = new ArrayList<>();
+        for (Map.Entry<Object, Object> entry : entries.entrySet()) {
+            int delta = Integer.parseInt(entry.getValue().toString());
+            if (delta == 0) {
+                zeroArgs.add(entry.getKey().toString());
+                zeroArgs.add("0");
+                continue;
+            }
+            OmsOrderItem item = new OmsOrderItem();
+            item.setProductSkuId(Long.valueOf(entry.getKey().toString()));
+            item.setProductQuantity(delta);
+            itemList.add(item);
+        }
+        if (!zeroArgs.isEmpty()) {
+            execute(SETTLE_SCRIPT, zeroArgs, pendingKey());
+        }
+        int count = 0;
+        for (List<OmsOrderItem> batch : CollUtil.split(itemList, BATCH_SIZE)) {
+            try {
+                portalOrderDao.updateSkuLockStock(batch);
+            } catch (Exception e) {
+                //回写失败时变化量仍在待回写Hash中，等待下次重试
+                log.error("回写锁定库存失败，sku数量：{}", batch.size(), e);
+                continue;
+            }
+            execute(SETTLE_SCRIPT, toArgs(mergeQuantity(batch), 1), pendingKey());
+            count += batch.size();
+        }
+        return count;
+    }
+
+    /**
+     * 从数据库加载sku的可用库存到Redis
+     * 与回写持有同一租约，避免读到尚未包含回写中变化量的数据库库存
+     */
+    private void warmUp(Collection<Long> skuIds) {
+        String leaseId = IdUtil.fastSimpleUUID();
+        if (!acquireLease(leaseId)) {
+            log.warn("等待库存回写租约超时，跳过预热，sku：{}", skuIds);
+            return;
+        }
+        try {
+            List<PmsSkuStock> skuStockList = selectSkuStock(new ArrayList<>(skuIds));
+            if (CollUtil.isNotEmpty(skuStockList)) {
+                execute(WARM_UP_SCRIPT, toAvailableArgs(skuStockList), availableKey(), pendingKey());
+            }
+        } finally {
+            execute(UNLEASE_SCRIPT, Collections.singletonList(leaseId), leaseKey());
+        }
+    }
+
+    private List<PmsSkuStock> selectSkuStock(List<Long> skuIds) {
+        PmsSkuStockExample example = new PmsSkuStockExample();
+        example.createCriteria().andIdIn(skuIds);
+        return skuStockMapper.selectByExample(example);
+    }
+
+    private boolean tryLease(String leaseId) {
+        Boolean success = stringRedisTemplate.opsForValue().setIfAbsent(leaseKey(), leaseId, Duration.ofSeconds(LEASE_SECONDS));
+        return Boolean.TRUE.equals(success);
+    }
+
+    /**
+     * 租约被回写或对账占用时等待其释放
+     */
+    private boolean acquireLease(String leaseId) {
+        long deadline = System.currentTimeMillis() + LEASE_WAIT_MILLIS;
+        while (!tryLease(leaseId)) {
+            if (System.currentTimeMillis() >= deadline) {
+                return false;
+            }
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 在当前事务完成并处于指定状态时执行，无事务时仅提交类操作立即执行
+     */
+    private void afterCompletion(int expectedStatus, Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            if (expectedStatus == TransactionSynchronization.STATUS_COMMITTED) {
+                action.run();
+            }
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status == expectedStatus) {
+                    action.run();
+                }
+            }
+        });
+    }
+
+    private Long execute(DefaultRedisScript<Long> script, List<String> args, String... keys) {
+        return stringRedisTemplate.execute(script, Arrays.asList(keys), args.toArray());
+    }
+
+    /**
+     * 按sku合并下单数量，同一sku只占用一个参数位
+     */
+    private Map<Long, Integer> mergeQuantity(List<OmsOrderItem> orderItemList) {
+        Map<Long, Integer> quantityMap = new LinkedHashMap<>();
+        if (orderItemList == null) {
+            return quantityMap;
+        }
+        for (OmsOrderItem orderItem : orderItemList) {
+            if (orderItem.getProductSkuId() == null || orderItem.getProductQuantity() == null) {
+                continue;
+            }
+            quantityMap.merge(orderItem.getProductSkuId(), orderItem.getProductQuantity(), Integer::sum);
+        }
+        return quantityMap;
+    }
+
+    private List<String> toArgs(Map<Long, Integer> quantityMap, int sign) {
+        List<String> args = new ArrayList<>(quantityMap.size() * 2);
+        for (Map.Entry<Long, Integer> entry : quantityMap.entrySet()) {
+            args.add(String.valueOf(entry.getKey()));
+            args.add(String.valueOf(sign * entry.getValue()));
+        }
+        return args;
+    }
+
+    private List<String> toAvailableArgs(List<PmsSkuStock> skuStockList) {
+        List<String> args = new ArrayList<>(skuStockList.size() * 2);
+        for (PmsSkuStock skuStock : skuStockList) {
+            int stock = skuStock.getStock() == null ? 0 : skuStock.getStock();
+            int lockStock = skuStock.getLockStock() == null ? 0 : skuStock.getLockStock();
+            args.add(String.valueOf(skuStock.getId()));
+            args.add(String.valueOf(stock - lockStock));
+        }
+        return args;
+    }
+
+    private String availableKey() {
+        return REDIS_DATABASE + ":" + REDIS_KEY_STOCK_AVAILABLE;
+    }
+
+    private String pendingKey() {
+        return REDIS_DATABASE + ":" + REDIS_KEY_STOCK_PENDING;
+    }
+
+    private String leaseKey() {
+        return REDIS_DATABASE + ":" + REDIS_KEY_STOCK_LEASE;
+    }
+}
@@ -0,0 +1,305 @@
+package com.macro.mall.portal.service.impl;
+
+import cn.hutool.core.collection.CollUtil;
+import cn.hutool.core.util.IdUtil;
+import com.macro.mall.portal.service.OmsPortalOrderService;
+import com.macro.mall.portal.service.OrderTimeoutScheduler;
+import com.macro.mall.portal.util.HashedTimingWheel;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 基于哈希时间轮的订单超时取消
+ * 超时任务按订单id分片持久化到Redis有序集合（score为到期时间），各节点通过租约领取分片，
+ * 把即将到期的任务加载到本地时间轮中按刻度精确触发，并定期补偿已到期但仍在有序集合中的任务；
+ * 有序集合在订单事务提交后写入，写入失败的订单由持有0号分片的节点定期扫描数据库中超时未支付的订单兜底取消
+ */
+@Slf4j
+@Service
+@ConditionalOnProperty(prefix = "order.timeout", name = "mode", havingValue = "wheel")
+public class TimingWheelOrderTimeoutScheduler implements OrderTimeoutScheduler {
+    /**
+     * 只有持有者才能续约
+     */
+    private static final DefaultRedisScript<Long> RENEW_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('GET', KEYS[1]) == ARGV[1] then\n" +
+            "    return redis.call('PEXPIRE', KEYS[1], ARGV[2])\n" +
+            "end\n" +
+            "return 0", Long.class);
+    /**
+     * 只有持有者才能释放租约
+     */
+    private static final DefaultRedisScript<Long> UNLEASE_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('GET', KEYS[1]) == ARGV[1] then\n" +
+            "    return redis.call('DEL', KEYS[1])\n" +
+            "end\n" +
+            "return 0", Long.class);
+    @Lazy
+    @Autowired
+    private OmsPortalOrderService portalOrderService;
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+    @Value("${redis.database}")
+    private String REDIS_DATABASE;
+    @Value("${redis.key.orderTimeout}")
+    private String REDIS_KEY_ORDER_TIMEOUT;
+    @Value("${order.timeout.shardCount:16}")
+    private Integer SHARD_COUNT;
+    @Value("${order.timeout.tickMillis:1000}")
+    private Long TICK_MILLIS;
+    @Value("${order.timeout.wheelSize:600}")
+    private Integer WHEEL_SIZE;
+    @Value("${order.timeout.leaseMillis:30000}")
+    private Long LEASE_MILLIS;
+    @Value("${order.timeout.batchSize:200}")
+    private Integer BATCH_SIZE;
+    @Value("${order.timeout.scanInterval:60000}")
+    private Long SCAN_INTERVAL;
+    private final String nodeId = IdUtil.fastSimpleUUID();
+    /**
+     * 当前节点持有的分片及其已加载到时间轮的截止时间
+     */
+    private final Map<Integer, Long> ownedShards = new ConcurrentHashMap<>();
+    private HashedTimingWheel timingWheel;
+    private ScheduledExecutorService executor;
+
+    @PostConstruct
+    public void start() {
+        timingWheel = new HashedTimingWheel(TICK_MILLIS, WHEEL_SIZE, System.currentTimeMillis());
+        //时间轮推进与分片维护在同一线程中执行，避免并发加载和触发
+        executor = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("order-timeout-"));
+        executor.scheduleWithFixedDelay(this::tick, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+        executor.scheduleWithFixedDelay(this::maintain, 0, LEASE_MILLIS / 3, TimeUnit.MILLISECONDS);
+        executor.scheduleWithFixedDelay(this::scanUnpaid, SCAN_INTERVAL, SCAN_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        executor.shutdownNow();
+        for (Integer shard : ownedShards.keySet()) {
+            stringRedisTemplate.execute(UNLEASE_SCRIPT, Collections.singletonList(leaseKey(shard)), nodeId);
+        }
+        ownedShards.clear();
+    }
+
+    @Override
+    public void schedule(Long orderId, long delayTimes) {
+        long expireAt = System.currentTimeMillis() + delayTimes;
+        afterCommit(() -> {
+            int shard = shardOf(orderId);
+            //订单已提交，写入失败时不影响下单，由超时未支付订单扫描兜底
+            try {
+                stringRedisTemplate.opsForZSet().add(shardKey(shard), String.valueOf(orderId), expireAt);
+            } catch (Exception e) {
+                log.error("写入订单超时任务失败，将由超时订单扫描取消，订单id：{}", orderId, e);
+            }
+            //已加载窗口内的任务需要直接放入本地时间轮，其他节点持有的分片由补偿扫描处理
+            Long loadedUntil = ownedShards.get(shard);
+            if (loadedUntil != null && expireAt <= loadedUntil) {
+                timingWheel.add(orderId, expireAt);
+            }
+        });
+    }
+
+    @Override
+    public void cancel(Long orderId) {
+        afterCommit(() -> {
+            timingWheel.remove(orderId);
+            //移除失败时到期后按订单状态跳过
+            try {
+                stringRedisTemplate.opsForZSet().remove(shardKey(shardOf(orderId)), String.valueOf(orderId));
+            } catch (Exception e) {
+                log.warn("移除订单超时任务失败，订单id：{}，原因：{}", orderId, e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * 推进时间轮并批量取消到期订单
+     */
+    private void tick() {
+        try {
+            List<Long> expiredList = timingWheel.advance(System.currentTimeMillis());
+            for (List<Long> batch : CollUtil.split(expiredList, BATCH_SIZE)) {
+                fire(batch);
+            }
+        } catch (Throwable e) {
+            log.error("订单超时时间轮推进失败", e);
+        }
+    }
+
+    /**
+     * 续约及重新分配分片，补偿已到期的任务并加载下一个窗口的任务
+     */
+    private void maintain() {
+        try {
+            rebalance();
+            long now = System.currentTimeMillis();
+            long horizon = now + TICK_MILLIS * WHEEL_SIZE;
+            for (Map.Entry<Integer, Long> entry : ownedShards.entrySet()) {
+                String key = shardKey(entry.getKey());
+                fireOverdue(key, now);
+                Set<ZSetOperations.TypedTuple<String>> tuples = stringRedisTemplate.opsForZSet()
+                        .rangeByScoreWithScores(key, entry.getValue(), horizon);
+                if (tuples != null) {
+                    for (ZSetOperations.TypedTuple<String> tuple : tuples) {
+                        if (tuple.getValue() != null && tuple.getScore() != null) {
+                            timingWheel.add(Long.valueOf(tuple.getValue()), tuple.getScore().longValue());
+                        }
+                    }
+                }
+                entry.setValue(horizon);
+            }
+        } catch (Throwable e) {
+            log.error("订单超时分片维护失败", e);
+        }
+    }
+
+    /**
+     * 扫描数据库中超时未支付的订单并取消，兜底处理超时任务未能写入有序集合的订单，只由持有0号分片的节点执行
+     */
+    private void scanUnpaid() {
+        if (!ownedShards.containsKey(0)) {
+            return;
+        }
+        try {
+            Integer count = portalOrderService.cancelTimeOutOrder();
+            if (count != null && count > 0) {
+                log.warn("扫描取消超时未支付订单，数量：{}", count);
+            }
+        } catch (Throwable e) {
+            log.error("扫描超时未支付订单失败", e);
+        }
+    }
+
+    /**
+     * 取消已到期但仍留在有序集合中的订单，包括节点故障积压和其他节点写入的短延迟任务
+     */
+    private void fireOverdue(String key, long now) {
+        while (true) {
+            Set<String> members = stringRedisTemplate.opsForZSet().rangeByScore(key, Double.NEGATIVE_INFINITY, now, 0, BATCH_SIZE);
+            if (CollUtil.isEmpty(members)) {
+                return;
+            }
+            List<Long> orderIds = new ArrayList<>(members.size());
+            for (String member : members) {
+                orderIds.add(Long.valueOf(member));
+            }
+            if (fire(orderIds) < orderIds.size()) {
+                //存在取消失败的订单，等待下次维护时重试
+                return;
+            }
+        }
+    }
+
+    /**
+     * 按批次取消订单，并从有序集合中批量移除处理成功的订单
+     * @return 处理成功的订单数量
+     */
+    private int fire(List<Long> orderIds) {
+        //启动或接管分片时积压的订单较多，整批取消，批次失败时再逐个重试
+        List<Long> succeedIds = portalOrderService.cancelTimeOutOrders(orderIds);
+        Map<Integer, List<String>> succeedMap = new HashMap<>();
+        for (Long orderId : succeedIds) {
+            succeedMap.computeIfAbsent(shardOf(orderId), shard -> new ArrayList<>()).add(String.valueOf(orderId));
+        }
+        for (Map.Entry<Integer, List<String>> entry : succeedMap.entrySet()) {
+            stringRedisTemplate.opsForZSet().remove(shardKey(entry.getKey()), entry.getValue().toArray());
+        }
+        log.info("超时取消订单，数量：{}，失败数量：{}", succeedIds.size(), orderIds.size() - succeedIds.size());
+        return succeedIds.size();
+    }
+
+    /**
+     * 续约已持有的分片，并按活跃节点数均分分片
+     */
+    private void rebalance() {
+        long now = System.currentTimeMillis();
+        String nodesKey = nodesKey();
+        stringRedisTemplate.opsForZSet().add(nodesKey, nodeId, now);
+        stringRedisTemplate.opsForZSet().removeRangeByScore(nodesKey, Double.NEGATIVE_INFINITY, now - LEASE_MILLIS);
+        Long nodeCount = stringRedisTemplate.opsForZSet().zCard(nodesKey);
+        int fairShare = (int) Math.ceil((double) SHARD_COUNT / Math.max(1, nodeCount == null ? 1 : nodeCount));
+        for (Integer shard : new ArrayList<>(ownedShards.keySet())) {
+            Long renewed = stringRedisTemplate.execute(RENEW_SCRIPT, Collections.singletonList(leaseKey(shard)), nodeId, String.valueOf(LEASE_MILLIS));
+            if (renewed == null || renewed == 0) {
+                dropShard(shard);
+            }
+        }
+        //超出均分数量的分片主动释放，交给新加入的节点
+        for (Integer shard : new ArrayList<>(ownedShards.keySet())) {
+            if (ownedShards.size() <= fairShare) {
+                break;
+            }
+            stringRedisTemplate.execute(UNLEASE_SCRIPT, Collections.singletonList(leaseKey(shard)), nodeId);
+            dropShard(shard);
+        }
+        int offset = new Random().nextInt(SHARD_COUNT);
+        for (int i = 0; i < SHARD_COUNT && ownedShards.size() < fairShare; i++) {
+            int shard = (offset + i) % SHARD_COUNT;
+            if (ownedShards.containsKey(shard)) {
+                continue;
+            }
+            Boolean acquired = stringRedisTemplate.opsForValue().setIfAbsent(leaseKey(shard), nodeId, LEASE_MILLIS, TimeUnit.MILLISECONDS);
+            if (Boolean.TRUE.equals(acquired)) {
+                //新领取的分片从头加载，已到期的任务由补偿扫描处理
+                ownedShards.put(shard, now);
+            }
+        }
+    }
+
+    private void dropShard(Integer shard) {
+        ownedShards.remove(shard);
+        timingWheel.removeIf(orderId -> shardOf(orderId) == shard);
+    }
+
+    /**
+     * 在当前事务提交后执行，无事务时立即执行
+     */
+    private void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    private int shardOf(Long orderId) {
+        return (int) (orderId % SHARD_COUNT);
+    }
+
+    private String shardKey(int shard) {
+        return REDIS_DATABASE + ":" + REDIS_KEY_ORDER_TIMEOUT + ":" + shard;
+    }
+
+    private String leaseKey(int shard) {
+        return REDIS_DATABASE + ":" + REDIS_KEY_ORDER_TIMEOUT + ":lease:" + shard;
+    }
+
+    private String nodesKey() {
+        return REDIS_DATABASE + ":" + REDIS_KEY_ORDER_TIMEOUT + ":nodes";
+    }
+}
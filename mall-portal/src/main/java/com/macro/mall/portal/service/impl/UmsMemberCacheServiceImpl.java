@@ -1,16 +1,29 @@
 package com.macro.mall.portal.service.impl;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import com.macro.mall.common.service.RedisService;
 import com.macro.mall.mapper.UmsMemberMapper;
 import com.macro.mall.model.UmsMember;
 import com.macro.mall.portal.service.UmsMemberCacheService;
 import com.macro.mall.security.annotation.CacheException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
 /**
  * UmsMemberCacheService实现类
+ * 会员信息采用两级缓存：本地缓存在前，Redis在后；删除会员缓存时通过Redis发布订阅通知所有节点淘汰本地缓存
  * Created by macro on 2020/3/14.
  */
 @Service
@@ -19,6 +32,12 @@ public class UmsMemberCacheServiceImpl implements UmsMemberCacheService {
     private RedisService redisService;
     @Autowired
     private UmsMemberMapper memberMapper;
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+    @Autowired
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+    @Autowired
+    private MeterRegistry meterRegistry;
     @Value("${redis.database}")
     private String REDIS_DATABASE;
     @Value("${redis.expire.common}")
@@ -29,26 +48,65 @@ public class UmsMemberCacheServiceImpl implements UmsMemberCacheService {
     private String REDIS_KEY_MEMBER;
     @Value("${redis.key.authCode}")
     private String REDIS_KEY_AUTH_CODE;
+    @Value("${member.cache.local.maxSize:10000}")
+    private Long LOCAL_MAX_SIZE;
+    @Value("${member.cache.local.expireSeconds:60}")
+    private Long LOCAL_EXPIRE_SECONDS;
+    /**
+     * 本地缓存的会员信息为多个请求共享，使用方不应修改
+     */
+    private Cache<String, UmsMember> localCache;
+    private Counter redisHitCounter;
+    private Counter redisMissCounter;
+
+    @PostConstruct
+    public void init() {
+        localCache = Caffeine.newBuilder()
+                .maximumSize(LOCAL_MAX_SIZE)
+                .expireAfterWrite(LOCAL_EXPIRE_SECONDS, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, localCache, "memberLocalCache");
+        redisHitCounter = meterRegistry.counter("mall.member.cache.redis", "result", "hit");
+        redisMissCounter = meterRegistry.counter("mall.member.cache.redis", "result", "miss");
+        //其他节点删除会员缓存时淘汰本地缓存，消息内容为用户名
+        redisMessageListenerContainer.addMessageListener((message, pattern) ->
+                localCache.invalidate(new String(message.getBody(), StandardCharsets.UTF_8)), new ChannelTopic(channel()));
+    }
 
     @Override
     public void delMember(Long memberId) {
         UmsMember umsMember = memberMapper.selectByPrimaryKey(memberId);
         if (umsMember != null) {
+            localCache.invalidate(umsMember.getUsername());
             String key = REDIS_DATABASE + ":" + REDIS_KEY_MEMBER + ":" + umsMember.getUsername();
             redisService.del(key);
+            stringRedisTemplate.convertAndSend(channel(), umsMember.getUsername());
         }
     }
 
     @Override
     public UmsMember getMember(String username) {
+        UmsMember member = localCache.getIfPresent(username);
+        if (member != null) {
+            return member;
+        }
         String key = REDIS_DATABASE + ":" + REDIS_KEY_MEMBER + ":" + username;
-        return (UmsMember) redisService.get(key);
+        member = (UmsMember) redisService.get(key);
+        if (member != null) {
+            redisHitCounter.increment();
+            localCache.put(username, member);
+        } else {
+            redisMissCounter.increment();
+        }
+        return member;
     }
 
     @Override
     public void setMember(UmsMember member) {
         String key = REDIS_DATABASE + ":" + REDIS_KEY_MEMBER + ":" + member.getUsername();
         redisService.set(key, member, REDIS_EXPIRE);
+        localCache.put(member.getUsername(), member);
     }
 
     @CacheException
@@ -64,4 +122,8 @@ public class UmsMemberCacheServiceImpl implements UmsMemberCacheService {
         String key = REDIS_DATABASE + ":" + REDIS_KEY_AUTH_CODE + ":" + telephone;
         return (String) redisService.get(key);
     }
+
+    private String channel() {
+        return REDIS_DATABASE + ":" + REDIS_KEY_MEMBER + ":channel";
+    }
 }
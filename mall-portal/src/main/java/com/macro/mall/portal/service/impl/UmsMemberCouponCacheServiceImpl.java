@@ -0,0 +1,72 @@
+package com.macro.mall.portal.service.impl;
+
+import com.macro.mall.common.service.RedisService;
+import com.macro.mall.portal.domain.MemberCouponWallet;
+import com.macro.mall.portal.service.UmsMemberCouponCacheService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * UmsMemberCouponCacheService实现类
+ * 优惠券规则的版本号由后台修改优惠券时递增，会员优惠券缓存记录加载时的版本号
+ */
+@Service
+public class UmsMemberCouponCacheServiceImpl implements UmsMemberCouponCacheService {
+    @Autowired
+    private RedisService redisService;
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+    @Value("${redis.database}")
+    private String REDIS_DATABASE;
+    @Value("${redis.key.coupon}")
+    private String REDIS_KEY_COUPON;
+    @Value("${coupon.wallet.expireSeconds:600}")
+    private Long WALLET_EXPIRE_SECONDS;
+
+    @Override
+    public MemberCouponWallet getWallet(Long memberId) {
+        MemberCouponWallet wallet = (MemberCouponWallet) redisService.get(walletKey(memberId));
+        if (wallet == null || !getVersion().equals(wallet.getVersion())) {
+            return null;
+        }
+        return wallet;
+    }
+
+    @Override
+    public void setWallet(Long memberId, MemberCouponWallet wallet) {
+        redisService.set(walletKey(memberId), wallet, WALLET_EXPIRE_SECONDS);
+    }
+
+    @Override
+    public void delWallet(Long memberId) {
+        String key = walletKey(memberId);
+        redisService.del(key);
+        //事务提交后再删除一次，避免提交前其他请求缓存到旧数据
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    try {
+                        redisService.del(key);
+                    } catch (Exception e) {
+                        //删除失败时依赖缓存过期
+                    }
+                }
+            });
+        }
+    }
+
+    @Override
+    public String getVersion() {
+        String version = stringRedisTemplate.opsForValue().get(REDIS_DATABASE + ":" + REDIS_KEY_COUPON + ":version");
+        return version == null ? "0" : version;
+    }
+
+    private String walletKey(Long memberId) {
+        return REDIS_DATABASE + ":" + REDIS_KEY_COUPON + ":wallet:" + memberId;
+    }
+}
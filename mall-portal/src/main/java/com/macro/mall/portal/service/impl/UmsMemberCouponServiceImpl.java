@@ -1,30 +1,151 @@
 package com.macro.mall.portal.service.impl;
 
 import cn.hutool.core.collection.CollUtil;
+import cn.hutool.json.JSONUtil;
 import com.macro.mall.common.exception.Asserts;
 import com.macro.mall.mapper.*;
 import com.macro.mall.model.*;
+import com.macro.mall.portal.component.OrderSnGenerator;
 import com.macro.mall.portal.dao.SmsCouponHistoryDao;
+import com.macro.mall.portal.domain.CartCouponEvaluation;
 import com.macro.mall.portal.domain.CartPromotionItem;
+import com.macro.mall.portal.domain.MemberCouponWallet;
 import com.macro.mall.portal.domain.SmsCouponHistoryDetail;
+import com.macro.mall.portal.service.UmsMemberCouponCacheService;
 import com.macro.mall.portal.service.UmsMemberCouponService;
 import com.macro.mall.portal.service.UmsMemberService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.RecoverableDataAccessException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 
 import java.math.BigDecimal;
-import java.util.ArrayList;
-import java.util.Date;
-import java.util.List;
-import java.util.Random;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 /**
  * 会员优惠券管理Service实现类
+ * 领取优惠券时剩余数量和会员领取数量先在Redis中原子校验扣减，再以条件更新扣减数据库中的数量，
+ * 领取记录写入Redis待插入列表，由CouponHistoryWriteBehindTask批量插入
  * Created by macro on 2018/8/29.
  */
 @Service
 public class UmsMemberCouponServiceImpl implements UmsMemberCouponService {
+    private static final Logger LOGGER = LoggerFactory.getLogger(UmsMemberCouponServiceImpl.class);
+    private static final long CLAIM_SOLD_OUT = 0;
+    private static final long CLAIM_NOT_ENABLE = 2;
+    private static final long CLAIM_LIMITED = 3;
+    /**
+     * 领取优惠券：未加载返回-1，会员领取数量未加载返回-2，已领完返回0，成功返回1，未到领取时间返回2，超出限领数量返回3
+     * KEYS[1]:优惠券领取Hash ARGV[1]:会员id ARGV[2]:当前时间（毫秒）
+     */
+    static final DefaultRedisScript<Long> CLAIM_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('EXISTS', KEYS[1]) == 0 then\n" +
+            "    return -1\n" +
+            "end\n" +
+            "local claimed = redis.call('HGET', KEYS[1], 'm:' .. ARGV[1])\n" +
+            "if not claimed then\n" +
+            "    return -2\n" +
+            "end\n" +
+            "if tonumber(redis.call('HGET', KEYS[1], 'remain')) <= 0 then\n" +
+            "    return 0\n" +
+            "end\n" +
+            "if tonumber(ARGV[2]) < tonumber(redis.call('HGET', KEYS[1], 'enableTime')) then\n" +
+            "    return 2\n" +
+            "end\n" +
+            "if tonumber(claimed) >= tonumber(redis.call('HGET', KEYS[1], 'perLimit')) then\n" +
+            "    return 3\n" +
+            "end\n" +
+            "redis.call('HINCRBY', KEYS[1], 'remain', -1)\n" +
+            "redis.call('HINCRBY', KEYS[1], 'm:' .. ARGV[1], 1)\n" +
+            "return 1", Long.class);
+    /**
+     * 数据库扣减失败时退还会员领取数量；ARGV[2]为1时归还剩余数量，为0时说明数据库已领完，剩余数量置为0
+     */
+    static final DefaultRedisScript<Long> RETURN_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('EXISTS', KEYS[1]) == 0 then\n" +
+            "    return 0\n" +
+            "end\n" +
+            "redis.call('HINCRBY', KEYS[1], 'm:' .. ARGV[1], -1)\n" +
+            "if ARGV[2] == '1' then\n" +
+            "    redis.call('HINCRBY', KEYS[1], 'remain', 1)\n" +
+            "else\n" +
+            "    redis.call('HSET', KEYS[1], 'remain', 0)\n" +
+            "end\n" +
+            "return 1", Long.class);
+    /**
+     * 加载剩余数量、每人限领数量及领取开始时间，已加载时不覆盖
+     * ARGV[1]:剩余数量 ARGV[2]:每人限领数量 ARGV[3]:领取开始时间（毫秒） ARGV[4]:过期时间点（毫秒）
+     */
+    static final DefaultRedisScript<Long> LOAD_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('EXISTS', KEYS[1]) == 1 then\n" +
+            "    return 0\n" +
+            "end\n" +
+            "redis.call('HSET', KEYS[1], 'remain', ARGV[1], 'perLimit', ARGV[2], 'enableTime', ARGV[3])\n" +
+            "redis.call('PEXPIREAT', KEYS[1], ARGV[4])\n" +
+            "return 1", Long.class);
+    /**
+     * 加载会员已领取的数量，优惠券未加载或会员已加载时不处理
+     */
+    static final DefaultRedisScript<Long> LOAD_MEMBER_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('EXISTS', KEYS[1]) == 0 then\n" +
+            "    return 0\n" +
+            "end\n" +
+            "return redis.call('HSETNX', KEYS[1], 'm:' .. ARGV[1], ARGV[2])", Long.class);
+    /**
+     * 从待插入列表头部取出一批领取记录
+     */
+    @SuppressWarnings("rawtypes")
+    static final DefaultRedisScript<List> POP_SCRIPT = new DefaultRedisScript<>(
+            "local entries = redis.call('LRANGE', KEYS[1], 0, tonumber(ARGV[1]) - 1)\n" +
+            "if #entries > 0 then\n" +
+            "    redis.call('LTRIM', KEYS[1], #entries, -1)\n" +
+            "end\n" +
+            "return entries", List.class);
+    /**
+     * 将领取记录按原顺序放回待插入列表头部
+     */
+    static final DefaultRedisScript<Long> REQUEUE_SCRIPT = new DefaultRedisScript<>(
+            "for i = #ARGV, 1, -1 do\n" +
+            "    redis.call('LPUSH', KEYS[1], ARGV[i])\n" +
+            "end\n" +
+            "return #ARGV", Long.class);
+    /**
+     * 插入失败的领取记录逐条累加失败次数后放回待插入列表头部，达到最大次数的移入死信列表，返回移入死信列表的数量
+     * KEYS[1]:待插入列表 KEYS[2]:各记录的失败次数Hash KEYS[3]:死信列表 ARGV[1]:最大失败次数 ARGV[2...]:领取记录
+     */
+    static final DefaultRedisScript<Long> RETRY_SCRIPT = new DefaultRedisScript<>(
+            "local dead = 0\n" +
+            "for i = #ARGV, 2, -1 do\n" +
+            "    if redis.call('HINCRBY', KEYS[2], ARGV[i], 1) >= tonumber(ARGV[1]) then\n" +
+            "        redis.call('HDEL', KEYS[2], ARGV[i])\n" +
+            "        redis.call('RPUSH', KEYS[3], ARGV[i])\n" +
+            "        dead = dead + 1\n" +
+            "    else\n" +
+            "        redis.call('LPUSH', KEYS[1], ARGV[i])\n" +
+            "    end\n" +
+            "end\n" +
+            "return dead", Long.class);
+    /**
+     * 将死信列表头部的一批领取记录移回待插入列表尾部，返回移动的数量
+     * KEYS[1]:死信列表 KEYS[2]:待插入列表 ARGV[1]:数量
+     */
+    static final DefaultRedisScript<Long> REVIVE_SCRIPT = new DefaultRedisScript<>(
+            "local entries = redis.call('LRANGE', KEYS[1], 0, tonumber(ARGV[1]) - 1)\n" +
+            "if #entries > 0 then\n" +
+            "    redis.call('RPUSH', KEYS[2], unpack(entries))\n" +
+            "    redis.call('LTRIM', KEYS[1], #entries, -1)\n" +
+            "end\n" +
+            "return #entries", Long.class);
     @Autowired
     private UmsMemberService memberService;
     @Autowired
@@ -39,29 +160,70 @@ public class UmsMemberCouponServiceImpl implements UmsMemberCouponService {
     private SmsCouponProductCategoryRelationMapper couponProductCategoryRelationMapper;
     @Autowired
     private PmsProductMapper productMapper;
+    @Autowired
+    private UmsMemberCouponCacheService memberCouponCacheService;
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+    @Autowired
+    private OrderSnGenerator orderSnGenerator;
+    @Value("${redis.database}")
+    private String REDIS_DATABASE;
+    @Value("${redis.key.coupon}")
+    private String REDIS_KEY_COUPON;
+    @Value("${coupon.claim.batchSize:500}")
+    private Integer HISTORY_BATCH_SIZE;
+    @Value("${coupon.claim.maxRetry:20}")
+    private Integer HISTORY_MAX_RETRY;
+    @Value("${coupon.claim.flushInterval:500}")
+    private Long HISTORY_FLUSH_INTERVAL;
+    @Value("${coupon.claim.maxBackoff:60000}")
+    private Long HISTORY_MAX_BACKOFF;
+    /**
+     * 数据库暂时不可用时退避，在此时间之前不插入领取记录
+     */
+    private volatile long historyRetryAt;
+    private volatile int historyBackoffCount;
+
     @Override
     public void add(Long couponId) {
         UmsMember currentMember = memberService.getCurrentMember();
-        //获取优惠券信息，判断数量
-        SmsCoupon coupon = couponMapper.selectByPrimaryKey(couponId);
-        if(coupon==null){
-            Asserts.fail("优惠券不存在");
+        Date now = new Date();
+        //先在Redis中原子扣减剩余数量并累加会员领取数量，未通过的请求不访问数据库
+        List<String> keys = Collections.singletonList(claimKey(couponId));
+        String memberId = String.valueOf(currentMember.getId());
+        Long result = null;
+        for (int i = 0; i < 3; i++) {
+            result = stringRedisTemplate.execute(CLAIM_SCRIPT, keys, memberId, String.valueOf(now.getTime()));
+            if (result == null || result == -1) {
+                loadClaim(couponId);
+            } else if (result == -2) {
+                loadMemberClaim(couponId, currentMember.getId());
+            } else {
+                break;
+            }
         }
-        if(coupon.getCount()<=0){
+        if (result == null || result < 0) {
+            Asserts.fail("系统繁忙，请稍后再试");
+        } else if (result == CLAIM_SOLD_OUT) {
             Asserts.fail("优惠券已经领完了");
-        }
-        Date now = new Date();
-        if(now.before(coupon.getEnableTime())){
+        } else if (result == CLAIM_NOT_ENABLE) {
             Asserts.fail("优惠券还没到领取时间");
-        }
-        //判断用户领取的优惠券数量是否超过限制
-        SmsCouponHistoryExample couponHistoryExample = new SmsCouponHistoryExample();
-        couponHistoryExample.createCriteria().andCouponIdEqualTo(couponId).andMemberIdEqualTo(currentMember.getId());
-        long count = couponHistoryMapper.countByExample(couponHistoryExample);
-        if(count>=coupon.getPerLimit()){
+        } else if (result == CLAIM_LIMITED) {
             Asserts.fail("您已经领取过该优惠券");
         }
-        //生成领取优惠券历史
+        //以数据库中的剩余数量为准，条件扣减失败时说明后台修改过数量
+        int count;
+        try {
+            count = couponHistoryDao.reduceCouponCount(couponId, 1);
+        } catch (RuntimeException e) {
+            stringRedisTemplate.execute(RETURN_SCRIPT, keys, memberId, "1");
+            throw e;
+        }
+        if (count == 0) {
+            stringRedisTemplate.execute(RETURN_SCRIPT, keys, memberId, "0");
+            Asserts.fail("优惠券已经领完了");
+        }
+        //生成领取优惠券历史，异步批量插入
         SmsCouponHistory couponHistory = new SmsCouponHistory();
         couponHistory.setCouponId(couponId);
         couponHistory.setCouponCode(generateCouponCode(currentMember.getId()));
@@ -72,31 +234,213 @@ public class UmsMemberCouponServiceImpl implements UmsMemberCouponService {
         couponHistory.setGetType(1);
         //未使用
         couponHistory.setUseStatus(0);
-        couponHistoryMapper.insert(couponHistory);
-        //修改优惠券表的数量、领取数量
-        coupon.setCount(coupon.getCount()-1);
-        coupon.setReceiveCount(coupon.getReceiveCount()==null?1:coupon.getReceiveCount()+1);
-        couponMapper.updateByPrimaryKey(coupon);
+        try {
+            stringRedisTemplate.opsForList().rightPush(pendingKey(), JSONUtil.toJsonStr(couponHistory));
+        } catch (Exception e) {
+            //数据库中的数量已扣减，无法写入待插入列表时直接插入
+            LOGGER.warn("写入待插入优惠券领取记录失败，直接插入，原因：{}", e.getMessage());
+            couponHistoryMapper.insert(couponHistory);
+            memberCouponCacheService.delWallet(currentMember.getId());
+        }
+    }
+
+    /**
+     * 将待插入的优惠券领取记录批量写入数据库
+     * 数据库暂时不可用时原样放回并退避，其他原因失败时逐条插入，只对失败的记录累加失败次数
+     * @return 插入的记录数量
+     */
+    @SuppressWarnings("unchecked")
+    public int flushHistory() {
+        if (System.currentTimeMillis() < historyRetryAt) {
+            return 0;
+        }
+        int count = 0;
+        List<String> entries;
+        while (CollUtil.isNotEmpty(entries = stringRedisTemplate.execute(POP_SCRIPT,
+                Collections.singletonList(pendingKey()), String.valueOf(HISTORY_BATCH_SIZE)))) {
+            List<SmsCouponHistory> historyList = entries.stream()
+                    .map(entry -> JSONUtil.toBean(entry, SmsCouponHistory.class)).collect(Collectors.toList());
+            try {
+                couponHistoryDao.insertList(historyList);
+            } catch (Exception e) {
+                if (isTransient(e)) {
+                    stringRedisTemplate.execute(REQUEUE_SCRIPT, Collections.singletonList(pendingKey()), entries.toArray());
+                    backoffHistory(e);
+                    break;
+                }
+                LOGGER.warn("批量插入优惠券领取记录失败，改为逐条插入，数量：{}，原因：{}", entries.size(), e.getMessage());
+                int inserted = insertHistoryEach(entries, historyList);
+                count += inserted;
+                if (inserted < entries.size()) {
+                    break;
+                }
+                continue;
+            }
+            historyBackoffCount = 0;
+            afterHistoryInserted(entries, historyList);
+            count += historyList.size();
+        }
+        return count;
+    }
+
+    /**
+     * 将死信列表中的领取记录移回待插入列表重新插入
+     * 会员的领取数量已在数据库中扣减，领取记录不能丢弃，排除故障后由定时任务或手动调用重新插入
+     * @return 移回的记录数量
+     */
+    public int reviveDeadHistory() {
+        int count = 0;
+        Long moved;
+        while ((moved = stringRedisTemplate.execute(REVIVE_SCRIPT, Arrays.asList(deadLetterKey(), pendingKey()),
+                String.valueOf(HISTORY_BATCH_SIZE))) != null && moved > 0) {
+            count += moved;
+        }
+        return count;
+    }
+
+    /**
+     * 逐条插入领取记录，隔离导致整批失败的记录
+     * @return 插入的记录数量
+     */
+    private int insertHistoryEach(List<String> entries, List<SmsCouponHistory> historyList) {
+        List<String> insertedEntries = new ArrayList<>();
+        List<SmsCouponHistory> insertedList = new ArrayList<>();
+        List<String> failedEntries = new ArrayList<>();
+        int i = 0;
+        for (; i < entries.size(); i++) {
+            try {
+                couponHistoryMapper.insert(historyList.get(i));
+            } catch (Exception e) {
+                if (isTransient(e)) {
+                    backoffHistory(e);
+                    break;
+                }
+                LOGGER.error("插入优惠券领取记录失败：{}", entries.get(i), e);
+                failedEntries.add(entries.get(i));
+                continue;
+            }
+            insertedEntries.add(entries.get(i));
+            insertedList.add(historyList.get(i));
+        }
+        if (i < entries.size()) {
+            stringRedisTemplate.execute(REQUEUE_SCRIPT, Collections.singletonList(pendingKey()),
+                    entries.subList(i, entries.size()).toArray());
+        }
+        if (!failedEntries.isEmpty()) {
+            List<String> args = new ArrayList<>(failedEntries.size() + 1);
+            args.add(String.valueOf(HISTORY_MAX_RETRY));
+            args.addAll(failedEntries);
+            Long dead = stringRedisTemplate.execute(RETRY_SCRIPT, Arrays.asList(pendingKey(), retryKey(), deadLetterKey()), args.toArray());
+            if (dead != null && dead > 0) {
+                LOGGER.error("优惠券领取记录插入失败次数达到上限，移入死信列表：{}，数量：{}", deadLetterKey(), dead);
+            }
+        }
+        if (!insertedList.isEmpty()) {
+            afterHistoryInserted(insertedEntries, insertedList);
+        }
+        return insertedList.size();
+    }
+
+    /**
+     * 清除已插入记录的失败次数，领取记录入库后会员的优惠券才可用
+     */
+    private void afterHistoryInserted(List<String> entries, List<SmsCouponHistory> historyList) {
+        stringRedisTemplate.opsForHash().delete(retryKey(), entries.toArray());
+        historyList.stream().map(SmsCouponHistory::getMemberId).distinct()
+                .forEach(memberId -> memberCouponCacheService.delWallet(memberId));
+    }
+
+    /**
+     * 数据库连接失败、超时等暂时性错误
+     */
+    private boolean isTransient(Exception e) {
+        return e instanceof TransientDataAccessException || e instanceof RecoverableDataAccessException
+                || e instanceof DataAccessResourceFailureException;
+    }
+
+    /**
+     * 数据库暂时不可用时按连续失败次数指数退避，不计入记录的失败次数
+     */
+    private void backoffHistory(Exception e) {
+        int backoffCount = historyBackoffCount;
+        long delay = Math.min(HISTORY_FLUSH_INTERVAL << Math.min(backoffCount, 16), HISTORY_MAX_BACKOFF);
+        historyBackoffCount = backoffCount + 1;
+        historyRetryAt = System.currentTimeMillis() + delay;
+        LOGGER.warn("数据库暂时不可用，{}毫秒后重新插入优惠券领取记录，原因：{}", delay, e.getMessage());
+    }
+
+    /**
+     * 从数据库加载优惠券的剩余数量及领取限制，已加载时不覆盖
+     */
+    private void loadClaim(Long couponId) {
+        SmsCoupon coupon = couponMapper.selectByPrimaryKey(couponId);
+        if (coupon == null) {
+            Asserts.fail("优惠券不存在");
+        }
+        //领取数量保留到优惠券过期后一天
+        long expireAt = coupon.getEndTime() == null ? System.currentTimeMillis() + TimeUnit.DAYS.toMillis(30)
+                : coupon.getEndTime().getTime() + TimeUnit.DAYS.toMillis(1);
+        stringRedisTemplate.execute(LOAD_SCRIPT, Collections.singletonList(claimKey(couponId)),
+                String.valueOf(coupon.getCount() == null ? 0 : coupon.getCount()),
+                String.valueOf(coupon.getPerLimit() == null ? 1 : coupon.getPerLimit()),
+                String.valueOf(coupon.getEnableTime() == null ? 0 : coupon.getEnableTime().getTime()),
+                String.valueOf(expireAt));
     }
 
     /**
-     * 16位优惠码生成：时间戳后8位+4位随机数+用户id后4位
+     * 从数据库加载会员已领取的数量
+     * 优惠券领取Hash保留到优惠券过期后，会员在Hash中没有领取数量时也不会有尚未插入的领取记录
+     */
+    private void loadMemberClaim(Long couponId, Long memberId) {
+        SmsCouponHistoryExample couponHistoryExample = new SmsCouponHistoryExample();
+        couponHistoryExample.createCriteria().andCouponIdEqualTo(couponId).andMemberIdEqualTo(memberId);
+        long count = couponHistoryMapper.countByExample(couponHistoryExample);
+        stringRedisTemplate.execute(LOAD_MEMBER_SCRIPT, Collections.singletonList(claimKey(couponId)),
+                String.valueOf(memberId), String.valueOf(count));
+    }
+
+    private String claimKey(Long couponId) {
+        return REDIS_DATABASE + ":" + REDIS_KEY_COUPON + ":claim:" + couponId;
+    }
+
+    private String retryKey() {
+        return REDIS_DATABASE + ":" + REDIS_KEY_COUPON + ":history:retry";
+    }
+
+    private String deadLetterKey() {
+        return REDIS_DATABASE + ":" + REDIS_KEY_COUPON + ":history:dead";
+    }
+
+    private String pendingKey() {
+        return REDIS_DATABASE + ":" + REDIS_KEY_COUPON + ":history:pending";
+    }
+
+    /**
+     * 16位优惠码生成：时间戳后8位+4位序号+用户id后4位
+     * 序号取自优惠码的本地号段，与订单编号互不占用，同一毫秒内连续领取不会重复
      */
     private String generateCouponCode(Long memberId) {
-        StringBuilder sb = new StringBuilder();
-        Long currentTimeMillis = System.currentTimeMillis();
-        String timeMillisStr = currentTimeMillis.toString();
-        sb.append(timeMillisStr.substring(timeMillisStr.length() - 8));
-        for (int i = 0; i < 4; i++) {
-            sb.append(new Random().nextInt(10));
-        }
-        String memberIdStr = memberId.toString();
-        if (memberIdStr.length() <= 4) {
-            sb.append(String.format("%04d", memberId));
+        StringBuilder sb = new StringBuilder(16);
+        String timeMillisStr = Long.toString(System.currentTimeMillis());
+        sb.append(timeMillisStr, timeMillisStr.length() - 8, timeMillisStr.length());
+        appendLast4(sb, orderSnGenerator.nextCouponSequence() % 10000);
+        appendLast4(sb, memberId);
+        return sb.toString();
+    }
+
+    /**
+     * 追加数值的后4位，不足4位时补0
+     */
+    private void appendLast4(StringBuilder sb, long value) {
+        String str = Long.toString(value);
+        if (str.length() <= 4) {
+            for (int i = str.length(); i < 4; i++) {
+                sb.append('0');
+            }
+            sb.append(str);
         } else {
-            sb.append(memberIdStr.substring(memberIdStr.length()-4));
+            sb.append(str, str.length() - 4, str.length());
         }
-        return sb.toString();
     }
 
     @Override
@@ -113,60 +457,119 @@ public class UmsMemberCouponServiceImpl implements UmsMemberCouponService {
 
     @Override
     public List<SmsCouponHistoryDetail> listCart(List<CartPromotionItem> cartItemList, Integer type) {
+        CartCouponEvaluation evaluation = evaluateCart(cartItemList);
+        if(type.equals(1)){
+            return evaluation.getEnableList();
+        }else{
+            return evaluation.getDisableList();
+        }
+    }
+
+    @Override
+    public CartCouponEvaluation evaluateCart(List<CartPromotionItem> cartItemList) {
         UmsMember currentMember = memberService.getCurrentMember();
         Date now = new Date();
-        //获取该用户所有优惠券
-        List<SmsCouponHistoryDetail> allList = couponHistoryDao.getDetailList(currentMember.getId());
+        //先按分类和商品汇总购物车金额，每张优惠券只需累加其适用范围内的小计
+        BigDecimal totalAmount = new BigDecimal("0");
+        Map<Long, BigDecimal> categoryAmountMap = new HashMap<>();
+        Map<Long, BigDecimal> productAmountMap = new HashMap<>();
+        for (CartPromotionItem item : cartItemList) {
+            BigDecimal realPrice = item.getPrice().subtract(item.getReduceAmount());
+            BigDecimal amount = realPrice.multiply(new BigDecimal(item.getQuantity()));
+            totalAmount = totalAmount.add(amount);
+            categoryAmountMap.merge(item.getProductCategoryId(), amount, BigDecimal::add);
+            productAmountMap.merge(item.getProductId(), amount, BigDecimal::add);
+        }
+        CartCouponEvaluation evaluation = new CartCouponEvaluation();
         //根据优惠券使用类型来判断优惠券是否可用
-        List<SmsCouponHistoryDetail> enableList = new ArrayList<>();
-        List<SmsCouponHistoryDetail> disableList = new ArrayList<>();
-        for (SmsCouponHistoryDetail couponHistoryDetail : allList) {
-            Integer useType = couponHistoryDetail.getCoupon().getUseType();
-            BigDecimal minPoint = couponHistoryDetail.getCoupon().getMinPoint();
-            Date endTime = couponHistoryDetail.getCoupon().getEndTime();
+        for (SmsCouponHistoryDetail couponHistoryDetail : getWallet(currentMember.getId()).getCouponList()) {
+            SmsCoupon coupon = couponHistoryDetail.getCoupon();
+            if (coupon == null) {
+                //优惠券已被删除
+                continue;
+            }
+            Integer useType = coupon.getUseType();
+            BigDecimal amount = null;
             if(useType.equals(0)){
                 //0->全场通用
-                //判断是否满足优惠起点
-                //计算购物车商品的总价
-                BigDecimal totalAmount = calcTotalAmount(cartItemList);
-                if(now.before(endTime)&&totalAmount.subtract(minPoint).floatValue()>=0){
-                    enableList.add(couponHistoryDetail);
-                }else{
-                    disableList.add(couponHistoryDetail);
-                }
+                amount = totalAmount;
             }else if(useType.equals(1)){
                 //1->指定分类
-                //计算指定分类商品的总价
-                List<Long> productCategoryIds = new ArrayList<>();
-                for (SmsCouponProductCategoryRelation categoryRelation : couponHistoryDetail.getCategoryRelationList()) {
-                    productCategoryIds.add(categoryRelation.getProductCategoryId());
-                }
-                BigDecimal totalAmount = calcTotalAmountByproductCategoryId(cartItemList,productCategoryIds);
-                if(now.before(endTime)&&totalAmount.floatValue()>0&&totalAmount.subtract(minPoint).floatValue()>=0){
-                    enableList.add(couponHistoryDetail);
-                }else{
-                    disableList.add(couponHistoryDetail);
-                }
+                Set<Long> categoryIds = evaluation.getScopeMap().computeIfAbsent(coupon.getId(), key -> couponHistoryDetail.getCategoryRelationList().stream()
+                        .map(SmsCouponProductCategoryRelation::getProductCategoryId).collect(Collectors.toSet()));
+                amount = sumAmount(categoryAmountMap, categoryIds);
             }else if(useType.equals(2)){
                 //2->指定商品
-                //计算指定商品的总价
-                List<Long> productIds = new ArrayList<>();
-                for (SmsCouponProductRelation productRelation : couponHistoryDetail.getProductRelationList()) {
-                    productIds.add(productRelation.getProductId());
-                }
-                BigDecimal totalAmount = calcTotalAmountByProductId(cartItemList,productIds);
-                if(now.before(endTime)&&totalAmount.floatValue()>0&&totalAmount.subtract(minPoint).floatValue()>=0){
-                    enableList.add(couponHistoryDetail);
-                }else{
-                    disableList.add(couponHistoryDetail);
-                }
+                Set<Long> productIds = evaluation.getScopeMap().computeIfAbsent(coupon.getId(), key -> couponHistoryDetail.getProductRelationList().stream()
+                        .map(SmsCouponProductRelation::getProductId).collect(Collectors.toSet()));
+                amount = sumAmount(productAmountMap, productIds);
+            }
+            if (amount == null) {
+                continue;
+            }
+            //指定分类和指定商品的优惠券要求购物车中有适用商品
+            boolean hasItem = useType.equals(0) || amount.signum() > 0;
+            if (now.before(coupon.getEndTime()) && hasItem && amount.compareTo(coupon.getMinPoint()) >= 0) {
+                evaluation.getEnableList().add(couponHistoryDetail);
+            } else {
+                evaluation.getDisableList().add(couponHistoryDetail);
             }
         }
-        if(type.equals(1)){
-            return enableList;
-        }else{
-            return disableList;
+        return evaluation;
+    }
+
+    /**
+     * 获取会员未使用的优惠券，缓存未命中时分别查询优惠券及其关联关系，避免多表关联产生重复行
+     */
+    private MemberCouponWallet getWallet(Long memberId) {
+        MemberCouponWallet wallet = memberCouponCacheService.getWallet(memberId);
+        if (wallet != null) {
+            return wallet;
         }
+        wallet = new MemberCouponWallet();
+        //先取版本号，加载期间规则改变时缓存的版本号已过期
+        wallet.setVersion(memberCouponCacheService.getVersion());
+        List<SmsCouponHistoryDetail> couponList = new ArrayList<>();
+        SmsCouponHistoryExample historyExample = new SmsCouponHistoryExample();
+        historyExample.createCriteria().andMemberIdEqualTo(memberId).andUseStatusEqualTo(0);
+        List<SmsCouponHistory> historyList = couponHistoryMapper.selectByExample(historyExample);
+        if (CollUtil.isNotEmpty(historyList)) {
+            List<Long> couponIds = historyList.stream().map(SmsCouponHistory::getCouponId).distinct().collect(Collectors.toList());
+            SmsCouponExample couponExample = new SmsCouponExample();
+            couponExample.createCriteria().andIdIn(couponIds);
+            Map<Long, SmsCoupon> couponMap = couponMapper.selectByExample(couponExample).stream()
+                    .collect(Collectors.toMap(SmsCoupon::getId, Function.identity()));
+            SmsCouponProductRelationExample productRelationExample = new SmsCouponProductRelationExample();
+            productRelationExample.createCriteria().andCouponIdIn(couponIds);
+            Map<Long, List<SmsCouponProductRelation>> productRelationMap = couponProductRelationMapper.selectByExample(productRelationExample)
+                    .stream().collect(Collectors.groupingBy(SmsCouponProductRelation::getCouponId));
+            SmsCouponProductCategoryRelationExample categoryRelationExample = new SmsCouponProductCategoryRelationExample();
+            categoryRelationExample.createCriteria().andCouponIdIn(couponIds);
+            Map<Long, List<SmsCouponProductCategoryRelation>> categoryRelationMap = couponProductCategoryRelationMapper.selectByExample(categoryRelationExample)
+                    .stream().collect(Collectors.groupingBy(SmsCouponProductCategoryRelation::getCouponId));
+            for (SmsCouponHistory history : historyList) {
+                SmsCouponHistoryDetail couponHistoryDetail = new SmsCouponHistoryDetail();
+                BeanUtils.copyProperties(history, couponHistoryDetail);
+                couponHistoryDetail.setCoupon(couponMap.get(history.getCouponId()));
+                couponHistoryDetail.setProductRelationList(productRelationMap.getOrDefault(history.getCouponId(), new ArrayList<>()));
+                couponHistoryDetail.setCategoryRelationList(categoryRelationMap.getOrDefault(history.getCouponId(), new ArrayList<>()));
+                couponList.add(couponHistoryDetail);
+            }
+        }
+        wallet.setCouponList(couponList);
+        memberCouponCacheService.setWallet(memberId, wallet);
+        return wallet;
+    }
+
+    private BigDecimal sumAmount(Map<Long, BigDecimal> amountMap, Set<Long> ids) {
+        BigDecimal total = new BigDecimal("0");
+        for (Long id : ids) {
+            BigDecimal amount = amountMap.get(id);
+            if (amount != null) {
+                total = total.add(amount);
+            }
+        }
+        return total;
     }
 
     @Override
@@ -210,35 +613,4 @@ public class UmsMemberCouponServiceImpl implements UmsMemberCouponService {
         return couponHistoryDao.getCouponList(member.getId(),useStatus);
     }
 
-    private BigDecimal calcTotalAmount(List<CartPromotionItem> cartItemList) {
-        BigDecimal total = new BigDecimal("0");
-        for (CartPromotionItem item : cartItemList) {
-            BigDecimal realPrice = item.getPrice().subtract(item.getReduceAmount());
-            total=total.add(realPrice.multiply(new BigDecimal(item.getQuantity())));
-        }
-        return total;
-    }
-
-    private BigDecimal calcTotalAmountByproductCategoryId(List<CartPromotionItem> cartItemList,List<Long> productCategoryIds) {
-        BigDecimal total = new BigDecimal("0");
-        for (CartPromotionItem item : cartItemList) {
-            if(productCategoryIds.contains(item.getProductCategoryId())){
-                BigDecimal realPrice = item.getPrice().subtract(item.getReduceAmount());
-                total=total.add(realPrice.multiply(new BigDecimal(item.getQuantity())));
-            }
-        }
-        return total;
-    }
-
-    private BigDecimal calcTotalAmountByProductId(List<CartPromotionItem> cartItemList,List<Long> productIds) {
-        BigDecimal total = new BigDecimal("0");
-        for (CartPromotionItem item : cartItemList) {
-            if(productIds.contains(item.getProductId())){
-                BigDecimal realPrice = item.getPrice().subtract(item.getReduceAmount());
-                total=total.add(realPrice.multiply(new BigDecimal(item.getQuantity())));
-            }
-        }
-        return total;
-    }
-
 }
@@ -0,0 +1,92 @@
+package com.macro.mall.portal.util;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * 哈希时间轮：按到期时间所在的刻度放入对应的槽，添加、删除均为O(1)
+ * 槽中同时保存多圈之后才到期的任务，推进时按到期时间判断是否触发
+ */
+public class HashedTimingWheel {
+    private final long tickMillis;
+    private final List<Map<Long, Long>> buckets;
+    /**
+     * 任务id与所在槽的索引，用于O(1)删除
+     */
+    private final Map<Long, Integer> index = new HashMap<>();
+    private long currentTick;
+
+    public HashedTimingWheel(long tickMillis, int wheelSize, long startTime) {
+        this.tickMillis = tickMillis;
+        this.buckets = new ArrayList<>(wheelSize);
+        for (int i = 0; i < wheelSize; i++) {
+            buckets.add(new HashMap<>());
+        }
+        this.currentTick = startTime / tickMillis;
+    }
+
+    /**
+     * 添加任务，已过期的任务放入当前槽，在下次推进时触发
+     */
+    public synchronized void add(Long id, long expireAt) {
+        remove(id);
+        long tick = Math.max(expireAt / tickMillis, currentTick);
+        int bucket = (int) (tick % buckets.size());
+        buckets.get(bucket).put(id, expireAt);
+        index.put(id, bucket);
+    }
+
+    /**
+     * 删除任务
+     */
+    public synchronized boolean remove(Long id) {
+        Integer bucket = index.remove(id);
+        if (bucket == null) {
+            return false;
+        }
+        buckets.get(bucket).remove(id);
+        return true;
+    }
+
+    /**
+     * 删除满足条件的任务
+     */
+    public synchronized void removeIf(Predicate<Long> filter) {
+        Iterator<Map.Entry<Long, Integer>> iterator = index.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Long, Integer> entry = iterator.next();
+            if (filter.test(entry.getKey())) {
+                buckets.get(entry.getValue()).remove(entry.getKey());
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * 推进到指定时间，返回并移除所有已到期的任务
+     */
+    public synchronized List<Long> advance(long now) {
+        List<Long> expiredList = new ArrayList<>();
+        long targetTick = now / tickMillis;
+        //落后超过一圈时每个槽只需扫描一次
+        long fromTick = Math.max(currentTick, targetTick - buckets.size() + 1);
+        for (long tick = fromTick; tick <= targetTick; tick++) {
+            Iterator<Map.Entry<Long, Long>> iterator = buckets.get((int) (tick % buckets.size())).entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<Long, Long> entry = iterator.next();
+                if (entry.getValue() <= now) {
+                    expiredList.add(entry.getKey());
+                    index.remove(entry.getKey());
+                    iterator.remove();
+                }
+            }
+        }
+        //当前刻度内还可能有未到期的任务，下次推进时重新扫描
+        currentTick = Math.max(currentTick, targetTick);
+        return expiredList;
+    }
+
+    public synchronized int size() {
+        return index.size();
+    }
+}
@@ -0,0 +1,204 @@
+package com.macro.mall.portal.component;
+
+import com.macro.mall.portal.dao.OmsOrderSnSegmentDao;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 订单编号生成器单元测试，使用内存实现代替Redis及数据库
+ */
+public class OrderSnGeneratorTests {
+    private static final int STEP = 10;
+    private final Map<String, AtomicLong> redisSequenceMap = new ConcurrentHashMap<>();
+    private final Map<String, Long> dbSegmentMap = new HashMap<>();
+    private final ReentrantLock segmentLock = new ReentrantLock();
+    private volatile boolean redisDown;
+    private OrderSnGenerator generator;
+
+    @AfterEach
+    public void destroy() {
+        if (generator != null) {
+            generator.destroy();
+        }
+    }
+
+    @Test
+    public void testFormat() {
+        generator = createGenerator();
+        String date = LocalDate.now().format(DateTimeFormatter.BASIC_ISO_DATE);
+        String orderSn = generator.generate(1, 2);
+        assertEquals(18, orderSn.length());
+        assertEquals(date + "0102000001", orderSn);
+        assertEquals(date + "0000000002", generator.generate(null, null));
+    }
+
+    @Test
+    public void testRedisSequenceWidened() {
+        generator = createGenerator();
+        redisSequence("oms:orderId").set(899990L);
+        Set<Long> sequenceSet = new HashSet<>();
+        for (int i = 0; i < 5 * STEP; i++) {
+            String orderSn = generator.generate(1, 1);
+            long sequence = Long.parseLong(orderSn.substring(12));
+            assertEquals(sequence <= 999999L ? 18 : 19, orderSn.length(), orderSn);
+            assertTrue(sequenceSet.add(sequence), orderSn);
+        }
+        //Redis序号超出6位后加宽编号并使用偶数，不占用数据库的900000-999999
+        for (long sequence = 899991L; sequence <= 899999L; sequence++) {
+            assertTrue(sequenceSet.contains(sequence), String.valueOf(sequence));
+        }
+        assertTrue(sequenceSet.contains(1000000L));
+        assertTrue(sequenceSet.stream().allMatch(sequence -> sequence < 900000L || (sequence >= 1000000L && sequence % 2 == 0)),
+                String.valueOf(sequenceSet));
+    }
+
+    @Test
+    public void testRedisDown() {
+        redisDown = true;
+        generator = createGenerator();
+        assertEquals(900000L, generator.nextSequence());
+        assertEquals(900001L, generator.nextSequence());
+    }
+
+    @Test
+    public void testDbSequenceWidened() {
+        redisDown = true;
+        generator = createGenerator();
+        dbSegmentMap.put("order:" + LocalDate.now().format(DateTimeFormatter.BASIC_ISO_DATE), 999990L - STEP);
+        Set<Long> sequenceSet = new HashSet<>();
+        for (int i = 0; i < 10 * STEP; i++) {
+            long sequence = generator.nextSequence();
+            //数据库序号超出6位后加宽编号并使用奇数，与Redis加宽后的序号不重叠
+            assertTrue(sequence <= 999999L || sequence % 2 == 1, String.valueOf(sequence));
+            assertTrue(sequenceSet.add(sequence), String.valueOf(sequence));
+        }
+        assertTrue(sequenceSet.contains(999990L));
+        assertTrue(sequenceSet.contains(1000001L));
+    }
+
+    @Test
+    public void testToSequence() {
+        assertEquals(899999L, OrderSnGenerator.toSequence(899999L, true));
+        assertEquals(1000000L, OrderSnGenerator.toSequence(900000L, true));
+        assertEquals(1000002L, OrderSnGenerator.toSequence(900001L, true));
+        assertEquals(900000L, OrderSnGenerator.toSequence(900000L, false));
+        assertEquals(999999L, OrderSnGenerator.toSequence(999999L, false));
+        assertEquals(1000001L, OrderSnGenerator.toSequence(1000000L, false));
+        assertEquals(1000003L, OrderSnGenerator.toSequence(1000001L, false));
+    }
+
+    @Test
+    public void testCouponSequenceSeparate() {
+        generator = createGenerator();
+        redisSequence("oms:orderId").set(899999L);
+        //优惠码使用单独的序号，大量领取不影响订单编号
+        Set<Long> sequenceSet = new HashSet<>();
+        for (int i = 0; i < 3 * STEP; i++) {
+            long sequence = generator.nextCouponSequence();
+            assertTrue(sequence < 900000L && sequenceSet.add(sequence), String.valueOf(sequence));
+        }
+        assertEquals(1000000L, generator.nextSequence());
+        redisDown = true;
+        generator.destroy();
+        generator = createGenerator();
+        assertEquals(900000L, generator.nextCouponSequence());
+        assertEquals(900000L, generator.nextSequence());
+    }
+
+    private OrderSnGenerator createGenerator() {
+        OrderSnGenerator generator = new OrderSnGenerator();
+        setField(generator, "stringRedisTemplate", new MemoryRedisTemplate());
+        setField(generator, "orderSnSegmentDao", new MemorySegmentDao());
+        //事务期间持有锁，模拟号段记录的行锁
+        setField(generator, "transactionTemplate", new TransactionTemplate((PlatformTransactionManager) Proxy.newProxyInstance(
+                getClass().getClassLoader(), new Class[]{PlatformTransactionManager.class}, (proxy, method, args) -> {
+                    if ("getTransaction".equals(method.getName())) {
+                        segmentLock.lock();
+                        return new SimpleTransactionStatus();
+                    }
+                    segmentLock.unlock();
+                    return null;
+                })));
+        setField(generator, "REDIS_KEY_ORDER_ID", "oms:orderId");
+        setField(generator, "REDIS_KEY_COUPON_CODE", "sms:couponCode");
+        setField(generator, "REDIS_DATABASE", "mall");
+        setField(generator, "STEP", STEP);
+        setField(generator, "PREFETCH_PERCENT", 80);
+        generator.init();
+        return generator;
+    }
+
+    private AtomicLong redisSequence(String keyPrefix) {
+        return redisSequenceMap.computeIfAbsent(keyPrefix, key -> new AtomicLong());
+    }
+
+    private static void setField(Object target, String name, Object value) {
+        try {
+            Field field = target.getClass().getDeclaredField(name);
+            field.setAccessible(true);
+            field.set(target, value);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private class MemoryRedisTemplate extends StringRedisTemplate {
+        @Override
+        @SuppressWarnings("unchecked")
+        public ValueOperations<String, String> opsForValue() {
+            return (ValueOperations<String, String>) Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class[]{ValueOperations.class}, (proxy, method, args) -> {
+                        if (redisDown) {
+                            throw new RedisConnectionFailureException("redis down");
+                        }
+                        String key = (String) args[0];
+                        return redisSequence(key.substring("mall:".length(), key.length() - 8)).addAndGet((Long) args[1]);
+                    });
+        }
+
+        @Override
+        public Boolean expire(String key, long timeout, TimeUnit unit) {
+            return true;
+        }
+    }
+
+    private class MemorySegmentDao implements OmsOrderSnSegmentDao {
+        @Override
+        public synchronized int insertIgnore(String bizType, String bizDate, Long initId) {
+            return dbSegmentMap.putIfAbsent(bizType + ":" + bizDate, initId) == null ? 1 : 0;
+        }
+
+        @Override
+        public synchronized int increase(String bizType, String bizDate, Integer step) {
+            dbSegmentMap.merge(bizType + ":" + bizDate, (long) step, Long::sum);
+            return 1;
+        }
+
+        @Override
+        public synchronized Long getMaxId(String bizType, String bizDate) {
+            return dbSegmentMap.get(bizType + ":" + bizDate);
+        }
+    }
+}
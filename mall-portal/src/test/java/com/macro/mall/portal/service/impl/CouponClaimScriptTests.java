@@ -0,0 +1,160 @@
+package com.macro.mall.portal.service.impl;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * 优惠券领取及领取记录批量插入的Redis脚本测试
+ */
+@SpringBootTest
+public class CouponClaimScriptTests {
+    private static final String CLAIM_KEY = "test:coupon:claim:1";
+    private static final String PENDING_KEY = "test:coupon:history:pending";
+    private static final String RETRY_KEY = "test:coupon:history:retry";
+    private static final String DEAD_KEY = "test:coupon:history:dead";
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @AfterEach
+    public void clean() {
+        stringRedisTemplate.delete(Arrays.asList(CLAIM_KEY, PENDING_KEY, RETRY_KEY, DEAD_KEY));
+    }
+
+    @Test
+    public void testClaim() {
+        long now = System.currentTimeMillis();
+        assertEquals(-1L, claim("1", now));
+        load(2, 1, 0, now);
+        assertEquals(-2L, claim("1", now));
+        loadMember("1", 0);
+        loadMember("2", 0);
+        assertEquals(1L, claim("1", now));
+        //超出每人限领数量
+        assertEquals(3L, claim("1", now));
+        assertEquals(1L, claim("2", now));
+        loadMember("3", 0);
+        //已领完
+        assertEquals(0L, claim("3", now));
+        assertEquals("0", stringRedisTemplate.opsForHash().get(CLAIM_KEY, "remain"));
+    }
+
+    @Test
+    public void testClaimNotEnable() {
+        long now = System.currentTimeMillis();
+        load(10, 1, now + 60000, now);
+        loadMember("1", 0);
+        assertEquals(2L, claim("1", now));
+        assertEquals(1L, claim("1", now + 60000));
+    }
+
+    @Test
+    public void testLoadNotOverride() {
+        long now = System.currentTimeMillis();
+        load(10, 1, 0, now);
+        load(0, 5, 0, now);
+        loadMember("1", 0);
+        loadMember("1", 1);
+        assertEquals("10", stringRedisTemplate.opsForHash().get(CLAIM_KEY, "remain"));
+        assertEquals("0", stringRedisTemplate.opsForHash().get(CLAIM_KEY, "m:1"));
+    }
+
+    @Test
+    public void testReturn() {
+        long now = System.currentTimeMillis();
+        load(10, 1, 0, now);
+        loadMember("1", 0);
+        assertEquals(1L, claim("1", now));
+        //数据库仍有剩余时归还数量
+        stringRedisTemplate.execute(UmsMemberCouponServiceImpl.RETURN_SCRIPT, Collections.singletonList(CLAIM_KEY), "1", "1");
+        assertEquals("10", stringRedisTemplate.opsForHash().get(CLAIM_KEY, "remain"));
+        assertEquals("0", stringRedisTemplate.opsForHash().get(CLAIM_KEY, "m:1"));
+        assertEquals(1L, claim("1", now));
+        //数据库已领完时剩余数量置为0
+        stringRedisTemplate.execute(UmsMemberCouponServiceImpl.RETURN_SCRIPT, Collections.singletonList(CLAIM_KEY), "1", "0");
+        assertEquals("0", stringRedisTemplate.opsForHash().get(CLAIM_KEY, "remain"));
+    }
+
+    @Test
+    public void testPopAndRetry() {
+        stringRedisTemplate.opsForList().rightPushAll(PENDING_KEY, "a", "b", "c");
+        List<String> entries = pop(2);
+        assertEquals(Arrays.asList("a", "b"), entries);
+        assertEquals(Collections.singletonList("c"), range(PENDING_KEY));
+        //数据库暂时不可用时按原顺序放回列表头部，不计失败次数
+        stringRedisTemplate.execute(UmsMemberCouponServiceImpl.REQUEUE_SCRIPT, Collections.singletonList(PENDING_KEY), "a", "b");
+        assertEquals(Arrays.asList("a", "b", "c"), range(PENDING_KEY));
+        assertFalse(Boolean.TRUE.equals(stringRedisTemplate.hasKey(RETRY_KEY)));
+        //失败次数按记录累加，只有达到上限的记录移入死信列表
+        assertEquals(0L, retry(3, pop(2)));
+        assertEquals(0L, retry(3, pop(1)));
+        assertEquals(Arrays.asList("a", "b", "c"), range(PENDING_KEY));
+        assertEquals("2", stringRedisTemplate.opsForHash().get(RETRY_KEY, "a"));
+        assertEquals("1", stringRedisTemplate.opsForHash().get(RETRY_KEY, "b"));
+        assertEquals(1L, retry(3, pop(2)));
+        assertEquals(Arrays.asList("b", "c"), range(PENDING_KEY));
+        assertEquals(Collections.singletonList("a"), range(DEAD_KEY));
+        assertFalse(stringRedisTemplate.opsForHash().hasKey(RETRY_KEY, "a"));
+        assertEquals("2", stringRedisTemplate.opsForHash().get(RETRY_KEY, "b"));
+    }
+
+    @Test
+    public void testRevive() {
+        stringRedisTemplate.opsForList().rightPushAll(DEAD_KEY, "a", "b", "c");
+        stringRedisTemplate.opsForList().rightPush(PENDING_KEY, "d");
+        assertEquals(2L, revive(2));
+        assertEquals(1L, revive(2));
+        assertEquals(0L, revive(2));
+        //移回待插入列表尾部
+        assertEquals(Arrays.asList("d", "a", "b", "c"), range(PENDING_KEY));
+        assertFalse(Boolean.TRUE.equals(stringRedisTemplate.hasKey(DEAD_KEY)));
+    }
+
+    private long claim(String memberId, long now) {
+        return stringRedisTemplate.execute(UmsMemberCouponServiceImpl.CLAIM_SCRIPT, Collections.singletonList(CLAIM_KEY),
+                memberId, String.valueOf(now));
+    }
+
+    private void load(int remain, int perLimit, long enableTime, long now) {
+        stringRedisTemplate.execute(UmsMemberCouponServiceImpl.LOAD_SCRIPT, Collections.singletonList(CLAIM_KEY),
+                String.valueOf(remain), String.valueOf(perLimit), String.valueOf(enableTime), String.valueOf(now + 60000));
+    }
+
+    private void loadMember(String memberId, int count) {
+        stringRedisTemplate.execute(UmsMemberCouponServiceImpl.LOAD_MEMBER_SCRIPT, Collections.singletonList(CLAIM_KEY),
+                memberId, String.valueOf(count));
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<String> pop(int size) {
+        return stringRedisTemplate.execute(UmsMemberCouponServiceImpl.POP_SCRIPT, Collections.singletonList(PENDING_KEY),
+                String.valueOf(size));
+    }
+
+    private long revive(int size) {
+        return stringRedisTemplate.execute(UmsMemberCouponServiceImpl.REVIVE_SCRIPT, Arrays.asList(DEAD_KEY, PENDING_KEY),
+                String.valueOf(size));
+    }
+
+    private List<String> range(String key) {
+        return stringRedisTemplate.opsForList().range(key, 0, -1);
+    }
+
+    private long retry(int maxRetry, List<String> entries) {
+        Object[] args = new Object[entries.size() + 1];
+        args[0] = String.valueOf(maxRetry);
+        for (int i = 0; i < entries.size(); i++) {
+            args[i + 1] = entries.get(i);
+        }
+        return stringRedisTemplate.execute(UmsMemberCouponServiceImpl.RETRY_SCRIPT, Arrays.asList(PENDING_KEY, RETRY_KEY, DEAD_KEY), args);
+    }
+}
@@ -0,0 +1,113 @@
+package com.macro.mall.portal.service.impl;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * 基于Redis的库存预占脚本测试
+ */
+@SpringBootTest
+public class StockReservationScriptTests {
+    private static final String AVAILABLE_KEY = "test:stock:available";
+    private static final String PENDING_KEY = "test:stock:pending";
+    private static final List<String> KEYS = Arrays.asList(AVAILABLE_KEY, PENDING_KEY);
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @AfterEach
+    public void clean() {
+        stringRedisTemplate.delete(KEYS);
+    }
+
+    @Test
+    public void testLock() {
+        warmUp("1", "10", "2", "5");
+        assertEquals(1L, execute(RedisStockReservationServiceImpl.LOCK_SCRIPT, KEYS, "1", "3", "2", "5"));
+        assertEquals("7", available("1"));
+        assertEquals("0", available("2"));
+        assertEquals("3", pending("1"));
+        assertEquals("5", pending("2"));
+    }
+
+    @Test
+    public void testLockIsAllOrNothing() {
+        warmUp("1", "10", "2", "1");
+        //任意sku库存不足时整单不扣减
+        assertEquals(0L, execute(RedisStockReservationServiceImpl.LOCK_SCRIPT, KEYS, "1", "3", "2", "2"));
+        assertEquals("10", available("1"));
+        assertEquals("1", available("2"));
+        assertNull(pending("1"));
+        //存在未预热的sku时返回-1
+        assertEquals(-1L, execute(RedisStockReservationServiceImpl.LOCK_SCRIPT, KEYS, "1", "3", "3", "1"));
+        assertEquals("10", available("1"));
+    }
+
+    @Test
+    public void testRelease() {
+        warmUp("1", "10");
+        execute(RedisStockReservationServiceImpl.LOCK_SCRIPT, KEYS, "1", "4");
+        execute(RedisStockReservationServiceImpl.RELEASE_SCRIPT, KEYS, "1", "4");
+        assertEquals("10", available("1"));
+        assertEquals("0", pending("1"));
+        //可用库存已过期时只扣减待回写的锁定库存，不重新创建可用库存
+        execute(RedisStockReservationServiceImpl.LOCK_SCRIPT, KEYS, "1", "2");
+        stringRedisTemplate.opsForHash().delete(AVAILABLE_KEY, "1");
+        execute(RedisStockReservationServiceImpl.RELEASE_SCRIPT, KEYS, "1", "2");
+        assertNull(available("1"));
+        assertEquals("0", pending("1"));
+    }
+
+    @Test
+    public void testWarmUpSubtractsPending() {
+        execute(RedisStockReservationServiceImpl.PENDING_SCRIPT, Collections.singletonList(PENDING_KEY), "1", "3");
+        warmUp("1", "10");
+        assertEquals("7", available("1"));
+        //已预热的sku不覆盖
+        warmUp("1", "100");
+        assertEquals("7", available("1"));
+        //对账时以数据库为准重置
+        execute(RedisStockReservationServiceImpl.RECONCILE_SCRIPT, KEYS, "1", "20", "2", "5");
+        assertEquals("17", available("1"));
+        assertNull(available("2"));
+    }
+
+    @Test
+    public void testSettle() {
+        execute(RedisStockReservationServiceImpl.PENDING_SCRIPT, Collections.singletonList(PENDING_KEY), "1", "3", "2", "4");
+        //回写期间新增的变化量保留，扣除后为0的sku删除
+        execute(RedisStockReservationServiceImpl.PENDING_SCRIPT, Collections.singletonList(PENDING_KEY), "1", "2");
+        execute(RedisStockReservationServiceImpl.SETTLE_SCRIPT, Collections.singletonList(PENDING_KEY), "1", "3", "2", "4");
+        assertEquals("2", pending("1"));
+        assertFalse(stringRedisTemplate.opsForHash().hasKey(PENDING_KEY, "2"));
+        execute(RedisStockReservationServiceImpl.SETTLE_SCRIPT, Collections.singletonList(PENDING_KEY), "1", "2");
+        assertFalse(Boolean.TRUE.equals(stringRedisTemplate.hasKey(PENDING_KEY)));
+    }
+
+    private void warmUp(String... args) {
+        execute(RedisStockReservationServiceImpl.WARM_UP_SCRIPT, KEYS, args);
+    }
+
+    private long execute(DefaultRedisScript<Long> script, List<String> keys, String... args) {
+        return stringRedisTemplate.execute(script, keys, (Object[]) args);
+    }
+
+    private String available(String skuId) {
+        return (String) stringRedisTemplate.opsForHash().get(AVAILABLE_KEY, skuId);
+    }
+
+    private String pending(String skuId) {
+        return (String) stringRedisTemplate.opsForHash().get(PENDING_KEY, skuId);
+    }
+}
@@ -0,0 +1,92 @@
+package com.macro.mall.portal.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 哈希时间轮单元测试
+ */
+public class HashedTimingWheelTests {
+    private static final long TICK = 100L;
+    private static final int WHEEL_SIZE = 10;
+    private static final long START = 1_000_000L;
+
+    @Test
+    public void testFireOnTick() {
+        HashedTimingWheel wheel = new HashedTimingWheel(TICK, WHEEL_SIZE, START);
+        wheel.add(1L, START + 250);
+        wheel.add(2L, START + 300);
+        assertEquals(Collections.emptyList(), wheel.advance(START + 200));
+        //同一刻度内未到期的任务不触发
+        assertEquals(Collections.emptyList(), wheel.advance(START + 249));
+        assertEquals(Collections.singletonList(1L), wheel.advance(START + 250));
+        assertEquals(Collections.singletonList(2L), wheel.advance(START + 300));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void testExpiredTaskFiresOnNextAdvance() {
+        HashedTimingWheel wheel = new HashedTimingWheel(TICK, WHEEL_SIZE, START);
+        wheel.advance(START + 500);
+        wheel.add(1L, START - 10_000);
+        assertEquals(Collections.singletonList(1L), wheel.advance(START + 500));
+    }
+
+    @Test
+    public void testRounds() {
+        HashedTimingWheel wheel = new HashedTimingWheel(TICK, WHEEL_SIZE, START);
+        long oneRound = TICK * WHEEL_SIZE;
+        //与1号任务落在同一个槽，但要多转两圈才到期
+        wheel.add(1L, START + 300);
+        wheel.add(2L, START + 300 + oneRound * 2);
+        assertEquals(Collections.singletonList(1L), wheel.advance(START + 300));
+        assertEquals(Collections.emptyList(), wheel.advance(START + 300 + oneRound));
+        assertEquals(1, wheel.size());
+        assertEquals(Collections.singletonList(2L), wheel.advance(START + 300 + oneRound * 2));
+    }
+
+    @Test
+    public void testAdvanceMoreThanOneRound() {
+        HashedTimingWheel wheel = new HashedTimingWheel(TICK, WHEEL_SIZE, START);
+        List<Long> expected = new ArrayList<>();
+        for (long id = 1; id <= 30; id++) {
+            wheel.add(id, START + id * 70);
+            expected.add(id);
+        }
+        //长时间未推进后一次推进多圈，所有到期任务都应触发且只触发一次
+        List<Long> expiredList = wheel.advance(START + 30 * 70);
+        Collections.sort(expiredList);
+        assertEquals(expected, expiredList);
+        assertEquals(Collections.emptyList(), wheel.advance(START + 100 * 70));
+    }
+
+    @Test
+    public void testCancel() {
+        HashedTimingWheel wheel = new HashedTimingWheel(TICK, WHEEL_SIZE, START);
+        wheel.add(1L, START + 200);
+        wheel.add(2L, START + 200);
+        wheel.add(3L, START + 200);
+        assertTrue(wheel.remove(2L));
+        assertFalse(wheel.remove(2L));
+        wheel.removeIf(id -> id == 3L);
+        assertEquals(1, wheel.size());
+        assertEquals(Collections.singletonList(1L), wheel.advance(START + 200));
+    }
+
+    @Test
+    public void testReAddMovesTask() {
+        HashedTimingWheel wheel = new HashedTimingWheel(TICK, WHEEL_SIZE, START);
+        wheel.add(1L, START + 200);
+        wheel.add(1L, START + 500);
+        assertEquals(1, wheel.size());
+        assertEquals(Collections.emptyList(), wheel.advance(START + 400));
+        assertEquals(Collections.singletonList(1L), wheel.advance(START + 500));
+    }
+}
@@ -0,0 +1,23 @@
+package com.macro.mall.search.component;
+
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 商品索引的数据版本
+ * 重建索引、同步商品变更等修改索引数据的操作完成后递增，
+ * 依赖索引数据的本地缓存将版本作为缓存键的一部分，版本变化后旧缓存不再命中
+ */
+@Component
+public class EsIndexGeneration {
+    private final AtomicLong generation = new AtomicLong();
+
+    public long current() {
+        return generation.get();
+    }
+
+    public void increment() {
+        generation.incrementAndGet();
+    }
+}
@@ -0,0 +1,250 @@
+package com.macro.mall.search.component;
+
+import cn.hutool.core.date.DateUtil;
+import com.macro.mall.search.dao.EsProductChangeLogDao;
+import com.macro.mall.search.dao.EsProductDao;
+import com.macro.mall.search.domain.EsProduct;
+import com.macro.mall.search.domain.EsProductChangeLog;
+import com.macro.mall.search.service.EsProductService;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.elasticsearch.BulkFailureException;
+import org.springframework.data.elasticsearch.core.ElasticsearchRestTemplate;
+import org.springframework.data.elasticsearch.core.document.Document;
+import org.springframework.data.elasticsearch.core.mapping.IndexCoordinates;
+import org.springframework.data.elasticsearch.core.query.IndexQuery;
+import org.springframework.data.elasticsearch.core.query.IndexQueryBuilder;
+import org.springframework.data.elasticsearch.core.query.NativeSearchQuery;
+import org.springframework.data.elasticsearch.core.query.NativeSearchQueryBuilder;
+import org.springframework.data.elasticsearch.core.query.UpdateQuery;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * 商品变更同步任务
+ * 后台修改商品时在同一事务中写入变更记录，该任务读取写入已超过合并窗口的记录，
+ * 按商品id合并后批量同步到索引：基本信息变更使用部分更新，属性、上下架等变更重新写入整个文档，
+ * 已下架或删除的商品从索引中删除；重建索引期间暂停同步，切换到新索引后继续；
+ * 个别商品写入失败时其余商品照常标记为已同步，失败的记录累加失败次数，达到上限后标记为同步失败并告警；
+ * 各节点根据变更记录的同步时间检查其他节点已同步的商品，使本地推荐缓存按商品失效
+ */
+@Component
+public class EsProductChangeRelay {
+    private static final Logger LOGGER = LoggerFactory.getLogger(EsProductChangeRelay.class);
+    @Autowired
+    private EsProductChangeLogDao changeLogDao;
+    @Autowired
+    private EsProductDao productDao;
+    @Autowired
+    private EsProductIndexer productIndexer;
+    @Autowired
+    private ElasticsearchRestTemplate elasticsearchRestTemplate;
+    @Autowired
+    private EsIndexGeneration indexGeneration;
+    @Autowired
+    private EsProductService productService;
+    @Value("${es.sync.batchSize:500}")
+    private Integer BATCH_SIZE;
+    @Value("${es.sync.debounce:1000}")
+    private Long DEBOUNCE;
+    @Value("${es.sync.keepDays:3}")
+    private Integer KEEP_DAYS;
+    @Value("${es.sync.maxRetry:10}")
+    private Integer MAX_RETRY;
+    @Value("${es.recommendCache.evictOverlap:5000}")
+    private Long EVICT_OVERLAP;
+    /**
+     * 已使推荐缓存失效的最大同步时间
+     */
+    private Date evictedSyncTime;
+
+    /**
+     * 持续同步直到没有待同步的记录，同步失败时等待下次调度重试
+     */
+    @Scheduled(fixedDelayString = "${es.sync.interval:1000}")
+    public void relay() {
+        if (productIndexer.isRunning()) {
+            return;
+        }
+        List<EsProductChangeLog> changeLogList = listPending();
+        while (!changeLogList.isEmpty()) {
+            //同一商品的多次变更只同步一次，有全部信息变更时按全部信息同步
+            Map<Long, Integer> changeMap = new LinkedHashMap<>();
+            for (EsProductChangeLog changeLog : changeLogList) {
+                changeMap.merge(changeLog.getProductId(), changeLog.getChangeType(), Math::max);
+            }
+            Set<Long> failedProductIds;
+            try {
+                failedProductIds = sync(changeMap);
+            } catch (Exception e) {
+                LOGGER.warn("同步商品变更失败，商品数量：{}，原因：{}", changeMap.size(), e.getMessage());
+                return;
+            }
+            List<Long> syncedIds = new ArrayList<>();
+            List<EsProductChangeLog> failedList = new ArrayList<>();
+            for (EsProductChangeLog changeLog : changeLogList) {
+                if (failedProductIds.contains(changeLog.getProductId())) {
+                    failedList.add(changeLog);
+                } else {
+                    syncedIds.add(changeLog.getId());
+                }
+            }
+            if (!syncedIds.isEmpty()) {
+                changeLogDao.updateSynced(syncedIds);
+            }
+            if (!failedList.isEmpty()) {
+                changeLogDao.updateFailed(failedList.stream().map(EsProductChangeLog::getId).collect(Collectors.toList()), MAX_RETRY);
+                Set<Long> parkedProductIds = failedList.stream().filter(changeLog -> changeLog.getRetryCount() + 1 >= MAX_RETRY)
+                        .map(EsProductChangeLog::getProductId).collect(Collectors.toSet());
+                if (!parkedProductIds.isEmpty()) {
+                    LOGGER.error("商品写入索引失败次数达到上限，已标记为同步失败，需人工处理，商品id：{}", parkedProductIds);
+                }
+            }
+            //存在失败的记录时等待下次调度，避免同一调度内连续重试
+            if (!failedList.isEmpty() || changeLogList.size() < BATCH_SIZE) {
+                return;
+            }
+            changeLogList = listPending();
+        }
+    }
+
+    /**
+     * 使已同步商品的本地推荐缓存失效，同步时间在事务中取得，提交顺序可能与之不一致，每次向前多检查一段时间
+     */
+    @Scheduled(fixedDelayString = "${es.recommendCache.evictInterval:1000}")
+    public void evictRecommendCache() {
+        try {
+            if (evictedSyncTime == null) {
+                //启动时缓存为空，从当前已同步的位置开始
+                Date maxSyncTime = changeLogDao.getMaxSyncTime();
+                evictedSyncTime = maxSyncTime == null ? new Date(0) : maxSyncTime;
+                return;
+            }
+            List<EsProductChangeLog> changeLogList = changeLogDao.listSyncedProduct(new Date(evictedSyncTime.getTime() - EVICT_OVERLAP));
+            if (changeLogList.isEmpty()) {
+                return;
+            }
+            productService.evictRecommend(changeLogList.stream().map(EsProductChangeLog::getProductId).collect(Collectors.toList()));
+            for (EsProductChangeLog changeLog : changeLogList) {
+                if (changeLog.getSyncTime().after(evictedSyncTime)) {
+                    evictedSyncTime = changeLog.getSyncTime();
+                }
+            }
+        } catch (Exception e) {
+            LOGGER.warn("推荐缓存失效检查失败，原因：{}", e.getMessage());
+        }
+    }
+
+    /**
+     * 每天凌晨清理已同步的历史记录
+     */
+    @Scheduled(cron = "0 30 3 * * ?")
+    public void cleanSynced() {
+        Date before = DateUtil.offsetDay(new Date(), -KEEP_DAYS);
+        int count = changeLogDao.deleteSynced(before);
+        LOGGER.info("清理已同步的商品变更记录，数量：{}", count);
+    }
+
+    private List<EsProductChangeLog> listPending() {
+        return changeLogDao.listPending(new Date(System.currentTimeMillis() - DEBOUNCE), BATCH_SIZE);
+    }
+
+    /**
+     * 同步一批商品变更，返回写入索引失败的商品id
+     */
+    private Set<Long> sync(Map<Long, Integer> changeMap) {
+        IndexCoordinates index = elasticsearchRestTemplate.getIndexCoordinatesFor(EsProduct.class);
+        List<Long> fullIds = new ArrayList<>();
+        List<Long> baseIds = new ArrayList<>();
+        for (Map.Entry<Long, Integer> entry : changeMap.entrySet()) {
+            if (entry.getValue() == EsProductChangeLog.TYPE_FULL) {
+                fullIds.add(entry.getKey());
+            } else {
+                baseIds.add(entry.getKey());
+            }
+        }
+        Set<Long> existIds = new HashSet<>();
+        Set<Long> failedIds = new HashSet<>();
+        if (!baseIds.isEmpty()) {
+            List<EsProduct> productList = productDao.getEsProductBaseListByIds(baseIds);
+            for (EsProduct product : productList) {
+                existIds.add(product.getId());
+            }
+            //索引中还没有的商品改为写入整个文档
+            fullIds.addAll(partialUpdate(index, productList));
+        }
+        if (!fullIds.isEmpty()) {
+            List<EsProduct> productList = productDao.getEsProductListByIds(fullIds);
+            List<IndexQuery> queries = new ArrayList<>(productList.size());
+            for (EsProduct product : productList) {
+                existIds.add(product.getId());
+                queries.add(new IndexQueryBuilder()
+                        .withId(String.valueOf(product.getId()))
+                        .withObject(product)
+                        .build());
+            }
+            if (!queries.isEmpty()) {
+                try {
+                    elasticsearchRestTemplate.bulkIndex(queries, index);
+                } catch (BulkFailureException e) {
+                    //只有个别文档失败时其余文档已写入，失败的商品单独重试
+                    e.getFailedDocuments().forEach((id, reason) -> {
+                        failedIds.add(Long.valueOf(id));
+                        LOGGER.warn("商品写入索引失败，商品id：{}，原因：{}", id, reason);
+                    });
+                }
+            }
+        }
+        //数据库中已不是上架状态的商品
+        String[] deleteIds = changeMap.keySet().stream()
+                .filter(id -> !existIds.contains(id))
+                .map(String::valueOf)
+                .toArray(String[]::new);
+        if (deleteIds.length > 0) {
+            NativeSearchQuery deleteQuery = new NativeSearchQueryBuilder()
+                    .withQuery(QueryBuilders.idsQuery().addIds(deleteIds))
+                    .build();
+            elasticsearchRestTemplate.delete(deleteQuery, EsProduct.class, index);
+        }
+        //变更可被搜索到之后再更新数据版本，避免缓存刷新前的旧结果
+        elasticsearchRestTemplate.indexOps(index).refresh();
+        indexGeneration.increment();
+        LOGGER.debug("同步商品变更，更新：{}，删除：{}，失败：{}", existIds.size() - failedIds.size(), deleteIds.length, failedIds.size());
+        return failedIds;
+    }
+
+    /**
+     * 批量部分更新商品基本信息，返回索引中不存在而更新失败的商品id
+     */
+    private List<Long> partialUpdate(IndexCoordinates index, List<EsProduct> productList) {
+        if (productList.isEmpty()) {
+            return new ArrayList<>();
+        }
+        List<UpdateQuery> queries = new ArrayList<>(productList.size());
+        for (EsProduct product : productList) {
+            Document document = elasticsearchRestTemplate.getElasticsearchConverter().mapObject(product);
+            queries.add(UpdateQuery.builder(String.valueOf(product.getId()))
+                    .withDocument(document)
+                    .withRetryOnConflict(3)
+                    .build());
+        }
+        try {
+            elasticsearchRestTemplate.bulkUpdate(queries, index);
+            return new ArrayList<>();
+        } catch (BulkFailureException e) {
+            return e.getFailedDocuments().keySet().stream().map(Long::valueOf).collect(Collectors.toList());
+        }
+    }
+}
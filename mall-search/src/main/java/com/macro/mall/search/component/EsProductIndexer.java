@@ -0,0 +1,271 @@
+package com.macro.mall.search.component;
+
+import com.macro.mall.common.exception.Asserts;
+import com.macro.mall.search.dao.EsProductDao;
+import com.macro.mall.search.domain.EsIndexCheckpoint;
+import com.macro.mall.search.domain.EsProduct;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequest;
+import org.elasticsearch.action.admin.indices.alias.get.GetAliasesRequest;
+import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
+import org.elasticsearch.action.admin.indices.settings.put.UpdateSettingsRequest;
+import org.elasticsearch.client.GetAliasesResponse;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.indices.GetIndexRequest;
+import org.elasticsearch.common.settings.Settings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.elasticsearch.core.ElasticsearchRestTemplate;
+import org.springframework.data.elasticsearch.core.IndexOperations;
+import org.springframework.data.elasticsearch.core.mapping.IndexCoordinates;
+import org.springframework.data.elasticsearch.core.query.BulkOptions;
+import org.springframework.data.elasticsearch.core.query.IndexQuery;
+import org.springframework.data.elasticsearch.core.query.IndexQueryBuilder;
+import org.springframework.stereotype.Component;
+import org.springframework.util.CollectionUtils;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 商品索引重建器
+ * 按id分页读取已上架商品，由多个线程并行组装文档并批量写入新索引，待写入的批次数有上限；
+ * 每批完成后记录断点，中断后再次执行时从断点继续；导入完成后将别名原子切换到新索引并删除旧索引，
+ * 切换前的查询仍使用旧索引
+ */
+@Component
+public class EsProductIndexer {
+    private static final Logger LOGGER = LoggerFactory.getLogger(EsProductIndexer.class);
+    @Autowired
+    private EsProductDao productDao;
+    @Autowired
+    private ElasticsearchRestTemplate elasticsearchRestTemplate;
+    @Autowired
+    private EsIndexGeneration indexGeneration;
+    @Value("${es.import.batchSize:500}")
+    private Integer BATCH_SIZE;
+    @Value("${es.import.threads:4}")
+    private Integer THREADS;
+    @Value("${es.import.maxPending:8}")
+    private Integer MAX_PENDING;
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    /**
+     * 重建商品索引，返回导入的商品数量
+     */
+    public int rebuild() {
+        if (!running.compareAndSet(false, true)) {
+            Asserts.fail("商品索引正在重建中");
+        }
+        try {
+            return doRebuild();
+        } finally {
+            running.set(false);
+        }
+    }
+
+    /**
+     * 是否正在重建索引
+     */
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    private int doRebuild() {
+        String alias = elasticsearchRestTemplate.getIndexCoordinatesFor(EsProduct.class).getIndexName();
+        EsIndexCheckpoint checkpoint = getCheckpoint(alias);
+        if (checkpoint != null && elasticsearchRestTemplate.indexOps(IndexCoordinates.of(checkpoint.getIndexName())).exists()) {
+            LOGGER.info("从断点继续重建商品索引，索引：{}，已导入：{}，断点id：{}",
+                    checkpoint.getIndexName(), checkpoint.getCount(), checkpoint.getLastId());
+        } else {
+            checkpoint = new EsIndexCheckpoint();
+            checkpoint.setId(alias);
+            checkpoint.setIndexName(alias + "_" + System.currentTimeMillis());
+            checkpoint.setLastId(0L);
+            checkpoint.setCount(0);
+            createIndex(checkpoint.getIndexName());
+            saveCheckpoint(checkpoint);
+        }
+        long start = System.currentTimeMillis();
+        int count = load(checkpoint);
+        String index = checkpoint.getIndexName();
+        updateRefreshInterval(index, null);
+        elasticsearchRestTemplate.indexOps(IndexCoordinates.of(index)).refresh();
+        switchAlias(alias, index);
+        indexGeneration.increment();
+        elasticsearchRestTemplate.delete(alias, EsIndexCheckpoint.class);
+        LOGGER.info("重建商品索引完成，索引：{}，数量：{}，耗时：{}ms", index, count, System.currentTimeMillis() - start);
+        return count;
+    }
+
+    /**
+     * 并行导入断点之后的商品，返回索引中的商品总数
+     */
+    private int load(EsIndexCheckpoint checkpoint) {
+        IndexCoordinates index = IndexCoordinates.of(checkpoint.getIndexName());
+        Progress progress = new Progress(checkpoint);
+        Semaphore permits = new Semaphore(MAX_PENDING);
+        AtomicReference<Exception> error = new AtomicReference<>();
+        AtomicInteger threadIndex = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "es-import-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            long afterId = checkpoint.getLastId();
+            long sequence = 0;
+            while (error.get() == null) {
+                List<Long> ids = productDao.getPublishedIdList(afterId, BATCH_SIZE);
+                if (CollectionUtils.isEmpty(ids)) {
+                    break;
+                }
+                afterId = ids.get(ids.size() - 1);
+                //待写入的批次达到上限时等待，避免读取速度超过写入速度
+                permits.acquire();
+                long batchSequence = sequence++;
+                long batchLastId = afterId;
+                executor.execute(() -> {
+                    try {
+                        int size = bulkIndex(index, productDao.getEsProductListByIds(ids));
+                        progress.complete(batchSequence, batchLastId, size);
+                    } catch (Exception e) {
+                        error.compareAndSet(null, e);
+                    } finally {
+                        permits.release();
+                    }
+                });
+            }
+            executor.shutdown();
+            if (!executor.awaitTermination(1, TimeUnit.HOURS)) {
+                //仍有批次未写完时不能切换别名，否则会切换到不完整的索引
+                error.compareAndSet(null, new TimeoutException("等待导入线程结束超时"));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            error.compareAndSet(null, e);
+        } finally {
+            executor.shutdownNow();
+        }
+        if (error.get() != null) {
+            LOGGER.error("重建商品索引失败，已导入：{}，断点id：{}", checkpoint.getCount(), checkpoint.getLastId(), error.get());
+            Asserts.fail("重建商品索引失败，重新执行时将从断点继续：" + error.get().getMessage());
+        }
+        return checkpoint.getCount();
+    }
+
+    private int bulkIndex(IndexCoordinates index, List<EsProduct> productList) {
+        if (CollectionUtils.isEmpty(productList)) {
+            return 0;
+        }
+        List<IndexQuery> queries = new ArrayList<>(productList.size());
+        for (EsProduct product : productList) {
+            queries.add(new IndexQueryBuilder()
+                    .withId(String.valueOf(product.getId()))
+                    .withObject(product)
+                    .build());
+        }
+        elasticsearchRestTemplate.bulkIndex(queries, BulkOptions.defaultOptions(), index);
+        return productList.size();
+    }
+
+    /**
+     * 按商品文档的设置和映射创建新索引，导入期间关闭自动刷新
+     */
+    private void createIndex(String index) {
+        IndexOperations entityOps = elasticsearchRestTemplate.indexOps(EsProduct.class);
+        IndexOperations indexOps = elasticsearchRestTemplate.indexOps(IndexCoordinates.of(index));
+        indexOps.create(entityOps.createSettings());
+        indexOps.putMapping(entityOps.createMapping());
+        updateRefreshInterval(index, "-1");
+    }
+
+    private void updateRefreshInterval(String index, String refreshInterval) {
+        Settings.Builder settings = Settings.builder();
+        if (refreshInterval == null) {
+            settings.putNull("index.refresh_interval");
+        } else {
+            settings.put("index.refresh_interval", refreshInterval);
+        }
+        elasticsearchRestTemplate.execute(client -> client.indices()
+                .putSettings(new UpdateSettingsRequest(index).settings(settings), RequestOptions.DEFAULT));
+    }
+
+    /**
+     * 将别名原子切换到新索引，之前别名指向的索引在切换后删除；
+     * 别名与旧的同名索引冲突时，在同一个请求中删除同名索引
+     */
+    private void switchAlias(String alias, String index) {
+        elasticsearchRestTemplate.execute(client -> {
+            GetAliasesResponse aliasesResponse = client.indices().getAlias(new GetAliasesRequest(alias), RequestOptions.DEFAULT);
+            Set<String> oldIndices = new HashSet<>(aliasesResponse.getAliases().keySet());
+            oldIndices.remove(index);
+            IndicesAliasesRequest request = new IndicesAliasesRequest();
+            if (aliasesResponse.getAliases().isEmpty() && client.indices().exists(new GetIndexRequest(alias), RequestOptions.DEFAULT)) {
+                request.addAliasAction(IndicesAliasesRequest.AliasActions.removeIndex().index(alias));
+            }
+            for (String oldIndex : oldIndices) {
+                request.addAliasAction(IndicesAliasesRequest.AliasActions.remove().index(oldIndex).alias(alias));
+            }
+            request.addAliasAction(IndicesAliasesRequest.AliasActions.add().index(index).alias(alias));
+            client.indices().updateAliases(request, RequestOptions.DEFAULT);
+            for (String oldIndex : oldIndices) {
+                client.indices().delete(new DeleteIndexRequest(oldIndex), RequestOptions.DEFAULT);
+            }
+            return null;
+        });
+    }
+
+    private EsIndexCheckpoint getCheckpoint(String alias) {
+        if (!elasticsearchRestTemplate.indexOps(EsIndexCheckpoint.class).exists()) {
+            return null;
+        }
+        return elasticsearchRestTemplate.get(alias, EsIndexCheckpoint.class);
+    }
+
+    private void saveCheckpoint(EsIndexCheckpoint checkpoint) {
+        checkpoint.setUpdateTime(new Date());
+        elasticsearchRestTemplate.save(checkpoint);
+    }
+
+    /**
+     * 批次完成进度，批次可能乱序完成，断点只推进到连续完成的最后一个批次
+     */
+    private class Progress {
+        private final EsIndexCheckpoint checkpoint;
+        private final TreeMap<Long, long[]> completed = new TreeMap<>();
+        private long nextSequence;
+
+        private Progress(EsIndexCheckpoint checkpoint) {
+            this.checkpoint = checkpoint;
+        }
+
+        private synchronized void complete(long sequence, long lastId, int size) {
+            completed.put(sequence, new long[]{lastId, size});
+            boolean advanced = false;
+            while (!completed.isEmpty() && completed.firstKey() == nextSequence) {
+                long[] batch = completed.pollFirstEntry().getValue();
+                checkpoint.setLastId(batch[0]);
+                checkpoint.setCount(checkpoint.getCount() + (int) batch[1]);
+                nextSequence++;
+                advanced = true;
+            }
+            if (advanced) {
+                saveCheckpoint(checkpoint);
+            }
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.macro.mall.search.component;
+
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.crypto.SecureUtil;
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import com.macro.mall.search.domain.EsProduct;
+import com.macro.mall.search.domain.EsProductSummary;
+import org.elasticsearch.action.admin.cluster.storedscripts.PutStoredScriptRequest;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.script.ScriptType;
+import org.elasticsearch.script.mustache.SearchTemplateRequest;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.xcontent.XContentType;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.elasticsearch.core.ElasticsearchRestTemplate;
+import org.springframework.data.elasticsearch.core.convert.ElasticsearchConverter;
+import org.springframework.data.elasticsearch.core.document.DocumentAdapters;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 商品综合搜索模板
+ * 查询结构以mustache模板的形式保存在ES中，由ES编译并缓存，每次搜索只传递关键字、筛选、排序及分页参数；
+ * 模板在第一次使用时保存，保存失败时下次搜索重试；
+ * 模板id包含模板内容的摘要，滚动发布时新旧版本的节点各自使用自己的模板，互不覆盖
+ */
+@Component
+public class EsProductSearchTemplate {
+    /**
+     * 与原综合搜索一致：关键字按名称、副标题、关键词加权匹配，得分低于2的商品不返回，品牌和分类作为过滤条件，
+     * 先按指定字段排序再按相关度排序；只需列表展示信息时只返回部分字段
+     */
+    private static final String TEMPLATE_SOURCE = "{" +
+            "\"from\":{{from}},\"size\":{{size}}," +
+            "{{#summary}}\"_source\":" + JSONUtil.toJsonStr(EsProductSummary.SOURCE_FIELDS) + ",{{/summary}}" +
+            "\"query\":{\"bool\":{" +
+            "\"filter\":[" +
+            "{{#brandId}}{\"term\":{\"brandId\":{{brandId}}}},{{/brandId}}" +
+            "{{#productCategoryId}}{\"term\":{\"productCategoryId\":{{productCategoryId}}}},{{/productCategoryId}}" +
+            "{\"match_all\":{}}]," +
+            "\"must\":[" +
+            "{{#keyword}}{\"function_score\":{\"functions\":[" +
+            "{\"filter\":{\"match\":{\"name\":\"{{keyword}}\"}},\"weight\":10}," +
+            "{\"filter\":{\"match\":{\"subTitle\":\"{{keyword}}\"}},\"weight\":5}," +
+            "{\"filter\":{\"match\":{\"keywords\":\"{{keyword}}\"}},\"weight\":2}]," +
+            "\"score_mode\":\"sum\",\"min_score\":2}}{{/keyword}}" +
+            "{{^keyword}}{\"match_all\":{}}{{/keyword}}]}}," +
+            "\"sort\":[" +
+            "{{#sortField}}{\"{{sortField}}\":{\"order\":\"{{sortOrder}}\"}},{{/sortField}}" +
+            "{\"_score\":{\"order\":\"desc\"}}]" +
+            "}";
+    private static final String TEMPLATE_ID = "pms_product_search_" + SecureUtil.md5(TEMPLATE_SOURCE).substring(0, 8);
+    @Autowired
+    private ElasticsearchRestTemplate elasticsearchRestTemplate;
+    private volatile boolean stored;
+
+    /**
+     * 使用模板搜索商品
+     */
+    public Page<EsProduct> search(String keyword, Long brandId, Long productCategoryId, Integer sort, Pageable pageable) {
+        return search(keyword, brandId, productCategoryId, sort, pageable, EsProduct.class, false);
+    }
+
+    /**
+     * 使用模板搜索商品，只返回列表展示所需的字段
+     */
+    public Page<EsProductSummary> searchSummary(String keyword, Long brandId, Long productCategoryId, Integer sort, Pageable pageable) {
+        return search(keyword, brandId, productCategoryId, sort, pageable, EsProductSummary.class, true);
+    }
+
+    private <T> Page<T> search(String keyword, Long brandId, Long productCategoryId, Integer sort, Pageable pageable,
+                               Class<T> type, boolean summary) {
+        storeTemplate();
+        Map<String, Object> params = new HashMap<>();
+        params.put("from", pageable.getOffset());
+        params.put("size", pageable.getPageSize());
+        params.put("summary", summary);
+        if (StrUtil.isNotEmpty(keyword)) {
+            params.put("keyword", keyword);
+        }
+        params.put("brandId", brandId);
+        params.put("productCategoryId", productCategoryId);
+        if (sort != null && sort >= 1 && sort <= 4) {
+            //1->按新品；2->按销量；3->价格从低到高；4->价格从高到低
+            params.put("sortField", sort == 1 ? "id" : sort == 2 ? "sale" : "price");
+            params.put("sortOrder", sort == 3 ? "asc" : "desc");
+        }
+        String indexName = elasticsearchRestTemplate.getIndexCoordinatesFor(EsProduct.class).getIndexName();
+        SearchTemplateRequest request = new SearchTemplateRequest(new SearchRequest(indexName));
+        request.setScriptType(ScriptType.STORED);
+        request.setScript(TEMPLATE_ID);
+        request.setScriptParams(params);
+        SearchResponse response = elasticsearchRestTemplate.execute(client ->
+                client.searchTemplate(request, RequestOptions.DEFAULT).getResponse());
+        ElasticsearchConverter converter = elasticsearchRestTemplate.getElasticsearchConverter();
+        SearchHit[] hits = response.getHits().getHits();
+        List<T> list = new ArrayList<>(hits.length);
+        for (SearchHit hit : hits) {
+            list.add(converter.read(type, DocumentAdapters.from(hit)));
+        }
+        long total = response.getHits().getTotalHits() == null ? 0 : response.getHits().getTotalHits().value;
+        return new PageImpl<>(list, pageable, total);
+    }
+
+    private void storeTemplate() {
+        if (stored) {
+            return;
+        }
+        JSONObject script = JSONUtil.createObj()
+                .set("lang", "mustache")
+                .set("source", TEMPLATE_SOURCE);
+        String content = JSONUtil.createObj().set("script", script).toString();
+        PutStoredScriptRequest request = new PutStoredScriptRequest()
+                .id(TEMPLATE_ID)
+                .content(new BytesArray(content), XContentType.JSON);
+        elasticsearchRestTemplate.execute(client -> client.putScript(request, RequestOptions.DEFAULT));
+        stored = true;
+    }
+}
@@ -0,0 +1,12 @@
+package com.macro.mall.search.config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+/**
+ * 定时任务相关配置
+ */
+@Configuration
+@EnableScheduling
+public class SpringTaskConfig {
+}
@@ -2,8 +2,10 @@ package com.macro.mall.search.controller;
 
 import com.macro.mall.common.api.CommonPage;
 import com.macro.mall.common.api.CommonResult;
+import com.macro.mall.search.domain.EsCursorPage;
 import com.macro.mall.search.domain.EsProduct;
 import com.macro.mall.search.domain.EsProductRelatedInfo;
+import com.macro.mall.search.domain.EsProductSummary;
 import com.macro.mall.search.service.EsProductService;
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiImplicitParam;
@@ -14,7 +16,10 @@ import org.springframework.data.domain.Page;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.*;
 
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
 import java.util.List;
+import java.util.Map;
 
 /**
  * 搜索商品管理Controller
@@ -89,6 +94,46 @@ public class EsProductController {
         return CommonResult.success(CommonPage.restPage(esProductPage));
     }
 
+    @ApiOperation(value = "综合搜索、筛选、排序，只返回列表展示所需的字段")
+    @ApiImplicitParam(name = "sort", value = "排序字段:0->按相关度；1->按新品；2->按销量；3->价格从低到高；4->价格从高到低",
+            defaultValue = "0", allowableValues = "0,1,2,3,4", paramType = "query", dataType = "integer")
+    @RequestMapping(value = "/search/summary", method = RequestMethod.GET)
+    @ResponseBody
+    public CommonResult<CommonPage<EsProductSummary>> searchSummary(@RequestParam(required = false) String keyword,
+                                                                    @RequestParam(required = false) Long brandId,
+                                                                    @RequestParam(required = false) Long productCategoryId,
+                                                                    @RequestParam(required = false, defaultValue = "0") Integer pageNum,
+                                                                    @RequestParam(required = false, defaultValue = "5") Integer pageSize,
+                                                                    @RequestParam(required = false, defaultValue = "0") Integer sort) {
+        Page<EsProductSummary> summaryPage = esProductService.searchSummary(keyword, brandId, productCategoryId, pageNum, pageSize, sort);
+        return CommonResult.success(CommonPage.restPage(summaryPage));
+    }
+
+    @ApiOperation(value = "综合搜索、筛选、排序，使用游标翻页")
+    @ApiImplicitParam(name = "sort", value = "排序字段:0->按相关度；1->按新品；2->按销量；3->价格从低到高；4->价格从高到低",
+            defaultValue = "0", allowableValues = "0,1,2,3,4", paramType = "query", dataType = "integer")
+    @RequestMapping(value = "/search/cursor", method = RequestMethod.GET)
+    @ResponseBody
+    public CommonResult<EsCursorPage<EsProduct>> searchByCursor(@RequestParam(required = false) String keyword,
+                                                                @RequestParam(required = false) Long brandId,
+                                                                @RequestParam(required = false) Long productCategoryId,
+                                                                @RequestParam(required = false, defaultValue = "0") Integer sort,
+                                                                @RequestParam(required = false) String cursor,
+                                                                @RequestParam(required = false, defaultValue = "5") Integer pageSize) {
+        EsCursorPage<EsProduct> cursorPage = esProductService.searchByCursor(keyword, brandId, productCategoryId, sort, cursor, pageSize);
+        return CommonResult.success(cursorPage);
+    }
+
+    @ApiOperation(value = "导出搜索结果，每行为一个商品的JSON")
+    @RequestMapping(value = "/search/export", method = RequestMethod.GET)
+    public void export(@RequestParam(required = false) String keyword,
+                       @RequestParam(required = false) Long brandId,
+                       @RequestParam(required = false) Long productCategoryId,
+                       HttpServletResponse response) throws IOException {
+        response.setContentType("application/x-ndjson;charset=UTF-8");
+        esProductService.export(keyword, brandId, productCategoryId, response.getOutputStream());
+    }
+
     @ApiOperation(value = "根据商品id推荐商品")
     @RequestMapping(value = "/recommend/{id}", method = RequestMethod.GET)
     @ResponseBody
@@ -99,6 +144,25 @@ public class EsProductController {
         return CommonResult.success(CommonPage.restPage(esProductPage));
     }
 
+    @ApiOperation(value = "根据商品id推荐商品，只返回列表展示所需的字段")
+    @RequestMapping(value = "/recommend/summary/{id}", method = RequestMethod.GET)
+    @ResponseBody
+    public CommonResult<CommonPage<EsProductSummary>> recommendSummary(@PathVariable Long id,
+                                                                       @RequestParam(required = false, defaultValue = "0") Integer pageNum,
+                                                                       @RequestParam(required = false, defaultValue = "5") Integer pageSize) {
+        Page<EsProductSummary> summaryPage = esProductService.recommendSummary(id, pageNum, pageSize);
+        return CommonResult.success(CommonPage.restPage(summaryPage));
+    }
+
+    @ApiOperation(value = "根据商品id批量推荐商品")
+    @RequestMapping(value = "/recommend/batch", method = RequestMethod.GET)
+    @ResponseBody
+    public CommonResult<Map<Long, List<EsProductSummary>>> recommendBatch(@RequestParam("ids") List<Long> ids,
+                                                                          @RequestParam(required = false, defaultValue = "5") Integer size) {
+        Map<Long, List<EsProductSummary>> recommendMap = esProductService.recommendBatch(ids, size);
+        return CommonResult.success(recommendMap);
+    }
+
     @ApiOperation(value = "获取搜索的相关品牌、分类及筛选属性")
     @RequestMapping(value = "/search/relate", method = RequestMethod.GET)
     @ResponseBody
@@ -0,0 +1,42 @@
+package com.macro.mall.search.dao;
+
+import com.macro.mall.search.domain.EsProductChangeLog;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * 商品变更记录自定义Dao
+ */
+public interface EsProductChangeLogDao {
+    /**
+     * 按id顺序获取指定时间之前写入的待同步记录
+     */
+    List<EsProductChangeLog> listPending(@Param("before") Date before, @Param("limit") Integer limit);
+
+    /**
+     * 批量标记为已同步
+     */
+    int updateSynced(@Param("ids") List<Long> ids);
+
+    /**
+     * 批量累加同步失败次数，达到最大次数的记录标记为同步失败，不再参与同步
+     */
+    int updateFailed(@Param("ids") List<Long> ids, @Param("maxRetry") Integer maxRetry);
+
+    /**
+     * 获取同步时间不早于指定时间的商品，按商品id合并，同步时间取最大值
+     */
+    List<EsProductChangeLog> listSyncedProduct(@Param("since") Date since);
+
+    /**
+     * 获取已同步记录的最大同步时间
+     */
+    Date getMaxSyncTime();
+
+    /**
+     * 删除指定时间之前已同步的记录
+     */
+    int deleteSynced(@Param("before") Date before);
+}
@@ -14,4 +14,19 @@ public interface EsProductDao {
      * 获取指定ID的搜索商品
      */
     List<EsProduct> getAllEsProductList(@Param("id") Long id);
+
+    /**
+     * 按id顺序分页获取已上架商品的id，从afterId之后开始
+     */
+    List<Long> getPublishedIdList(@Param("afterId") Long afterId, @Param("limit") Integer limit);
+
+    /**
+     * 批量获取指定ID的搜索商品
+     */
+    List<EsProduct> getEsProductListByIds(@Param("ids") List<Long> ids);
+
+    /**
+     * 批量获取指定ID的搜索商品基本信息，不含属性
+     */
+    List<EsProduct> getEsProductBaseListByIds(@Param("ids") List<Long> ids);
 }
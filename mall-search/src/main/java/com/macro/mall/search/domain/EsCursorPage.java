@@ -0,0 +1,20 @@
+package com.macro.mall.search.domain;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 游标分页结果
+ */
+@Data
+public class EsCursorPage<T> {
+    /**
+     * 当前页数据
+     */
+    private List<T> list;
+    /**
+     * 获取下一页时传入的游标，没有更多数据时为空
+     */
+    private String nextCursor;
+}
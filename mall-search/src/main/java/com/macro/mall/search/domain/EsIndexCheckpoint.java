@@ -0,0 +1,31 @@
+package com.macro.mall.search.domain;
+
+import lombok.Data;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.elasticsearch.annotations.Document;
+import org.springframework.data.elasticsearch.annotations.Field;
+import org.springframework.data.elasticsearch.annotations.FieldType;
+
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * 重建索引的断点信息，重建中断后可从断点继续导入
+ */
+@Data
+@Document(indexName = "pms_import_checkpoint")
+public class EsIndexCheckpoint implements Serializable {
+    private static final long serialVersionUID = 1L;
+    //对应的别名
+    @Id
+    private String id;
+    //正在导入的新索引名称
+    @Field(type = FieldType.Keyword)
+    private String indexName;
+    //已连续导入完成的最大商品id
+    private Long lastId;
+    //已导入的商品数量
+    private Integer count;
+    @Field(type = FieldType.Date)
+    private Date updateTime;
+}
@@ -0,0 +1,34 @@
+package com.macro.mall.search.domain;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.Date;
+
+/**
+ * 商品变更记录，由后台修改商品时写入
+ */
+@Getter
+@Setter
+public class EsProductChangeLog {
+    /**
+     * 变更类型：基本信息
+     */
+    public static final int TYPE_BASE = 0;
+    /**
+     * 变更类型：全部信息（含属性、上下架及删除）
+     */
+    public static final int TYPE_FULL = 1;
+    private Long id;
+    private Long productId;
+    /**
+     * 变更类型：0->基本信息；1->全部信息
+     */
+    private Integer changeType;
+    /**
+     * 同步失败次数
+     */
+    private Integer retryCount;
+    private Date createTime;
+    private Date syncTime;
+}
@@ -0,0 +1,26 @@
+package com.macro.mall.search.domain;
+
+import lombok.Data;
+import org.springframework.data.annotation.Id;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+
+/**
+ * 商品列表展示所需的商品信息，只从索引中读取这些字段
+ */
+@Data
+public class EsProductSummary implements Serializable {
+    private static final long serialVersionUID = 1L;
+    /**
+     * 需要从_source中读取的字段
+     */
+    public static final String[] SOURCE_FIELDS = {"id", "name", "subTitle", "pic", "price", "sale"};
+    @Id
+    private Long id;
+    private String name;
+    private String subTitle;
+    private String pic;
+    private BigDecimal price;
+    private Integer sale;
+}
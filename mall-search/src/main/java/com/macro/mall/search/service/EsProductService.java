@@ -1,10 +1,15 @@
 package com.macro.mall.search.service;
 
+import com.macro.mall.search.domain.EsCursorPage;
 import com.macro.mall.search.domain.EsProduct;
 import com.macro.mall.search.domain.EsProductRelatedInfo;
+import com.macro.mall.search.domain.EsProductSummary;
 import org.springframework.data.domain.Page;
 
+import java.io.OutputStream;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 /**
  * 搜索商品管理Service
@@ -12,7 +17,7 @@ import java.util.List;
  */
 public interface EsProductService {
     /**
-     * 从数据库中导入所有商品到ES
+     * 从数据库中导入所有商品到ES，重建到新索引后切换别名
      */
     int importAll();
 
@@ -41,11 +46,41 @@ public interface EsProductService {
      */
     Page<EsProduct> search(String keyword, Long brandId, Long productCategoryId, Integer pageNum, Integer pageSize,Integer sort);
 
+    /**
+     * 根据关键字复合查询商品，只返回列表展示所需的字段
+     */
+    Page<EsProductSummary> searchSummary(String keyword, Long brandId, Long productCategoryId, Integer pageNum, Integer pageSize, Integer sort);
+
+    /**
+     * 根据关键字复合查询商品，使用游标获取下一页，翻页深度不影响查询耗时
+     */
+    EsCursorPage<EsProduct> searchByCursor(String keyword, Long brandId, Long productCategoryId, Integer sort, String cursor, Integer pageSize);
+
+    /**
+     * 导出查询到的全部商品，每行输出一个商品的JSON
+     */
+    void export(String keyword, Long brandId, Long productCategoryId, OutputStream outputStream);
+
     /**
      * 根据商品id推荐相关商品
      */
     Page<EsProduct> recommend(Long id, Integer pageNum, Integer pageSize);
 
+    /**
+     * 根据商品id推荐相关商品，只返回列表展示所需的字段
+     */
+    Page<EsProductSummary> recommendSummary(Long id, Integer pageNum, Integer pageSize);
+
+    /**
+     * 批量获取多个商品的推荐商品，返回商品id与推荐商品列表的对应关系
+     */
+    Map<Long, List<EsProductSummary>> recommendBatch(List<Long> ids, Integer size);
+
+    /**
+     * 使指定商品的推荐结果缓存及包含这些商品的推荐结果缓存失效
+     */
+    void evictRecommend(Collection<Long> ids);
+
     /**
      * 搜索关键字相关品牌、分类、属性
      */
@@ -2,13 +2,33 @@ package com.macro.mall.search.service.impl;
 
 import cn.hutool.core.collection.ListUtil;
 import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONArray;
+import cn.hutool.json.JSONUtil;
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.macro.mall.common.exception.Asserts;
+import com.macro.mall.search.component.EsIndexGeneration;
+import com.macro.mall.search.component.EsProductIndexer;
+import com.macro.mall.search.component.EsProductSearchTemplate;
 import com.macro.mall.search.dao.EsProductDao;
+import com.macro.mall.search.domain.EsCursorPage;
 import com.macro.mall.search.domain.EsProduct;
 import com.macro.mall.search.domain.EsProductRelatedInfo;
+import com.macro.mall.search.domain.EsProductSummary;
 import com.macro.mall.search.repository.EsProductRepository;
 import com.macro.mall.search.service.EsProductService;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.action.search.ClosePointInTimeRequest;
+import org.elasticsearch.action.search.OpenPointInTimeRequest;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.RequestOptions;
 import org.elasticsearch.common.lucene.search.function.FunctionScoreQuery;
+import org.elasticsearch.core.TimeValue;
 import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.index.query.functionscore.FunctionScoreQueryBuilder;
 import org.elasticsearch.index.query.functionscore.ScoreFunctionBuilders;
@@ -21,27 +41,51 @@ import org.elasticsearch.search.aggregations.bucket.nested.ParsedNested;
 import org.elasticsearch.search.aggregations.bucket.terms.ParsedLongTerms;
 import org.elasticsearch.search.aggregations.bucket.terms.ParsedStringTerms;
 import org.elasticsearch.search.aggregations.bucket.terms.Terms;
+import org.elasticsearch.search.builder.PointInTimeBuilder;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.sort.SortBuilder;
 import org.elasticsearch.search.sort.SortBuilders;
 import org.elasticsearch.search.sort.SortOrder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.elasticsearch.core.ElasticsearchRestTemplate;
+import org.springframework.data.elasticsearch.core.MultiGetItem;
 import org.springframework.data.elasticsearch.core.SearchHit;
 import org.springframework.data.elasticsearch.core.SearchHits;
+import org.springframework.data.elasticsearch.core.mapping.IndexCoordinates;
+import org.springframework.data.elasticsearch.core.query.FetchSourceFilter;
 import org.springframework.data.elasticsearch.core.query.NativeSearchQuery;
 import org.springframework.data.elasticsearch.core.query.NativeSearchQueryBuilder;
+import org.springframework.data.elasticsearch.core.query.Query;
 import org.springframework.stereotype.Service;
 import org.springframework.util.CollectionUtils;
 
+import javax.annotation.PostConstruct;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 
@@ -52,28 +96,89 @@ import java.util.stream.Collectors;
 @Service
 public class EsProductServiceImpl implements EsProductService {
     private static final Logger LOGGER = LoggerFactory.getLogger(EsProductServiceImpl.class);
+    private static final int EXPORT_BATCH_SIZE = 1000;
+    private static final long EXPORT_KEEP_ALIVE_SECONDS = 60;
+    private static final int RECOMMEND_BATCH_MAX_SIZE = 50;
+    /**
+     * 推荐查询需要的商品字段
+     */
+    private static final String[] RECOMMEND_SEED_FIELDS = {"name", "brandId", "productCategoryId"};
     @Autowired
     private EsProductDao productDao;
     @Autowired
     private EsProductRepository productRepository;
     @Autowired
     private ElasticsearchRestTemplate elasticsearchRestTemplate;
+    @Autowired
+    private EsProductIndexer productIndexer;
+    @Autowired
+    private EsIndexGeneration indexGeneration;
+    @Autowired
+    private EsProductSearchTemplate searchTemplate;
+    @Autowired
+    private MeterRegistry meterRegistry;
+    @Value("${es.facetCache.maxSize:2000}")
+    private Long FACET_CACHE_MAX_SIZE;
+    @Value("${es.facetCache.expireSeconds:300}")
+    private Long FACET_CACHE_EXPIRE_SECONDS;
+    /**
+     * 筛选信息缓存，键为索引数据版本和规范化后的关键字，值为多个请求共享，使用方不应修改
+     */
+    private AsyncCache<String, EsProductRelatedInfo> facetCache;
+    @Value("${es.searchCache.maxSize:1000}")
+    private Long SEARCH_CACHE_MAX_SIZE;
+    @Value("${es.searchCache.expireSeconds:10}")
+    private Long SEARCH_CACHE_EXPIRE_SECONDS;
+    @Value("${es.searchCache.maxPageNum:5}")
+    private Integer SEARCH_CACHE_MAX_PAGE_NUM;
+    /**
+     * 综合搜索结果缓存，容量满时淘汰访问频率低的查询，只保留热门查询的结果，值为多个请求共享，使用方不应修改
+     */
+    private AsyncCache<String, Page<EsProduct>> searchCache;
+    private AsyncCache<String, Page<EsProductSummary>> summaryCache;
+    @Value("${es.recommendCache.maxSize:10000}")
+    private Long RECOMMEND_CACHE_MAX_SIZE;
+    @Value("${es.recommendCache.expireSeconds:600}")
+    private Long RECOMMEND_CACHE_EXPIRE_SECONDS;
+    /**
+     * 推荐结果缓存，键为商品id及分页参数，值为多个请求共享，使用方不应修改；
+     * 商品变更同步后按商品id失效，包括结果中含有该商品的缓存，重建索引后全部失效
+     */
+    private AsyncCache<String, Page<EsProduct>> recommendCache;
+    private AsyncCache<String, Page<EsProductSummary>> recommendSummaryCache;
+
+    @PostConstruct
+    public void init() {
+        facetCache = buildCache("esFacetCache", FACET_CACHE_MAX_SIZE, FACET_CACHE_EXPIRE_SECONDS);
+        searchCache = buildCache("esSearchCache", SEARCH_CACHE_MAX_SIZE, SEARCH_CACHE_EXPIRE_SECONDS);
+        summaryCache = buildCache("esSearchSummaryCache", SEARCH_CACHE_MAX_SIZE, SEARCH_CACHE_EXPIRE_SECONDS);
+        recommendCache = buildCache("esRecommendCache", RECOMMEND_CACHE_MAX_SIZE, RECOMMEND_CACHE_EXPIRE_SECONDS);
+        recommendSummaryCache = buildCache("esRecommendSummaryCache", RECOMMEND_CACHE_MAX_SIZE, RECOMMEND_CACHE_EXPIRE_SECONDS);
+    }
+
+    private <V> AsyncCache<String, V> buildCache(String name, Long maxSize, Long expireSeconds) {
+        AsyncCache<String, V> cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(expireSeconds, TimeUnit.SECONDS)
+                .recordStats()
+                .buildAsync();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache.synchronous(), name);
+        return cache;
+    }
+
     @Override
     public int importAll() {
-        List<EsProduct> esProductList = productDao.getAllEsProductList(null);
-        Iterable<EsProduct> esProductIterable = productRepository.saveAll(esProductList);
-        Iterator<EsProduct> iterator = esProductIterable.iterator();
-        int result = 0;
-        while (iterator.hasNext()) {
-            result++;
-            iterator.next();
-        }
-        return result;
+        int count = productIndexer.rebuild();
+        recommendCache.synchronous().invalidateAll();
+        recommendSummaryCache.synchronous().invalidateAll();
+        return count;
     }
 
     @Override
     public void delete(Long id) {
         productRepository.deleteById(id);
+        indexGeneration.increment();
+        evictRecommend(Collections.singletonList(id));
     }
 
     @Override
@@ -83,6 +188,8 @@ public class EsProductServiceImpl implements EsProductService {
         if (esProductList.size() > 0) {
             EsProduct esProduct = esProductList.get(0);
             result = productRepository.save(esProduct);
+            indexGeneration.increment();
+            evictRecommend(Collections.singletonList(id));
         }
         return result;
     }
@@ -97,6 +204,8 @@ public class EsProductServiceImpl implements EsProductService {
                 esProductList.add(esProduct);
             }
             productRepository.deleteAll(esProductList);
+            indexGeneration.increment();
+            evictRecommend(ids);
         }
     }
 
@@ -109,114 +218,378 @@ public class EsProductServiceImpl implements EsProductService {
     @Override
     public Page<EsProduct> search(String keyword, Long brandId, Long productCategoryId, Integer pageNum, Integer pageSize,Integer sort) {
         Pageable pageable = PageRequest.of(pageNum, pageSize);
-        NativeSearchQueryBuilder nativeSearchQueryBuilder = new NativeSearchQueryBuilder();
-        //分页
-        nativeSearchQueryBuilder.withPageable(pageable);
-        //过滤
-        if (brandId != null || productCategoryId != null) {
-            BoolQueryBuilder boolQueryBuilder = QueryBuilders.boolQuery();
-            if (brandId != null) {
-                boolQueryBuilder.must(QueryBuilders.termQuery("brandId", brandId));
-            }
-            if (productCategoryId != null) {
-                boolQueryBuilder.must(QueryBuilders.termQuery("productCategoryId", productCategoryId));
+        String normalizedKeyword = normalizeKeyword(keyword);
+        if (pageNum >= SEARCH_CACHE_MAX_PAGE_NUM) {
+            return searchTemplate.search(normalizedKeyword, brandId, productCategoryId, sort, pageable);
+        }
+        //只缓存前几页，热门查询在缓存时间内不再访问ES
+        String key = indexGeneration.current() + ":" + normalizedKeyword + ":" + brandId + ":" + productCategoryId
+                + ":" + sort + ":" + pageNum + ":" + pageSize;
+        return getOrLoad(searchCache, key, () -> searchTemplate.search(normalizedKeyword, brandId, productCategoryId, sort, pageable));
+    }
+
+    @Override
+    public Page<EsProductSummary> searchSummary(String keyword, Long brandId, Long productCategoryId, Integer pageNum, Integer pageSize, Integer sort) {
+        Pageable pageable = PageRequest.of(pageNum, pageSize);
+        String normalizedKeyword = normalizeKeyword(keyword);
+        if (pageNum >= SEARCH_CACHE_MAX_PAGE_NUM) {
+            return searchTemplate.searchSummary(normalizedKeyword, brandId, productCategoryId, sort, pageable);
+        }
+        String key = indexGeneration.current() + ":" + normalizedKeyword + ":" + brandId + ":" + productCategoryId
+                + ":" + sort + ":" + pageNum + ":" + pageSize;
+        return getOrLoad(summaryCache, key, () -> searchTemplate.searchSummary(normalizedKeyword, brandId, productCategoryId, sort, pageable));
+    }
+
+    @Override
+    public EsCursorPage<EsProduct> searchByCursor(String keyword, Long brandId, Long productCategoryId, Integer sort, String cursor, Integer pageSize) {
+        int queryHash = Objects.hash(keyword, brandId, productCategoryId, sort);
+        NativeSearchQueryBuilder builder = new NativeSearchQueryBuilder()
+                .withQuery(buildSearchQuery(keyword, brandId, productCategoryId))
+                .withSorts(buildSorts(sort))
+                .withPageable(PageRequest.of(0, pageSize))
+                .withTrackTotalHits(false);
+        if (StrUtil.isNotEmpty(cursor)) {
+            builder.withSearchAfter(decodeCursor(cursor, queryHash));
+        }
+        SearchHits<EsProduct> searchHits = elasticsearchRestTemplate.search(builder.build(), EsProduct.class);
+        EsCursorPage<EsProduct> result = new EsCursorPage<>();
+        result.setList(searchHits.stream().map(SearchHit::getContent).collect(Collectors.toList()));
+        if (searchHits.getSearchHits().size() == pageSize) {
+            SearchHit<EsProduct> lastHit = searchHits.getSearchHit(pageSize - 1);
+            result.setNextCursor(encodeCursor(lastHit.getSortValues(), queryHash));
+        }
+        return result;
+    }
+
+    @Override
+    public void export(String keyword, Long brandId, Long productCategoryId, OutputStream outputStream) {
+        String indexName = elasticsearchRestTemplate.getIndexCoordinatesFor(EsProduct.class).getIndexName();
+        QueryBuilder query = buildSearchQuery(keyword, brandId, productCategoryId);
+        TimeValue keepAlive = TimeValue.timeValueSeconds(EXPORT_KEEP_ALIVE_SECONDS);
+        elasticsearchRestTemplate.execute(client -> {
+            //在时间点快照上按文档顺序遍历，导出期间的索引变更不影响结果
+            String pitId = client.openPointInTime(new OpenPointInTimeRequest(indexName).keepAlive(keepAlive),
+                    RequestOptions.DEFAULT).getPointInTimeId();
+            try {
+                SearchSourceBuilder sourceBuilder = new SearchSourceBuilder()
+                        .query(query)
+                        .size(EXPORT_BATCH_SIZE)
+                        .sort(SortBuilders.fieldSort("_shard_doc"))
+                        .trackTotalHits(false);
+                while (true) {
+                    sourceBuilder.pointInTimeBuilder(new PointInTimeBuilder(pitId).setKeepAlive(keepAlive));
+                    SearchResponse response = client.search(new SearchRequest().source(sourceBuilder), RequestOptions.DEFAULT);
+                    pitId = response.pointInTimeId();
+                    org.elasticsearch.search.SearchHit[] hits = response.getHits().getHits();
+                    for (org.elasticsearch.search.SearchHit hit : hits) {
+                        BytesRef source = hit.getSourceRef().toBytesRef();
+                        outputStream.write(source.bytes, source.offset, source.length);
+                        outputStream.write('\n');
+                    }
+                    outputStream.flush();
+                    if (hits.length < EXPORT_BATCH_SIZE) {
+                        break;
+                    }
+                    sourceBuilder.searchAfter(hits[hits.length - 1].getSortValues());
+                }
+            } finally {
+                client.closePointInTime(new ClosePointInTimeRequest(pitId), RequestOptions.DEFAULT);
             }
-            nativeSearchQueryBuilder.withFilter(boolQueryBuilder);
+            return null;
+        });
+    }
+
+    /**
+     * 构建综合搜索的查询条件：关键字按名称、副标题、关键词加权匹配，品牌和分类作为过滤条件
+     */
+    private QueryBuilder buildSearchQuery(String keyword, Long brandId, Long productCategoryId) {
+        BoolQueryBuilder boolQueryBuilder = QueryBuilders.boolQuery();
+        if (brandId != null) {
+            boolQueryBuilder.filter(QueryBuilders.termQuery("brandId", brandId));
+        }
+        if (productCategoryId != null) {
+            boolQueryBuilder.filter(QueryBuilders.termQuery("productCategoryId", productCategoryId));
         }
-        //搜索
         if (StrUtil.isEmpty(keyword)) {
-            nativeSearchQueryBuilder.withQuery(QueryBuilders.matchAllQuery());
+            boolQueryBuilder.must(QueryBuilders.matchAllQuery());
         } else {
-            List<FunctionScoreQueryBuilder.FilterFunctionBuilder> filterFunctionBuilders = new ArrayList<>();
-            filterFunctionBuilders.add(new FunctionScoreQueryBuilder.FilterFunctionBuilder(QueryBuilders.matchQuery("name", keyword),
-                    ScoreFunctionBuilders.weightFactorFunction(10)));
-            filterFunctionBuilders.add(new FunctionScoreQueryBuilder.FilterFunctionBuilder(QueryBuilders.matchQuery("subTitle", keyword),
-                    ScoreFunctionBuilders.weightFactorFunction(5)));
-            filterFunctionBuilders.add(new FunctionScoreQueryBuilder.FilterFunctionBuilder(QueryBuilders.matchQuery("keywords", keyword),
-                    ScoreFunctionBuilders.weightFactorFunction(2)));
-            FunctionScoreQueryBuilder.FilterFunctionBuilder[] builders = new FunctionScoreQueryBuilder.FilterFunctionBuilder[filterFunctionBuilders.size()];
-            filterFunctionBuilders.toArray(builders);
-            FunctionScoreQueryBuilder functionScoreQueryBuilder = QueryBuilders.functionScoreQuery(builders)
+            FunctionScoreQueryBuilder.FilterFunctionBuilder[] builders = {
+                    new FunctionScoreQueryBuilder.FilterFunctionBuilder(QueryBuilders.matchQuery("name", keyword),
+                            ScoreFunctionBuilders.weightFactorFunction(10)),
+                    new FunctionScoreQueryBuilder.FilterFunctionBuilder(QueryBuilders.matchQuery("subTitle", keyword),
+                            ScoreFunctionBuilders.weightFactorFunction(5)),
+                    new FunctionScoreQueryBuilder.FilterFunctionBuilder(QueryBuilders.matchQuery("keywords", keyword),
+                            ScoreFunctionBuilders.weightFactorFunction(2))
+            };
+            boolQueryBuilder.must(QueryBuilders.functionScoreQuery(builders)
                     .scoreMode(FunctionScoreQuery.ScoreMode.SUM)
-                    .setMinScore(2);
-            nativeSearchQueryBuilder.withQuery(functionScoreQueryBuilder);
+                    .setMinScore(2));
         }
-        //排序
-        if(sort==1){
-            //按新品从新到旧
-            nativeSearchQueryBuilder.withSorts(SortBuilders.fieldSort("id").order(SortOrder.DESC));
-        }else if(sort==2){
+        return boolQueryBuilder;
+    }
+
+    /**
+     * 构建游标分页的排序，最后按id排序保证排序值唯一
+     */
+    private List<SortBuilder<?>> buildSorts(Integer sort) {
+        List<SortBuilder<?>> sorts = new ArrayList<>();
+        if (sort == null || sort == 0) {
+            //按相关度
+            sorts.add(SortBuilders.scoreSort().order(SortOrder.DESC));
+        } else if (sort == 2) {
             //按销量从高到低
-            nativeSearchQueryBuilder.withSorts(SortBuilders.fieldSort("sale").order(SortOrder.DESC));
-        }else if(sort==3){
+            sorts.add(SortBuilders.fieldSort("sale").order(SortOrder.DESC));
+        } else if (sort == 3) {
             //按价格从低到高
-            nativeSearchQueryBuilder.withSorts(SortBuilders.fieldSort("price").order(SortOrder.ASC));
-        }else if(sort==4){
+            sorts.add(SortBuilders.fieldSort("price").order(SortOrder.ASC));
+        } else if (sort == 4) {
             //按价格从高到低
-            nativeSearchQueryBuilder.withSorts(SortBuilders.fieldSort("price").order(SortOrder.DESC));
-        }else{
-            //按相关度
-            nativeSearchQueryBuilder.withSorts(SortBuilders.scoreSort().order(SortOrder.DESC));
+            sorts.add(SortBuilders.fieldSort("price").order(SortOrder.DESC));
         }
-        nativeSearchQueryBuilder.withSorts(SortBuilders.scoreSort().order(SortOrder.DESC));
-        NativeSearchQuery searchQuery = nativeSearchQueryBuilder.build();
-        LOGGER.info("DSL:{}", searchQuery.getQuery().toString());
-        SearchHits<EsProduct> searchHits = elasticsearchRestTemplate.search(searchQuery, EsProduct.class);
-        if(searchHits.getTotalHits()<=0){
-            return new PageImpl<>(ListUtil.empty(),pageable,0);
+        //按新品从新到旧时只需按id排序
+        sorts.add(SortBuilders.fieldSort("id").order(SortOrder.DESC));
+        return sorts;
+    }
+
+    /**
+     * 游标内容为查询条件的哈希值及最后一条数据的排序值，游标只能用于相同的查询条件
+     */
+    static String encodeCursor(List<Object> sortValues, int queryHash) {
+        JSONArray array = new JSONArray();
+        array.add(queryHash);
+        array.addAll(sortValues);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(array.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    static List<Object> decodeCursor(String cursor, int queryHash) {
+        JSONArray array;
+        try {
+            array = JSONUtil.parseArray(new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8));
+        } catch (Exception e) {
+            array = null;
         }
-        List<EsProduct> searchProductList = searchHits.stream().map(SearchHit::getContent).collect(Collectors.toList());
-        return new PageImpl<>(searchProductList,pageable,searchHits.getTotalHits());
+        if (array == null || array.size() < 2 || !Objects.equals(array.getInt(0), queryHash)) {
+            Asserts.fail("无效的游标");
+        }
+        return new ArrayList<>(array.subList(1, array.size()));
     }
 
     @Override
     public Page<EsProduct> recommend(Long id, Integer pageNum, Integer pageSize) {
         Pageable pageable = PageRequest.of(pageNum, pageSize);
-        List<EsProduct> esProductList = productDao.getAllEsProductList(id);
-        if (esProductList.size() > 0) {
-            EsProduct esProduct = esProductList.get(0);
-            String keyword = esProduct.getName();
-            Long brandId = esProduct.getBrandId();
-            Long productCategoryId = esProduct.getProductCategoryId();
-            //根据商品标题、品牌、分类进行搜索
-            List<FunctionScoreQueryBuilder.FilterFunctionBuilder> filterFunctionBuilders = new ArrayList<>();
-            filterFunctionBuilders.add(new FunctionScoreQueryBuilder.FilterFunctionBuilder(QueryBuilders.matchQuery("name", keyword),
-                    ScoreFunctionBuilders.weightFactorFunction(8)));
-            filterFunctionBuilders.add(new FunctionScoreQueryBuilder.FilterFunctionBuilder(QueryBuilders.matchQuery("subTitle", keyword),
-                    ScoreFunctionBuilders.weightFactorFunction(2)));
-            filterFunctionBuilders.add(new FunctionScoreQueryBuilder.FilterFunctionBuilder(QueryBuilders.matchQuery("keywords", keyword),
-                    ScoreFunctionBuilders.weightFactorFunction(2)));
-            filterFunctionBuilders.add(new FunctionScoreQueryBuilder.FilterFunctionBuilder(QueryBuilders.matchQuery("brandId", brandId),
-                    ScoreFunctionBuilders.weightFactorFunction(5)));
-            filterFunctionBuilders.add(new FunctionScoreQueryBuilder.FilterFunctionBuilder(QueryBuilders.matchQuery("productCategoryId", productCategoryId),
-                    ScoreFunctionBuilders.weightFactorFunction(3)));
-            FunctionScoreQueryBuilder.FilterFunctionBuilder[] builders = new FunctionScoreQueryBuilder.FilterFunctionBuilder[filterFunctionBuilders.size()];
-            filterFunctionBuilders.toArray(builders);
-            FunctionScoreQueryBuilder functionScoreQueryBuilder = QueryBuilders.functionScoreQuery(builders)
-                    .scoreMode(FunctionScoreQuery.ScoreMode.SUM)
-                    .setMinScore(2);
-            //用于过滤掉相同的商品
-            BoolQueryBuilder boolQueryBuilder = new BoolQueryBuilder();
-            boolQueryBuilder.mustNot(QueryBuilders.termQuery("id",id));
-            //构建查询条件
-            NativeSearchQueryBuilder builder = new NativeSearchQueryBuilder();
-            builder.withQuery(functionScoreQueryBuilder);
-            builder.withFilter(boolQueryBuilder);
-            builder.withPageable(pageable);
-            NativeSearchQuery searchQuery = builder.build();
-            LOGGER.info("DSL:{}", searchQuery.getQuery().toString());
-            SearchHits<EsProduct> searchHits = elasticsearchRestTemplate.search(searchQuery, EsProduct.class);
+        String key = id + ":" + pageNum + ":" + pageSize;
+        return getOrLoad(recommendCache, key, () -> {
+            EsProduct esProduct = getRecommendSeeds(Collections.singletonList(id)).get(id);
+            if (esProduct == null) {
+                return new PageImpl<>(ListUtil.empty());
+            }
+            SearchHits<EsProduct> searchHits = elasticsearchRestTemplate.search(buildRecommendQuery(esProduct, pageable), EsProduct.class);
             if(searchHits.getTotalHits()<=0){
                 return new PageImpl<>(ListUtil.empty(),pageable,0);
             }
             List<EsProduct> searchProductList = searchHits.stream().map(SearchHit::getContent).collect(Collectors.toList());
             return new PageImpl<>(searchProductList,pageable,searchHits.getTotalHits());
+        });
+    }
+
+    @Override
+    public Page<EsProductSummary> recommendSummary(Long id, Integer pageNum, Integer pageSize) {
+        Pageable pageable = PageRequest.of(pageNum, pageSize);
+        String key = id + ":" + pageNum + ":" + pageSize;
+        return getOrLoad(recommendSummaryCache, key, () -> {
+            EsProduct esProduct = getRecommendSeeds(Collections.singletonList(id)).get(id);
+            if (esProduct == null) {
+                return new PageImpl<>(ListUtil.empty());
+            }
+            IndexCoordinates index = elasticsearchRestTemplate.getIndexCoordinatesFor(EsProduct.class);
+            SearchHits<EsProductSummary> searchHits = elasticsearchRestTemplate.search(buildRecommendSummaryQuery(esProduct, pageable),
+                    EsProductSummary.class, index);
+            return toSummaryPage(searchHits, pageable);
+        });
+    }
+
+    @Override
+    public Map<Long, List<EsProductSummary>> recommendBatch(List<Long> ids, Integer size) {
+        if (ids.size() > RECOMMEND_BATCH_MAX_SIZE) {
+            Asserts.fail("批量推荐的商品数量不能超过" + RECOMMEND_BATCH_MAX_SIZE);
+        }
+        Pageable pageable = PageRequest.of(0, size);
+        //与单个商品的推荐共用缓存，未命中的商品在一次多重搜索中查询
+        Map<Long, List<EsProductSummary>> result = new LinkedHashMap<>();
+        List<Long> missIds = new ArrayList<>();
+        for (Long id : ids) {
+            if (result.containsKey(id)) {
+                continue;
+            }
+            CompletableFuture<Page<EsProductSummary>> cached = recommendSummaryCache.getIfPresent(id + ":0:" + size);
+            if (cached != null && cached.isDone() && !cached.isCompletedExceptionally()) {
+                result.put(id, cached.join().getContent());
+            } else {
+                result.put(id, ListUtil.empty());
+                missIds.add(id);
+            }
+        }
+        if (missIds.isEmpty()) {
+            return result;
+        }
+        Map<Long, EsProduct> seedMap = getRecommendSeeds(missIds);
+        List<Long> queryIds = new ArrayList<>();
+        List<Query> queries = new ArrayList<>();
+        for (Long id : missIds) {
+            EsProduct esProduct = seedMap.get(id);
+            if (esProduct == null) {
+                Page<EsProductSummary> emptyPage = new PageImpl<>(ListUtil.empty());
+                recommendSummaryCache.put(id + ":0:" + size, CompletableFuture.completedFuture(emptyPage));
+                continue;
+            }
+            queryIds.add(id);
+            queries.add(buildRecommendSummaryQuery(esProduct, pageable));
+        }
+        if (queries.isEmpty()) {
+            return result;
+        }
+        IndexCoordinates index = elasticsearchRestTemplate.getIndexCoordinatesFor(EsProduct.class);
+        List<SearchHits<EsProductSummary>> searchHitsList = elasticsearchRestTemplate.multiSearch(queries, EsProductSummary.class, index);
+        for (int i = 0; i < queryIds.size(); i++) {
+            Long id = queryIds.get(i);
+            Page<EsProductSummary> page = toSummaryPage(searchHitsList.get(i), pageable);
+            recommendSummaryCache.put(id + ":0:" + size, CompletableFuture.completedFuture(page));
+            result.put(id, page.getContent());
+        }
+        return result;
+    }
+
+    @Override
+    public void evictRecommend(Collection<Long> ids) {
+        if (CollectionUtils.isEmpty(ids)) {
+            return;
+        }
+        Set<Long> idSet = new HashSet<>(ids);
+        evictRecommend(recommendCache, idSet, EsProduct::getId);
+        evictRecommend(recommendSummaryCache, idSet, EsProductSummary::getId);
+    }
+
+    /**
+     * 删除推荐商品为指定商品或推荐结果中含有指定商品的缓存，查询中的结果可能读到变更前的数据，一并删除
+     */
+    private <T> void evictRecommend(AsyncCache<String, Page<T>> cache, Set<Long> ids, Function<T, Long> idGetter) {
+        cache.asMap().entrySet().removeIf(entry -> {
+            CompletableFuture<Page<T>> future = entry.getValue();
+            if (!future.isDone() || future.isCompletedExceptionally()
+                    || ids.contains(Long.valueOf(StrUtil.subBefore(entry.getKey(), ":", false)))) {
+                return true;
+            }
+            return future.join().getContent().stream().map(idGetter).anyMatch(ids::contains);
+        });
+    }
+
+    /**
+     * 从索引中读取推荐查询需要的商品信息，索引中只有已上架的商品，未上架的商品不返回
+     */
+    private Map<Long, EsProduct> getRecommendSeeds(List<Long> ids) {
+        NativeSearchQuery query = new NativeSearchQueryBuilder()
+                .withIds(ids.stream().map(String::valueOf).collect(Collectors.toList()))
+                .withSourceFilter(new FetchSourceFilter(RECOMMEND_SEED_FIELDS, null))
+                .build();
+        Map<Long, EsProduct> seedMap = new HashMap<>();
+        for (MultiGetItem<EsProduct> item : elasticsearchRestTemplate.multiGet(query, EsProduct.class)) {
+            if (item.hasItem()) {
+                seedMap.put(item.getItem().getId(), item.getItem());
+            }
+        }
+        return seedMap;
+    }
+
+    private NativeSearchQuery buildRecommendSummaryQuery(EsProduct esProduct, Pageable pageable) {
+        NativeSearchQuery searchQuery = buildRecommendQuery(esProduct, pageable);
+        searchQuery.addSourceFilter(new FetchSourceFilter(EsProductSummary.SOURCE_FIELDS, null));
+        return searchQuery;
+    }
+
+    private Page<EsProductSummary> toSummaryPage(SearchHits<EsProductSummary> searchHits, Pageable pageable) {
+        List<EsProductSummary> summaryList = searchHits.stream().map(SearchHit::getContent).collect(Collectors.toList());
+        return new PageImpl<>(summaryList, pageable, searchHits.getTotalHits());
+    }
+
+    /**
+     * 根据商品标题、品牌、分类构建推荐查询，排除商品本身
+     */
+    private NativeSearchQuery buildRecommendQuery(EsProduct esProduct, Pageable pageable) {
+        Long id = esProduct.getId();
+        String keyword = esProduct.getName();
+        Long brandId = esProduct.getBrandId();
+        Long productCategoryId = esProduct.getProductCategoryId();
+        List<FunctionScoreQueryBuilder.FilterFunctionBuilder> filterFunctionBuilders = new ArrayList<>();
+        filterFunctionBuilders.add(new FunctionScoreQueryBuilder.FilterFunctionBuilder(QueryBuilders.matchQuery("name", keyword),
+                ScoreFunctionBuilders.weightFactorFunction(8)));
+        filterFunctionBuilders.add(new FunctionScoreQueryBuilder.FilterFunctionBuilder(QueryBuilders.matchQuery("subTitle", keyword),
+                ScoreFunctionBuilders.weightFactorFunction(2)));
+        filterFunctionBuilders.add(new FunctionScoreQueryBuilder.FilterFunctionBuilder(QueryBuilders.matchQuery("keywords", keyword),
+                ScoreFunctionBuilders.weightFactorFunction(2)));
+        filterFunctionBuilders.add(new FunctionScoreQueryBuilder.FilterFunctionBuilder(QueryBuilders.matchQuery("brandId", brandId),
+                ScoreFunctionBuilders.weightFactorFunction(5)));
+        filterFunctionBuilders.add(new FunctionScoreQueryBuilder.FilterFunctionBuilder(QueryBuilders.matchQuery("productCategoryId", productCategoryId),
+                ScoreFunctionBuilders.weightFactorFunction(3)));
+        FunctionScoreQueryBuilder.FilterFunctionBuilder[] builders = new FunctionScoreQueryBuilder.FilterFunctionBuilder[filterFunctionBuilders.size()];
+        filterFunctionBuilders.toArray(builders);
+        FunctionScoreQueryBuilder functionScoreQueryBuilder = QueryBuilders.functionScoreQuery(builders)
+                .scoreMode(FunctionScoreQuery.ScoreMode.SUM)
+                .setMinScore(2);
+        //用于过滤掉相同的商品
+        BoolQueryBuilder boolQueryBuilder = new BoolQueryBuilder();
+        boolQueryBuilder.mustNot(QueryBuilders.termQuery("id",id));
+        //构建查询条件
+        NativeSearchQueryBuilder builder = new NativeSearchQueryBuilder();
+        builder.withQuery(functionScoreQueryBuilder);
+        builder.withFilter(boolQueryBuilder);
+        builder.withPageable(pageable);
+        NativeSearchQuery searchQuery = builder.build();
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("DSL:{}", searchQuery.getQuery().toString());
         }
-        return new PageImpl<>(ListUtil.empty());
+        return searchQuery;
     }
 
     @Override
     public EsProductRelatedInfo searchRelatedInfo(String keyword) {
+        String normalizedKeyword = normalizeKeyword(keyword);
+        String key = indexGeneration.current() + ":" + normalizedKeyword;
+        return getOrLoad(facetCache, key, () -> loadRelatedInfo(normalizedKeyword));
+    }
+
+    /**
+     * 从缓存中获取结果，相同键的并发请求共用同一次查询，查询失败时不缓存
+     */
+    private <T> T getOrLoad(AsyncCache<String, T> cache, String key, Supplier<T> loader) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        CompletableFuture<T> prior = cache.asMap().putIfAbsent(key, future);
+        if (prior == null) {
+            try {
+                future.complete(loader.get());
+            } catch (RuntimeException e) {
+                future.completeExceptionally(e);
+                throw e;
+            }
+            return future.join();
+        }
+        try {
+            return prior.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        }
+    }
+
+    /**
+     * 规范化关键字：去除首尾空白、合并连续空白并转为小写
+     */
+    private String normalizeKeyword(String keyword) {
+        if (StrUtil.isBlank(keyword)) {
+            return "";
+        }
+        return keyword.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+
+    private EsProductRelatedInfo loadRelatedInfo(String keyword) {
         NativeSearchQueryBuilder builder = new NativeSearchQueryBuilder();
         //搜索条件
         if(StrUtil.isEmpty(keyword)){
@@ -0,0 +1,63 @@
+package com.macro.mall.search.service.impl;
+
+import com.macro.mall.common.exception.ApiException;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Objects;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * 商品搜索游标编码及解码单元测试
+ */
+public class EsProductCursorTests {
+    private static final int QUERY_HASH = Objects.hash("手机", 1L, null, 0);
+
+    @Test
+    public void testRoundTrip() {
+        List<Object> sortValues = Arrays.asList(1.5, 27L, "2023-01-01");
+        String cursor = EsProductServiceImpl.encodeCursor(sortValues, QUERY_HASH);
+        //游标用于URL参数，不能包含需要转义的字符
+        assertFalse(cursor.contains("+") || cursor.contains("/") || cursor.contains("="), cursor);
+        List<Object> decoded = EsProductServiceImpl.decodeCursor(cursor, QUERY_HASH);
+        assertEquals(3, decoded.size());
+        assertEquals(1.5, ((Number) decoded.get(0)).doubleValue());
+        assertEquals(27L, ((Number) decoded.get(1)).longValue());
+        assertEquals("2023-01-01", decoded.get(2));
+    }
+
+    @Test
+    public void testLargeIdKeepsPrecision() {
+        long id = Long.MAX_VALUE - 1;
+        String cursor = EsProductServiceImpl.encodeCursor(Arrays.asList(100, id), QUERY_HASH);
+        List<Object> decoded = EsProductServiceImpl.decodeCursor(cursor, QUERY_HASH);
+        assertEquals(id, ((Number) decoded.get(1)).longValue());
+    }
+
+    @Test
+    public void testQueryMismatch() {
+        String cursor = EsProductServiceImpl.encodeCursor(Arrays.asList(1, 2L), QUERY_HASH);
+        //查询条件变化后游标失效
+        int otherHash = Objects.hash("手机", 2L, null, 0);
+        assertThrows(ApiException.class, () -> EsProductServiceImpl.decodeCursor(cursor, otherHash));
+    }
+
+    @Test
+    public void testInvalidCursor() {
+        assertThrows(ApiException.class, () -> EsProductServiceImpl.decodeCursor("not a cursor!", QUERY_HASH));
+        assertThrows(ApiException.class, () -> EsProductServiceImpl.decodeCursor(encode("{\"a\":1}"), QUERY_HASH));
+        //只有查询哈希没有排序值
+        assertThrows(ApiException.class, () -> EsProductServiceImpl.decodeCursor(encode("[" + QUERY_HASH + "]"), QUERY_HASH));
+        assertThrows(ApiException.class, () -> EsProductServiceImpl.decodeCursor(encode("[\"abc\",1]"), QUERY_HASH));
+    }
+
+    private static String encode(String json) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(json.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -8,6 +8,7 @@ import org.springframework.security.authentication.InsufficientAuthenticationExc
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.GrantedAuthority;
 
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Iterator;
 
@@ -24,6 +25,24 @@ public class DynamicAccessDecisionManager implements AccessDecisionManager {
         if (CollUtil.isEmpty(configAttributes)) {
             return;
         }
+        //用户拥有资源位图时按资源序号判断，无需比对字符串
+        Object principal = authentication.getPrincipal();
+        if (principal instanceof ResourceUserDetails) {
+            BitSet resourceBitSet = ((ResourceUserDetails) principal).getResourceBitSet();
+            boolean allIndexed = true;
+            for (ConfigAttribute configAttribute : configAttributes) {
+                if (configAttribute instanceof ResourceConfigAttribute) {
+                    if (resourceBitSet.get(((ResourceConfigAttribute) configAttribute).getResourceOrdinal())) {
+                        return;
+                    }
+                } else {
+                    allIndexed = false;
+                }
+            }
+            if (allIndexed) {
+                throw new AccessDeniedException("抱歉，您没有访问权限");
+            }
+        }
         Iterator<ConfigAttribute> iterator = configAttributes.iterator();
         while (iterator.hasNext()) {
             ConfigAttribute configAttribute = iterator.next();
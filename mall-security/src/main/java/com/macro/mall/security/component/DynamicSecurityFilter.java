@@ -1,14 +1,13 @@
 package com.macro.mall.security.component;
 
 import com.macro.mall.security.config.IgnoreUrlsConfig;
+import com.macro.mall.security.util.PathPatternTrie;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpMethod;
 import org.springframework.security.access.SecurityMetadataSource;
 import org.springframework.security.access.intercept.AbstractSecurityInterceptor;
 import org.springframework.security.access.intercept.InterceptorStatusToken;
 import org.springframework.security.web.FilterInvocation;
-import org.springframework.util.AntPathMatcher;
-import org.springframework.util.PathMatcher;
 
 import javax.servlet.*;
 import javax.servlet.http.HttpServletRequest;
@@ -24,6 +23,10 @@ public class DynamicSecurityFilter extends AbstractSecurityInterceptor implement
     private DynamicSecurityMetadataSource dynamicSecurityMetadataSource;
     @Autowired
     private IgnoreUrlsConfig ignoreUrlsConfig;
+    /**
+     * 白名单路径索引，白名单配置不会在运行时修改，首次使用时构建
+     */
+    private volatile PathPatternTrie<String> ignoreUrlTrie;
 
     @Autowired
     public void setMyAccessDecisionManager(DynamicAccessDecisionManager dynamicAccessDecisionManager) {
@@ -44,12 +47,9 @@ public class DynamicSecurityFilter extends AbstractSecurityInterceptor implement
             return;
         }
         //白名单请求直接放行
-        PathMatcher pathMatcher = new AntPathMatcher();
-        for (String path : ignoreUrlsConfig.getUrls()) {
-            if(pathMatcher.match(path,request.getRequestURI())){
-                fi.getChain().doFilter(fi.getRequest(), fi.getResponse());
-                return;
-            }
+        if(getIgnoreUrlTrie().matches(request.getRequestURI())){
+            fi.getChain().doFilter(fi.getRequest(), fi.getResponse());
+            return;
         }
         //此处会调用AccessDecisionManager中的decide方法进行鉴权操作
         InterceptorStatusToken token = super.beforeInvocation(fi);
@@ -64,6 +64,18 @@ public class DynamicSecurityFilter extends AbstractSecurityInterceptor implement
     public void destroy() {
     }
 
+    private PathPatternTrie<String> getIgnoreUrlTrie() {
+        PathPatternTrie<String> trie = ignoreUrlTrie;
+        if (trie == null) {
+            trie = new PathPatternTrie<>();
+            for (String path : ignoreUrlsConfig.getUrls()) {
+                trie.add(path, path);
+            }
+            ignoreUrlTrie = trie;
+        }
+        return trie;
+    }
+
     @Override
     public Class<?> getSecureObjectClass() {
         return FilterInvocation.class;
@@ -1,54 +1,47 @@
 package com.macro.mall.security.component;
 
 import cn.hutool.core.util.URLUtil;
+import com.macro.mall.security.util.PathPatternTrie;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.access.ConfigAttribute;
 import org.springframework.security.web.FilterInvocation;
 import org.springframework.security.web.access.intercept.FilterInvocationSecurityMetadataSource;
-import org.springframework.util.AntPathMatcher;
-import org.springframework.util.PathMatcher;
 
 import javax.annotation.PostConstruct;
 import java.util.*;
 
 /**
  * 动态权限数据源，用于获取动态权限规则
+ * 资源路径加载后编译为按分段索引的前缀树，资源变更时重新构建并整体替换
  * Created by macro on 2020/2/7.
  */
 public class DynamicSecurityMetadataSource implements FilterInvocationSecurityMetadataSource {
 
-    private static Map<String, ConfigAttribute> configAttributeMap = null;
+    private volatile PathPatternTrie<ConfigAttribute> configAttributeTrie = null;
     @Autowired
     private DynamicSecurityService dynamicSecurityService;
 
     @PostConstruct
     public void loadDataSource() {
-        configAttributeMap = dynamicSecurityService.loadDataSource();
+        configAttributeTrie = buildTrie(dynamicSecurityService.loadDataSource());
     }
 
     public void clearDataSource() {
-        configAttributeMap.clear();
-        configAttributeMap = null;
+        configAttributeTrie = null;
     }
 
     @Override
     public Collection<ConfigAttribute> getAttributes(Object o) throws IllegalArgumentException {
-        if (configAttributeMap == null) this.loadDataSource();
-        List<ConfigAttribute>  configAttributes = new ArrayList<>();
+        PathPatternTrie<ConfigAttribute> trie = configAttributeTrie;
+        if (trie == null) {
+            trie = buildTrie(dynamicSecurityService.loadDataSource());
+            configAttributeTrie = trie;
+        }
         //获取当前访问的路径
         String url = ((FilterInvocation) o).getRequestUrl();
         String path = URLUtil.getPath(url);
-        PathMatcher pathMatcher = new AntPathMatcher();
-        Iterator<String> iterator = configAttributeMap.keySet().iterator();
-        //获取访问该路径所需资源
-        while (iterator.hasNext()) {
-            String pattern = iterator.next();
-            if (pathMatcher.match(pattern, path)) {
-                configAttributes.add(configAttributeMap.get(pattern));
-            }
-        }
-        // 未设置操作请求权限，返回空集合
-        return configAttributes;
+        //获取访问该路径所需资源，未设置操作请求权限时返回空集合
+        return trie.match(path);
     }
 
     @Override
@@ -61,4 +54,12 @@ public class DynamicSecurityMetadataSource implements FilterInvocationSecurityMe
         return true;
     }
 
+    private PathPatternTrie<ConfigAttribute> buildTrie(Map<String, ConfigAttribute> configAttributeMap) {
+        PathPatternTrie<ConfigAttribute> trie = new PathPatternTrie<>();
+        for (Map.Entry<String, ConfigAttribute> entry : configAttributeMap.entrySet()) {
+            trie.add(entry.getKey(), entry.getValue());
+        }
+        return trie;
+    }
+
 }
@@ -0,0 +1,19 @@
+package com.macro.mall.security.component;
+
+import org.springframework.security.access.SecurityConfig;
+
+/**
+ * 带资源序号的访问权限配置，序号与ResourceUserDetails中资源位图的下标对应
+ */
+public class ResourceConfigAttribute extends SecurityConfig {
+    private final int resourceOrdinal;
+
+    public ResourceConfigAttribute(int resourceOrdinal, String config) {
+        super(config);
+        this.resourceOrdinal = resourceOrdinal;
+    }
+
+    public int getResourceOrdinal() {
+        return resourceOrdinal;
+    }
+}
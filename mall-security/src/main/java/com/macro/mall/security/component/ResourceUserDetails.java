@@ -0,0 +1,15 @@
+package com.macro.mall.security.component;
+
+import org.springframework.security.core.userdetails.UserDetails;
+
+import java.util.BitSet;
+
+/**
+ * 以位图保存所拥有资源的用户信息，用于动态权限决策时按资源序号快速判断
+ */
+public interface ResourceUserDetails extends UserDetails {
+    /**
+     * 获取用户拥有资源的位图，下标为ResourceConfigAttribute中的资源序号，使用方不应修改
+     */
+    BitSet getResourceBitSet();
+}
@@ -0,0 +1,40 @@
+package com.macro.mall.security.util;
+
+import java.util.Date;
+
+/**
+ * 已通过签名验证的JWT负载，创建后不可修改
+ */
+public class JwtTokenClaims {
+    //登录用户名
+    private final String username;
+    //token创建时间
+    private final long created;
+    //token过期时间
+    private final long expiration;
+
+    public JwtTokenClaims(String username, Date created, Date expiration) {
+        this.username = username;
+        this.created = created == null ? 0 : created.getTime();
+        this.expiration = expiration == null ? 0 : expiration.getTime();
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public Date getCreated() {
+        return new Date(created);
+    }
+
+    public Date getExpiration() {
+        return new Date(expiration);
+    }
+
+    /**
+     * 判断token是否已经失效
+     */
+    public boolean isExpired() {
+        return expiration < System.currentTimeMillis();
+    }
+}
@@ -2,6 +2,9 @@ package com.macro.mall.security.util;
 
 import cn.hutool.core.date.DateUtil;
 import cn.hutool.core.util.StrUtil;
+import cn.hutool.crypto.digest.DigestUtil;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import io.jsonwebtoken.Claims;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.SignatureAlgorithm;
@@ -10,9 +13,11 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.core.userdetails.UserDetails;
 
+import javax.annotation.PostConstruct;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * JwtToken生成的工具类
@@ -23,6 +28,7 @@ import java.util.Map;
  * {"sub":"wang","created":1489079981393,"exp":1489684781}
  * signature的生成算法：
  * HMACSHA512(base64UrlEncode(header) + "." +base64UrlEncode(payload),secret)
+ * 已验证的token可按摘要缓存负载，重复请求无需再次验证签名
  * Created by macro on 2018/4/26.
  */
 public class JwtTokenUtil {
@@ -35,6 +41,24 @@ public class JwtTokenUtil {
     private Long expiration;
     @Value("${jwt.tokenHead}")
     private String tokenHead;
+    @Value("${jwt.cache.maxSize:0}")
+    private Long cacheMaxSize;
+    @Value("${jwt.cache.expireSeconds:300}")
+    private Long cacheExpireSeconds;
+    /**
+     * token的SHA-256摘要与已验证负载的缓存，未配置缓存数量时为null
+     */
+    private Cache<String, JwtTokenClaims> tokenCache;
+
+    @PostConstruct
+    public void init() {
+        if (cacheMaxSize != null && cacheMaxSize > 0) {
+            tokenCache = Caffeine.newBuilder()
+                    .maximumSize(cacheMaxSize)
+                    .expireAfterWrite(cacheExpireSeconds, TimeUnit.SECONDS)
+                    .build();
+        }
+    }
 
     /**
      * 根据负责生成JWT的token
@@ -70,18 +94,41 @@ public class JwtTokenUtil {
         return new Date(System.currentTimeMillis() + expiration * 1000);
     }
 
+    /**
+     * 验证token签名并解析负载，验证失败或已过期时返回null
+     */
+    public JwtTokenClaims parseToken(String token) {
+        if (StrUtil.isEmpty(token)) {
+            return null;
+        }
+        String digest = tokenCache == null ? null : DigestUtil.sha256Hex(token);
+        if (digest != null) {
+            JwtTokenClaims tokenClaims = tokenCache.getIfPresent(digest);
+            if (tokenClaims != null) {
+                if (!tokenClaims.isExpired()) {
+                    return tokenClaims;
+                }
+                tokenCache.invalidate(digest);
+                return null;
+            }
+        }
+        Claims claims = getClaimsFromToken(token);
+        if (claims == null) {
+            return null;
+        }
+        JwtTokenClaims tokenClaims = new JwtTokenClaims(claims.getSubject(), claims.get(CLAIM_KEY_CREATED, Date.class), claims.getExpiration());
+        if (digest != null) {
+            tokenCache.put(digest, tokenClaims);
+        }
+        return tokenClaims;
+    }
+
     /**
      * 从token中获取登录用户名
      */
     public String getUserNameFromToken(String token) {
-        String username;
-        try {
-            Claims claims = getClaimsFromToken(token);
-            username = claims.getSubject();
-        } catch (Exception e) {
-            username = null;
-        }
-        return username;
+        JwtTokenClaims tokenClaims = parseToken(token);
+        return tokenClaims == null ? null : tokenClaims.getUsername();
     }
 
     /**
@@ -91,24 +138,17 @@ public class JwtTokenUtil {
      * @param userDetails 从数据库中查询出来的用户信息
      */
     public boolean validateToken(String token, UserDetails userDetails) {
-        String username = getUserNameFromToken(token);
-        return username.equals(userDetails.getUsername()) && !isTokenExpired(token);
+        return validateToken(parseToken(token), userDetails);
     }
 
     /**
-     * 判断token是否已经失效
-     */
-    private boolean isTokenExpired(String token) {
-        Date expiredDate = getExpiredDateFromToken(token);
-        return expiredDate.before(new Date());
-    }
-
-    /**
-     * 从token中获取过期时间
+     * 验证已解析的token是否还有效
+     *
+     * @param tokenClaims 通过parseToken解析的负载
+     * @param userDetails 从数据库中查询出来的用户信息
      */
-    private Date getExpiredDateFromToken(String token) {
-        Claims claims = getClaimsFromToken(token);
-        return claims.getExpiration();
+    public boolean validateToken(JwtTokenClaims tokenClaims, UserDetails userDetails) {
+        return tokenClaims != null && tokenClaims.getUsername().equals(userDetails.getUsername()) && !tokenClaims.isExpired();
     }
 
     /**
@@ -140,11 +180,11 @@ public class JwtTokenUtil {
             return null;
         }
         //如果token已经过期，不支持刷新
-        if(isTokenExpired(token)){
+        if(claims.getExpiration().before(new Date())){
             return null;
         }
         //如果token在30分钟之内刚刷新过，返回原token
-        if(tokenRefreshJustBefore(token,30*60)){
+        if(tokenRefreshJustBefore(claims,30*60)){
             return token;
         }else{
             claims.put(CLAIM_KEY_CREATED, new Date());
@@ -154,11 +194,10 @@ public class JwtTokenUtil {
 
     /**
      * 判断token在指定时间内是否刚刚刷新过
-     * @param token 原token
+     * @param claims 原token的负载
      * @param time 指定时间（秒）
      */
-    private boolean tokenRefreshJustBefore(String token, int time) {
-        Claims claims = getClaimsFromToken(token);
+    private boolean tokenRefreshJustBefore(Claims claims, int time) {
         Date created = claims.get(CLAIM_KEY_CREATED, Date.class);
         Date refreshDate = new Date();
         //刷新时间在创建时间的指定时间内
@@ -0,0 +1,147 @@
+package com.macro.mall.security.util;
+
+import org.springframework.util.AntPathMatcher;
+
+import java.util.*;
+
+/**
+ * 按路径分段预编译的ANT通配符索引
+ * 普通分段通过哈希查找，“*”、“**”及含通配符的分段作为通配节点，查找时只按分段筛选出可能匹配的模式，
+ * 不处理末尾分隔符等细节规则，筛选出的模式再由AntPathMatcher逐个确认，匹配结果与AntPathMatcher完全一致；
+ * 查找耗时主要与路径深度及候选模式数量相关，与模式总数无关。
+ * 构建完成后只读，可在多线程间共享，修改规则时应重新构建并整体替换。
+ */
+public class PathPatternTrie<T> {
+    private static final String SEPARATOR = "/";
+    private static final String WILDCARD = "*";
+    private static final String MULTI_WILDCARD = "**";
+    /**
+     * 用于含通配符的单个分段匹配及候选模式的最终确认，AntPathMatcher是线程安全的
+     */
+    private static final AntPathMatcher PATH_MATCHER = new AntPathMatcher();
+    private final Node<T> root = new Node<>();
+    private int size;
+
+    /**
+     * 添加模式及其对应的值，同一模式重复添加时保留全部值
+     */
+    public void add(String pattern, T value) {
+        Node<T> node = root;
+        for (String segment : tokenize(pattern)) {
+            node = node.child(segment);
+        }
+        node.entries.add(new Entry<>(pattern, value));
+        size++;
+    }
+
+    /**
+     * 获取所有与路径匹配的模式对应的值
+     */
+    public List<T> match(String path) {
+        //同一模式可能经由“**”的不同展开多次成为候选，按模式去重
+        Set<Entry<T>> candidates = new LinkedHashSet<>();
+        collect(root, tokenize(path), 0, candidates);
+        List<T> result = new ArrayList<>(candidates.size());
+        for (Entry<T> entry : candidates) {
+            if (PATH_MATCHER.match(entry.pattern, path)) {
+                result.add(entry.value);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 判断是否存在与路径匹配的模式
+     */
+    public boolean matches(String path) {
+        return !match(path).isEmpty();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 收集分段可能匹配的候选模式，结果包含所有AntPathMatcher会匹配的模式，可能多于实际匹配的模式
+     */
+    private void collect(Node<T> node, String[] segments, int index, Set<Entry<T>> result) {
+        if (index == segments.length) {
+            result.addAll(node.entries);
+            //以“*”结尾的模式可匹配以分隔符结尾的上级路径
+            if (node.wildcardChild != null) {
+                result.addAll(node.wildcardChild.entries);
+            }
+        } else {
+            String segment = segments[index];
+            Node<T> literal = node.literalChildren.get(segment);
+            if (literal != null) {
+                collect(literal, segments, index + 1, result);
+            }
+            if (node.wildcardChild != null) {
+                collect(node.wildcardChild, segments, index + 1, result);
+            }
+            for (Map.Entry<String, Node<T>> entry : node.patternChildren.entrySet()) {
+                if (PATH_MATCHER.match(entry.getKey(), segment)) {
+                    collect(entry.getValue(), segments, index + 1, result);
+                }
+            }
+        }
+        if (node.multiWildcardChild != null) {
+            //“**”可匹配0个或多个分段
+            for (int i = index; i <= segments.length; i++) {
+                collect(node.multiWildcardChild, segments, i, result);
+            }
+        }
+    }
+
+    private static String[] tokenize(String path) {
+        List<String> segments = new ArrayList<>();
+        for (String segment : path.split(SEPARATOR)) {
+            if (!segment.isEmpty()) {
+                segments.add(segment);
+            }
+        }
+        return segments.toArray(new String[0]);
+    }
+
+    private static boolean isPattern(String segment) {
+        return segment.indexOf('*') != -1 || segment.indexOf('?') != -1 || segment.indexOf('{') != -1;
+    }
+
+    private static class Node<T> {
+        private final Map<String, Node<T>> literalChildren = new HashMap<>();
+        private final Map<String, Node<T>> patternChildren = new LinkedHashMap<>();
+        private Node<T> wildcardChild;
+        private Node<T> multiWildcardChild;
+        private final List<Entry<T>> entries = new ArrayList<>();
+
+        private Node<T> child(String segment) {
+            if (MULTI_WILDCARD.equals(segment)) {
+                if (multiWildcardChild == null) {
+                    multiWildcardChild = new Node<>();
+                }
+                return multiWildcardChild;
+            }
+            if (WILDCARD.equals(segment)) {
+                if (wildcardChild == null) {
+                    wildcardChild = new Node<>();
+                }
+                return wildcardChild;
+            }
+            if (isPattern(segment)) {
+                return patternChildren.computeIfAbsent(segment, key -> new Node<>());
+            }
+            return literalChildren.computeIfAbsent(segment, key -> new Node<>());
+        }
+    }
+
+    private static class Entry<T> {
+        private final String pattern;
+        private final T value;
+
+        private Entry(String pattern, T value) {
+            this.pattern = pattern;
+            this.value = value;
+        }
+    }
+}
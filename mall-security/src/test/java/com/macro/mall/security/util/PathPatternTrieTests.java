@@ -0,0 +1,84 @@
+package com.macro.mall.security.util;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.util.AntPathMatcher;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 路径模式索引单元测试，匹配结果应与AntPathMatcher完全一致
+ */
+public class PathPatternTrieTests {
+    private static final String[] PATTERN_SEGMENTS = {"a", "b", "c", "*", "**", "a*", "?b", "{id}", "b*c"};
+    private static final String[] PATH_SEGMENTS = {"a", "b", "c", "ab", "bc", "abc", ""};
+    private final AntPathMatcher antPathMatcher = new AntPathMatcher();
+
+    @Test
+    public void testTrailingSlash() {
+        assertMatchSame("/a/**/b", "/a/b/");
+        assertMatchSame("/a/**/b", "/a/b");
+        assertMatchSame("/a/*", "/a/");
+        assertMatchSame("/a/*", "/a");
+        assertMatchSame("/a/b/", "/a/b");
+        assertMatchSame("/a/**", "/a/");
+        assertMatchSame("/**/b/", "/b");
+    }
+
+    @Test
+    public void testRandomSinglePattern() {
+        Random random = new Random(20240601L);
+        for (int i = 0; i < 200000; i++) {
+            assertMatchSame(randomPath(random, PATTERN_SEGMENTS), randomPath(random, PATH_SEGMENTS));
+        }
+    }
+
+    @Test
+    public void testRandomPatternSet() {
+        Random random = new Random(20240602L);
+        for (int i = 0; i < 2000; i++) {
+            List<String> patterns = new ArrayList<>();
+            PathPatternTrie<String> trie = new PathPatternTrie<>();
+            for (int j = 0; j < 20; j++) {
+                String pattern = randomPath(random, PATTERN_SEGMENTS);
+                patterns.add(pattern);
+                trie.add(pattern, pattern);
+            }
+            for (int j = 0; j < 20; j++) {
+                String path = randomPath(random, PATH_SEGMENTS);
+                List<String> expected = new ArrayList<>();
+                for (String pattern : patterns) {
+                    if (antPathMatcher.match(pattern, path)) {
+                        expected.add(pattern);
+                    }
+                }
+                List<String> actual = trie.match(path);
+                Collections.sort(expected);
+                Collections.sort(actual);
+                assertEquals(expected, actual, "path: " + path + ", patterns: " + patterns);
+            }
+        }
+    }
+
+    private void assertMatchSame(String pattern, String path) {
+        PathPatternTrie<String> trie = new PathPatternTrie<>();
+        trie.add(pattern, pattern);
+        assertEquals(antPathMatcher.match(pattern, path), trie.matches(path), "pattern: " + pattern + ", path: " + path);
+    }
+
+    private static String randomPath(Random random, String[] segments) {
+        StringBuilder sb = new StringBuilder();
+        int count = random.nextInt(5);
+        for (int i = 0; i < count; i++) {
+            sb.append('/').append(segments[random.nextInt(segments.length)]);
+        }
+        if (count == 0 || random.nextInt(4) == 0) {
+            sb.append('/');
+        }
+        return sb.toString();
+    }
+}